@@ -18,7 +18,12 @@ package de.nx42.wotcrawler;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import org.slf4j.Logger;
@@ -29,9 +34,26 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.Identities;
 import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
 import de.nx42.wotcrawler.ext.Evaluator;
 import de.nx42.wotcrawler.ext.FieldDef;
+import de.nx42.wotcrawler.ext.Loadout;
+import de.nx42.wotcrawler.ext.ModuleMap;
+import de.nx42.wotcrawler.ext.NormalizationContext;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.ext.RatingProfile;
+import de.nx42.wotcrawler.ext.WeightSensitivity;
+import de.nx42.wotcrawler.index.FieldIndex;
+import de.nx42.wotcrawler.index.NameIndex;
+import de.nx42.wotcrawler.index.PredicateParser;
+import de.nx42.wotcrawler.index.TechTree;
+import de.nx42.wotcrawler.store.EntityStore;
+import de.nx42.wotcrawler.store.RatingCache;
+import de.nx42.wotcrawler.store.SnapshotHistory;
 import de.nx42.wotcrawler.util.Download;
 import de.nx42.wotcrawler.xml.Crawler;
 import de.nx42.wotcrawler.xml.Serializer;
@@ -69,6 +91,10 @@ public class Launcher {
         new CommandCrawl(),
         new CommandEvaluate(),
         new CommandExport(),
+        new CommandHistory(),
+        new CommandQuery(),
+        new CommandStore(),
+        new CommandSensitivity(),
         new CommandRunall()
     };
 
@@ -210,7 +236,7 @@ public class Launcher {
         @Override
         public void launch() {
             Crawler cr = new Crawler(folderLocal);
-            Serializer.serialize(TanksDB.class, cr.buildTankDB(), new File(dbFile));
+            Serializer.serializeDB(cr.buildTankDB(), new File(dbFile));
         }
 
     }
@@ -233,7 +259,9 @@ public class Launcher {
         /** The corresponding xml schema file to check that the database is valid */
         @Parameter(names = { "-sch", "--schema" },
                 description = "Optional: The corresponding xml schema file to "
-                + "check that the database is valid.")
+                + "check that the database is valid. Databases of older schema "
+                + "versions are upgraded automatically, so use the schema that "
+                + "matches the version of the database.")
         protected String schema;
 
         /** if set, the report will be written in this file (else on the command line) */
@@ -250,10 +278,10 @@ public class Launcher {
 
             if (schema != null) {
                 // use schema to validate
-                db = Serializer.deserialize(TanksDB.class, new File(dbFile), new File(schema));
+                db = Serializer.deserializeDB(new File(dbFile), new File(schema));
             } else {
                 // ignore schema
-                db = Serializer.deserialize(TanksDB.class, new File(dbFile));
+                db = Serializer.deserializeDB(new File(dbFile));
             }
 
             if (report != null) {
@@ -293,7 +321,9 @@ public class Launcher {
         /** The corresponding xml schema file to check that the database is valid */
         @Parameter(names = { "-sch", "--schema" },
                 description = "Optional: The corresponding xml schema file to "
-                + "check that the database is valid.")
+                + "check that the database is valid. Databases of older schema "
+                + "versions are upgraded automatically, so use the schema that "
+                + "matches the version of the database.")
         protected String schema;
 
         /** Path to store the detailed table in */
@@ -313,6 +343,41 @@ public class Launcher {
                 + "each tank to it's competitors.")
         protected String rating;
 
+        /** Profile with custom weights for the rating-table */
+        @Parameter(names = { "-wp", "--weights" },
+                description = "Optional: A rating profile (properties file) with custom "
+                + "weights for the rating tables. Weights that are not defined in the "
+                + "profile are taken from the default weights.")
+        protected String weights;
+
+        /** How the values are normalized for the rating tables */
+        @Parameter(names = { "-nm", "--normalization" },
+                description = "Optional: How the values are normalized for the rating tables: "
+                + "'best' (fraction of the best value of the tank type, default) or "
+                + "'percentile' (percentile among the tanks of the same type and battle tier).")
+        protected String normalization = "best";
+
+        /** Folder of the rating cache */
+        @Parameter(names = { "-rc", "--cache" },
+                description = "Optional: A folder where the rows of the rating tables are cached. "
+                + "The ratings are only calculated again, if the database, the weights or the "
+                + "normalization mode have changed.")
+        protected String cacheFolder;
+
+        /** Path to store the best loadouts in */
+        @Parameter(names = { "-lo", "--loadouts" },
+                description = "Rates every combination of modules of each tank, that does "
+                + "not exceed the load limit, and writes the best loadout of each tank "
+                + "for each rating category into this file.")
+        protected String loadouts;
+
+        /** Path to store the skyline in */
+        @Parameter(names = { "-sk", "--skyline" },
+                description = "Writes the skyline of each tank type and battle tier into this "
+                + "file: the stock and top loadouts, that are not worse than any other one "
+                + "in every rating category.")
+        protected String skyline;
+
         /**
          * Transforms and exports the data from the database in html tables
          */
@@ -322,13 +387,34 @@ public class Launcher {
             // build database
             TanksDB db;
             if (schema != null) {
-                db = Serializer.deserialize(TanksDB.class, new File(dbFile), new File(schema));
+                db = Serializer.deserializeDB(new File(dbFile), new File(schema));
             } else {
-                db = Serializer.deserialize(TanksDB.class, new File(dbFile));
+                db = Serializer.deserializeDB(new File(dbFile));
+            }
+
+            RatingProfile profile = RatingProfile.defaults();
+            if (weights != null) {
+                profile = RatingProfile.load(new File(weights));
+                if (profile == null) {
+                    return;
+                }
+            }
+            Mode mode = Mode.parse(normalization);
+            if (mode == null) {
+                System.err.println("Unknown normalization mode: " + normalization);
+                return;
+            }
+
+            RatingCache cache = null;
+            if (cacheFolder != null) {
+                cache = RatingCache.open(new File(cacheFolder));
             }
 
             // export
             Transformer tr = new Transformer(db);
+            tr.setProfile(profile);
+            tr.setNormalization(mode);
+            tr.setCache(cache);
             if(detailed != null) {
                 tr.writeTableTank(detailed, FieldDef.detailed_Combined);
             }
@@ -338,6 +424,442 @@ public class Launcher {
             if(rating != null) {
                 tr.writeRatingTable(rating);
             }
+            if (skyline != null) {
+                tr.writeSkyline(skyline);
+            }
+            if (loadouts != null) {
+                tr.writeLoadouts(loadouts);
+            }
+        }
+
+    }
+
+    /**
+     * History Command. Adds databases to a history folder or restores them.
+     */
+    @Parameters(commandDescription = "Stores several versions of the database in a history folder "
+            + "(only the changes between versions are stored) and restores them.")
+    protected class CommandHistory extends Command {
+
+        public CommandHistory() {
+            super("history", "hi");
+        }
+
+        /** The folder where the history is stored */
+        @Parameter(names = { "-f", "--folder" }, required = true,
+                description = "The folder where the history is stored.")
+        protected String folder;
+
+        /** Name of the version to add */
+        @Parameter(names = { "-a", "--add" },
+                description = "Adds the database given by --source under this version name.")
+        protected String add;
+
+        /** The XML database to add */
+        @Parameter(names = { "-src", "--source" },
+                description = "The XML database to add.")
+        protected String dbFile;
+
+        /** Name of the version to restore */
+        @Parameter(names = { "-g", "--get" },
+                description = "Restores this version of the database into the file given by --output.")
+        protected String get;
+
+        /** The file where the restored database is written to */
+        @Parameter(names = { "-o", "--output" },
+                description = "The file where the restored database is written to.")
+        protected String output;
+
+        /** The folder where the rating tables of all versions are written to */
+        @Parameter(names = { "-tr", "--rating" },
+                description = "Generates the rating tables of all versions in the history "
+                + "(in parallel) and stores them in this folder as table-rating-<version>.html")
+        protected String rating;
+
+        /** Profile with custom weights for the rating tables */
+        @Parameter(names = { "-wp", "--weights" },
+                description = "Optional: A rating profile (properties file) with custom "
+                + "weights for the rating tables.")
+        protected String weights;
+
+        /** How the values are normalized for the rating tables */
+        @Parameter(names = { "-nm", "--normalization" },
+                description = "Optional: How the values are normalized for the rating tables: "
+                + "'best' (fraction of the best value of the tank type, default) or "
+                + "'percentile' (percentile among the tanks of the same type and battle tier).")
+        protected String normalization = "best";
+
+        /** Folder of the rating cache */
+        @Parameter(names = { "-rc", "--cache" },
+                description = "Optional: A folder where the rows of the rating tables are cached. "
+                + "The ratings are only calculated again, if the database, the weights or the "
+                + "normalization mode have changed.")
+        protected String cacheFolder;
+
+        /**
+         * Adds and/or restores a database, writes the rating tables of all
+         * versions if requested, prints all versions in the history
+         */
+        @Override
+        public void launch() {
+            SnapshotHistory history = new SnapshotHistory(new File(folder));
+
+            if (add != null) {
+                if (dbFile == null) {
+                    System.err.println("Please specify the database to add with --source");
+                    return;
+                }
+                TanksDB db = Serializer.deserializeDB(new File(dbFile));
+                if (db != null) {
+                    history.add(add, db);
+                }
+            }
+            if (get != null) {
+                if (output == null) {
+                    System.err.println("Please specify the output file with --output");
+                    return;
+                }
+                TanksDB db = history.get(get);
+                if (db != null) {
+                    Serializer.serializeDB(db, new File(output));
+                }
+            }
+            if (rating != null) {
+                RatingProfile profile = RatingProfile.defaults();
+                if (weights != null) {
+                    profile = RatingProfile.load(new File(weights));
+                    if (profile == null) {
+                        return;
+                    }
+                }
+                Mode mode = Mode.parse(normalization);
+                if (mode == null) {
+                    System.err.println("Unknown normalization mode: " + normalization);
+                    return;
+                }
+                RatingCache cache = null;
+                if (cacheFolder != null) {
+                    cache = RatingCache.open(new File(cacheFolder));
+                }
+                File dir = new File(rating);
+                dir.mkdirs();
+                Map<String,TanksDB> jobs = new LinkedHashMap<String,TanksDB>();
+                for (String version : history.getVersions()) {
+                    jobs.put(new File(dir, "table-rating-" + version + ".html").getPath(), history.get(version));
+                }
+                Transformer.writeRatingTables(jobs, profile, mode, cache);
+            }
+            System.out.println("Versions in history: " + history.getVersions());
+        }
+
+    }
+
+    /**
+     * Query Command. Selects tanks by their field values.
+     */
+    @Parameters(commandDescription = "Selects all tanks (stock and top) that match a query "
+            + "on the field values, e.g. \"T_Tier >= 8 AND T_Type = Heavy\"")
+    protected class CommandQuery extends Command {
+
+        public CommandQuery() {
+            super("query", "qu");
+        }
+
+        /** The XML database to query */
+        @Parameter(names = { "-src", "--source" }, required = true,
+                description = "The XML database to query.")
+        protected String dbFile;
+
+        /** The query */
+        @Parameter(names = { "-q", "--query" },
+                description = "The query: comparisons of fields (e.g. MG_Penetration_AP > 200), "
+                + "combined with AND, OR, NOT and parentheses. Selects all tanks, if no "
+                + "query is given.")
+        protected String query;
+
+        /** Only tanks that can be reached from this tank */
+        @Parameter(names = { "-de", "--descendants" },
+                description = "Optional: Only selects tanks that can be researched after "
+                + "the specified tank in the tech tree.")
+        protected String descendants;
+
+        /** Only tanks that lead to this tank */
+        @Parameter(names = { "-an", "--ancestors" },
+                description = "Optional: Only selects tanks that have to be researched "
+                + "before the specified tank in the tech tree.")
+        protected String ancestors;
+
+        /** Print the tech tree paths between two tanks */
+        @Parameter(names = { "-pa", "--paths" }, arity = 2,
+                description = "Optional: Prints all paths in the tech tree from the first "
+                + "to the second tank, instead of running a query.")
+        protected List<String> paths;
+
+        /**
+         * Runs the query and prints the matching tanks, or prints the paths
+         * between two tanks
+         */
+        @Override
+        public void launch() {
+            TanksDB db = Serializer.deserializeDB(new File(dbFile));
+            if (db == null) {
+                return;
+            }
+            Identities ids = Identities.assign(db);
+            TechTree tree = TechTree.build(ids);
+            NameIndex<Tank> names = NameIndex.forTanks(db);
+
+            if (paths != null) {
+                Tank from = findTank(names, paths.get(0));
+                Tank to = findTank(names, paths.get(1));
+                if (from != null && to != null) {
+                    List<int[]> found = tree.getAllPaths(ids.idOf(from), ids.idOf(to));
+                    if (found.isEmpty()) {
+                        System.out.println(to.name + " cannot be reached from " + from.name);
+                    }
+                    for (int[] path : found) {
+                        StringBuilder sb = new StringBuilder();
+                        for (int t : path) {
+                            sb.append(sb.length() == 0 ? "" : " > ").append(ids.getTank(t).name);
+                        }
+                        System.out.println(sb);
+                    }
+                }
+                return;
+            }
+
+            FieldIndex index = FieldIndex.build(ModuleMap.build(ids));
+            BitSet selection;
+            try {
+                selection = (query == null) ? index.all() : PredicateParser.parse(query).evaluate(index);
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Invalid query: " + ex.getMessage());
+                return;
+            }
+            if (descendants != null) {
+                Tank t = findTank(names, descendants);
+                if (t == null) {
+                    return;
+                }
+                selection.and(index.rows(tree.getDescendants(ids.idOf(t))));
+            }
+            if (ancestors != null) {
+                Tank t = findTank(names, ancestors);
+                if (t == null) {
+                    return;
+                }
+                selection.and(index.rows(tree.getAncestors(ids.idOf(t))));
+            }
+            for (FieldIndex.Row row : index.getRows(selection)) {
+                System.out.println(row);
+            }
+        }
+
+        /**
+         * @param names the tanks by name
+         * @param name the name of a tank
+         * @return the tank with this name, or null (with an error message),
+         * if there is no such tank or the name is ambiguous
+         */
+        protected Tank findTank(NameIndex<Tank> names, String name) {
+            Tank t = names.findUnambiguous(name);
+            if (t == null) {
+                System.err.println("Unknown or ambiguous tank: " + name);
+            }
+            return t;
+        }
+
+    }
+
+    /**
+     * Store Command. Keeps a database in an EntityStore, where single tanks
+     * can be looked up without reading the whole database.
+     */
+    @Parameters(commandDescription = "Stores a database in a key-value store and looks up "
+            + "the loadouts of single tanks without reading the whole database")
+    protected class CommandStore extends Command {
+
+        public CommandStore() {
+            super("store", "st");
+        }
+
+        /** The folder of the store */
+        @Parameter(names = { "-f", "--folder" }, required = true,
+                description = "The folder of the store.")
+        protected String folder;
+
+        /** The XML database to store */
+        @Parameter(names = { "-src", "--source" },
+                description = "Replaces the contents of the store with this XML database.")
+        protected String dbFile;
+
+        /** The tanks to look up */
+        @Parameter(names = { "-t", "--tank" }, variableArity = true,
+                description = "Prints the stock and top loadout of these tanks (by id, e.g. _T29).")
+        protected List<String> tanks;
+
+        /** Compact the store */
+        @Parameter(names = { "-c", "--compact" },
+                description = "Removes overwritten and deleted records from the store.")
+        protected boolean compact = false;
+
+        /**
+         * Stores the database and/or looks up tanks
+         */
+        @Override
+        public void launch() {
+            EntityStore store = null;
+            try {
+                store = EntityStore.open(new File(folder));
+                if (dbFile != null) {
+                    TanksDB db = Serializer.deserializeDB(new File(dbFile));
+                    if (db == null) {
+                        return;
+                    }
+                    store.replace(db);
+                }
+                if (compact) {
+                    store.compact();
+                }
+                if (tanks != null) {
+                    for (String id : tanks) {
+                        printLoadouts(store, id.startsWith("_") ? id : "_" + id);
+                    }
+                }
+            } catch (IOException ex) {
+                log.error("Error accessing store " + folder, ex);
+            } finally {
+                if (store != null) {
+                    try {
+                        store.close();
+                    } catch (IOException ex) {
+                        log.warn("Could not close store " + folder, ex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Prints the stock and top loadout of a tank from the store
+         * @param store the store to read from
+         * @param id the id of the tank
+         */
+        protected void printLoadouts(EntityStore store, String id) throws IOException {
+            for (Development dev : Development.values()) {
+                Loadout l = store.getLoadout(id, dev);
+                if (l == null) {
+                    System.err.println("No tank with id " + id);
+                    return;
+                }
+                System.out.println(l);
+                for (ModuleType type : ModuleType.values()) {
+                    System.out.println("  " + type + ": " + (l.has(type) ? l.get(type).name : "-"));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Sensitivity Command. Tests how stable the rankings are with changed weights.
+     */
+    @Parameters(commandDescription = "Changes the rating weights randomly (thousands of times) "
+            + "and reports the interval of ranks of each tank, to show how stable the "
+            + "rankings are.")
+    protected class CommandSensitivity extends Command {
+
+        public CommandSensitivity() {
+            super("sensitivity", "se");
+        }
+
+        /** The XML database to rate */
+        @Parameter(names = { "-src", "--source" }, required = true,
+                description = "The XML database to rate.")
+        protected String dbFile;
+
+        /** Profile with custom weights */
+        @Parameter(names = { "-wp", "--weights" },
+                description = "Optional: A rating profile (properties file) with the weights "
+                + "to change. The default weights are used otherwise.")
+        protected String weights;
+
+        /** How the values are normalized for the ratings */
+        @Parameter(names = { "-nm", "--normalization" },
+                description = "Optional: How the values are normalized: 'best' (default) "
+                + "or 'percentile'.")
+        protected String normalization = "best";
+
+        /** Number of iterations */
+        @Parameter(names = { "-n", "--iterations" },
+                description = "Optional: The number of random weights to test.")
+        protected int iterations = 10000;
+
+        /** Maximum relative change of each weight */
+        @Parameter(names = { "-sp", "--spread" },
+                description = "Optional: The maximum relative change of each weight, "
+                + "e.g. 0.1 for +/- 10%.")
+        protected double spread = WeightSensitivity.DEFAULT_SPREAD;
+
+        /** Fraction of the iterations covered by the rank interval */
+        @Parameter(names = { "-c", "--confidence" },
+                description = "Optional: The fraction of the iterations that the rank "
+                + "interval of each tank covers.")
+        protected double confidence = WeightSensitivity.DEFAULT_CONFIDENCE;
+
+        /** Seed of the random number generator */
+        @Parameter(names = { "--seed" },
+                description = "Optional: The seed of the random number generator "
+                + "(the same seed gives the same results).")
+        protected long seed = 0;
+
+        /** File to store the report in */
+        @Parameter(names = { "-o", "--output" },
+                description = "Optional: The file where the report is written to "
+                + "(printed to the console otherwise).")
+        protected String output;
+
+        /**
+         * Runs the simulation and writes the rank intervals of all tanks
+         */
+        @Override
+        public void launch() {
+            if (iterations < 1 || spread < 0 || confidence < 0 || confidence > 1) {
+                System.err.println("Please specify at least one iteration, a positive spread "
+                        + "and a confidence between 0 and 1");
+                return;
+            }
+            TanksDB db = Serializer.deserializeDB(new File(dbFile));
+            if (db == null) {
+                return;
+            }
+            RatingProfile profile = RatingProfile.defaults();
+            if (weights != null) {
+                profile = RatingProfile.load(new File(weights));
+                if (profile == null) {
+                    return;
+                }
+            }
+            Mode mode = Mode.parse(normalization);
+            if (mode == null) {
+                System.err.println("Unknown normalization mode: " + normalization);
+                return;
+            }
+
+            WeightSensitivity ws = new WeightSensitivity(
+                    NormalizationContext.buildAll(ModuleMap.build(db), mode), profile);
+            try {
+                PrintWriter out = output == null ? new PrintWriter(System.out) : new PrintWriter(output);
+                out.println("Type\tTank\tRating\tRank\tInterval\tMedian\tMin-Max");
+                for (WeightSensitivity.Result r : ws.analyze(iterations, spread, seed, confidence)) {
+                    out.println(r);
+                }
+                out.flush();
+                if (output != null) {
+                    out.close();
+                }
+            } catch (FileNotFoundException ex) {
+                log.error("Writing of the sensitivity report to file failed", ex);
+            }
         }
 
     }
@@ -410,7 +932,7 @@ public class Launcher {
 
             // serialize
             Serializer.generateSchema(folderOutput + "/tanks.xsd");
-            Serializer.serialize(TanksDB.class, db, new File(folderOutput, "tanks.xml"));
+            Serializer.serializeDB(db, new File(folderOutput, "tanks.xml"));
 
             // export
             Transformer tr = new Transformer(db);
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.db;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.TankRef;
+
+/**
+ * Dense integer identities for all tanks and modules of a TanksDB.
+ * 
+ * Every tank gets the id of its position in the list of tanks, every module
+ * the id of its position in the list of its module type. The objects of the
+ * database are not modified: the ids are kept in arrays (id to object) and
+ * identity maps (object to id), so several Identities of the same database
+ * can be used at the same time. The relations between the objects (tech tree and module compatibility)
+ * are resolved once into int arrays of tank ids, so they can be traversed
+ * by plain array indexing instead of following TankRefs.
+ * 
+ * The identities are immutable and can be shared between threads. Building
+ * them again for the same database assigns the same ids. The database must
+ * not be modified while the identities are in use; after a modification,
+ * new identities need to be assigned.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Identities {
+    
+    /** the module types, in the order of the first index of the module arrays */
+    private static final ModuleType[] types = ModuleType.values();
+    
+    /** The database the ids were assigned for */
+    public final TanksDB db;
+    
+    /** all tanks by id */
+    private final Tank[] tanks;
+    /** all modules by ModuleType ordinal and module id */
+    private final Module[][] modules;
+    /** the id of each tank (by identity) */
+    private final Map<Tank,Integer> tankIds;
+    /** the id of each module of any type (by identity) */
+    private final Map<Module,Integer> moduleIds;
+    /** parent tank ids by tank id */
+    private final int[][] parents;
+    /** child tank ids by tank id */
+    private final int[][] children;
+    /** compatible tank ids by ModuleType ordinal and module id */
+    private final int[][][] compatibility;
+    
+    /**
+     * Assigns dense ids to all tanks and modules of the specified database
+     * and resolves all relations between them
+     * @param db the database to assign ids for
+     * @return the identities of this database
+     */
+    public static Identities assign(TanksDB db) {
+        return new Identities(db);
+    }
+    
+    /**
+     * Assigns the ids and resolves the relations
+     * @param db the database to assign ids for
+     */
+    protected Identities(TanksDB db) {
+        this.db = db;
+        
+        // tanks
+        this.tanks = db.tanks.toArray(new Tank[db.tanks.size()]);
+        this.tankIds = new IdentityHashMap<Tank,Integer>(tanks.length);
+        for (int i = 0; i < tanks.length; i++) {
+            tankIds.put(tanks[i], i);
+        }
+        
+        // modules
+        this.modules = new Module[types.length][];
+        this.moduleIds = new IdentityHashMap<Module,Integer>();
+        for (ModuleType type : types) {
+            List<? extends Module> list = db.modules.get(type);
+            Module[] arr = list.toArray(new Module[list.size()]);
+            for (int i = 0; i < arr.length; i++) {
+                moduleIds.put(arr[i], i);
+            }
+            modules[type.ordinal()] = arr;
+        }
+        
+        // tech tree
+        this.parents = new int[tanks.length][];
+        this.children = new int[tanks.length][];
+        for (int i = 0; i < tanks.length; i++) {
+            parents[i] = resolve(tanks[i].parents);
+            children[i] = resolve(tanks[i].children);
+        }
+        
+        // compatibility
+        this.compatibility = new int[types.length][][];
+        for (ModuleType type : types) {
+            Module[] arr = modules[type.ordinal()];
+            int[][] compat = new int[arr.length][];
+            for (int i = 0; i < arr.length; i++) {
+                compat[i] = resolve(arr[i].compatibility);
+            }
+            compatibility[type.ordinal()] = compat;
+        }
+    }
+    
+    // -------------------- accessors --------------------
+    
+    /**
+     * @return the number of tanks (all tank ids are smaller than this)
+     */
+    public int getTankCount() {
+        return tanks.length;
+    }
+    
+    /**
+     * @param type the module type
+     * @return the number of modules of this type (all module ids of this
+     * type are smaller than this)
+     */
+    public int getModuleCount(ModuleType type) {
+        return modules[type.ordinal()].length;
+    }
+    
+    /**
+     * @param id the tank id
+     * @return the tank with this id
+     */
+    public Tank getTank(int id) {
+        return tanks[id];
+    }
+    
+    /**
+     * @param type the module type
+     * @param id the module id
+     * @return the module of this type with the specified id
+     */
+    public Module getModule(ModuleType type, int id) {
+        return modules[type.ordinal()][id];
+    }
+    
+    /**
+     * Returns the id of the specified tank, if it belongs to this database
+     * @param t the tank
+     * @return the id of the tank, or -1 if the tank is not part of the
+     * database these identities were assigned for
+     */
+    public int idOf(Tank t) {
+        Integer id = tankIds.get(t);
+        return (id == null) ? -1 : id;
+    }
+    
+    /**
+     * Returns the id of the specified module, if it belongs to this database
+     * @param type the type of the module
+     * @param m the module
+     * @return the id of the module, or -1 if the module is not part of the
+     * database these identities were assigned for
+     */
+    public int idOf(ModuleType type, Module m) {
+        Module[] arr = modules[type.ordinal()];
+        Integer id = moduleIds.get(m);
+        return (id != null && id < arr.length && arr[id] == m) ? id : -1;
+    }
+    
+    /**
+     * @param tank the tank id
+     * @return the number of parents of this tank in the tech tree
+     */
+    public int getParentCount(int tank) {
+        return parents[tank].length;
+    }
+    
+    /**
+     * @param tank the tank id
+     * @param i the number of the parent (0 &lt;= i &lt; getParentCount(tank))
+     * @return the tank id of the i-th parent
+     */
+    public int getParent(int tank, int i) {
+        return parents[tank][i];
+    }
+    
+    /**
+     * @param tank the tank id
+     * @return the number of children of this tank in the tech tree
+     */
+    public int getChildCount(int tank) {
+        return children[tank].length;
+    }
+    
+    /**
+     * @param tank the tank id
+     * @param i the number of the child (0 &lt;= i &lt; getChildCount(tank))
+     * @return the tank id of the i-th child
+     */
+    public int getChild(int tank, int i) {
+        return children[tank][i];
+    }
+    
+    /**
+     * @param type the module type
+     * @param module the module id
+     * @return the number of tanks the module is compatible with
+     */
+    public int getCompatibleCount(ModuleType type, int module) {
+        return compatibility[type.ordinal()][module].length;
+    }
+    
+    /**
+     * @param type the module type
+     * @param module the module id
+     * @param i the number of the tank (0 &lt;= i &lt; getCompatibleCount(type, module))
+     * @return the tank id of the i-th compatible tank
+     */
+    public int getCompatible(ModuleType type, int module, int i) {
+        return compatibility[type.ordinal()][module][i];
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * Resolves a list of tank references to tank ids. References that are
+     * not resolved or point to tanks outside of the database are dropped.
+     * @param refs the references to resolve
+     * @return the ids of the referenced tanks, in the order of the list
+     */
+    private int[] resolve(List<TankRef> refs) {
+        if (refs == null) {
+            return new int[0];
+        }
+        int[] ids = new int[refs.size()];
+        int n = 0;
+        for (TankRef ref : refs) {
+            int id = (ref == null) ? -1 : idOf(ref.ref);
+            if (id >= 0) {
+                ids[n++] = id;
+            }
+        }
+        if (n < ids.length) {
+            int[] shrunk = new int[n];
+            System.arraycopy(ids, 0, shrunk, 0, n);
+            return shrunk;
+        }
+        return ids;
+    }
+    
+}
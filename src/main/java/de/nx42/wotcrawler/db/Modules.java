@@ -24,6 +24,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import de.nx42.wotcrawler.db.module.Engine;
 import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
 import de.nx42.wotcrawler.db.module.Radio;
 import de.nx42.wotcrawler.db.module.Suspension;
 import de.nx42.wotcrawler.db.module.Turret;
@@ -62,4 +64,26 @@ public class Modules {
     @XmlElement(name = "turret")
     public List<Turret> turrets;
     
+    /**
+     * Returns the list of all modules of the specified type
+     * @param type the module type
+     * @return the list of modules of this type
+     */
+    public List<? extends Module> get(ModuleType type) {
+        switch (type) {
+            case Engine:
+                return engines;
+            case Gun:
+                return guns;
+            case Radio:
+                return radios;
+            case Suspension:
+                return suspensions;
+            case Turret:
+                return turrets;
+            default:
+                return null;
+        }
+    }
+    
 }
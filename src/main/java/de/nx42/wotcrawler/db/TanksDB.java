@@ -23,6 +23,7 @@ import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.xml.gen.GenerateMarshaller;
 
 /**
  * TanksDB is the root object of the tank database. It holds a list of all tanks
@@ -31,6 +32,7 @@ import de.nx42.wotcrawler.db.tank.Tank;
  * @author Sebastian Straub <sebastian-straub@gmx.net>
  */
 @XmlRootElement(name = "wot-db")
+@GenerateMarshaller
 public class TanksDB {
     
     /** A list of all tanks that are available in the game */
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * A materialized table of all advanced fields (prefix DP_), like damage per
+ * second or power to weight ratio.
+ * 
+ * These values are needed over and over again: for the min/max values, for
+ * the ratings and for the generated tables. Instead of calculating them on
+ * every access, they are computed once for every loadout when the ModuleMap
+ * of a database is built, and stored as one array per field.
+ * 
+ * The table belongs to the ModuleMap, so it is discarded (and calculated
+ * again) exactly when the database changes and a new ModuleMap is built.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class DerivedMetrics {
+    
+    /** the development stages, in the order of the rows of each tank */
+    private static final Development[] devs = Development.values();
+    
+    /** the ModuleMap this table was calculated for */
+    protected final ModuleMap mm;
+    /** the derived fields by column */
+    private final Field[] derived;
+    /** column of each field by ordinal, -1 for fields that are not derived */
+    private final int[] columns;
+    /** the values by column and row (tank id * devs + Development ordinal) */
+    private final double[][] values;
+    
+    /**
+     * Calculates all derived fields for all loadouts of the specified ModuleMap
+     * @param mm the ModuleMap with the resolved loadouts
+     */
+    protected DerivedMetrics(ModuleMap mm) {
+        this.mm = mm;
+        
+        Field[] fields = Field.values();
+        List<Field> derived = new ArrayList<Field>();
+        this.columns = new int[fields.length];
+        for (Field f : fields) {
+            if (f.isDerived()) {
+                columns[f.ordinal()] = derived.size();
+                derived.add(f);
+            } else {
+                columns[f.ordinal()] = -1;
+            }
+        }
+        
+        this.derived = derived.toArray(new Field[derived.size()]);
+        
+        int rows = mm.ids.getTankCount() * devs.length;
+        this.values = new double[derived.size()][rows];
+        for (int row = 0; row < rows; row++) {
+            compute(row);
+        }
+    }
+    
+    /**
+     * Calculates the derived fields of one row
+     * @param row the row (tank id * devs + Development ordinal)
+     */
+    private void compute(int row) {
+        Loadout l = mm.getLoadout(row / devs.length, devs[row % devs.length]);
+        for (int c = 0; c < values.length; c++) {
+            values[c][row] = derived[c].compute(l);
+        }
+    }
+    
+    /**
+     * Recalculates the derived fields of one tank, after its values have
+     * been changed
+     * @param tank the tank id
+     */
+    protected void refresh(int tank) {
+        for (Development dev : devs) {
+            compute(tank * devs.length + dev.ordinal());
+        }
+    }
+    
+    /**
+     * Gets the value of a derived field for the specified tank
+     * @param f the field
+     * @param tank the tank id
+     * @param dev the development
+     * @return the value of the field, or -1, if the field is not derived
+     */
+    public double get(Field f, int tank, Development dev) {
+        int c = columns[f.ordinal()];
+        return (c < 0) ? -1 : values[c][tank * devs.length + dev.ordinal()];
+    }
+    
+    /**
+     * Gets the value of a derived field for the specified tank. Tanks that
+     * are not part of the database of this table are calculated on the fly.
+     * @param f the field
+     * @param t the tank
+     * @param dev the development
+     * @return the value of the field, or -1, if the field is not derived
+     */
+    public double get(Field f, Tank t, Development dev) {
+        int c = columns[f.ordinal()];
+        if (c < 0) {
+            return -1;
+        }
+        int id = mm.ids.idOf(t);
+        return (id < 0) ? f.compute(mm.getLoadout(t, dev)) : values[c][id * devs.length + dev.ordinal()];
+    }
+    
+    /**
+     * Gets the value of a derived field for the specified loadout. Only the
+     * stock and top loadouts of the ModuleMap are stored, any other loadout
+     * (e.g. a combination of modules) is calculated on the fly.
+     * @param f the field
+     * @param l the loadout
+     * @return the value of the field, or -1, if the field is not derived
+     */
+    public double get(Field f, Loadout l) {
+        int c = columns[f.ordinal()];
+        if (c < 0) {
+            return -1;
+        }
+        int id = mm.ids.idOf(l.tank);
+        return (id >= 0 && mm.getLoadout(id, l.development) == l)
+                ? values[c][id * devs.length + l.development.ordinal()] : f.compute(l);
+    }
+    
+    /**
+     * @param f the field
+     * @return a copy of all values of this field by row (as in get()), or
+     * null if the field is not derived
+     */
+    public double[] getColumn(Field f) {
+        int c = columns[f.ordinal()];
+        return (c < 0) ? null : values[c].clone();
+    }
+    
+}
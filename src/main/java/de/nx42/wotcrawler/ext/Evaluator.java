@@ -16,17 +16,18 @@
  */
 package de.nx42.wotcrawler.ext;
 
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
 import de.nx42.wotcrawler.db.TanksDB;
 import de.nx42.wotcrawler.db.module.Engine;
 import de.nx42.wotcrawler.db.module.Gun;
 import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
 import de.nx42.wotcrawler.db.module.Radio;
 import de.nx42.wotcrawler.db.module.Suspension;
 import de.nx42.wotcrawler.db.module.Turret;
@@ -46,19 +47,19 @@ public class Evaluator {
     /** The ModuleMap, mapping from each tank to a list of compatible modules */
     protected ModuleMap mm;
     
-    /** all tanks in this set have no engine associated */
-    protected Set<Tank> noEngine = new HashSet<Tank>();
-    /** all tanks in this set have no gun associated */
-    protected Set<Tank> noGun = new HashSet<Tank>();
-    /** all tanks in this set have no radio associated */
-    protected Set<Tank> noRadio = new HashSet<Tank>();
-    /** all tanks in this set have no turret associated (except for td and spg) */
-    protected Set<Tank> noTurret = new HashSet<Tank>();
-    /** all tanks in this set have no suspension associated */
-    protected Set<Tank> noSuspension = new HashSet<Tank>();
-    
-    /** List of other reports for each tank */
-    Map<Tank,List<String>> tankReports = new HashMap<Tank,List<String>>();
+    /** the ids of all tanks in this set have no engine associated */
+    protected BitSet noEngine = new BitSet();
+    /** the ids of all tanks in this set have no gun associated */
+    protected BitSet noGun = new BitSet();
+    /** the ids of all tanks in this set have no radio associated */
+    protected BitSet noRadio = new BitSet();
+    /** the ids of all tanks in this set have no turret associated (except for td and spg) */
+    protected BitSet noTurret = new BitSet();
+    /** the ids of all tanks in this set have no suspension associated */
+    protected BitSet noSuspension = new BitSet();
+    
+    /** List of other reports for each tank (by tank id) */
+    Map<Integer,List<String>> tankReports = new TreeMap<Integer,List<String>>();
     /** List of other reports for each module */
     Map<Module,List<String>> moduleReports = new HashMap<Module,List<String>>();
     
@@ -117,7 +118,8 @@ public class Evaluator {
         
         // Test 1
         sb.append("\n### Test 1\n\nMissing Tank -> Module Relations: ");
-        int relationErrors = noEngine.size() + noGun.size() + noRadio.size() + noSuspension.size() + noTurret.size();
+        int relationErrors = noEngine.cardinality() + noGun.cardinality() + noRadio.cardinality()
+                + noSuspension.cardinality() + noTurret.cardinality();
         if(relationErrors == 0) {
             sb.append("great, all tanks have at least one of each module type!\n");
         } else {
@@ -137,9 +139,10 @@ public class Evaluator {
             sb.append("great, the attributes of every tank seem to be valid!\n");
         } else {
             sb.append("Each of these tanks has some broken fields:\n\n");
-            for (Tank t : tankReports.keySet()) {
+            for (Integer id : tankReports.keySet()) {
+                Tank t = mm.ids.getTank(id);
                 sb.append(String.format("* %s (%s)\n", t.name, t.id));
-                for (String report : tankReports.get(t)) {
+                for (String report : tankReports.get(id)) {
                     sb.append(String.format("  - %s\n", report));
                 }
             }
@@ -169,10 +172,10 @@ public class Evaluator {
     /**
      * Part of the text report system. writes down missing modules for each tank
      * @param sb the stringbuilder where the current report is stored in
-     * @param tanks this set contains all tanks that have a missing module
+     * @param tanks this set contains the ids of all tanks that have a missing module
      * @param module this is the module that the tanks in the set are missing
      */
-    protected void missingModules(StringBuilder sb, Set<Tank> tanks, String module) {
+    protected void missingModules(StringBuilder sb, BitSet tanks, String module) {
         sb.append("* ");
         sb.append(module);
         
@@ -180,7 +183,8 @@ public class Evaluator {
             sb.append(": great, every tank has at least one of these!\n");
         } else {
             sb.append("\n");
-            for (Tank t : tanks) {
+            for (int id = tanks.nextSetBit(0); id >= 0; id = tanks.nextSetBit(id + 1)) {
+                Tank t = mm.ids.getTank(id);
                 sb.append(String.format("  - %s (%s)\n", t.name, t.id));
             }
         }
@@ -194,27 +198,29 @@ public class Evaluator {
      * Runs all tests, checks all fields for existence and validity
      */
     protected void checkAllFields() {
-        for (Tank t : db.tanks) {
+        for (int id = 0; id < mm.ids.getTankCount(); id++) {
+            Tank t = mm.ids.getTank(id);
+            
             // check tank fields
             checkTankFields(t);
             
             // check, if compatible modules exist
-            if (ModuleMap.engine.get(t).isEmpty()) {
-                noEngine.add(t);
+            if (mm.getModuleCount(id, ModuleType.Engine) == 0) {
+                noEngine.set(id);
             }
-            if (ModuleMap.gun.get(t).isEmpty()) {
-                noGun.add(t);
+            if (mm.getModuleCount(id, ModuleType.Gun) == 0) {
+                noGun.set(id);
             }
-            if (ModuleMap.radio.get(t).isEmpty()) {
-                noRadio.add(t);
+            if (mm.getModuleCount(id, ModuleType.Radio) == 0) {
+                noRadio.set(id);
             }
-            if (ModuleMap.suspension.get(t).isEmpty()) {
-                noSuspension.add(t);
+            if (mm.getModuleCount(id, ModuleType.Suspension) == 0) {
+                noSuspension.set(id);
             }
-            if (ModuleMap.turret.get(t).isEmpty()) {
+            if (mm.getModuleCount(id, ModuleType.Turret) == 0) {
                 // these tank types usually have no turret, so no reference here...
                 if(t.type != TankType.TankDestroyer && t.type != TankType.SelfPropelledGun) {
-                    noTurret.add(t);
+                    noTurret.set(id);
                 }
             }
         }
@@ -553,12 +559,13 @@ public class Evaluator {
      * @param report the contents of the report
      */
     protected void report(Tank t, String report) {
-        if(tankReports.containsKey(t)) {
-            tankReports.get(t).add(report);
+        Integer id = mm.ids.idOf(t);
+        if(tankReports.containsKey(id)) {
+            tankReports.get(id).add(report);
         } else {
             List<String> reports = new LinkedList<String>();
             reports.add(report);
-            tankReports.put(t, reports);
+            tankReports.put(id, reports);
         }
     }
     
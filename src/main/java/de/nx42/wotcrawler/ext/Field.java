@@ -17,26 +17,23 @@
 package de.nx42.wotcrawler.ext;
 
 import java.net.MalformedURLException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.List;
-import java.util.Locale;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.nx42.wotcrawler.db.BaseProperties.Development;
-import de.nx42.wotcrawler.db.TanksDB;
 import de.nx42.wotcrawler.db.module.Engine;
 import de.nx42.wotcrawler.db.module.Gun;
 import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
 import de.nx42.wotcrawler.db.module.Radio;
 import de.nx42.wotcrawler.db.module.Suspension;
 import de.nx42.wotcrawler.db.module.Turret;
 import de.nx42.wotcrawler.db.tank.Equipment;
 import de.nx42.wotcrawler.db.tank.Tank;
-import de.nx42.wotcrawler.db.tank.Tank.TankType;
 import de.nx42.wotcrawler.db.tank.TankRef;
+import de.nx42.wotcrawler.util.DecimalFormatter;
 import de.nx42.wotcrawler.xml.Crawler;
 
 /**
@@ -60,99 +57,143 @@ public enum Field {
     /** The minimum battle tier the tank (usually) participates in */
     T_BattleTier_Min {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Byte.toString(t.battleTierMin);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.battleTierMin;
+        }
     },
     /** The maximum battle tier the tank (usually) participates in */
     T_BattleTier_Max {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Byte.toString(t.battleTierMax);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.battleTierMax;
+        }
     },
     /** A list of tanks this tank leads to in the tech tree */
     T_Children {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return (t.children == null) ? na : buildTankRefList(t.children, t.name, LinkType.INTERNAL);
         }
     },
     /** The cost of this object (currency in separate field) */
     T_Cost {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Integer.toString(t.cost);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.cost;
+        }
     },
     /** The number of crew members */
     T_CrewMembers {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Integer.toString(t.crewMembers);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.crewMembers;
+        }
     },
     /** The currency this tank is paid for with */
     T_Currency {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return t.currency.toString();
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return (t.currency == null) ? Double.NaN : t.currency.ordinal();
+        }
     },
     /** Indicates, if this tank is only accessible as special gift */
     T_Gift {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return t.gift ? "Yes" : "No";
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.gift ? 1 : 0;
+        }
     },
     /** Max. rotation of gun / turret to the left (deg) */
     T_GunArc_Left {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.gunArcLeft);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.gunArcLeft;
+        }
     },
     /** Max. rotation of the gun to the right (deg).
         Note that 360° means the tower can rotate infinitely */
     T_GunArc_Right {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.gunArcRight);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.gunArcRight;
+        }
     },
     /** Hull armor (mm) - Front */
     T_Hull_Front {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.hullFront);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.hullFront;
+        }
     },
     /** Hull armor (mm) - Side */
     T_Hull_Side {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.hullSide);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.hullSide;
+        }
     },
     /** Hull armor (mm) - Rear */
     T_Hull_Rear {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.hullRear);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.hullRear;
+        }
     },
     /** The ID of this tank (unique identifier, used to maintain references in the xml database) */
     T_ID {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return t.id;
         }
     },
     /** The name of this tank */
     T_Name {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             try {
                 return String.format("<a href=\"%s\">%s</a>", Crawler.buildWikiLink(t.wikiURL).toString(), t.name);
             } catch (MalformedURLException ex) {
@@ -164,37 +205,53 @@ public enum Field {
     /** The Nation this tank belongs to */
     T_Nation {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return t.nation.toString();
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return (t.nation == null) ? Double.NaN : t.nation.ordinal();
+        }
     },
     /** A list of tanks that lead to this tank in the tech tree (only empty for tier 1 tanks) */
     T_Parents {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return (t.parents == null) ? na : buildTankRefList(t.parents, t.name, LinkType.INTERNAL);
         }
     },
     /** The tier / level of this tank */
     T_Tier {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Byte.toString(t.tier);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.tier;
+        }
     },
     /** Maximum speed (km/h) on even ground */
     T_TopSpeed {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(t.speed);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return t.speed;
+        }
     },
     /** The type of the tank: Light/Medium/Heavy Tank, Tank Destroyer or Artillery (SPG) */
     T_Type {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return t.type.toString();
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return (t.type == null) ? Double.NaN : t.type.ordinal();
+        }
     },
     //</editor-fold>
     
@@ -202,51 +259,79 @@ public enum Field {
     /** Indicates, if this tank's attributes are top or stock values */
     TE_Development {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return dev.toShortString();
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return dev.ordinal();
+        }
     },
     /** Minimum gun elevation (deg) = Lowest angle the gun can be positioned */
     TE_Elevation_Low {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(getEquipment(t, dev).gunElevationLow);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).gunElevationLow;
+        }
     },
     /** Maximum gun elevation (deg) = Highest angle the gun can be positioned */
     TE_Elevation_High {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(getEquipment(t, dev).gunElevationHigh);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).gunElevationHigh;
+        }
     },
     /** Hitpoints */
     TE_Hitpoints {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return Integer.toString(getEquipment(t, dev).hitpoints);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).hitpoints;
+        }
     },
     /** The view range of the tank (m) */
     TE_ViewRange {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(getEquipment(t, dev).viewRange);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).viewRange;
+        }
     },
     /** Current weight (tons) */
     TE_Weight {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(getEquipment(t, dev).weight);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).weight;
+        }
     },
     /** Maximum load that can be carried (tons) */
     TE_WeightLimit {
         @Override
-        public String get(Tank t, Development dev) {
+        public String get(ModuleMap mm, Tank t, Development dev) {
             return df.format(getEquipment(t, dev).weightLimit);
         }
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            return getEquipment(t, dev).weightLimit;
+        }
     },
     //</editor-fold>
     
@@ -256,8 +341,8 @@ public enum Field {
     /** all tanks that are compatible with this engine */
     ME_Compatibility {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null || e.compatibility == null) ? na : buildTankRefList(e.compatibility, t.name, LinkType.INTERNAL);
         }
         
@@ -270,10 +355,16 @@ public enum Field {
     /** The cost of this engine (currency in separate field) */
     ME_Cost {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : Integer.toString(e.cost);
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null) ? Double.NaN : e.cost;
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -283,10 +374,16 @@ public enum Field {
     /** The currency this engine is paid for with */
     ME_Currency {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null || e.currency == null) ? na : e.currency.toString();
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null || e.currency == null) ? Double.NaN : e.currency.ordinal();
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -296,8 +393,8 @@ public enum Field {
     /** The name of this engine */
     ME_Name {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : e.name;
         }
         @Override
@@ -309,10 +406,16 @@ public enum Field {
     /** The Nation this engine belongs to */
     ME_Nation {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null || e.nation == null) ? na : e.nation.toString();
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null || e.nation == null) ? Double.NaN : e.nation.ordinal();
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -322,10 +425,16 @@ public enum Field {
     /** The tier / level of this engine */
     ME_Tier {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : Byte.toString(e.tier);
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null) ? Double.NaN : e.tier;
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -335,10 +444,16 @@ public enum Field {
     /** the weight of the module */
     ME_Weight {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : df.format(e.weight);
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null) ? Double.NaN : e.weight;
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -348,10 +463,16 @@ public enum Field {
     /** Chance that the engine will catch fire when hit (%) */
     ME_Firechance {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : df.format(e.firechance);
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null) ? Double.NaN : e.firechance;
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -361,10 +482,16 @@ public enum Field {
     /** Type of gas needed by the engine */
     ME_Gas {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null || e.gas == null) ? na : e.gas.toString();
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null || e.gas == null) ? Double.NaN : e.gas.ordinal();
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -374,10 +501,16 @@ public enum Field {
     /** Engine power (HP) */
     ME_Power {
         @Override
-        public String get(Tank t, Development dev) {
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Engine e = mm.getLoadout(t, dev).engine;
             return (e == null) ? na : Integer.toString(e.power);
         }
+        
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Engine e = (Engine) module(mm, t, dev, ModuleType.Engine);
+            return (e == null) ? Double.NaN : e.power;
+        }
         @Override
         public String get(Module m) {
             Engine e = (Engine) m;
@@ -390,8 +523,8 @@ public enum Field {
     /** all tanks that are compatible with this gun */
     MG_Compatibility {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null || g.compatibility == null) ? na : buildTankRefList(g.compatibility, t.name, LinkType.INTERNAL);
         }
         
@@ -404,11 +537,17 @@ public enum Field {
     /** The cost of this gun (currency in separate field) */
     MG_Cost {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.cost);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.cost;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -418,11 +557,17 @@ public enum Field {
     /** The currency this gun is paid for with */
     MG_Currency {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null || g.currency == null) ? na : g.currency.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null || g.currency == null) ? Double.NaN : g.currency.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -432,8 +577,8 @@ public enum Field {
     /** The name of this gun */
     MG_Name {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : g.name;
         }
         
@@ -446,11 +591,17 @@ public enum Field {
     /** The Nation this gun belongs to */
     MG_Nation {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null || g.nation == null) ? na : g.nation.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null || g.nation == null) ? Double.NaN : g.nation.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -460,11 +611,17 @@ public enum Field {
     /** The tier / level of this gun */
     MG_Tier {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Byte.toString(g.tier);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.tier;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -474,11 +631,17 @@ public enum Field {
     /** the weight of the module */
     MG_Weight {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : df.format(g.weight);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.weight;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -488,11 +651,17 @@ public enum Field {
     /** Accuracy (diameter in meters at 100m distance - minimum) */
     MG_Accuracy_Min {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.accuracyMin);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.accuracyMin;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -502,11 +671,17 @@ public enum Field {
     /** Accuracy (diameter in meters at 100m distance - maximum) */
     MG_Accuracy_Max {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.accuracyMax);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.accuracyMax;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -516,11 +691,17 @@ public enum Field {
     /** Aim Time (seconds - maximum) */
     MG_AimTime_Min {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.aimTimeMin);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.aimTimeMin;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -530,11 +711,17 @@ public enum Field {
     /** Aim Time (seconds - maximum) */
     MG_AimTime_Max {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.aimTimeMax);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.aimTimeMax;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -544,11 +731,17 @@ public enum Field {
     /** Ammo capacity (shells - minimum) */
     MG_AmmoCapacity_Min {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.ammoCapacityMin);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.ammoCapacityMin;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -558,11 +751,17 @@ public enum Field {
     /** Ammo capacity (shells - maximum) */
     MG_AmmoCapacity_Max {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.ammoCapacityMax);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.ammoCapacityMax;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -572,11 +771,17 @@ public enum Field {
     /** Gun Damage (AP = Armor Piercing) */
     MG_Dmg_AP {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : df.format(g.dmgAP);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.dmgAP;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -586,11 +791,17 @@ public enum Field {
     /** Gun Damage (APCR = Armor Piercing Composite Rigid) */
     MG_Dmg_APCR {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : df.format(g.dmgAPCR);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.dmgAPCR;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -600,11 +811,17 @@ public enum Field {
     /** Gun Damage (HE = High Explosive) */
     MG_Dmg_HE {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : df.format(g.dmgHE);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.dmgHE;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -614,11 +831,17 @@ public enum Field {
     /** Gun Damage (HEAT = High Explosive Anti-Tank) */
     MG_Dmg_HEAT {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : df.format(g.dmgHEAT);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.dmgHEAT;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -628,11 +851,17 @@ public enum Field {
     /** Fire Rate (Shots per Minute - minimum) */
     MG_FireRate_Min {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.fireRateMin);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.fireRateMin;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -642,11 +871,17 @@ public enum Field {
     /** Fire Rate (Shots per Minute - maximum) */
     MG_FireRate_Max {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : dfp.format(g.fireRateMax);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.fireRateMax;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -656,11 +891,17 @@ public enum Field {
     /** Shell Penetration in mm (AP = Armor Piercing) */
     MG_Penetration_AP {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.penAP);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.penAP;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -670,11 +911,17 @@ public enum Field {
     /** Shell Penetration in mm (APCR = Armor Piercing Composite Rigid) */
     MG_Penetration_APCR {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.penAPCR);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.penAPCR;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -684,11 +931,17 @@ public enum Field {
     /** Shell Penetration in mm (HE = High Explosive) */
     MG_Penetration_HE {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.penHE);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.penHE;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -698,11 +951,17 @@ public enum Field {
     /** Shell Penetration in mm (HEAT = High Explosive Anti-Tank) */
     MG_Penetration_HEAT {
         @Override
-        public String get(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Gun g = mm.getLoadout(t, dev).gun;
             return (g == null) ? na : Integer.toString(g.penHEAT);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Gun g = (Gun) module(mm, t, dev, ModuleType.Gun);
+            return (g == null) ? Double.NaN : g.penHEAT;
+        }
+        
         @Override
         public String get(Module m) {
             Gun g = (Gun) m;
@@ -715,8 +974,8 @@ public enum Field {
     /** all tanks that are compatible with this radio */
     MR_Compatibility {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null || r.compatibility == null) ? na : buildTankRefList(r.compatibility, t.name, LinkType.INTERNAL);
         }
         
@@ -729,11 +988,17 @@ public enum Field {
     /** The cost of this radio (currency in separate field) */
     MR_Cost {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null) ? na : Integer.toString(r.cost);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null) ? Double.NaN : r.cost;
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -743,11 +1008,17 @@ public enum Field {
     /** The currency this radio is paid for with */
     MR_Currency {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null || r.currency == null) ? na : r.currency.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null || r.currency == null) ? Double.NaN : r.currency.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -757,8 +1028,8 @@ public enum Field {
     /** The name of this radio */
     MR_Name {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null) ? na : r.name;
         }
         
@@ -771,11 +1042,17 @@ public enum Field {
     /** The Nation this radio belongs to */
     MR_Nation {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null || r.nation == null) ? na : r.nation.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null || r.nation == null) ? Double.NaN : r.nation.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -785,11 +1062,17 @@ public enum Field {
     /** The tier / level of this radio */
     MR_Tier {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null) ? na : Byte.toString(r.tier);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null) ? Double.NaN : r.tier;
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -799,11 +1082,17 @@ public enum Field {
     /** the weight of the module */
     MR_Weight {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null) ? na : df.format(r.weight);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null) ? Double.NaN : r.weight;
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -813,11 +1102,17 @@ public enum Field {
     /** The radio transmission range (m) */
     MR_Range {
         @Override
-        public String get(Tank t, Development dev) {
-            Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Radio r = mm.getLoadout(t, dev).radio;
             return (r == null) ? na : Integer.toString(r.range);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Radio r = (Radio) module(mm, t, dev, ModuleType.Radio);
+            return (r == null) ? Double.NaN : r.range;
+        }
+        
         @Override
         public String get(Module m) {
             Radio r = (Radio) m;
@@ -830,8 +1125,8 @@ public enum Field {
     /** all tanks that are compatible with this suspension */
     MS_Compatibility {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null || s.compatibility == null) ? na : buildTankRefList(s.compatibility, t.name, LinkType.INTERNAL);
         }
         
@@ -844,11 +1139,17 @@ public enum Field {
     /** The cost of this suspension (currency in separate field) */
     MS_Cost {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : Integer.toString(s.cost);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null) ? Double.NaN : s.cost;
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -858,11 +1159,17 @@ public enum Field {
     /** The currency this suspension is paid for with */
     MS_Currency {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null || s.currency == null) ? na : s.currency.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null || s.currency == null) ? Double.NaN : s.currency.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -872,8 +1179,8 @@ public enum Field {
     /** The name of this suspension */
     MS_Name {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : s.name;
         }
         
@@ -886,11 +1193,17 @@ public enum Field {
     /** The Nation this suspension belongs to */
     MS_Nation {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null || s.nation == null) ? na : s.nation.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null || s.nation == null) ? Double.NaN : s.nation.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -900,11 +1213,17 @@ public enum Field {
     /** The tier / level of this suspension */
     MS_Tier {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : Byte.toString(s.tier);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null) ? Double.NaN : s.tier;
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -914,11 +1233,17 @@ public enum Field {
     /** the weight of the module */
     MS_Weight {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : df.format(s.weight);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null) ? Double.NaN : s.weight;
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -928,11 +1253,17 @@ public enum Field {
     /** Maximum load that can be carried (tons) */
     MS_Load {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : df.format(s.load);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null) ? Double.NaN : s.load;
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -942,11 +1273,17 @@ public enum Field {
     /** Rotation speed of the standing tank (deg/s) */
     MS_Traverse {
         @Override
-        public String get(Tank t, Development dev) {
-            Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = mm.getLoadout(t, dev).suspension;
             return (s == null) ? na : Integer.toString(s.traverse);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Suspension s = (Suspension) module(mm, t, dev, ModuleType.Suspension);
+            return (s == null) ? Double.NaN : s.traverse;
+        }
+        
         @Override
         public String get(Module m) {
             Suspension s = (Suspension) m;
@@ -959,8 +1296,8 @@ public enum Field {
     /** all tanks that are compatible with this turret */
     MT_Compatibility {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null || tu.compatibility == null) ? na : buildTankRefList(tu.compatibility, t.name, LinkType.INTERNAL);
         }
         
@@ -973,11 +1310,17 @@ public enum Field {
     /** The cost of this turret (currency in separate field) */
     MT_Cost {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : Integer.toString(tu.cost);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.cost;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -987,11 +1330,17 @@ public enum Field {
     /** The currency this turret is paid for with */
     MT_Currency {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null || tu.currency == null) ? na : tu.currency.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null || tu.currency == null) ? Double.NaN : tu.currency.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1001,8 +1350,8 @@ public enum Field {
     /** the name of this turret */
     MT_Name {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : tu.name;
         }
         
@@ -1015,11 +1364,17 @@ public enum Field {
     /** The Nation this turret belongs to */
     MT_Nation {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null || tu.nation == null) ? na : tu.nation.toString();
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null || tu.nation == null) ? Double.NaN : tu.nation.ordinal();
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1029,11 +1384,17 @@ public enum Field {
     /** The tier / level of this turret */
     MT_Tier {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : Byte.toString(tu.tier);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.tier;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1043,11 +1404,17 @@ public enum Field {
     /** the weight of the turret */
     MT_Weight {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.weight);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.weight;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1057,11 +1424,17 @@ public enum Field {
     /** Turret armor (mm) - Front */
     MT_Armor_Front {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.armorFront);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.armorFront;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1071,11 +1444,17 @@ public enum Field {
     /** Turret armor (mm) - Side */
     MT_Armor_Side {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.armorSide);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.armorSide;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1085,11 +1464,17 @@ public enum Field {
     /** Turret armor (mm) - Rear */
     MT_Armor_Rear {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.armorRear);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.armorRear;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1099,11 +1484,17 @@ public enum Field {
     /** Rotation speed of gun or turret (deg/s) */
     MT_Traverse {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.traverse);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.traverse;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1113,11 +1504,17 @@ public enum Field {
     /** The view range of the tank (m) */
     MT_ViewRange {
         @Override
-        public String get(Tank t, Development dev) {
-            Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = mm.getLoadout(t, dev).turret;
             return (tu == null) ? na : df.format(tu.viewRange);
         }
         
+        @Override
+        public double value(ModuleMap mm, Tank t, Development dev) {
+            Turret tu = (Turret) module(mm, t, dev, ModuleType.Turret);
+            return (tu == null) ? Double.NaN : tu.viewRange;
+        }
+        
         @Override
         public String get(Module m) {
             Turret tu = (Turret) m;
@@ -1132,36 +1529,36 @@ public enum Field {
     /** List of engines compatible with this tank */
     REL_Engines {
         @Override
-        public String get(Tank t, Development dev) {
-            return buildModuleRefList(ModuleMap.getModules(t, Module.ModuleType.Engine), LinkType.INTERNAL);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return buildModuleRefList(mm.getModules(t, Module.ModuleType.Engine), LinkType.INTERNAL);
         }
     },
     /** List of radios compatible with this tank */
     REL_Radios {
         @Override
-        public String get(Tank t, Development dev) {
-            return buildModuleRefList(ModuleMap.getModules(t, Module.ModuleType.Radio), LinkType.INTERNAL);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return buildModuleRefList(mm.getModules(t, Module.ModuleType.Radio), LinkType.INTERNAL);
         }
     },
     /** List of guns compatible with this tank */
     REL_Guns {
         @Override
-        public String get(Tank t, Development dev) {
-            return buildModuleRefList(ModuleMap.getModules(t, Module.ModuleType.Gun), LinkType.INTERNAL);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return buildModuleRefList(mm.getModules(t, Module.ModuleType.Gun), LinkType.INTERNAL);
         }
     },
     /** List of suspension compatible with this tank */
     REL_Suspensions {
         @Override
-        public String get(Tank t, Development dev) {
-            return buildModuleRefList(ModuleMap.getModules(t, Module.ModuleType.Suspension), LinkType.INTERNAL);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return buildModuleRefList(mm.getModules(t, Module.ModuleType.Suspension), LinkType.INTERNAL);
         }
     },
     /** List of turrets compatible with this tank */
     REL_Turrets {
         @Override
-        public String get(Tank t, Development dev) {
-            return buildModuleRefList(ModuleMap.getModules(t, Module.ModuleType.Turret), LinkType.INTERNAL);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return buildModuleRefList(mm.getModules(t, Module.ModuleType.Turret), LinkType.INTERNAL);
         }
     },
     //</editor-fold>
@@ -1172,24 +1569,23 @@ public enum Field {
     /** total gun arc (left and right) */
     DP_GunArc {
         @Override
-        public String get(Tank t, Development dev) {
-            return Integer.toString((int) calc(t, dev));
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return Integer.toString((int) calc(mm, t, dev));
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            return Math.abs(t.gunArcLeft) + t.gunArcRight;
+        protected double compute(Loadout l) {
+            return Math.abs(l.tank.gunArcLeft) + l.tank.gunArcRight;
         }
     },
     /** Total gun elevation (up and down) */
     DP_Elevation {
         @Override
-        public String get(Tank t, Development dev) {
-            return df.format(calc(t, dev));
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return df.format(calc(mm, t, dev));
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Equipment eq = getEquipment(t, dev);
-            return Math.abs(eq.gunElevationLow) + eq.gunElevationHigh;
+        protected double compute(Loadout l) {
+            return Math.abs(l.equipment.gunElevationLow) + l.equipment.gunElevationHigh;
         }
     },
     /**
@@ -1198,80 +1594,74 @@ public enum Field {
      */
     DP_Ammo_Normalized {
         @Override
-        public String get(Tank t, Development dev) {
-            return df.format(calc(t, dev));
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return df.format(calc(mm, t, dev));
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-            double rpm = (dev == Development.Stock) ? g.fireRateMin : g.fireRateMax;
-            double ammo = (dev == Development.Stock) ? g.ammoCapacityMin : g.ammoCapacityMax;
+        protected double compute(Loadout l) {
+            Gun g = l.gun;
+            double rpm = (l.development == Development.Stock) ? g.fireRateMin : g.fireRateMax;
+            double ammo = (l.development == Development.Stock) ? g.ammoCapacityMin : g.ammoCapacityMax;
             return ammo / (rpm / 60.0);
         }
     },
     /** Damage per Second, using AP ammo */
     DP_DmgPS_AP {
         @Override
-        public String get(Tank t, Development dev) {
-            double dps = calc(t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            double dps = calc(mm, t, dev);
             return (dps == -1) ? na : df.format(dps);
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-            return calculateDPS(g, dev, g.dmgAP);
+        protected double compute(Loadout l) {
+            return calculateDPS(l.gun, l.development, l.gun.dmgAP);
         }
     },
     /** Damage per Second, using APCR ammo */
     DP_DmgPS_APCR {
         @Override
-        public String get(Tank t, Development dev) {
-            double dps = calc(t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            double dps = calc(mm, t, dev);
             return (dps == -1) ? na : df.format(dps);
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-            return calculateDPS(g, dev, g.dmgAPCR);
+        protected double compute(Loadout l) {
+            return calculateDPS(l.gun, l.development, l.gun.dmgAPCR);
         }
     },
     /** Damage per Second, using HE ammo */
     DP_DmgPS_HE {
         @Override
-        public String get(Tank t, Development dev) {
-            double dps = calc(t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            double dps = calc(mm, t, dev);
             return (dps == -1) ? na : df.format(dps);
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-            return calculateDPS(g, dev, g.dmgHE);
+        protected double compute(Loadout l) {
+            return calculateDPS(l.gun, l.development, l.gun.dmgHE);
         }
     },
     /** Damage per Second, using HEAT ammo */
     DP_DmgPS_HEAT {
         @Override
-        public String get(Tank t, Development dev) {
-            double dps = calc(t, dev);
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            double dps = calc(mm, t, dev);
             return (dps == -1) ? na : df.format(dps);
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-            return calculateDPS(g, dev, g.dmgHEAT);
+        protected double compute(Loadout l) {
+            return calculateDPS(l.gun, l.development, l.gun.dmgHEAT);
         }
     },
     /** Horse Power per Ton, Tank accelerates faster for high values */
     DP_HPperTon {
         @Override
-        public String get(Tank t, Development dev) {
-            return df.format(calc(t, dev));
+        public String get(ModuleMap mm, Tank t, Development dev) {
+            return df.format(calc(mm, t, dev));
         }
         @Override
-        public double calc(Tank t, Development dev) {
-            Equipment eq = getEquipment(t, dev);
-            Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
-            return (e.power) / eq.weight;
+        protected double compute(Loadout l) {
+            return (l.engine.power) / l.equipment.weight;
         }
     },
     //</editor-fold>
@@ -1281,49 +1671,49 @@ public enum Field {
     RT_Hitpoints {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.hitpoints, tr.eq.hitpoints, TE_Hitpoints.best);
+            return ratingHTMLsp(tr.hitpoints, tr.eq.hitpoints, tr.norm.best(TE_Hitpoints));
         }
     },
     /** the weight rating */
     RT_Weight {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.weight, tr.eq.weight, TE_Weight.best);
+            return ratingHTMLsp(tr.weight, tr.eq.weight, tr.norm.best(TE_Weight));
         }
     },
     /** the engine firechance rating */
     RT_Firechance {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.firechance, tr.e.firechance, ME_Firechance.best);
+            return ratingHTMLsp(tr.firechance, tr.e.firechance, tr.norm.best(ME_Firechance));
         }
     },
     /** the turret rotation rating */
     RT_TraverseTurret {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.traverseTurret, tr.tu.traverse, MT_Traverse.best);
+            return ratingHTMLsp(tr.traverseTurret, tr.tu.traverse, tr.norm.best(MT_Traverse));
         }
     },
     /** the tank rotation rating */
     RT_TraverseSuspension {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.traverseSuspension, tr.s.traverse, MS_Traverse.best);
+            return ratingHTMLsp(tr.traverseSuspension, tr.s.traverse, tr.norm.best(MS_Traverse));
         }
     },
     /** the accuracy rating */
     RT_Accuracy {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLdp(tr.gunAccuracy, (tr.eq.development == Development.Stock) ? tr.g.accuracyMax : tr.g.accuracyMin, MG_Accuracy_Min.best);
+            return ratingHTMLdp(tr.gunAccuracy, (tr.eq.development == Development.Stock) ? tr.g.accuracyMax : tr.g.accuracyMin, tr.norm.best(MG_Accuracy_Min));
         }
     },
     /** the aim time rating */
     RT_AimTime {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLdp(tr.gunAimTime, (tr.eq.development == Development.Stock) ? tr.g.aimTimeMax : tr.g.aimTimeMin, MG_AimTime_Min.best);
+            return ratingHTMLdp(tr.gunAimTime, (tr.eq.development == Development.Stock) ? tr.g.aimTimeMax : tr.g.aimTimeMin, tr.norm.best(MG_AimTime_Min));
         }
     },
     /** the ammo capacity rating rating, using normalized ammo (continuous fire time) */
@@ -1336,7 +1726,7 @@ public enum Field {
             String duration = String.format("%02d:%02d", (s/60), (s%60));
             
             String tooltip = String.format("Ammo: %s rounds<br/>Rate: %s rpm<br/>=> Constant Fire: %s<br/>Best: %s s",
-                    ammo, rate, duration, Math.round(DP_Ammo_Normalized.best));
+                    ammo, rate, duration, Math.round(tr.norm.best(DP_Ammo_Normalized)));
             return ratingHTML(percent(tr.gunAmmo), tooltip);
         }
     },
@@ -1344,35 +1734,35 @@ public enum Field {
     RT_TopSpeed {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.speed, tr.t.speed, T_TopSpeed.best);
+            return ratingHTMLsp(tr.speed, tr.t.speed, tr.norm.best(T_TopSpeed));
         }
     },
     /** the engine power rating */
     RT_EnginePower {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.enginePower, tr.e.power, ME_Power.best);
+            return ratingHTMLsp(tr.enginePower, tr.e.power, tr.norm.best(ME_Power));
         }
     },
     /** the power-weight ratio rating */
     RT_PowerWeightRatio {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.powerWeightRatio, Field.DP_HPperTon.calc(tr.t, tr.eq.development), DP_HPperTon.best);
+            return ratingHTMLsp(tr.powerWeightRatio, Field.DP_HPperTon.calc(tr.mm, tr.t, tr.eq.development), tr.norm.best(DP_HPperTon));
         }
     },
     /** the radio transmission rate rating */
     RT_RadioRange {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.radioRange, tr.r.range, MR_Range.best);
+            return ratingHTMLsp(tr.radioRange, tr.r.range, tr.norm.best(MR_Range));
         }
     },
     /** the view range rating */
     RT_ViewRange {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.viewRange, tr.eq.viewRange, TE_ViewRange.best);
+            return ratingHTMLsp(tr.viewRange, tr.eq.viewRange, tr.norm.best(TE_ViewRange));
         }
     },
     /** The hull armor rating (cumulation of front, side and rear) */
@@ -1380,8 +1770,8 @@ public enum Field {
         @Override
         public String get(TankRating tr) {
             String tooltip = String.format("F: %s mm (best: %s)<br/>S: %s mm (best: %s)<br/>R: %s mm (best: %s)",
-                    tr.t.hullFront, T_Hull_Front.best, tr.t.hullSide, T_Hull_Side.best,
-                    tr.t.hullRear, T_Hull_Rear.best);
+                    tr.t.hullFront, tr.norm.best(T_Hull_Front), tr.t.hullSide, tr.norm.best(T_Hull_Side),
+                    tr.t.hullRear, tr.norm.best(T_Hull_Rear));
             return ratingHTML(percent(tr.hullArmor), tooltip);
         }
     },
@@ -1390,8 +1780,8 @@ public enum Field {
         @Override
         public String get(TankRating tr) {
             String tooltip = String.format("F: %s mm (best: %s)<br/>S: %s mm (best: %s)<br/>R: %s mm (best: %s)",
-                    tr.tu.armorFront, MT_Armor_Front.best, tr.tu.armorSide, MT_Armor_Side.best,
-                    tr.tu.armorRear, MT_Armor_Rear.best);
+                    tr.tu.armorFront, tr.norm.best(MT_Armor_Front), tr.tu.armorSide, tr.norm.best(MT_Armor_Side),
+                    tr.tu.armorRear, tr.norm.best(MT_Armor_Rear));
             return ratingHTML(percent(tr.turretArmor), tooltip);
         }
     },
@@ -1399,14 +1789,14 @@ public enum Field {
     RT_GunArc {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.gunArc, Field.DP_GunArc.calc(tr.t, tr.eq.development), DP_GunArc.best);
+            return ratingHTMLsp(tr.gunArc, Field.DP_GunArc.calc(tr.mm, tr.t, tr.eq.development), tr.norm.best(DP_GunArc));
         }
     },
     /** The gun elevation (low/high) rating */
     RT_GunElevation {
         @Override
         public String get(TankRating tr) {
-            return ratingHTMLsp(tr.gunElevation, Field.DP_Elevation.calc(tr.t, tr.eq.development), DP_Elevation.best);
+            return ratingHTMLsp(tr.gunElevation, Field.DP_Elevation.calc(tr.mm, tr.t, tr.eq.development), tr.norm.best(DP_Elevation));
         }
     },
     /** The damage rating (cumulation of all damage types) */
@@ -1418,14 +1808,14 @@ public enum Field {
             
             StringBuilder sb = new StringBuilder(200);
             sb.append("<table><tr><th>AmmoType</th><th>dmg/shot</th><th>shots/min</th><th>dmg/s</th><th>dmg/s (best)</th></tr>");
-            sb.append(String.format(row, "AP", tr.g.dmgAP, rate, df.format(Field.DP_DmgPS_AP.calc(tr.t, tr.eq.development)),
-                    df.format(Field.DP_DmgPS_AP.best)));
-            sb.append(String.format(row, "APCR", tr.g.dmgAPCR, rate, df.format(Field.DP_DmgPS_APCR.calc(tr.t, tr.eq.development)),
-                    df.format(Field.DP_DmgPS_APCR.best)));
-            sb.append(String.format(row, "HE", tr.g.dmgHE,   rate, df.format(Field.DP_DmgPS_HE.calc(tr.t, tr.eq.development)),
-                    df.format(Field.DP_DmgPS_HE.best)));
-            sb.append(String.format(row, "HEAT", tr.g.dmgHEAT, rate, df.format(Field.DP_DmgPS_HEAT.calc(tr.t, tr.eq.development)),
-                    df.format(Field.DP_DmgPS_HEAT.best)));
+            sb.append(String.format(row, "AP", tr.g.dmgAP, rate, df.format(Field.DP_DmgPS_AP.calc(tr.mm, tr.t, tr.eq.development)),
+                    df.format(tr.norm.best(DP_DmgPS_AP))));
+            sb.append(String.format(row, "APCR", tr.g.dmgAPCR, rate, df.format(Field.DP_DmgPS_APCR.calc(tr.mm, tr.t, tr.eq.development)),
+                    df.format(tr.norm.best(DP_DmgPS_APCR))));
+            sb.append(String.format(row, "HE", tr.g.dmgHE,   rate, df.format(Field.DP_DmgPS_HE.calc(tr.mm, tr.t, tr.eq.development)),
+                    df.format(tr.norm.best(DP_DmgPS_HE))));
+            sb.append(String.format(row, "HEAT", tr.g.dmgHEAT, rate, df.format(Field.DP_DmgPS_HEAT.calc(tr.mm, tr.t, tr.eq.development)),
+                    df.format(tr.norm.best(DP_DmgPS_HEAT))));
             sb.append("</table>");
             
             return ratingHTML(percent(tr.damage), sb.toString());
@@ -1437,8 +1827,8 @@ public enum Field {
         public String get(TankRating tr) {
             String tooltip = String.format("AP: %s mm (best: %s)<br/>APCR: %s mm (best: %s)<br/>"
                     + "HE: %s mm (best: %s)<br/>HEAT: %s mm (best: %s)",
-                    tr.g.penAP, MG_Penetration_AP.best, tr.g.penAPCR, MG_Penetration_APCR.best,
-                    tr.g.penHE, MG_Penetration_HE.best, tr.g.penHEAT, MG_Penetration_HEAT.best);
+                    tr.g.penAP, tr.norm.best(MG_Penetration_AP), tr.g.penAPCR, tr.norm.best(MG_Penetration_APCR),
+                    tr.g.penHE, tr.norm.best(MG_Penetration_HE), tr.g.penHEAT, tr.norm.best(MG_Penetration_HEAT));
             return ratingHTML(percent(tr.penetration), tooltip);
         }
     },
@@ -1498,27 +1888,63 @@ public enum Field {
     private static final Logger log = LoggerFactory.getLogger(Field.class);
     
     //<editor-fold desc="shared enum members">
-    /** best value for each field (compared to the other instances) */
-    public double best = -1;
-    
     /**
-     * Calculates the value of an advanced field (prefix DP_)
-     * Returns -1 on all other fields
+     * Gets the value of an advanced field (prefix DP_)
+     * Returns -1 on all other fields.
+     * The values are calculated only once per database and then read from
+     * the DerivedMetrics of the ModuleMap.
+     * @param mm the ModuleMap of the database the tank belongs to
      * @param t the Tank to calculate the value for
      * @param dev the development (needed if field depends on it)
      * @return the value of this field (or -1, if not applicable)
      */
-    public double calc(Tank t, Development dev) {
+    public double calc(ModuleMap mm, Tank t, Development dev) {
+        return mm.metrics.get(this, t, dev);
+    }
+    
+    /**
+     * Calculates the value of an advanced field (prefix DP_) for the
+     * specified loadout. Returns -1 on all other fields.
+     * This is used once per database to fill the DerivedMetrics, all other
+     * code should call calc() instead.
+     * @param l the loadout of the tank
+     * @return the value of this field (or -1, if not applicable)
+     */
+    protected double compute(Loadout l) {
         return -1;
     }
     
+    /**
+     * @return true, if this is an advanced field (prefix DP_), that is
+     * calculated from other fields
+     */
+    public boolean isDerived() {
+        return name().startsWith("DP_");
+    }
+    
+    /**
+     * Gets the numeric value of this field, without any formatting.
+     * Enum values are represented by their ordinal, flags by 1 (yes) and 0 (no).
+     * For advanced fields (prefix DP_), this is the value of calc().
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param t the Tank to calculate the value for
+     * @param dev the development (needed if field depends on it)
+     * @return the numeric value of this field, or NaN if the value is not
+     * available or this field has no numeric value (e.g. names or lists)
+     */
+    public double value(ModuleMap mm, Tank t, Development dev) {
+        double value = calc(mm, t, dev);
+        return (value == -1) ? Double.NaN : value;
+    }
+    
     /**
      * Gets the value of this field as String
+     * @param mm the ModuleMap of the database the tank belongs to
      * @param t the Tank to calculate the value for
      * @param dev the development (needed if field depends on it)
      * @return String representation of this field
      */
-    public String get(Tank t, Development dev) {
+    public String get(ModuleMap mm, Tank t, Development dev) {
         return "";
     }
     
@@ -1539,16 +1965,16 @@ public enum Field {
      * @return String representation of this rating
      */
     public String get(TankRating tr) {
-        return get(tr.t, tr.eq.development);
+        return get(tr.mm, tr.t, tr.eq.development);
     }
     //</editor-fold>
 
     //<editor-fold desc="methods">
     
-    /** Decimal formatter, one decimal digit */
-    protected static final DecimalFormat df = new DecimalFormat("0.0", new DecimalFormatSymbols(Locale.US));
-    /** More precise decimal formatter, two decimal digits */
-    protected static final DecimalFormat dfp = new DecimalFormat("0.00", new DecimalFormatSymbols(Locale.US));
+    /** Decimal formatter, one decimal digit (thread safe) */
+    protected static final DecimalFormatter df = new DecimalFormatter("0.0");
+    /** More precise decimal formatter, two decimal digits (thread safe) */
+    protected static final DecimalFormatter dfp = new DecimalFormatter("0.00");
     
     /** this string is entered for invalid field values */
     public static final String na = "n/a";
@@ -1570,6 +1996,21 @@ public enum Field {
         }
     }
     
+    /**
+     * Returns the module of the specified type in the loadout of the tank,
+     * for the numeric value of a module field: a missing module has no
+     * value (instead of the 0 of the empty module in the loadout).
+     * @param mm the ModuleMap of the database
+     * @param t the tank
+     * @param dev stock or top
+     * @param type the module type
+     * @return the module, or null if the tank has no module of this type
+     */
+    protected static Module module(ModuleMap mm, Tank t, Development dev, ModuleType type) {
+        Loadout l = mm.getLoadout(t, dev);
+        return l.has(type) ? l.get(type) : null;
+    }
+    
     // ---------- reference lists ----------
     
     /**
@@ -1649,181 +2090,6 @@ public enum Field {
         return sb.toString();
     }
     
-    // ---------- min max fields ----------
-    
-    /**
-     * Calculates the minimum and maximum values for all relevant fields, using
-     * the data from the specified TankDB
-     * @param db the database to retrieve values from
-     */
-    public static void calculateMinMaxFields(TanksDB db) {
-        for (Tank t : db.tanks) {
-            for (Development dev : Development.values()) {
-                calculateMinMaxFields(t, dev);
-            }
-        }
-    }
-    
-    /**
-     * Calculates the minimum and maximum values for all relevant fields, using
-     * the data from the specified TankDB, but only for tanks of the specified
-     * TankType
-     * @param db the database to retrieve values from
-     * @param type the TankType to calculate values for
-     */
-    public static void calculateMinMaxFields(TanksDB db, TankType type) {
-        // reset old values
-        resetBestValues();
-        
-        // calculate new ones for this type only
-        for (Tank t : db.tanks) {
-            // use only tanks of specified type for minmax rating!
-            if(t.type == type) {
-                for (Development dev : Development.values()) {
-                    calculateMinMaxFields(t, dev);
-                }
-            }
-        }
-    }
-    
-    /**
-     * Resets the min and max values, before new ones are generated.
-     */
-    protected static void resetBestValues() {
-        // higher is better (default)
-        for (Field f : Field.values()) {
-            f.best = -1;
-        }
-        
-        // lower is better
-        Field.MG_AimTime_Min.best = Double.POSITIVE_INFINITY;
-        Field.MG_AimTime_Max.best = Double.POSITIVE_INFINITY;
-        Field.MG_Accuracy_Min.best = Double.POSITIVE_INFINITY;
-        Field.MG_Accuracy_Max.best = Double.POSITIVE_INFINITY;
-        Field.ME_Firechance.best = Double.POSITIVE_INFINITY;
-    }
-    
-    /**
-     * Calculates the minimum and maximum values for all relevant fields for
-     * the specified tank.
-     * @param t the tank to calculate values for
-     * @param dev the development of this tank (to retrieve correct modules)
-     */
-    protected static void calculateMinMaxFields(Tank t, Development dev) {
-        
-        Equipment eq = dev.getEquip(t, dev);
-        
-        Engine e = ModuleMap.getModuleByDev(Engine.class, t, dev);
-        Gun g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-        Radio r = ModuleMap.getModuleByDev(Radio.class, t, dev);
-        Suspension s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
-        Turret tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
-        
-        
-        // base properties
-        updateMax(Field.TE_Hitpoints, eq.hitpoints);
-        updateMax(Field.TE_Weight , eq.weight);
-        updateMin(Field.ME_Firechance , e.firechance);
-        updateMax(Field.MT_Traverse , tu.traverse);
-        updateMax(Field.MS_Traverse , s.traverse);
-        updateMax(Field.T_TopSpeed , t.speed);
-        updateMax(Field.ME_Power , e.power);
-        updateMax(Field.MR_Range , r.range);
-        updateMax(Field.TE_ViewRange , eq.viewRange);
-        
-        updateMax(Field.T_Hull_Front , t.hullFront);
-        updateMax(Field.T_Hull_Side , t.hullRear);
-        updateMax(Field.T_Hull_Rear , t.hullSide);
-        updateMax(Field.MT_Armor_Front , tu.armorFront);
-        updateMax(Field.MT_Armor_Side , tu.armorSide);
-        updateMax(Field.MT_Armor_Rear , tu.armorRear);
-        updateMax(Field.MG_Penetration_AP , g.penAP);
-        updateMax(Field.MG_Penetration_APCR , g.penAPCR);
-        updateMax(Field.MG_Penetration_HE , g.penHE);
-        updateMax(Field.MG_Penetration_HEAT , g.penHEAT);
-        
-        // special calculations
-        updateMax(Field.DP_GunArc , t, dev);
-        updateMax(Field.DP_Elevation, t, dev);
-        updateMax(Field.DP_Ammo_Normalized, t, dev);
-        updateMax(Field.DP_DmgPS_AP , t, dev);
-        updateMax(Field.DP_DmgPS_APCR , t, dev);
-        updateMax(Field.DP_DmgPS_HE , t, dev);
-        updateMax(Field.DP_DmgPS_HEAT , t, dev);
-        updateMax(Field.DP_HPperTon, t, dev);
-        
-        // depending on dev --> always use best values, will be applied anyways
-        switch (eq.development) {
-            case Stock:
-                updateMin(Field.MG_Accuracy_Max, g.accuracyMin);
-                updateMin(Field.MG_AimTime_Max, g.aimTimeMin);
-                updateMax(Field.MG_AmmoCapacity_Min, g.ammoCapacityMax);
-                break;
-            case Top:
-                updateMin(Field.MG_Accuracy_Min, g.accuracyMin);
-                updateMin(Field.MG_AimTime_Min, g.aimTimeMin);
-                updateMax(Field.MG_AmmoCapacity_Max, g.ammoCapacityMax);
-                break;
-        }
-        
-    }
-    
-    /**
-     * Updates the maximum value of a given field with the specified value,
-     * if it really is larger than the current max value
-     * @param f the field to update
-     * @param value the value to set as max, if larger
-     */
-    protected static void updateMax(Field f, double value) {
-        if (value > 0.0) {
-            if (value > f.best) {
-                f.best = value;
-            }
-        } else if (value < 0.0) {
-            log.warn("Field {} is associated with illegal value {}", f.toString(), value);
-        }
-    }
-    
-    /**
-     * Updates the maximum value of a given field with the value from the
-     * specified tank, if it really is larger than the current max value
-     * @param f the field to update
-     * @param t the tank
-     * @param dev stock or top equipment?
-     */
-    protected static void updateMax(Field f, Tank t, Development dev) {
-        double value = f.calc(t, dev);
-        updateMax(f, value);
-    }
-    
-    /**
-     * Updates the minimum value of a given field with the specified value,
-     * if it really is smaller than the current min value
-     * @param f the field to update
-     * @param value the value to set as min, if smaller
-     */
-    protected static void updateMin(Field f, double value) {
-        if (value > 0.0) {
-            if (value < f.best) {
-                f.best = value;
-            }
-        } else if (value < 0.0) {
-            log.warn("Field {} is associated with illegal value {}", f.toString(), value);
-        }
-    }
-    
-    /**
-     * Updates the minimum value of a given field with the value from the
-     * specified tank, if it really is smaller than the current max value
-     * @param f the field to update
-     * @param t the tank
-     * @param dev stock or top equipment?
-     */
-    protected static void updateMin(Field f, Tank t, Development dev) {
-        double value = f.calc(t, dev);
-        updateMin(f, value);
-    }
-    
     // ---------- other helpers ----------
     
     /**
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+
+/**
+ * Keeps the ratings of all tanks up to date, while single tanks (or modules)
+ * are changed, without recalculating everything.
+ * 
+ * For each tank type and field, all values that are compared to find the
+ * best value are kept in a multiset (a sorted map from value to count), so
+ * a value can be removed again when a tank changes, and the new best value
+ * is just the first or last key. When a tank changes, only its own values
+ * are replaced. If this moves the best value of any field, the
+ * NormalizationContext of this type is replaced and all tanks of the type
+ * are rated again; otherwise only the changed tank is.
+ * 
+ * Changes are made in place, in a working copy of the database: change the
+ * values of the tank or module, then call update(). The ratings keep a
+ * private copy of the ModuleMap they were built from, which is refreshed on
+ * updates, so the original map stays unchanged. The order of the
+ * modules of a tank and the compatibility of tanks and modules must not
+ * be changed, this requires a new instance. This class is not thread safe.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class IncrementalRatings {
+    
+    private static final Logger log = LoggerFactory.getLogger(IncrementalRatings.class);
+    
+    /** the development stages */
+    private static final Development[] devs = Development.values();
+    /** all fields, by ordinal */
+    private static final Field[] fields = Field.values();
+    /** all tank types, by ordinal */
+    private static final TankType[] types = TankType.values();
+    
+    /** private copy of the ModuleMap of the working copy (it is refreshed
+     * on updates) */
+    protected final ModuleMap mm;
+    /** the weights of the ratings */
+    protected final RatingProfile profile;
+    /** the compared values by TankType ordinal and Field ordinal */
+    private final ValueCounter[][] counters;
+    /** the current best values of each TankType, by ordinal */
+    private final NormalizationContext[] norms;
+    /** the values each row has contributed, by row (tank id * devs +
+     * Development ordinal) */
+    private final double[][] contributed;
+    /** the type each tank has been counted for, by tank id */
+    private final TankType[] counted;
+    /** the ratings by row (null for tanks without type) */
+    private final TankRating[] ratings;
+    
+    /**
+     * Collects the values of all tanks and rates them
+     * @param mm the ModuleMap of the working copy
+     * @param profile the weights of the ratings
+     */
+    protected IncrementalRatings(ModuleMap mm, RatingProfile profile) {
+        this.mm = mm.copy();
+        this.profile = profile;
+        int tanks = mm.ids.getTankCount();
+        this.counters = new ValueCounter[types.length][fields.length];
+        for (TankType type : types) {
+            for (Field f : fields) {
+                counters[type.ordinal()][f.ordinal()] = new ValueCounter(
+                        NormalizationContext.lowerIsBetter.contains(f));
+            }
+        }
+        this.norms = new NormalizationContext[types.length];
+        this.contributed = new double[tanks * devs.length][];
+        this.counted = new TankType[tanks];
+        this.ratings = new TankRating[tanks * devs.length];
+        
+        for (int id = 0; id < tanks; id++) {
+            add(id);
+        }
+        for (TankType type : types) {
+            norms[type.ordinal()] = new NormalizationContext(this.mm, type, best(type));
+        }
+        for (int id = 0; id < tanks; id++) {
+            rate(id);
+        }
+    }
+    
+    /**
+     * Rates all tanks of the specified working copy with the default weights
+     * @param mm the ModuleMap of the working copy
+     * @return the ratings
+     */
+    public static IncrementalRatings build(ModuleMap mm) {
+        return new IncrementalRatings(mm, RatingProfile.defaults());
+    }
+    
+    /**
+     * Rates all tanks of the specified working copy
+     * @param mm the ModuleMap of the working copy
+     * @param profile the weights of the ratings
+     * @return the ratings
+     */
+    public static IncrementalRatings build(ModuleMap mm, RatingProfile profile) {
+        return new IncrementalRatings(mm, profile);
+    }
+    
+    // -------------------- updates --------------------
+    
+    /**
+     * Updates the ratings after the values of the specified tank have been
+     * changed
+     * @param t the changed tank
+     * @return the number of ratings that were calculated again
+     */
+    public int update(Tank t) {
+        int id = mm.ids.idOf(t);
+        if (id < 0) {
+            throw new IllegalArgumentException("Tank " + t.name + " is not part of the database");
+        }
+        return update(new int[] { id });
+    }
+    
+    /**
+     * Updates the ratings after the values of the specified module have
+     * been changed (this affects all compatible tanks)
+     * @param type the module type
+     * @param m the changed module
+     * @return the number of ratings that were calculated again
+     */
+    public int update(ModuleType type, Module m) {
+        int id = mm.ids.idOf(type, m);
+        if (id < 0) {
+            throw new IllegalArgumentException("Module " + m.name + " is not part of the database");
+        }
+        int[] tanks = new int[mm.ids.getCompatibleCount(type, id)];
+        for (int i = 0; i < tanks.length; i++) {
+            tanks[i] = mm.ids.getCompatible(type, id, i);
+        }
+        return update(tanks);
+    }
+    
+    /**
+     * Updates the ratings after the values of the specified tanks have been
+     * changed. The best values are compared only once, after all tanks have
+     * been collected again.
+     * @param tanks the ids of the changed tanks
+     * @return the number of ratings that were calculated again
+     */
+    public int update(int[] tanks) {
+        boolean[] affected = new boolean[types.length];
+        for (int id : tanks) {
+            if (counted[id] != null) {
+                affected[counted[id].ordinal()] = true;
+            }
+            remove(id);
+            mm.refresh(id);
+            add(id);
+            if (counted[id] != null) {
+                affected[counted[id].ordinal()] = true;
+            }
+        }
+        
+        // replace the contexts, where a best value has moved
+        boolean[] moved = new boolean[types.length];
+        for (TankType type : types) {
+            if (affected[type.ordinal()]) {
+                double[] best = best(type);
+                if (!equal(norms[type.ordinal()], best)) {
+                    log.debug("Best values of {} have changed, rating all of them again", type);
+                    norms[type.ordinal()] = new NormalizationContext(mm, type, best);
+                    moved[type.ordinal()] = true;
+                }
+            }
+        }
+        
+        // rate the changed tanks and all tanks of types with new best values
+        int rated = 0;
+        boolean[] changed = new boolean[mm.ids.getTankCount()];
+        for (int id : tanks) {
+            changed[id] = true;
+        }
+        for (int id = 0; id < changed.length; id++) {
+            TankType type = counted[id];
+            if (changed[id] || (type != null && moved[type.ordinal()])) {
+                rated += rate(id);
+            }
+        }
+        return rated;
+    }
+    
+    // -------------------- accessors --------------------
+    
+    /**
+     * @param type the tank type
+     * @return the current best values of this type
+     */
+    public NormalizationContext getNormalization(TankType type) {
+        return norms[type.ordinal()];
+    }
+    
+    /**
+     * @return the current best values of each TankType
+     */
+    public Map<TankType,NormalizationContext> getNormalizations() {
+        Map<TankType,NormalizationContext> result = new EnumMap<TankType,NormalizationContext>(TankType.class);
+        for (TankType type : types) {
+            result.put(type, norms[type.ordinal()]);
+        }
+        return result;
+    }
+    
+    /**
+     * @param t the tank
+     * @param dev the development
+     * @return the current rating of this tank (null, if the tank has no type
+     * or is not part of the database)
+     */
+    public TankRating getRating(Tank t, Development dev) {
+        int id = mm.ids.idOf(t);
+        return (id < 0) ? null : ratings[id * devs.length + dev.ordinal()];
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * Adds the current values of a tank to the counters of its type
+     * @param id the tank id
+     */
+    private void add(int id) {
+        TankType type = mm.ids.getTank(id).type;
+        counted[id] = type;
+        for (Development dev : devs) {
+            int row = id * devs.length + dev.ordinal();
+            if (type == null) {
+                contributed[row] = null;
+                continue;
+            }
+            double[] values = NormalizationContext.collect(mm, id, dev);
+            ValueCounter[] c = counters[type.ordinal()];
+            for (int f = 0; f < values.length; f++) {
+                c[f].add(values[f]);
+            }
+            contributed[row] = values;
+        }
+    }
+    
+    /**
+     * Removes the values of a tank, as they were added last, from the
+     * counters of its type
+     * @param id the tank id
+     */
+    private void remove(int id) {
+        TankType type = counted[id];
+        for (Development dev : devs) {
+            int row = id * devs.length + dev.ordinal();
+            double[] values = contributed[row];
+            if (type != null && values != null) {
+                ValueCounter[] c = counters[type.ordinal()];
+                for (int f = 0; f < values.length; f++) {
+                    c[f].remove(values[f]);
+                }
+            }
+            contributed[row] = null;
+        }
+    }
+    
+    /**
+     * Rates a tank with the current best values of its type
+     * @param id the tank id
+     * @return the number of ratings that were calculated
+     */
+    private int rate(int id) {
+        Tank t = mm.ids.getTank(id);
+        int rated = 0;
+        for (Development dev : devs) {
+            int row = id * devs.length + dev.ordinal();
+            if (t.type == null) {
+                ratings[row] = null;
+            } else {
+                TankRating tr = new TankRating(norms[t.type.ordinal()], profile.get(t.type), t, dev);
+                tr.calculateRatings();
+                ratings[row] = tr;
+                rated++;
+            }
+        }
+        return rated;
+    }
+    
+    /**
+     * @param type the tank type
+     * @return the current best values of this type, by Field ordinal
+     */
+    private double[] best(TankType type) {
+        double[] best = NormalizationContext.initial();
+        ValueCounter[] c = counters[type.ordinal()];
+        for (int f = 0; f < best.length; f++) {
+            if (!c[f].isEmpty()) {
+                best[f] = c[f].best();
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * @return true, if the context has exactly the specified best values
+     */
+    private static boolean equal(NormalizationContext norm, double[] best) {
+        for (Field f : fields) {
+            if (Double.compare(norm.best(f), best[f.ordinal()]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // -------------------- value counter --------------------
+    
+    /**
+     * A multiset of the valid (positive) values of one field, that knows
+     * its best value
+     */
+    private static class ValueCounter {
+        
+        /** the number of occurrences of each value */
+        private final TreeMap<Double,Integer> counts = new TreeMap<Double,Integer>();
+        /** true, if the minimum is the best value */
+        private final boolean lowerIsBetter;
+        
+        ValueCounter(boolean lowerIsBetter) {
+            this.lowerIsBetter = lowerIsBetter;
+        }
+        
+        /**
+         * Adds a value (values that are not positive are ignored)
+         */
+        void add(double value) {
+            if (value > 0.0) {
+                Integer n = counts.get(value);
+                counts.put(value, n == null ? 1 : n + 1);
+            }
+        }
+        
+        /**
+         * Removes one occurrence of a value (values that are not positive
+         * are ignored)
+         */
+        void remove(double value) {
+            if (value > 0.0) {
+                Integer n = counts.get(value);
+                if (n == null) {
+                    throw new IllegalStateException("Value " + value + " has never been added");
+                } else if (n == 1) {
+                    counts.remove(value);
+                } else {
+                    counts.put(value, n - 1);
+                }
+            }
+        }
+        
+        boolean isEmpty() {
+            return counts.isEmpty();
+        }
+        
+        /**
+         * @return the best value (the counter must not be empty)
+         */
+        double best() {
+            return lowerIsBetter ? counts.firstKey() : counts.lastKey();
+        }
+    }
+    
+}
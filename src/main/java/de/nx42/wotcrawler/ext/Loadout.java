@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.List;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.module.Engine;
+import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.module.Radio;
+import de.nx42.wotcrawler.db.module.Suspension;
+import de.nx42.wotcrawler.db.module.Turret;
+import de.nx42.wotcrawler.db.tank.Equipment;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * The complete equipment of a tank in one development stage: the stock or
+ * top module of each type and the matching tank equipment.
+ * 
+ * Loadouts are resolved once by the ModuleMap, so ratings and fields can
+ * access the modules of a tank without any lookup. If a tank has no module
+ * of some type (which is an error in the database, see Evaluator), an empty
+ * module of that type takes its place, so all values are 0 instead of
+ * causing NullPointerExceptions. Such a loadout is not complete, and has()
+ * tells which modules are actually there (e.g. for fields that must not
+ * report the 0 of an empty module as a value).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Loadout {
+    
+    /** The tank this loadout belongs to */
+    public final Tank tank;
+    /** stock or top */
+    public final Development development;
+    
+    /** the engine */
+    public final Engine engine;
+    /** the gun */
+    public final Gun gun;
+    /** the radio */
+    public final Radio radio;
+    /** the suspension */
+    public final Suspension suspension;
+    /** the turret */
+    public final Turret turret;
+    /** the tank equipment (hitpoints, weight, etc.) */
+    public final Equipment equipment;
+    
+    /** true, if a module of each type was found for this tank */
+    public final boolean complete;
+    /** the modules that were found, as bits by ModuleType ordinal */
+    private final int present;
+    
+    /**
+     * Creates a new loadout. Missing modules (null) are replaced by empty ones.
+     * @param tank the tank
+     * @param dev stock or top
+     * @param engine the engine
+     * @param gun the gun
+     * @param radio the radio
+     * @param suspension the suspension
+     * @param turret the turret
+     */
+    protected Loadout(Tank tank, Development dev, Engine engine, Gun gun,
+            Radio radio, Suspension suspension, Turret turret) {
+        this(tank, dev, dev.getEquip(tank, dev), engine, gun, radio, suspension, turret);
+    }
+    
+    /**
+     * Creates a new loadout with custom equipment (e.g. for combinations of
+     * modules, that are neither stock nor top). Missing modules (null) are
+     * replaced by empty ones.
+     * @param tank the tank
+     * @param dev the development the values of the modules are taken from
+     * @param equipment the equipment (hitpoints, weight, ...)
+     * @param engine the engine
+     * @param gun the gun
+     * @param radio the radio
+     * @param suspension the suspension
+     * @param turret the turret
+     */
+    protected Loadout(Tank tank, Development dev, Equipment equipment, Engine engine,
+            Gun gun, Radio radio, Suspension suspension, Turret turret) {
+        this.tank = tank;
+        this.development = dev;
+        this.present = bit(engine, ModuleType.Engine) | bit(gun, ModuleType.Gun)
+                | bit(radio, ModuleType.Radio) | bit(suspension, ModuleType.Suspension)
+                | bit(turret, ModuleType.Turret);
+        this.complete = present == (1 << ModuleType.values().length) - 1;
+        this.engine = (engine == null) ? new Engine() : engine;
+        this.gun = (gun == null) ? new Gun() : gun;
+        this.radio = (radio == null) ? new Radio() : radio;
+        this.suspension = (suspension == null) ? new Suspension() : suspension;
+        this.turret = (turret == null) ? new Turret() : turret;
+        this.equipment = equipment;
+    }
+    
+    /**
+     * Resolves the stock (worst) or top (best) loadout of a tank from a list
+     * of its compatible modules, the same way the ModuleMap does: of equal
+     * modules, stock takes the first and top the last one in list order.
+     * This needs only the tank and its modules, not the whole database
+     * (see EntityStore.getLoadout).
+     * @param tank the tank
+     * @param dev stock or top
+     * @param compatible the modules (of any type) that are compatible with
+     * the tank, in the order of the database
+     * @return the loadout of the tank
+     */
+    @SuppressWarnings("unchecked")
+    public static Loadout resolve(Tank tank, Development dev, List<? extends Module> compatible) {
+        Module[] picked = new Module[ModuleType.values().length];
+        for (Module m : compatible) {
+            int type = ModuleType.valueOf(m.getClass().getSimpleName()).ordinal();
+            Module p = picked[type];
+            if (p == null) {
+                picked[type] = m;
+            } else {
+                int cmp = ((Comparable<Object>) m).compareTo(p);
+                if (dev == Development.Stock ? cmp < 0 : cmp >= 0) {
+                    picked[type] = m;
+                }
+            }
+        }
+        return new Loadout(tank, dev,
+                (Engine) picked[ModuleType.Engine.ordinal()],
+                (Gun) picked[ModuleType.Gun.ordinal()],
+                (Radio) picked[ModuleType.Radio.ordinal()],
+                (Suspension) picked[ModuleType.Suspension.ordinal()],
+                (Turret) picked[ModuleType.Turret.ordinal()]);
+    }
+    
+    /**
+     * @param type the module type
+     * @return the module of the specified type
+     */
+    public Module get(ModuleType type) {
+        switch (type) {
+            case Engine:
+                return engine;
+            case Gun:
+                return gun;
+            case Radio:
+                return radio;
+            case Suspension:
+                return suspension;
+            case Turret:
+                return turret;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * @param type the module type
+     * @return true, if the tank has a module of this type (false, if it
+     * has been replaced by an empty one)
+     */
+    public boolean has(ModuleType type) {
+        return (present & (1 << type.ordinal())) != 0;
+    }
+    
+    /**
+     * @param m the module (may be null)
+     * @param type the type of the module
+     * @return the bit of the type, if the module is present, 0 otherwise
+     */
+    private static int bit(Module m, ModuleType type) {
+        return (m == null) ? 0 : 1 << type.ordinal();
+    }
+    
+    @Override
+    public String toString() {
+        return tank.name + " (" + development + ")";
+    }
+    
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.module.Engine;
+import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.module.Radio;
+import de.nx42.wotcrawler.db.module.Suspension;
+import de.nx42.wotcrawler.db.module.Turret;
+import de.nx42.wotcrawler.db.tank.Equipment;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.ext.RatingWeights.Feature;
+import de.nx42.wotcrawler.util.DecimalFormatter;
+
+/**
+ * Finds the best combination of modules of each tank for each rating
+ * category, not only the stock and top loadouts.
+ * 
+ * All combinations of engine, gun, radio, suspension and turret are
+ * enumerated, that do not exceed the load limit of the suspension. The
+ * weight of a combination is the weight of the hull (the stock weight
+ * without the stock modules) plus the weight of all modules. Because
+ * combinations may be better than any stock or top loadout, the best values
+ * of each tank type are extended by all valid combinations.
+ * 
+ * The combinations are rated with branch and bound: the modules are chosen
+ * one type after another, and most features depend on a single module only.
+ * So the rating of a partial combination is known for these features, and
+ * the remaining ones are bounded by the best module that is still left.
+ * Branches that can not beat the best combination found so far in any
+ * category are not rated at all. The tanks are processed in parallel.
+ * 
+ * Limitations: the database does not know which guns fit which turret, so
+ * every gun is combined with every turret. Hitpoints, view range and gun
+ * elevation are taken from the stock equipment for the stock turret and
+ * from the top equipment for all other turrets, and all combinations are
+ * rated as fully developed (Development.Top).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class LoadoutOptimizer {
+    
+    private static final Logger log = LoggerFactory.getLogger(LoadoutOptimizer.class);
+    
+    /** tolerance of the load limit in tons (the weights are rounded) */
+    public static final double WEIGHT_TOLERANCE = 0.05;
+    /** the order in which the modules are chosen. The turret comes first,
+     * because it determines the equipment and the weights (with or without
+     * turret) */
+    private static final ModuleType[] order = { ModuleType.Turret, ModuleType.Suspension,
+        ModuleType.Gun, ModuleType.Engine, ModuleType.Radio };
+    /** the level in the order that determines each feature, by Feature
+     * ordinal (-1 for features that depend on the weight of all modules) */
+    private static final int[] owner = new int[Feature.values().length];
+    /** tolerance of the bounds (they are summed in a different order than
+     * the ratings) */
+    private static final double EPSILON = 1e-9;
+    /** format of the ratings in the report */
+    private static final DecimalFormatter df = new DecimalFormatter("0.000");
+    
+    static {
+        setOwner(ModuleType.Turret, Feature.Hitpoints, Feature.ViewRange, Feature.GunElevation,
+                Feature.TraverseTurret, Feature.TurretArmor, Feature.Speed, Feature.HullArmor,
+                Feature.GunArc);
+        setOwner(ModuleType.Suspension, Feature.TraverseSuspension);
+        setOwner(ModuleType.Gun, Feature.GunAccuracy, Feature.GunAimTime, Feature.GunAmmo,
+                Feature.Damage, Feature.Penetration);
+        setOwner(ModuleType.Engine, Feature.Firechance, Feature.EnginePower);
+        setOwner(ModuleType.Radio, Feature.RadioRange);
+        owner[Feature.Weight.ordinal()] = -1;
+        owner[Feature.PowerWeightRatio.ordinal()] = -1;
+    }
+    
+    /** The ModuleMap of the database */
+    public final ModuleMap mm;
+    /** the weights of the ratings */
+    protected final RatingProfile profile;
+    
+    /**
+     * Creates a new optimizer
+     * @param mm the ModuleMap of the database
+     * @param profile the weights of the ratings
+     */
+    public LoadoutOptimizer(ModuleMap mm, RatingProfile profile) {
+        this.mm = mm;
+        this.profile = profile;
+    }
+    
+    /**
+     * Creates a new optimizer with the default weights
+     * @param mm the ModuleMap of the database
+     */
+    public LoadoutOptimizer(ModuleMap mm) {
+        this(mm, RatingProfile.defaults());
+    }
+    
+    // -------------------- batch --------------------
+    
+    /**
+     * Finds the best loadouts of all tanks in parallel, one task per tank.
+     * The ratings are fractions of the best value of each tank type.
+     * @return the results of all tanks with a type, ordered by tank id
+     */
+    public List<Result> optimizeAll() {
+        return optimizeAll(NormalizationContext.buildAll(mm));
+    }
+    
+    /**
+     * Finds the best loadouts of all tanks in parallel, one task per tank
+     * @param base the normalization context of each tank type (of the same
+     * ModuleMap), which also determines the normalization mode. The best
+     * values are extended by all valid combinations of modules.
+     * @return the results of all tanks with a type, ordered by tank id
+     */
+    public List<Result> optimizeAll(Map<TankType,NormalizationContext> base) {
+        ExecutorService pool = newPool();
+        try {
+            // all valid combinations of each tank
+            List<Future<List<Loadout>>> valid = new ArrayList<Future<List<Loadout>>>();
+            for (int id = 0; id < mm.ids.getTankCount(); id++) {
+                final int tank = id;
+                valid.add(pool.submit(new Callable<List<Loadout>>() {
+                    @Override
+                    public List<Loadout> call() {
+                        return enumerate(tank);
+                    }
+                }));
+            }
+            
+            // best values of each type, including all combinations
+            Map<TankType,List<Loadout>> byType = new EnumMap<TankType,List<Loadout>>(TankType.class);
+            for (TankType type : TankType.values()) {
+                byType.put(type, new ArrayList<Loadout>());
+            }
+            for (int id = 0; id < valid.size(); id++) {
+                TankType type = mm.ids.getTank(id).type;
+                if (type != null) {
+                    byType.get(type).addAll(valid.get(id).get());
+                }
+            }
+            final Map<TankType,NormalizationContext> norms = new EnumMap<TankType,NormalizationContext>(TankType.class);
+            for (TankType type : TankType.values()) {
+                norms.put(type, base.get(type).extend(byType.get(type)));
+            }
+            
+            // optimize each tank
+            List<Future<Result>> results = new ArrayList<Future<Result>>();
+            for (int id = 0; id < valid.size(); id++) {
+                final Tank t = mm.ids.getTank(id);
+                if (t.type == null) {
+                    continue;
+                }
+                final List<Loadout> combinations = valid.get(id).get();
+                results.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return optimize(norms.get(t.type), t, combinations);
+                    }
+                }));
+            }
+            List<Result> done = new ArrayList<Result>(results.size());
+            for (Future<Result> f : results) {
+                done.add(f.get());
+            }
+            return done;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException ex) {
+            log.error("Could not optimize the loadouts", ex.getCause());
+            return Collections.emptyList();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * @return a pool of daemon threads, one thread per processor
+     */
+    protected static ExecutorService newPool() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "loadout");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    // -------------------- enumeration --------------------
+    
+    /**
+     * Enumerates all combinations of modules of a tank, that do not exceed
+     * the load limit
+     * @param tank the tank id
+     * @return all valid loadouts of this tank
+     */
+    public List<Loadout> enumerate(int tank) {
+        Candidates c = new Candidates(tank);
+        List<Loadout> result = new ArrayList<Loadout>();
+        enumerate(c, 0, new Module[order.length], c.hull, result);
+        return result;
+    }
+    
+    /**
+     * Chooses the module of one level and continues with the next one
+     */
+    private void enumerate(Candidates c, int level, Module[] chosen, double weight, List<Loadout> result) {
+        if (level == order.length) {
+            result.add(c.loadout(chosen, weight));
+            return;
+        }
+        for (Module m : c.modules[level]) {
+            chosen[level] = m;
+            double w = weight + weightOf(m);
+            if (c.fits(chosen, level, w)) {
+                enumerate(c, level + 1, chosen, w, result);
+            }
+        }
+        chosen[level] = null;
+    }
+    
+    // -------------------- branch and bound --------------------
+    
+    /**
+     * Finds the best loadout of a tank for each category
+     * @param norm the best values of the tank type, including all valid
+     * combinations (see NormalizationContext.extend())
+     * @param t the tank
+     * @param valid all valid loadouts of the tank, as returned by enumerate()
+     * @return the best loadouts
+     */
+    public Result optimize(NormalizationContext norm, Tank t, List<Loadout> valid) {
+        int id = mm.ids.idOf(t);
+        if (id < 0) {
+            throw new IllegalArgumentException("Tank " + t.name + " is not part of the database");
+        }
+        Search s = new Search(norm, profile.get(t.type), new Candidates(id), valid);
+        s.run();
+        return s.result;
+    }
+    
+    /**
+     * The state of the branch and bound search for one tank
+     */
+    private class Search {
+        
+        /** the result columns in the order they are searched */
+        final int[] columns = { RatingKernel.OVERALL, Category.Attack.ordinal(),
+            Category.Defense.ordinal(), Category.Mobility.ordinal(), Category.Recon.ordinal() };
+        
+        final NormalizationContext norm;
+        final RatingWeights weights;
+        final Candidates c;
+        final Result result;
+        /** the valid loadouts by turret */
+        final Map<Module,List<Loadout>> byTurret = new HashMap<Module,List<Loadout>>();
+        
+        /** the rating contribution of each candidate to each result column,
+         * by level, candidate and column (null for candidates that are not
+         * part of any valid loadout with the current turret) */
+        double[][][] contribution;
+        /** the sum of the best contributions of all levels from this level
+         * on, by level and column */
+        double[][] rest;
+        /** the weights of each feature in each result column, for the
+         * current turret */
+        double[][] effective;
+        /** the ratings of all loadouts that have been rated, by modules */
+        final Map<List<Module>,double[]> rated = new HashMap<List<Module>,double[]>();
+        
+        Search(NormalizationContext norm, RatingWeights weights, Candidates c, List<Loadout> valid) {
+            this.norm = norm;
+            this.weights = weights;
+            this.c = c;
+            this.result = new Result(c.tank, c.combinations, valid.size());
+            for (Loadout l : valid) {
+                Module turret = c.modules[0][0] == null ? null : l.turret;
+                List<Loadout> list = byTurret.get(turret);
+                if (list == null) {
+                    list = new ArrayList<Loadout>();
+                    byTurret.put(turret, list);
+                }
+                list.add(l);
+            }
+        }
+        
+        /**
+         * Searches the best loadout of each column separately (so each
+         * search can prune everything that does not improve its column),
+         * loadouts that are found by more than one search are rated once
+         */
+        void run() {
+            Module[] chosen = new Module[order.length];
+            // best turrets first, so good combinations are found early
+            for (int i = c.modules[0].length - 1; i >= 0; i--) {
+                Module turret = c.modules[0][i];
+                if (prepare(turret, i)) {
+                    chosen[0] = turret;
+                    for (int col : columns) {
+                        search(chosen, 1, c.hull + weightOf(turret), contribution[0][i][col], col);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Calculates the contribution of each candidate for the specified
+         * turret. The features of a candidate are taken from any valid
+         * loadout with this candidate, they do not depend on the other
+         * modules.
+         * @return false, if there is no valid loadout with this turret
+         */
+        boolean prepare(Module turret, int index) {
+            List<Loadout> valid = byTurret.get(turret);
+            if (valid == null) {
+                return false;
+            }
+            Loadout reference = valid.get(0);
+            double[] features = rate(reference).getFeatures();
+            this.effective = effectiveWeights(features[Feature.TurretArmor.ordinal()] == -1);
+            
+            // contribution of each candidate
+            contribution = new double[order.length][][];
+            rest = new double[order.length + 1][RatingKernel.RESULTS];
+            for (int level = 0; level < order.length; level++) {
+                Module[] candidates = c.modules[level];
+                contribution[level] = new double[candidates.length][];
+                double[] max = new double[RatingKernel.RESULTS];
+                Arrays.fill(max, Double.NEGATIVE_INFINITY);
+                for (int i = 0; i < candidates.length; i++) {
+                    double[] values = null;
+                    if (level == 0) {
+                        values = (i == index) ? features : null;
+                    } else {
+                        Loadout example = find(valid, level, candidates[i]);
+                        values = (example == null) ? null : rate(example).getFeatures();
+                    }
+                    if (values == null) {
+                        continue;
+                    }
+                    double[] sum = new double[RatingKernel.RESULTS];
+                    for (int f = 0; f < values.length; f++) {
+                        if (owner[f] == level) {
+                            for (int col = 0; col < sum.length; col++) {
+                                sum[col] += effective[col][f] * values[f];
+                            }
+                        }
+                    }
+                    contribution[level][i] = sum;
+                    for (int col = 0; col < sum.length; col++) {
+                        max[col] = Math.max(max[col], sum[col]);
+                    }
+                }
+                rest[level] = max;
+            }
+            for (int level = order.length - 1; level >= 0; level--) {
+                for (int col = 0; col < RatingKernel.RESULTS; col++) {
+                    rest[level][col] += rest[level + 1][col];
+                }
+            }
+
+            return true;
+        }
+        
+        /**
+         * The weight of each feature in each result column: the category
+         * weights, and the overall weights multiplied with them
+         * @param noTurret true for the weights of vehicles without turret
+         * @return the weights by column and Feature ordinal
+         */
+        double[][] effectiveWeights(boolean noTurret) {
+            double[][] matrix = weights.getMatrix(noTurret);
+            double[][] effective = new double[RatingKernel.RESULTS][];
+            System.arraycopy(matrix, 0, effective, 0, RatingKernel.OVERALL);
+            double[] overall = new double[Feature.values().length];
+            RatingWeights.Terms terms = weights.getOverall();
+            for (int k = 0; k < terms.size(); k++) {
+                for (int f = 0; f < overall.length; f++) {
+                    overall[f] += terms.getWeight(k) * matrix[terms.getIndex(k)][f];
+                }
+            }
+            effective[RatingKernel.OVERALL] = overall;
+            return effective;
+        }
+        
+        /**
+         * @return the first loadout with the specified module on this level
+         * (any loadout for missing modules), or null if there is none
+         */
+        Loadout find(List<Loadout> valid, int level, Module m) {
+            for (Loadout l : valid) {
+                if (m == null || l.get(order[level]) == m) {
+                    return l;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Chooses the module of one level, if the best possible rating with
+         * this module can beat the best loadout found so far in the column
+         */
+        void search(Module[] chosen, int level, double weight, double partial, int col) {
+            if (level == order.length) {
+                List<Module> key = Arrays.asList(chosen.clone());
+                if (!rated.containsKey(key)) {
+                    Loadout l = c.loadout(chosen, weight);
+                    TankRating tr = rate(l);
+                    double[] ratings = { tr.ratingDefense, tr.ratingAttack,
+                        tr.ratingMobility, tr.ratingRecon, tr.ratingOverall };
+                    rated.put(key, ratings);
+                    result.offer(l, ratings);
+                }
+                return;
+            }
+            Module[] candidates = c.modules[level];
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                double[] own = contribution[level][i];
+                if (own == null) {
+                    continue;
+                }
+                chosen[level] = candidates[i];
+                double w = weight + weightOf(candidates[i]);
+                if (!c.fits(chosen, level, w)) {
+                    continue;
+                }
+                double sum = partial + own[col];
+                double bound = sum + rest[level + 1][col] + weightBound(chosen, level, w, col);
+                if (bound + EPSILON >= result.score[col]) {
+                    search(chosen, level + 1, w, sum, col);
+                } else {
+                    result.pruned++;
+                }
+            }
+            chosen[level] = null;
+        }
+        
+        /**
+         * The upper bound of the features that depend on the weight of all
+         * modules (weight and power/weight ratio), for the range of weights
+         * that is still possible
+         * @param chosen the modules chosen so far
+         * @param level the last level that has been chosen
+         * @param weight the weight of the chosen modules (kg)
+         * @param col the result column
+         * @return the upper bound of these features in this column
+         */
+        double weightBound(Module[] chosen, int level, double weight, int col) {
+            double lo = (weight + c.lightest[level + 1]) / 1000;
+            double hi = (weight + c.heaviest[level + 1]) / 1000;
+            if (level >= 1) {
+                hi = Math.min(hi, c.limit((Suspension) chosen[1]) + WEIGHT_TOLERANCE);
+            }
+            double bound = bound(effective[col][Feature.Weight.ordinal()],
+                    lo, hi, norm.best(Field.TE_Weight));
+            int engine = Arrays.asList(order).indexOf(ModuleType.Engine);
+            double ratio = effective[col][Feature.PowerWeightRatio.ordinal()];
+            if (level >= engine && chosen[engine] != null && lo > 0) {
+                double power = ((Engine) chosen[engine]).power;
+                bound += bound(ratio, power / hi, power / lo, norm.best(Field.DP_HPperTon));
+            } else {
+                bound += Math.abs(ratio);
+            }
+            return bound;
+        }
+        
+        /**
+         * @return the upper bound of w * rating, for any value in [lo, hi]
+         * (see TankRating.percentage(): ratings are value / best, or -1 for
+         * values that are not positive or better than the best value)
+         */
+        double bound(double w, double lo, double hi, double best) {
+            if (best <= 0 || Double.isNaN(lo) || Double.isNaN(hi)) {
+                return Math.abs(w);
+            }
+            double max = (hi >= best) ? 1 : hi / best;
+            double min = (lo > 0 && hi <= best) ? lo / best : -1;
+            return (w > 0) ? w * max : w * min;
+        }
+        
+        TankRating rate(Loadout l) {
+            TankRating tr = new TankRating(norm, weights, l);
+            tr.calculateRatings();
+            result.rated++;
+            return tr;
+        }
+    }
+    
+    // -------------------- candidates --------------------
+    
+    /**
+     * The modules and weights of a tank
+     */
+    private class Candidates {
+        
+        final int id;
+        final Tank tank;
+        /** the modules by level, worst first ({ null }, if there is none) */
+        final Module[][] modules;
+        /** the number of combinations (valid or not) */
+        final int combinations;
+        /** the weight of the hull (kg) */
+        final double hull;
+        /** the minimum weight of the modules of all levels from this level
+         * on, by level (kg) */
+        final double[] lightest;
+        /** the maximum weight of the modules of all levels from this level
+         * on, by level (kg) */
+        final double[] heaviest;
+        /** the highest load limit of all suspensions (tons) */
+        final double maxLimit;
+        final Equipment stock;
+        final Equipment top;
+        
+        Candidates(int id) {
+            this.id = id;
+            this.tank = mm.ids.getTank(id);
+            this.stock = tank.equipmentStock;
+            this.top = tank.equipmentTop;
+            this.modules = new Module[order.length][];
+            int count = 1;
+            for (int level = 0; level < order.length; level++) {
+                List<? extends Module> list = mm.getModules(tank, order[level]);
+                modules[level] = list.isEmpty() ? new Module[] { null } : list.toArray(new Module[list.size()]);
+                count *= modules[level].length;
+            }
+            this.combinations = count;
+            
+            double stockModules = 0;
+            for (int level = 0; level < order.length; level++) {
+                stockModules += weightOf(modules[level][0]);
+            }
+            this.hull = stock.weight * 1000 - stockModules;
+            
+            this.lightest = new double[order.length + 1];
+            this.heaviest = new double[order.length + 1];
+            for (int level = order.length - 1; level >= 0; level--) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = 0;
+                for (Module m : modules[level]) {
+                    min = Math.min(min, weightOf(m));
+                    max = Math.max(max, weightOf(m));
+                }
+                lightest[level] = lightest[level + 1] + min;
+                heaviest[level] = heaviest[level + 1] + max;
+            }
+            double max = 0;
+            for (Module m : modules[1]) {
+                max = Math.max(max, limit((Suspension) m));
+            }
+            this.maxLimit = max;
+        }
+        
+        /**
+         * @return true, if the modules up to the specified level, and the
+         * lightest modules of all further levels, do not exceed the limit
+         */
+        boolean fits(Module[] chosen, int level, double weight) {
+            double limit = (level >= 1) ? limit((Suspension) chosen[1]) : maxLimit;
+            return (weight + lightest[level + 1]) / 1000 <= limit + WEIGHT_TOLERANCE;
+        }
+        
+        /**
+         * @return the load limit of the suspension (tons)
+         */
+        double limit(Suspension s) {
+            if (s != null && s.load > 0) {
+                return s.load;
+            }
+            // the load is unknown: use the limit of the equipment
+            return (s != null && s == modules[1][0] && modules[1].length > 1) ? stock.weightLimit : top.weightLimit;
+        }
+        
+        /**
+         * @return the loadout with the chosen modules
+         */
+        Loadout loadout(Module[] chosen, double weight) {
+            Turret turret = (Turret) chosen[0];
+            Suspension suspension = (Suspension) chosen[1];
+            Equipment base = (turret != null && turret == modules[0][0] && modules[0].length > 1) ? stock : top;
+            Equipment eq = new Equipment(Development.Top);
+            eq.hitpoints = base.hitpoints;
+            eq.weight = weight / 1000;
+            eq.weightLimit = limit(suspension);
+            eq.gunElevationLow = base.gunElevationLow;
+            eq.gunElevationHigh = base.gunElevationHigh;
+            eq.viewRange = base.viewRange;
+            return new Loadout(tank, Development.Top, eq, (Engine) chosen[3], (Gun) chosen[2],
+                    (Radio) chosen[4], suspension, turret);
+        }
+    }
+    
+    // -------------------- results --------------------
+    
+    /**
+     * The best loadouts of a tank
+     */
+    public static class Result {
+        
+        /** the tank */
+        public final Tank tank;
+        /** the number of combinations of modules */
+        public final int combinations;
+        /** the number of combinations within the load limit */
+        public final int valid;
+        /** the number of ratings that were calculated */
+        protected int rated;
+        /** the number of branches that were not searched */
+        protected int pruned;
+        /** the best loadout by result column (Category ordinal,
+         * RatingKernel.OVERALL) */
+        protected final Loadout[] best = new Loadout[RatingKernel.RESULTS];
+        /** the rating of the best loadouts */
+        protected final double[] score = new double[RatingKernel.RESULTS];
+        
+        protected Result(Tank tank, int combinations, int valid) {
+            this.tank = tank;
+            this.combinations = combinations;
+            this.valid = valid;
+            Arrays.fill(score, Double.NEGATIVE_INFINITY);
+        }
+        
+        /**
+         * Keeps the loadout for each category, where it is better than the
+         * best one so far
+         */
+        protected void offer(Loadout l, double[] ratings) {
+            for (int col = 0; col < ratings.length; col++) {
+                if (ratings[col] > score[col]) {
+                    score[col] = ratings[col];
+                    best[col] = l;
+                }
+            }
+        }
+        
+        /**
+         * @param c the category
+         * @return the best loadout in this category (null, if the tank has
+         * no valid loadout)
+         */
+        public Loadout getBest(Category c) {
+            return best[c.ordinal()];
+        }
+        
+        /**
+         * @return the loadout with the best overall rating
+         */
+        public Loadout getBestOverall() {
+            return best[RatingKernel.OVERALL];
+        }
+        
+        /**
+         * @param c the category
+         * @return the rating of the best loadout in this category
+         */
+        public double getScore(Category c) {
+            return score[c.ordinal()];
+        }
+        
+        /**
+         * @return the overall rating of the best loadout
+         */
+        public double getScoreOverall() {
+            return score[RatingKernel.OVERALL];
+        }
+        
+        /**
+         * @return the number of ratings that were calculated
+         */
+        public int getRated() {
+            return rated;
+        }
+        
+        /**
+         * @return the number of branches that were not searched
+         */
+        public int getPruned() {
+            return pruned;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(tank.name).append(" (").append(valid).append(" of ")
+                    .append(combinations).append(" loadouts valid)\n");
+            for (Category c : Category.values()) {
+                append(sb, c.name(), best[c.ordinal()], score[c.ordinal()]);
+            }
+            append(sb, RatingProfile.OVERALL, best[RatingKernel.OVERALL], score[RatingKernel.OVERALL]);
+            return sb.toString();
+        }
+        
+        private static void append(StringBuilder sb, String name, Loadout l, double score) {
+            sb.append("  ").append(name).append(": ");
+            if (l == null) {
+                sb.append("-\n");
+                return;
+            }
+            sb.append(df.format(score));
+            for (ModuleType type : order) {
+                Module m = l.get(type);
+                sb.append(", ").append(m.name == null ? "-" : m.name);
+            }
+            sb.append('\n');
+        }
+    }
+    
+    /**
+     * @return the weight of the module (kg), 0 for missing modules
+     */
+    private static double weightOf(Module m) {
+        return m == null ? 0 : m.weight;
+    }
+    
+    private static void setOwner(ModuleType type, Feature... features) {
+        int level = Arrays.asList(order).indexOf(type);
+        for (Feature f : features) {
+            owner[f.ordinal()] = level;
+        }
+    }
+    
+}
@@ -16,16 +16,17 @@
  */
 package de.nx42.wotcrawler.ext;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.Identities;
 import de.nx42.wotcrawler.db.TanksDB;
 import de.nx42.wotcrawler.db.module.Engine;
 import de.nx42.wotcrawler.db.module.Gun;
@@ -35,16 +36,27 @@ import de.nx42.wotcrawler.db.module.Radio;
 import de.nx42.wotcrawler.db.module.Suspension;
 import de.nx42.wotcrawler.db.module.Turret;
 import de.nx42.wotcrawler.db.tank.Tank;
-import de.nx42.wotcrawler.db.tank.TankRef;
 
 /**
- * The ModuleMap holds a Map for each module type that maps from each tank
- * to a list of compatible modules. The lists are static so they can be
- * accessed by anonymous inner classes like the enums of the Field class.
+ * The ModuleMap is an index over a single TanksDB, that gives fast access
+ * for any tank to its compatible modules.
  * 
- * The purpose of this class is to give fast access for any tank to it's modules.
- * The list of modules is ordered from worst to best, so the stock and top modules
- * can be accessed easily.
+ * The map is built on the dense Identities of the database: for each module
+ * type, it stores an array of module ids per tank id. These arrays are
+ * ordered from worst to best module, so the stock and top modules can be
+ * accessed easily, and a lookup is nothing but array indexing. The stock and
+ * top loadout of each tank is resolved once, when the map is built, and so
+ * are the DerivedMetrics.
+ * 
+ * A ModuleMap is immutable after it has been built, so any number of maps
+ * (e.g. for different versions of the database) can exist side by side and
+ * each of them may be shared between threads without synchronization.
+ * Note that the map does not copy the database: it must not be modified
+ * while the map is in use. The only exception is a working copy of the
+ * database, that is edited tank by tank: IncrementalRatings works on its
+ * own copy() of the map, which is updated with refresh() after each change.
+ * Both methods are package-private, so a map that has been handed out (e.g.
+ * by a Snapshot) is never changed.
  * 
  * @author Sebastian Straub <sebastian-straub@gmx.net>
  */
@@ -52,16 +64,27 @@ public class ModuleMap {
     
     private static final Logger log = LoggerFactory.getLogger(ModuleMap.class);
     
-    /** Maps from a Tank to its compatible engines, ordered from worst to best */
-    public static Map<Tank, List<Engine>> engine = new HashMap<Tank, List<Engine>>();
-    /** Maps from a Tank to its compatible guns, ordered from worst to best */
-    public static Map<Tank, List<Gun>> gun = new HashMap<Tank, List<Gun>>();
-    /** Maps from a Tank to its compatible radios, ordered from worst to best */
-    public static Map<Tank, List<Radio>> radio = new HashMap<Tank, List<Radio>>();
-    /** Maps from a Tank to its compatible suspensions, ordered from worst to best */
-    public static Map<Tank, List<Suspension>> suspension = new HashMap<Tank, List<Suspension>>();
-    /** Maps from a Tank to its compatible turrets, ordered from worst to best */
-    public static Map<Tank, List<Turret>> turret = new HashMap<Tank, List<Turret>>();
+    /** the module types, in the order of the first index of {@link #modules} */
+    private static final ModuleType[] types = ModuleType.values();
+    /** the development stages, in the order of the loadouts of each tank */
+    private static final Development[] devs = Development.values();
+    /** shared result for tanks that are not part of the database */
+    private static final int[] none = new int[0];
+    
+    /** The database this map was built from */
+    public final TanksDB db;
+    /** The dense ids of the tanks and modules in the database */
+    public final Identities ids;
+    /** The advanced fields (prefix DP_) of all loadouts */
+    public final DerivedMetrics metrics;
+    
+    /**
+     * module ids by ModuleType ordinal and tank id, each array ordered from
+     * worst to best module
+     */
+    private final int[][][] modules;
+    /** the resolved loadouts, by tank id and Development ordinal */
+    private final Loadout[] loadouts;
     
     /**
      * Builds the module map for each tank and module from the given TanksDB
@@ -69,94 +92,196 @@ public class ModuleMap {
      * @return the filled ModuleMap
      */
     public static ModuleMap build(TanksDB db) {
-        ModuleMap mm = new ModuleMap();
-        mm.buildModuleMapping(db);
-        return mm;
+        return new ModuleMap(Identities.assign(db));
+    }
+    
+    /**
+     * Builds the module map for the database of the specified identities
+     * @param ids the dense ids of the database to build the maps from
+     * @return the filled ModuleMap
+     */
+    public static ModuleMap build(Identities ids) {
+        return new ModuleMap(ids);
     }
     
     /**
-     * Builds the Module mapping for all tanks.
-     * Fills the static Maps that map from each tank to it's list of Modules.
-     * The maps are sorted in ascending order, so the worst module is at the
-     * first position, the best at last.
-     * The maps are heavily used by the enum specific functions, so they need
-     * to be static...
+     * Builds the Module mapping for all tanks of the specified database.
+     * The module ids for each tank are sorted in ascending order, so the
+     * worst module is at the first position, the best at last.
+     * @param ids the identities of the database to build the maps from
      */
-    public final void buildModuleMapping(TanksDB db) {
+    protected ModuleMap(Identities ids) {
+        this.db = ids.db;
+        this.ids = ids;
         
-        // tanks init
-        for (Tank t : db.tanks) {
-            engine.put(t, new ArrayList<Engine>(2));
-            gun.put(t, new ArrayList<Gun>(2));
-            radio.put(t, new ArrayList<Radio>(2));
-            suspension.put(t, new ArrayList<Suspension>(2));
-            turret.put(t, new ArrayList<Turret>(2));
+        this.modules = new int[types.length][][];
+        for (ModuleType type : types) {
+            modules[type.ordinal()] = buildIndexes(type);
         }
+        this.loadouts = buildLoadouts();
+        this.metrics = new DerivedMetrics(this);
+    }
+    
+    /**
+     * Creates a copy of the specified map, that can be refreshed without
+     * affecting the original. The module indexes are shared, as they are
+     * never changed.
+     * @param other the map to copy
+     */
+    private ModuleMap(ModuleMap other) {
+        this.db = other.db;
+        this.ids = other.ids;
+        this.modules = other.modules;
+        this.loadouts = other.loadouts.clone();
+        this.metrics = new DerivedMetrics(this);
+    }
+    
+    /**
+     * Builds the sorted module ids of a single module type for all tanks
+     * @param type the module type
+     * @return the module ids by tank id, sorted from worst to best
+     */
+    private int[][] buildIndexes(final ModuleType type) {
+        int tanks = ids.getTankCount();
+        int count = ids.getModuleCount(type);
         
-        
-        // engines
-        for (Engine e : db.modules.engines) {
-            for(TankRef t : e.compatibility) {
-                if(t.ref != null) {
-                    engine.get(t.ref).add(e);
-                }
+        // count compatible modules per tank
+        int[] counts = new int[tanks];
+        for (int m = 0; m < count; m++) {
+            for (int i = 0; i < ids.getCompatibleCount(type, m); i++) {
+                counts[ids.getCompatible(type, m, i)]++;
             }
         }
         
-        // guns
-        for (Gun g : db.modules.guns) {
-            for(TankRef t : g.compatibility) {
-                if(t.ref != null) {
-                    gun.get(t.ref).add(g);
-                }
-            }
+        // fill module ids in list order
+        Integer[][] indexes = new Integer[tanks][];
+        for (int i = 0; i < tanks; i++) {
+            indexes[i] = new Integer[counts[i]];
+            counts[i] = 0;
         }
-        
-        // radios
-        for (Radio r : db.modules.radios) {
-            for(TankRef t : r.compatibility) {
-                if(t.ref != null) {
-                    radio.get(t.ref).add(r);
-                }
+        for (int m = 0; m < count; m++) {
+            for (int i = 0; i < ids.getCompatibleCount(type, m); i++) {
+                int t = ids.getCompatible(type, m, i);
+                indexes[t][counts[t]++] = m;
             }
         }
         
-        // suspensions
-        for (Suspension s : db.modules.suspensions) {
-            for(TankRef t : s.compatibility) {
-                if(t.ref != null) {
-                    suspension.get(t.ref).add(s);
-                }
+        // sort by module quality (stable, equal modules keep the list order)
+        Comparator<Integer> byModule = new Comparator<Integer>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Integer a, Integer b) {
+                return ((Comparable<Object>) ids.getModule(type, a)).compareTo(ids.getModule(type, b));
             }
-        }
-        
-        // turrets
-        for (Turret tr : db.modules.turrets) {
-            for(TankRef t : tr.compatibility) {
-                if(t.ref != null) {
-                    turret.get(t.ref).add(tr);
-                }
+        };
+        int[][] sorted = new int[tanks][];
+        for (int i = 0; i < tanks; i++) {
+            Arrays.sort(indexes[i], byModule);
+            sorted[i] = new int[indexes[i].length];
+            for (int j = 0; j < indexes[i].length; j++) {
+                sorted[i][j] = indexes[i][j];
             }
         }
-        
-        
-        // sort
-        for (List<Engine> eMaps : engine.values()) {
-            Collections.sort(eMaps);
-        }
-        for (List<Gun> gMaps : gun.values()) {
-            Collections.sort(gMaps);
+        return sorted;
+    }
+    
+    /**
+     * Resolves the stock (worst) and top (best) module of each type for
+     * every tank
+     * @return the loadouts by tank id and Development ordinal
+     */
+    private Loadout[] buildLoadouts() {
+        int tanks = ids.getTankCount();
+        Loadout[] result = new Loadout[tanks * devs.length];
+        for (int t = 0; t < tanks; t++) {
+            for (Development dev : devs) {
+                result[t * devs.length + dev.ordinal()] = buildLoadout(t, dev);
+            }
         }
-        for (List<Radio> rMaps : radio.values()) {
-            Collections.sort(rMaps);
+        return result;
+    }
+    
+    /**
+     * @param t the tank id
+     * @param dev the development
+     * @return the loadout of this tank in this development
+     */
+    private Loadout buildLoadout(int t, Development dev) {
+        return new Loadout(ids.getTank(t), dev,
+                (Engine) pick(t, ModuleType.Engine, dev),
+                (Gun) pick(t, ModuleType.Gun, dev),
+                (Radio) pick(t, ModuleType.Radio, dev),
+                (Suspension) pick(t, ModuleType.Suspension, dev),
+                (Turret) pick(t, ModuleType.Turret, dev));
+    }
+    
+    /**
+     * @return a private copy of this map, that may be refreshed
+     */
+    ModuleMap copy() {
+        return new ModuleMap(this);
+    }
+    
+    /**
+     * Rebuilds the loadouts and derived metrics of one tank, after the
+     * values of the tank or its modules have been changed in place.
+     * The order of the modules and the compatibility between tanks and
+     * modules are not updated, these require a new ModuleMap.
+     * This method is not thread safe, the map must not be used by other
+     * threads while it is refreshed. Only call this on a copy().
+     * @param tank the tank id
+     */
+    void refresh(int tank) {
+        for (Development dev : devs) {
+            loadouts[tank * devs.length + dev.ordinal()] = buildLoadout(tank, dev);
         }
-        for (List<Suspension> sMaps : suspension.values()) {
-            Collections.sort(sMaps);
+        metrics.refresh(tank);
+    }
+    
+    /**
+     * @param tank the tank id
+     * @param type the module type
+     * @param dev stock or top?
+     * @return the worst (stock) or best (top) module of this type, or null
+     * if the tank has no module of this type
+     */
+    private Module pick(int tank, ModuleType type, Development dev) {
+        int[] idx = modules[type.ordinal()][tank];
+        if (idx.length == 0) {
+            return null;
         }
-        for (List<Turret> tMaps : turret.values()) {
-            Collections.sort(tMaps);
+        switch (dev) {
+            case Stock:
+                return ids.getModule(type, idx[0]);
+            case Top:
+                return ids.getModule(type, idx[idx.length - 1]);
+            default:
+                return null;
         }
-        
+    }
+    
+    // -------------------- accessors --------------------
+    
+    /**
+     * Returns the ids of the modules of the specified type, that are
+     * compatible with the given tank, ordered from worst to best module.
+     * @param tank the id of the tank
+     * @param type only the modules of this type will be returned
+     * @return a copy of the module ids
+     */
+    public int[] getModuleIds(int tank, ModuleType type) {
+        return modules[type.ordinal()][tank].clone();
+    }
+    
+    /**
+     * Returns the number of modules of the specified type, that are
+     * compatible with the given tank
+     * @param tank the id of the tank
+     * @param type the module type
+     * @return the number of compatible modules
+     */
+    public int getModuleCount(int tank, ModuleType type) {
+        return modules[type.ordinal()][tank].length;
     }
     
     /**
@@ -164,95 +289,110 @@ public class ModuleMap {
      * module type
      * @param t the compatible modules for this tank will be searched
      * @param type only the modules of this type will be returned
-     * @return the list of specified modules for this tank
+     * @return the unmodifiable list of specified modules for this tank,
+     * ordered from worst to best
      */
-    public static List<? extends Module> getModules(Tank t, ModuleType type) {
-        switch(type) {
-            case Engine:
-                return engine.get(t);
-            case Radio:
-                return radio.get(t);
-            case Gun:
-                return gun.get(t);
-            case Suspension:
-                return suspension.get(t);
-            case Turret:
-                return turret.get(t);
-            default:
-                return null;
-        }
+    public List<? extends Module> getModules(Tank t, ModuleType type) {
+        return view(ids, type, indexes(t, type));
     }
     
     /**
-     * Returns the list of modules for a given Tank and the specified
-     * module type.
-     * This is a desperate approach to teach java the purpose of generics. I
-     * guess it is obvious that this is not an optimal solution...
+     * Returns the list of modules for a given Tank and the module type that
+     * is defined by the specified class.
      * @param <M> The module type
      * @param type the class that defines the module type
      * @param t the compatible modules for this tank will be searched
-     * @return the list of specified modules for this tank
+     * @return the unmodifiable list of specified modules for this tank,
+     * ordered from worst to best
      */
-    public static <M> List getModules(Class<M> type, Tank t) {
-        if (type.getSuperclass().isAssignableFrom(Module.class)) {
-            // is module
-            
-            if(type.isAssignableFrom(Engine.class)) {
-                return engine.get(t);
-            } else if(type.isAssignableFrom(Gun.class)) {
-                return gun.get(t);
-            } else if(type.isAssignableFrom(Radio.class)) {
-                return radio.get(t);
-            } else if(type.isAssignableFrom(Suspension.class)) {
-                return suspension.get(t);
-            } else if(type.isAssignableFrom(Turret.class)) {
-                return turret.get(t);
-            } else {
-                throw new IllegalArgumentException("Unknown Module Type " + type.getName());
-            }
-            
+    @SuppressWarnings("unchecked")
+    public <M extends Module> List<M> getModules(Class<M> type, Tank t) {
+        return (List<M>) getModules(t, typeOf(type));
+    }
+    
+    /**
+     * Returns the loadout (the stock or top modules and equipment) of the
+     * specified tank
+     * @param tank the id of the tank
+     * @param dev stock or top?
+     * @return the resolved loadout
+     */
+    public Loadout getLoadout(int tank, Development dev) {
+        return loadouts[tank * devs.length + dev.ordinal()];
+    }
+    
+    /**
+     * Returns the loadout (the stock or top modules and equipment) of the
+     * specified tank
+     * @param t the tank
+     * @param dev stock or top?
+     * @return the resolved loadout. For tanks that are not part of this
+     * database, a new loadout without any modules is returned
+     */
+    public Loadout getLoadout(Tank t, Development dev) {
+        int id = ids.idOf(t);
+        if (id < 0) {
+            log.warn("Tank {} is not part of this database, it has no modules", t.name);
+            return new Loadout(t, dev, null, null, null, null, null);
+        }
+        return loadouts[id * devs.length + dev.ordinal()];
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * @param t the tank
+     * @param type the module type
+     * @return the internal (not to be modified) index array
+     */
+    private int[] indexes(Tank t, ModuleType type) {
+        int id = ids.idOf(t);
+        return (id < 0) ? none : modules[type.ordinal()][id];
+    }
+    
+    /**
+     * Determines the ModuleType that belongs to a subclass of Module
+     * @param type the class of the module
+     * @return the matching ModuleType
+     * @throws IllegalArgumentException if the class is not a known module type
+     */
+    protected static ModuleType typeOf(Class<?> type) {
+        if (type == Engine.class) {
+            return ModuleType.Engine;
+        } else if (type == Gun.class) {
+            return ModuleType.Gun;
+        } else if (type == Radio.class) {
+            return ModuleType.Radio;
+        } else if (type == Suspension.class) {
+            return ModuleType.Suspension;
+        } else if (type == Turret.class) {
+            return ModuleType.Turret;
         } else {
-            // is not a module
-            throw new IllegalArgumentException("This method accepts only subclasses "
-                    + "of 'Module' as parameters. Wrong parameter was " + type.getName());
+            throw new IllegalArgumentException("Unknown Module Type " + type.getName());
         }
     }
     
     /**
-     * Retrieves the Module that is considered as "Top" or "Stock" for the specified
-     * Tank. The type of module that is returned is defined by the given class.
-     * @param <M> The module type
-     * @param type the class that defines the module type
-     * @param t the modules from this tank are retrieved
-     * @param dev stock or top?
-     * @return correct module (stock or top)
+     * Creates an unmodifiable list view of the modules with the specified ids
+     * @param ids the identities of the database
+     * @param type the module type
+     * @param idx the ids of the modules
+     * @return the list view
      */
-    public static <M> M getModuleByDev(Class<M> type, Tank t, Development dev) {
-        List<M> modules = getModules(type, t);
-        
-        if (modules.isEmpty()) {
-            try {
-                /*
-                 * just return a new instance to prevent nullpointers.
-                 * for a detailed error report, use Evaluator.class
-                 * querying this here results in error flood for even the slightest anomality...
-                 */
-                return type.newInstance();
-            } catch (Exception e) {
-                log.error("Error while instantiating a new module (for the "
-                        + "list of valid modules of this type was empty)", e);
-                return null;
+    private static List<? extends Module> view(final Identities ids, final ModuleType type, final int[] idx) {
+        if (idx.length == 0) {
+            return Collections.<Module>emptyList();
+        }
+        return new AbstractList<Module>() {
+            @Override
+            public Module get(int index) {
+                return ids.getModule(type, idx[index]);
             }
-        } else {
-            switch (dev) {
-                case Stock:
-                    return modules.get(0);
-                case Top:
-                    return modules.get(modules.size() - 1);
-                default:
-                    return null;
+            @Override
+            public int size() {
+                return idx.length;
             }
-        }
+        };
     }
     
 }
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.module.Engine;
+import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Radio;
+import de.nx42.wotcrawler.db.module.Suspension;
+import de.nx42.wotcrawler.db.module.Turret;
+import de.nx42.wotcrawler.db.tank.Equipment;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+
+/**
+ * The best value of each relevant field among a group of tanks (usually all
+ * tanks of one TankType in a database). Ratings are calculated relative to
+ * these values, see TankRating.
+ * 
+ * A context is immutable after it has been built, so ratings for different
+ * tank types (or databases) can be calculated at the same time, each with
+ * its own context.
+ * For most fields, higher values are better and the best value is the
+ * maximum. For some fields (e.g. aim time or fire chance) lower is better,
+ * so the best value is the minimum. Fields that are not used for ratings
+ * have a best value of -1.
+ * 
+ * By default (Mode.Best), a value is rated by its fraction of the best value.
+ * A context with PeerRanks (Mode.Percentile) rates a value by its percentile
+ * among the tanks of the same type and battle tier instead, the best values
+ * are still used to detect values that are out of bounds.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class NormalizationContext {
+    
+    private static final Logger log = LoggerFactory.getLogger(NormalizationContext.class);
+    
+    /**
+     * How the values of the fields are normalized for the ratings
+     */
+    public enum Mode {
+        /** fraction of the best value of the tank type */
+        Best,
+        /** percentile among the tanks of the same type and battle tier */
+        Percentile;
+        
+        /**
+         * @param name the name of the mode (case insensitive)
+         * @return the mode with this name, or null if there is none
+         */
+        public static Mode parse(String name) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(name)) {
+                    return m;
+                }
+            }
+            return null;
+        }
+    }
+    
+    /** all fields, by ordinal */
+    private static final Field[] fields = Field.values();
+    /** the development stages */
+    private static final Development[] devs = Development.values();
+    /** the fields, where lower values are better */
+    public static final Set<Field> lowerIsBetter = Collections.unmodifiableSet(EnumSet.of(
+            Field.MG_AimTime_Min, Field.MG_AimTime_Max, Field.MG_Accuracy_Min,
+            Field.MG_Accuracy_Max, Field.ME_Firechance));
+    /** true for the fields where lower values are better, by ordinal */
+    private static final boolean[] lower = new boolean[fields.length];
+    
+    static {
+        for (Field f : lowerIsBetter) {
+            lower[f.ordinal()] = true;
+        }
+    }
+    
+    /** The ModuleMap of the database the values were calculated for */
+    public final ModuleMap mm;
+    /** The TankType the values were calculated for (null for all tanks) */
+    public final TankType type;
+    /** the best value by Field ordinal */
+    private final double[] best;
+    /** the sorted values of the peer groups (null for Mode.Best) */
+    protected final PeerRanks ranks;
+    
+    /**
+     * Creates a new context with the specified values
+     * @param mm the ModuleMap of the database
+     * @param type the TankType (null for all tanks)
+     * @param best the best value by Field ordinal
+     */
+    protected NormalizationContext(ModuleMap mm, TankType type, double[] best) {
+        this(mm, type, best, null);
+    }
+    
+    /**
+     * Creates a new context with the specified values
+     * @param mm the ModuleMap of the database
+     * @param type the TankType (null for all tanks)
+     * @param best the best value by Field ordinal
+     * @param ranks the sorted values of the peer groups (null for Mode.Best)
+     */
+    protected NormalizationContext(ModuleMap mm, TankType type, double[] best, PeerRanks ranks) {
+        this.mm = mm;
+        this.type = type;
+        this.best = best;
+        this.ranks = ranks;
+    }
+    
+    /**
+     * Calculates the best values among all tanks of the specified type
+     * @param mm the ModuleMap of the database
+     * @param type the TankType
+     * @return the normalization context of this type
+     */
+    public static NormalizationContext build(ModuleMap mm, TankType type) {
+        return buildAll(mm).get(type);
+    }
+    
+    /**
+     * Calculates the best values among all tanks of the database
+     * @param mm the ModuleMap of the database
+     * @return the normalization context of all tanks
+     */
+    public static NormalizationContext build(ModuleMap mm) {
+        double[] best = initial();
+        for (int id = 0; id < mm.ids.getTankCount(); id++) {
+            for (Development dev : devs) {
+                accumulate(best, mm, id, dev);
+            }
+        }
+        return new NormalizationContext(mm, null, best);
+    }
+    
+    /**
+     * Calculates the best values for all tank types in a single pass over
+     * the database
+     * @param mm the ModuleMap of the database
+     * @return the normalization context of each TankType
+     */
+    public static Map<TankType,NormalizationContext> buildAll(ModuleMap mm) {
+        TankType[] types = TankType.values();
+        double[][] best = new double[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            best[i] = initial();
+        }
+        for (int id = 0; id < mm.ids.getTankCount(); id++) {
+            TankType type = mm.ids.getTank(id).type;
+            if (type != null) {
+                for (Development dev : devs) {
+                    accumulate(best[type.ordinal()], mm, id, dev);
+                }
+            }
+        }
+        Map<TankType,NormalizationContext> result = new EnumMap<TankType,NormalizationContext>(TankType.class);
+        for (TankType type : types) {
+            result.put(type, new NormalizationContext(mm, type, best[type.ordinal()]));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+    
+    /**
+     * Calculates the best values for all tank types, with the specified
+     * normalization mode
+     * @param mm the ModuleMap of the database
+     * @param mode the normalization mode
+     * @return the normalization context of each TankType
+     */
+    public static Map<TankType,NormalizationContext> buildAll(ModuleMap mm, Mode mode) {
+        Map<TankType,NormalizationContext> norms = buildAll(mm);
+        return mode == Mode.Percentile ? withRanks(norms, PeerRanks.build(mm)) : norms;
+    }
+    
+    /**
+     * Switches the normalization mode of all specified contexts
+     * @param norms the normalization context of each TankType
+     * @param ranks the sorted values of the peer groups of the same database
+     * (Mode.Percentile), or null for Mode.Best
+     * @return new contexts with the same best values and the specified ranks
+     */
+    public static Map<TankType,NormalizationContext> withRanks(
+            Map<TankType,NormalizationContext> norms, PeerRanks ranks) {
+        Map<TankType,NormalizationContext> result = new EnumMap<TankType,NormalizationContext>(TankType.class);
+        for (Map.Entry<TankType,NormalizationContext> e : norms.entrySet()) {
+            result.put(e.getKey(), e.getValue().withRanks(ranks));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+    
+    // -------------------- accessors --------------------
+    
+    /**
+     * @param f the field
+     * @return the best value of this field (-1 for fields that are not rated)
+     */
+    public double best(Field f) {
+        return best[f.ordinal()];
+    }
+    
+    /**
+     * Creates a new context, where the best values also consider the
+     * specified loadouts (e.g. combinations of modules that are neither
+     * stock nor top, which may be better than any of them)
+     * @param loadouts the additional loadouts
+     * @return the extended context (this context is not changed)
+     */
+    public NormalizationContext extend(Iterable<Loadout> loadouts) {
+        double[] extended = best.clone();
+        for (Loadout l : loadouts) {
+            accumulate(extended, mm, l);
+        }
+        return new NormalizationContext(mm, type, extended, ranks);
+    }
+    
+    /**
+     * Creates a new context with the same best values and the specified
+     * normalization mode
+     * @param ranks the sorted values of the peer groups of the same database
+     * (Mode.Percentile), or null for Mode.Best
+     * @return the new context (this context is not changed)
+     */
+    public NormalizationContext withRanks(PeerRanks ranks) {
+        return new NormalizationContext(mm, type, best, ranks);
+    }
+    
+    /**
+     * @return the normalization mode of this context
+     */
+    public Mode getMode() {
+        return ranks == null ? Mode.Best : Mode.Percentile;
+    }
+    
+    // -------------------- normalization --------------------
+    
+    /**
+     * Normalizes a value, where higher is better. The value must be
+     * positive and not better than the best value.
+     * @param f the field
+     * @param value the value
+     * @param t the tank with the value (defines the peer group)
+     * @return the fraction of the best value (Mode.Best) or the percentile
+     * among the peers (Mode.Percentile)
+     */
+    public double normalize(Field f, double value, Tank t) {
+        return ranks == null ? value / best[f.ordinal()] : ranks.percentile(f, value, t);
+    }
+    
+    /**
+     * Normalizes a value, where lower is better. The value must be positive
+     * and not better than the best value.
+     * @param f the field
+     * @param value the value
+     * @param t the tank with the value (defines the peer group)
+     * @return the inverse fraction of the best value (Mode.Best) or the
+     * percentile among the peers (Mode.Percentile)
+     */
+    public double normalizeInverse(Field f, double value, Tank t) {
+        return ranks == null ? 1.0 / (value / best[f.ordinal()]) : ranks.percentileInverse(f, value, t);
+    }
+    
+    // -------------------- calculation --------------------
+    
+    /**
+     * @return the initial values, before any tank was considered
+     */
+    protected static double[] initial() {
+        // higher is better (default)
+        double[] best = new double[fields.length];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = -1;
+        }
+        
+        // lower is better
+        for (Field f : lowerIsBetter) {
+            best[f.ordinal()] = Double.POSITIVE_INFINITY;
+        }
+        return best;
+    }
+    
+    /**
+     * Updates the best values with the values of the specified tank
+     * @param best the best values to update
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param id the id of the tank
+     * @param dev the development of this tank (to retrieve correct modules)
+     */
+    protected static void accumulate(double[] best, ModuleMap mm, int id, Development dev) {
+        accumulate(best, mm, mm.getLoadout(id, dev));
+    }
+    
+    /**
+     * Updates the best values with the values of the specified loadout
+     * @param best the best values to update
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param l the loadout
+     */
+    protected static void accumulate(double[] best, ModuleMap mm, Loadout l) {
+        double[] values = collect(mm, l);
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                if (lower[i]) {
+                    updateMin(best, fields[i], values[i]);
+                } else {
+                    updateMax(best, fields[i], values[i]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Collects the values of the specified tank, that are compared to find
+     * the best values
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param id the id of the tank
+     * @param dev the development of this tank (to retrieve correct modules)
+     * @return the values by Field ordinal (NaN for fields that are not
+     * compared)
+     */
+    protected static double[] collect(ModuleMap mm, int id, Development dev) {
+        return collect(mm, mm.getLoadout(id, dev));
+    }
+    
+    /**
+     * Collects the values of the specified loadout, that are compared to
+     * find the best values
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param l the loadout
+     * @return the values by Field ordinal (NaN for fields that are not
+     * compared)
+     */
+    protected static double[] collect(ModuleMap mm, Loadout l) {
+        
+        Tank t = l.tank;
+        Equipment eq = l.equipment;
+        
+        Engine e = l.engine;
+        Gun g = l.gun;
+        Radio r = l.radio;
+        Suspension s = l.suspension;
+        Turret tu = l.turret;
+        
+        double[] v = new double[fields.length];
+        Arrays.fill(v, Double.NaN);
+        
+        // base properties
+        v[Field.TE_Hitpoints.ordinal()] = eq.hitpoints;
+        v[Field.TE_Weight.ordinal()] = eq.weight;
+        v[Field.ME_Firechance.ordinal()] = e.firechance;
+        v[Field.MT_Traverse.ordinal()] = tu.traverse;
+        v[Field.MS_Traverse.ordinal()] = s.traverse;
+        v[Field.T_TopSpeed.ordinal()] = t.speed;
+        v[Field.ME_Power.ordinal()] = e.power;
+        v[Field.MR_Range.ordinal()] = r.range;
+        v[Field.TE_ViewRange.ordinal()] = eq.viewRange;
+        
+        v[Field.T_Hull_Front.ordinal()] = t.hullFront;
+        v[Field.T_Hull_Side.ordinal()] = t.hullRear;
+        v[Field.T_Hull_Rear.ordinal()] = t.hullSide;
+        v[Field.MT_Armor_Front.ordinal()] = tu.armorFront;
+        v[Field.MT_Armor_Side.ordinal()] = tu.armorSide;
+        v[Field.MT_Armor_Rear.ordinal()] = tu.armorRear;
+        v[Field.MG_Penetration_AP.ordinal()] = g.penAP;
+        v[Field.MG_Penetration_APCR.ordinal()] = g.penAPCR;
+        v[Field.MG_Penetration_HE.ordinal()] = g.penHE;
+        v[Field.MG_Penetration_HEAT.ordinal()] = g.penHEAT;
+        
+        // special calculations
+        DerivedMetrics dm = mm.metrics;
+        Field[] derived = { Field.DP_GunArc, Field.DP_Elevation, Field.DP_Ammo_Normalized,
+            Field.DP_DmgPS_AP, Field.DP_DmgPS_APCR, Field.DP_DmgPS_HE, Field.DP_DmgPS_HEAT,
+            Field.DP_HPperTon };
+        for (Field f : derived) {
+            v[f.ordinal()] = dm.get(f, l);
+        }
+        
+        // depending on dev --> always use best values, will be applied anyways
+        switch (eq.development) {
+            case Stock:
+                v[Field.MG_Accuracy_Max.ordinal()] = g.accuracyMin;
+                v[Field.MG_AimTime_Max.ordinal()] = g.aimTimeMin;
+                v[Field.MG_AmmoCapacity_Min.ordinal()] = g.ammoCapacityMax;
+                break;
+            case Top:
+                v[Field.MG_Accuracy_Min.ordinal()] = g.accuracyMin;
+                v[Field.MG_AimTime_Min.ordinal()] = g.aimTimeMin;
+                v[Field.MG_AmmoCapacity_Max.ordinal()] = g.ammoCapacityMax;
+                break;
+        }
+        return v;
+    }
+    
+    /**
+     * Updates the maximum value of a given field with the specified value,
+     * if it really is larger than the current max value
+     * @param best the best values
+     * @param f the field to update
+     * @param value the value to set as max, if larger
+     */
+    private static void updateMax(double[] best, Field f, double value) {
+        if (value > 0.0) {
+            if (value > best[f.ordinal()]) {
+                best[f.ordinal()] = value;
+            }
+        } else if (value < 0.0) {
+            log.warn("Field {} is associated with illegal value {}", f.toString(), value);
+        }
+    }
+    
+    /**
+     * Updates the minimum value of a given field with the specified value,
+     * if it really is smaller than the current min value
+     * @param best the best values
+     * @param f the field to update
+     * @param value the value to set as min, if smaller
+     */
+    private static void updateMin(double[] best, Field f, double value) {
+        if (value > 0.0) {
+            if (value < best[f.ordinal()]) {
+                best[f.ordinal()] = value;
+            }
+        } else if (value < 0.0) {
+            log.warn("Field {} is associated with illegal value {}", f.toString(), value);
+        }
+    }
+    
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.index.IntervalIndex;
+
+/**
+ * The sorted values of each field within each peer group of a database: all
+ * tanks of the same type, that can meet in a battle of the same battle tier.
+ * The values of a tank can then be rated by their percentile in the peer
+ * group, instead of the fraction of the single best value, so a single
+ * outlier (e.g. one gun that is far better than all others) does not skew
+ * the ratings of all other tanks of the type.
+ * 
+ * The sorted arrays are built once for a database (see Snapshot), every
+ * lookup is a binary search: O(log n) for each battle tier of the tank.
+ * The peer groups and the battle tiers of each tank are taken from the
+ * IntervalIndex over the battle tiers (see SecondaryIndex).
+ * The peer values are collected from the stock and top loadouts of all
+ * tanks, with the value that TankRating rates for each development (see
+ * collect()), only positive values are considered.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class PeerRanks {
+    
+    /** all fields, by ordinal */
+    private static final Field[] fields = Field.values();
+    /** the development stages */
+    private static final Development[] devs = Development.values();
+    /** the values of an empty peer group */
+    private static final double[] empty = new double[0];
+    
+    /** The ModuleMap of the database the values were collected from */
+    public final ModuleMap mm;
+    /** The battle tiers of the tanks, by tank id */
+    public final IntervalIndex<Tank> battleTiers;
+    /** the sorted values by TankType ordinal, battle tier and Field ordinal */
+    private final double[][][][] values;
+    
+    /**
+     * Creates a new index with the specified sorted values
+     * @param mm the ModuleMap of the database
+     * @param battleTiers the battle tiers of the tanks, by tank id
+     * @param values the sorted values by TankType ordinal, battle tier and
+     * Field ordinal
+     */
+    protected PeerRanks(ModuleMap mm, IntervalIndex<Tank> battleTiers, double[][][][] values) {
+        this.mm = mm;
+        this.battleTiers = battleTiers;
+        this.values = values;
+    }
+    
+    /**
+     * Collects and sorts the values of all fields for each tank type and
+     * battle tier of the database
+     * @param mm the ModuleMap of the database
+     * @return the sorted values of the database
+     */
+    public static PeerRanks build(ModuleMap mm) {
+        List<Tank> tanks = new ArrayList<Tank>(mm.ids.getTankCount());
+        for (int id = 0; id < mm.ids.getTankCount(); id++) {
+            tanks.add(mm.ids.getTank(id));
+        }
+        return build(mm, IntervalIndex.build(tanks, IntervalIndex.battleTiers));
+    }
+    
+    /**
+     * Collects and sorts the values of all fields for each tank type and
+     * battle tier of the database, with the peer groups from an existing
+     * index of the battle tiers
+     * @param mm the ModuleMap of the database
+     * @param battleTiers the battle tiers of the tanks of the same database,
+     * by tank id (see SecondaryIndex)
+     * @return the sorted values of the database
+     */
+    public static PeerRanks build(ModuleMap mm, IntervalIndex<Tank> battleTiers) {
+        TankType[] types = TankType.values();
+        int tanks = mm.ids.getTankCount();
+        int tiers = battleTiers.getMax() + 1;
+        
+        double[][] collected = new double[tanks * devs.length][];
+        for (int id = 0; id < tanks; id++) {
+            if (mm.ids.getTank(id).type != null) {
+                for (Development dev : devs) {
+                    collected[id * devs.length + dev.ordinal()] = collect(mm, id, dev);
+                }
+            }
+        }
+        
+        double[][][][] values = new double[types.length][Math.max(tiers, 0)][][];
+        for (int b = Math.max(battleTiers.getMin(), 0); b < tiers; b++) {
+            BitSet roster = battleTiers.stab(b);
+            
+            // count the values of each group, so the arrays can be filled in place
+            int[][] counts = new int[types.length][fields.length];
+            for (int id = roster.nextSetBit(0); id >= 0; id = roster.nextSetBit(id + 1)) {
+                TankType type = mm.ids.getTank(id).type;
+                if (type != null) {
+                    for (Development dev : devs) {
+                        count(collected[id * devs.length + dev.ordinal()], counts[type.ordinal()]);
+                    }
+                }
+            }
+            for (int i = 0; i < types.length; i++) {
+                values[i][b] = new double[fields.length][];
+                for (int f = 0; f < fields.length; f++) {
+                    values[i][b][f] = counts[i][f] == 0 ? empty : new double[counts[i][f]];
+                    counts[i][f] = 0;
+                }
+            }
+            for (int id = roster.nextSetBit(0); id >= 0; id = roster.nextSetBit(id + 1)) {
+                TankType type = mm.ids.getTank(id).type;
+                if (type != null) {
+                    for (Development dev : devs) {
+                        double[] v = collected[id * devs.length + dev.ordinal()];
+                        for (int f = 0; f < v.length; f++) {
+                            if (v[f] > 0.0) {
+                                values[type.ordinal()][b][f][counts[type.ordinal()][f]++] = v[f];
+                            }
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < types.length; i++) {
+                for (double[] sorted : values[i][b]) {
+                    Arrays.sort(sorted);
+                }
+            }
+        }
+        return new PeerRanks(mm, battleTiers, values);
+    }
+    
+    /**
+     * Counts the positive values of each field
+     * @param v the values by Field ordinal
+     * @param counts the counts by Field ordinal, incremented in place
+     */
+    private static void count(double[] v, int[] counts) {
+        for (int f = 0; f < v.length; f++) {
+            if (v[f] > 0.0) {
+                counts[f]++;
+            }
+        }
+    }
+    
+    /**
+     * Collects the values of the specified tank, that are rated by
+     * TankRating. Most of them are the same as the ones that are compared
+     * for the best values, but the gun accuracy and aim time depend on the
+     * development: stock loadouts are rated with the worst value of the gun
+     * (the best values always use the best value of the gun).
+     * @param mm the ModuleMap of the database the tank belongs to
+     * @param id the id of the tank
+     * @param dev the development of this tank
+     * @return the values by Field ordinal (NaN for fields that are not rated)
+     */
+    protected static double[] collect(ModuleMap mm, int id, Development dev) {
+        Loadout l = mm.getLoadout(id, dev);
+        double[] v = NormalizationContext.collect(mm, l);
+        v[Field.MG_AmmoCapacity_Min.ordinal()] = Double.NaN;
+        v[Field.MG_AmmoCapacity_Max.ordinal()] = Double.NaN;
+        switch (l.equipment.development) {
+            case Stock:
+                v[Field.MG_Accuracy_Max.ordinal()] = l.gun.accuracyMax;
+                v[Field.MG_AimTime_Max.ordinal()] = l.gun.aimTimeMax;
+                break;
+            case Top:
+                v[Field.MG_Accuracy_Min.ordinal()] = l.gun.accuracyMin;
+                v[Field.MG_AimTime_Min.ordinal()] = l.gun.aimTimeMin;
+                break;
+        }
+        return v;
+    }
+    
+    // -------------------- lookup --------------------
+    
+    /**
+     * Rates a value by its percentile among the values of the peers of the
+     * specified tank, where higher is better: the fraction of peer values
+     * that are lower or equal. Tanks with several battle tiers get the
+     * average over all battle tiers.
+     * @param f the field
+     * @param value the value to rate (must be positive)
+     * @param t the tank with the value (defines the peer group)
+     * @return the rating (0 to 1, 1 for the best value)
+     */
+    public double percentile(Field f, double value, Tank t) {
+        return percentile(f, value, t, false);
+    }
+    
+    /**
+     * Rates a value by its percentile among the values of the peers of the
+     * specified tank, where lower is better: the fraction of peer values
+     * that are higher or equal. Tanks with several battle tiers get the
+     * average over all battle tiers.
+     * @param f the field
+     * @param value the value to rate (must be positive)
+     * @param t the tank with the value (defines the peer group)
+     * @return the rating (0 to 1, 1 for the best value)
+     */
+    public double percentileInverse(Field f, double value, Tank t) {
+        return percentile(f, value, t, true);
+    }
+    
+    /**
+     * @param f the field
+     * @param t the tank (defines the peer group)
+     * @param battleTier the battle tier
+     * @return the number of peer values of this field in the battle tier
+     */
+    public int getPeerCount(Field f, Tank t, int battleTier) {
+        return peers(f, t.type, battleTier).length;
+    }
+    
+    /**
+     * Averages the percentile of the value in each battle tier of the tank
+     * (as stored in the index, tanks of another database are looked up
+     * with their own battle tiers)
+     */
+    private double percentile(Field f, double value, Tank t, boolean inverse) {
+        int id = mm.ids.idOf(t);
+        int lower = id < 0 ? IntervalIndex.battleTiers.lower(t) : battleTiers.getLower(id);
+        int upper = id < 0 ? IntervalIndex.battleTiers.upper(t) : battleTiers.getUpper(id);
+        double sum = 0;
+        int tiers = 0;
+        for (int b = Math.max(lower, 0); b <= upper; b++) {
+            double[] sorted = peers(f, t.type, b);
+            if (sorted.length == 0) {
+                // no peer has this value, so there is none that is better
+                sum += 1.0;
+            } else if (inverse) {
+                sum += (double) (sorted.length - lowerBound(sorted, value)) / sorted.length;
+            } else {
+                sum += (double) upperBound(sorted, value) / sorted.length;
+            }
+            tiers++;
+        }
+        return tiers > 0 ? sum / tiers : 1.0;
+    }
+    
+    /**
+     * @return the sorted peer values, or an empty array if there are none
+     */
+    private double[] peers(Field f, TankType type, int battleTier) {
+        if (type == null || battleTier < 0 || battleTier >= values[type.ordinal()].length
+                || values[type.ordinal()][battleTier] == null) {
+            return empty;
+        }
+        return values[type.ordinal()][battleTier][f.ordinal()];
+    }
+    
+    /**
+     * @return the number of values that are lower than the key
+     */
+    private static int lowerBound(double[] sorted, double key) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    
+    /**
+     * @return the number of values that are lower than or equal to the key
+     */
+    private static int upperBound(double[] sorted, double key) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    
+}
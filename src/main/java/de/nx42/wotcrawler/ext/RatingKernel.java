@@ -0,0 +1,596 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.ext.RatingWeights.Feature;
+import de.nx42.wotcrawler.ext.RatingWeights.Terms;
+
+/**
+ * Calculates the ratings of all tanks of one TankType at once, column by
+ * column instead of tank by tank (as TankRating does).
+ * 
+ * The raw values of all tanks are copied into one array per value, which is
+ * then normalized against the best value in a single loop. The basic ratings
+ * (features) are kept in one array per Feature, and each weighted sum is
+ * calculated by adding one weighted feature column at a time to a column of
+ * results. All loops work on primitive arrays without branches or method
+ * calls in between, so the JIT can unroll and vectorize them.
+ * 
+ * The features are calculated once, the weighted sums can then be evaluated
+ * for any number of RatingWeights (e.g. all RatingProfiles a user can choose
+ * from). The results are exactly the same as the ones of TankRating, in
+ * both normalization modes (see NormalizationContext.Mode).
+ * 
+ * Rows are ordered by development first, then by tank, so the best value
+ * of each column (which may depend on the development) is constant within
+ * a block of rows.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class RatingKernel {
+    
+    private static final Logger log = LoggerFactory.getLogger(RatingKernel.class);
+    
+    /** the development stages */
+    private static final Development[] devs = Development.values();
+    /** number of result columns: one per category and the overall rating */
+    public static final int RESULTS = Category.values().length + 1;
+    /** result column of the overall rating */
+    public static final int OVERALL = Category.values().length;
+    
+    /** the best values the ratings are relative to */
+    public final NormalizationContext norm;
+    /** the tank type of the rated tanks */
+    public final TankType type;
+    /** ids of the rated tanks */
+    private final int[] tanks;
+    /** row of each tank id in the first block (-1 if not rated) */
+    private final int[] rowOf;
+    /** the basic ratings by Feature ordinal and row */
+    private final double[][] features;
+    /** rows of tanks without turret (these use different weights for some
+     * tank types) */
+    private final int[] noTurret;
+    
+    /**
+     * Creates a new kernel from precalculated features
+     * @param norm the best values the ratings are relative to
+     * @param tanks ids of the rated tanks
+     * @param features the basic ratings by Feature ordinal and row
+     */
+    protected RatingKernel(NormalizationContext norm, int[] tanks, double[][] features) {
+        this.norm = norm;
+        this.type = norm.type;
+        this.tanks = tanks;
+        this.features = features;
+        this.rowOf = new int[norm.mm.ids.getTankCount()];
+        Arrays.fill(rowOf, -1);
+        for (int i = 0; i < tanks.length; i++) {
+            rowOf[tanks[i]] = i;
+        }
+        double[] turret = features[Feature.TurretArmor.ordinal()];
+        int count = 0;
+        for (int row = 0; row < turret.length; row++) {
+            if (turret[row] == -1) {
+                count++;
+            }
+        }
+        this.noTurret = new int[count];
+        for (int row = 0, i = 0; row < turret.length; row++) {
+            if (turret[row] == -1) {
+                noTurret[i++] = row;
+            }
+        }
+    }
+    
+    /**
+     * Calculates the features of all tanks of the type of the specified
+     * context
+     * @param norm the best values the ratings are relative to
+     * @return the kernel for all tanks of this type
+     */
+    public static RatingKernel build(NormalizationContext norm) {
+        ModuleMap mm = norm.mm;
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = 0; id < mm.ids.getTankCount(); id++) {
+            if (norm.type == null || mm.ids.getTank(id).type == norm.type) {
+                ids.add(id);
+            }
+        }
+        int[] tanks = new int[ids.size()];
+        for (int i = 0; i < tanks.length; i++) {
+            tanks[i] = ids.get(i);
+        }
+        return build(norm, tanks);
+    }
+    
+    /**
+     * Calculates the features of the specified tanks
+     * @param norm the best values the ratings are relative to
+     * @param tanks ids of the tanks to rate
+     * @return the kernel for these tanks
+     */
+    public static RatingKernel build(NormalizationContext norm, int[] tanks) {
+        int n = tanks.length;
+        int rows = n * devs.length;
+        Raw[] raws = Raw.values();
+        
+        // gather: one column per raw value
+        double[][] raw = new double[raws.length][rows];
+        for (Development dev : devs) {
+            int offset = dev.ordinal() * n;
+            for (int i = 0; i < n; i++) {
+                Loadout l = norm.mm.getLoadout(tanks[i], dev);
+                for (Raw r : raws) {
+                    raw[r.ordinal()][offset + i] = r.get(norm.mm, tanks[i], l);
+                }
+            }
+        }
+        
+        // normalize each column against its best value (or the peer groups)
+        int invalid = 0;
+        for (Raw r : raws) {
+            double[] column = raw[r.ordinal()];
+            for (Development dev : devs) {
+                double best = norm.best(r.field(dev));
+                int from = dev.ordinal() * n;
+                if (norm.getMode() == Mode.Percentile) {
+                    invalid += percentile(column, from, tanks, norm, r.field(dev), r.inverse);
+                } else {
+                    invalid += r.inverse
+                            ? normalizeInverse(column, from, from + n, best)
+                            : normalize(column, from, from + n, best);
+                }
+            }
+        }
+        if (invalid > 0) {
+            log.warn("{} values of {} tanks are not within reasonable bounds", invalid, norm.type);
+        }
+        
+        // combine to features
+        double[][] features = new double[Feature.values().length][];
+        for (Raw r : raws) {
+            if (r.feature != null) {
+                features[r.feature.ordinal()] = raw[r.ordinal()];
+            }
+        }
+        features[Feature.HullArmor.ordinal()] = armor(
+                raw[Raw.HullFront.ordinal()], raw[Raw.HullSide.ordinal()], raw[Raw.HullRear.ordinal()]);
+        features[Feature.TurretArmor.ordinal()] = armor(
+                raw[Raw.TurretFront.ordinal()], raw[Raw.TurretSide.ordinal()], raw[Raw.TurretRear.ordinal()]);
+        features[Feature.Damage.ordinal()] = average(raw[Raw.DamageAP.ordinal()],
+                raw[Raw.DamageAPCR.ordinal()], raw[Raw.DamageHE.ordinal()], raw[Raw.DamageHEAT.ordinal()]);
+        features[Feature.Penetration.ordinal()] = average(raw[Raw.PenetrationAP.ordinal()],
+                raw[Raw.PenetrationAPCR.ordinal()], raw[Raw.PenetrationHE.ordinal()], raw[Raw.PenetrationHEAT.ordinal()]);
+        
+        return new RatingKernel(norm, tanks, features);
+    }
+    
+    // -------------------- ratings --------------------
+    
+    /**
+     * Calculates the ratings of all tanks with the specified weights
+     * @param weights the weights of the categories and the overall rating
+     * @return the ratings by result column (category ordinal, OVERALL) and row
+     */
+    public double[][] rate(RatingWeights weights) {
+        double[][] out = new double[RESULTS][size()];
+        rate(weights, out);
+        return out;
+    }
+    
+    /**
+     * Calculates the ratings of all tanks with the specified weights into a
+     * preallocated array, so the same array can be reused for any number of
+     * weights
+     * @param weights the weights of the categories and the overall rating
+     * @param out the ratings by result column (category ordinal, OVERALL)
+     * and row; needs at least RESULTS columns of size() rows each
+     */
+    public void rate(RatingWeights weights, double[][] out) {
+        int rows = size();
+        Category[] categories = Category.values();
+        for (Category c : categories) {
+            double[] result = out[c.ordinal()];
+            Arrays.fill(result, 0, rows, 0.0);
+            Terms terms = weights.get(c, false);
+            for (int k = 0; k < terms.size(); k++) {
+                double w = terms.getWeight(k);
+                double[] feature = features[terms.getIndex(k)];
+                for (int row = 0; row < rows; row++) {
+                    result[row] += w * feature[row];
+                }
+            }
+        }
+        
+        // vehicles without turret (usually only a few)
+        if (weights.hasNoTurretWeights()) {
+            double[] values = new double[features.length];
+            for (int row : noTurret) {
+                for (int f = 0; f < features.length; f++) {
+                    values[f] = features[f][row];
+                }
+                for (Category c : categories) {
+                    out[c.ordinal()][row] = weights.get(c, true).apply(values);
+                }
+            }
+        }
+        
+        double[] overall = out[OVERALL];
+        Arrays.fill(overall, 0, rows, 0.0);
+        Terms terms = weights.getOverall();
+        for (int k = 0; k < terms.size(); k++) {
+            double w = terms.getWeight(k);
+            double[] category = out[terms.getIndex(k)];
+            for (int row = 0; row < rows; row++) {
+                overall[row] += w * category[row];
+            }
+        }
+    }
+    
+    /**
+     * Calculates the ratings of all tanks for each of the specified profiles.
+     * The features are shared, only the weighted sums are calculated once
+     * per profile.
+     * @param profiles the weights to rate with
+     * @return the ratings by profile (in the order of the list), result
+     * column (category ordinal, OVERALL) and row
+     */
+    public double[][][] rate(List<RatingProfile> profiles) {
+        double[][][] out = new double[profiles.size()][RESULTS][size()];
+        for (int p = 0; p < out.length; p++) {
+            rate(profiles.get(p).get(type), out[p]);
+        }
+        return out;
+    }
+    
+    // -------------------- accessors --------------------
+    
+    /**
+     * @return the number of rows (rated tanks times developments)
+     */
+    public int size() {
+        return tanks.length * devs.length;
+    }
+    
+    /**
+     * @return the number of rated tanks
+     */
+    public int getTankCount() {
+        return tanks.length;
+    }
+    
+    /**
+     * @param row the row
+     * @return the tank in this row
+     */
+    public Tank getTank(int row) {
+        return norm.mm.ids.getTank(tanks[row % tanks.length]);
+    }
+    
+    /**
+     * @param row the row
+     * @return the development of the tank in this row
+     */
+    public Development getDevelopment(int row) {
+        return devs[row / tanks.length];
+    }
+    
+    /**
+     * @param tank the tank id
+     * @param dev the development
+     * @return the row of this tank in this development (-1 if the tank is
+     * not rated)
+     */
+    public int row(int tank, Development dev) {
+        int i = (tank >= 0 && tank < rowOf.length) ? rowOf[tank] : -1;
+        return (i < 0) ? -1 : dev.ordinal() * tanks.length + i;
+    }
+    
+    /**
+     * @param t the tank
+     * @param dev the development
+     * @return the row of this tank in this development (-1 if the tank is
+     * not rated)
+     */
+    public int row(Tank t, Development dev) {
+        return row(norm.mm.ids.idOf(t), dev);
+    }
+    
+    /**
+     * @param f the feature
+     * @param row the row
+     * @return the basic rating of this feature in this row
+     */
+    public double getFeature(Feature f, int row) {
+        return features[f.ordinal()][row];
+    }
+    
+    /**
+     * @param f the feature
+     * @return a copy of the basic ratings of this feature by row
+     */
+    public double[] getFeatureColumn(Feature f) {
+        return features[f.ordinal()].clone();
+    }
+    
+    // -------------------- kernels --------------------
+    
+    /**
+     * Normalizes the values in the specified range, where higher is better
+     * (see TankRating.percentage()). Values that are not positive or better
+     * than the best value become -1.
+     * @return the number of invalid values (negative or better than the best value)
+     */
+    private static int normalize(double[] v, int from, int to, double best) {
+        int invalid = 0;
+        for (int row = from; row < to; row++) {
+            double x = v[row];
+            if (x > 0.0 && !(x > best)) {
+                v[row] = x / best;
+            } else {
+                if (x < 0.0 || (x > 0.0 && x > best)) {
+                    invalid++;
+                }
+                v[row] = -1;
+            }
+        }
+        return invalid;
+    }
+    
+    /**
+     * Normalizes the values in the specified range, where lower is better
+     * (see TankRating.percentageInverse()). Values that are not positive or
+     * better than the best value become -1.
+     * @return the number of invalid values (negative or better than the best value)
+     */
+    private static int normalizeInverse(double[] v, int from, int to, double best) {
+        int invalid = 0;
+        for (int row = from; row < to; row++) {
+            double x = v[row];
+            if (x > 0.0 && !(x < best)) {
+                v[row] = 1.0 / (x / best);
+            } else {
+                if (x < 0.0 || (x > 0.0 && x < best)) {
+                    invalid++;
+                }
+                v[row] = -1;
+            }
+        }
+        return invalid;
+    }
+    
+    /**
+     * Normalizes the values of the specified tanks by their percentile in
+     * the peer groups of each tank (see NormalizationContext.Mode). Like
+     * normalize() and normalizeInverse(), values that are not positive or
+     * better than the best value become -1.
+     * @return the number of invalid values (negative or better than the best value)
+     */
+    private static int percentile(double[] v, int from, int[] tanks, NormalizationContext norm,
+            Field f, boolean inverse) {
+        double best = norm.best(f);
+        int invalid = 0;
+        for (int i = 0; i < tanks.length; i++) {
+            int row = from + i;
+            double x = v[row];
+            boolean outOfBounds = inverse ? x < best : x > best;
+            if (x > 0.0 && !outOfBounds) {
+                Tank t = norm.mm.ids.getTank(tanks[i]);
+                v[row] = inverse ? norm.normalizeInverse(f, x, t) : norm.normalize(f, x, t);
+            } else {
+                if (x < 0.0 || (x > 0.0 && outOfBounds)) {
+                    invalid++;
+                }
+                v[row] = -1;
+            }
+        }
+        return invalid;
+    }
+    
+    /**
+     * The armor rating from front, side and rear armor ratings
+     */
+    private static double[] armor(double[] front, double[] side, double[] rear) {
+        double[] result = new double[front.length];
+        for (int row = 0; row < result.length; row++) {
+            result[row] = front[row] * 0.5 + side[row] * 0.3 + rear[row] * 0.2;
+        }
+        return result;
+    }
+    
+    /**
+     * The average of the valid ratings (between 0 and 1) of the four
+     * ammunition types, -1 if there is none
+     */
+    private static double[] average(double[] ap, double[] apcr, double[] he, double[] heat) {
+        double[] result = new double[ap.length];
+        double[][] columns = { ap, apcr, he, heat };
+        for (int row = 0; row < result.length; row++) {
+            double sum = 0.0;
+            int count = 0;
+            for (double[] column : columns) {
+                double x = column[row];
+                if (x >= 0 && x <= 1) {
+                    sum += x;
+                    count++;
+                }
+            }
+            result[row] = count > 0 ? (sum / count) : -1;
+        }
+        return result;
+    }
+    
+    // -------------------- raw values --------------------
+    
+    /**
+     * The raw values the features are calculated from, with the field that
+     * holds the best value
+     */
+    private enum Raw {
+        Hitpoints(Feature.Hitpoints, Field.TE_Hitpoints) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.equipment.hitpoints; }
+        },
+        Weight(Feature.Weight, Field.TE_Weight) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.equipment.weight; }
+        },
+        Firechance(Feature.Firechance, Field.ME_Firechance, Field.ME_Firechance, true) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.engine.firechance; }
+        },
+        TraverseTurret(Feature.TraverseTurret, Field.MT_Traverse) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.turret.traverse; }
+        },
+        TraverseSuspension(Feature.TraverseSuspension, Field.MS_Traverse) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.suspension.traverse; }
+        },
+        Speed(Feature.Speed, Field.T_TopSpeed) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.tank.speed; }
+        },
+        EnginePower(Feature.EnginePower, Field.ME_Power) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.engine.power; }
+        },
+        PowerWeightRatio(Feature.PowerWeightRatio, Field.DP_HPperTon) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        RadioRange(Feature.RadioRange, Field.MR_Range) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.radio.range; }
+        },
+        ViewRange(Feature.ViewRange, Field.TE_ViewRange) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.equipment.viewRange; }
+        },
+        // stock tanks are compared by the worst, top tanks by the best value
+        GunAccuracy(Feature.GunAccuracy, Field.MG_Accuracy_Max, Field.MG_Accuracy_Min, true) {
+            double get(ModuleMap mm, int id, Loadout l) {
+                return l.development == Development.Stock ? l.gun.accuracyMax : l.gun.accuracyMin;
+            }
+        },
+        GunAimTime(Feature.GunAimTime, Field.MG_AimTime_Max, Field.MG_AimTime_Min, true) {
+            double get(ModuleMap mm, int id, Loadout l) {
+                return l.development == Development.Stock ? l.gun.aimTimeMax : l.gun.aimTimeMin;
+            }
+        },
+        GunElevation(Feature.GunElevation, Field.DP_Elevation) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        GunArc(Feature.GunArc, Field.DP_GunArc) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        GunAmmo(Feature.GunAmmo, Field.DP_Ammo_Normalized) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        // side and rear are swapped, as in TankRating
+        HullFront(null, Field.T_Hull_Front) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.tank.hullFront; }
+        },
+        HullSide(null, Field.T_Hull_Side) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.tank.hullRear; }
+        },
+        HullRear(null, Field.T_Hull_Rear) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.tank.hullSide; }
+        },
+        TurretFront(null, Field.MT_Armor_Front) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.turret.armorFront; }
+        },
+        TurretSide(null, Field.MT_Armor_Side) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.turret.armorSide; }
+        },
+        TurretRear(null, Field.MT_Armor_Rear) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.turret.armorRear; }
+        },
+        DamageAP(null, Field.DP_DmgPS_AP) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        DamageAPCR(null, Field.DP_DmgPS_APCR) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        DamageHE(null, Field.DP_DmgPS_HE) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        DamageHEAT(null, Field.DP_DmgPS_HEAT) {
+            double get(ModuleMap mm, int id, Loadout l) { return derived(mm, id, l); }
+        },
+        PenetrationAP(null, Field.MG_Penetration_AP) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.gun.penAP; }
+        },
+        PenetrationAPCR(null, Field.MG_Penetration_APCR) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.gun.penAPCR; }
+        },
+        PenetrationHE(null, Field.MG_Penetration_HE) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.gun.penHE; }
+        },
+        PenetrationHEAT(null, Field.MG_Penetration_HEAT) {
+            double get(ModuleMap mm, int id, Loadout l) { return l.gun.penHEAT; }
+        };
+        
+        /** the feature this value is used for directly (null, if it is
+         * combined with other values) */
+        final Feature feature;
+        /** the field of the best value for stock tanks */
+        final Field stock;
+        /** the field of the best value for top tanks */
+        final Field top;
+        /** true, if lower values are better */
+        final boolean inverse;
+        
+        Raw(Feature feature, Field field) {
+            this(feature, field, field, false);
+        }
+        
+        Raw(Feature feature, Field stock, Field top, boolean inverse) {
+            this.feature = feature;
+            this.stock = stock;
+            this.top = top;
+            this.inverse = inverse;
+        }
+        
+        /**
+         * @param dev the development
+         * @return the field of the best value for this development
+         */
+        Field field(Development dev) {
+            return dev == Development.Stock ? stock : top;
+        }
+        
+        /**
+         * @param mm the ModuleMap of the database
+         * @param id the tank id
+         * @param l the loadout of the tank
+         * @return the raw value of this tank
+         */
+        abstract double get(ModuleMap mm, int id, Loadout l);
+        
+        /**
+         * @return the value of the derived field of this raw value
+         */
+        double derived(ModuleMap mm, int id, Loadout l) {
+            return mm.metrics.get(stock, id, l.development);
+        }
+    }
+    
+}
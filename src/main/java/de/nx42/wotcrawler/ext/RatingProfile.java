@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.ext.RatingWeights.Feature;
+import de.nx42.wotcrawler.ext.RatingWeights.Terms;
+
+/**
+ * A named set of RatingWeights, one for each TankType.
+ * 
+ * Profiles are stored in properties files, with one weighted sum per key:
+ * <pre>
+ * name = Brawler
+ * HeavyTank.Defense = 0.4 * Hitpoints + 0.4 * HullArmor + 0.2 * TurretArmor
+ * HeavyTank.Overall = 0.5 * Defense + 0.3 * Attack + 0.1 * Mobility + 0.1 * Recon
+ * TankDestroyer.Defense.noTurret = 0.5 * Hitpoints + 0.5 * HullArmor
+ * </pre>
+ * The keys are the TankType, followed by a Category or "Overall". The suffix
+ * "noTurret" defines the weights for vehicles without turret. All sums that
+ * are not part of the file are taken from the default weights, so a profile
+ * only needs to contain what is different.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class RatingProfile {
+    
+    private static final Logger log = LoggerFactory.getLogger(RatingProfile.class);
+    
+    /** key of the overall rating */
+    public static final String OVERALL = "Overall";
+    /** suffix of the weights for vehicles without turret */
+    public static final String NO_TURRET = "noTurret";
+    /** key of the name of a profile */
+    public static final String NAME = "name";
+    
+    /** the default weights of all tank types */
+    private static final RatingProfile defaults = buildDefaults();
+    
+    /** the name of this profile */
+    public final String name;
+    /** the weights of each tank type */
+    protected final Map<TankType,RatingWeights> weights;
+    
+    /**
+     * Creates a new profile
+     * @param name the name of this profile
+     * @param weights the weights of each tank type
+     */
+    public RatingProfile(String name, Map<TankType,RatingWeights> weights) {
+        this.name = name;
+        this.weights = Collections.unmodifiableMap(new EnumMap<TankType,RatingWeights>(weights));
+    }
+    
+    /**
+     * @return the default weights of all tank types (as in TankRating)
+     */
+    public static RatingProfile defaults() {
+        return defaults;
+    }
+    
+    /**
+     * @param type the tank type
+     * @return the weights of this tank type
+     */
+    public RatingWeights get(TankType type) {
+        return weights.get(type);
+    }
+    
+    // -------------------- io --------------------
+    
+    /**
+     * Loads a profile from a properties file
+     * @param file the profile file
+     * @return the profile, or null if the file could not be read or is
+     * malformed
+     */
+    public static RatingProfile load(File file) {
+        Reader in = null;
+        try {
+            in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            String name = file.getName();
+            int ext = name.lastIndexOf('.');
+            return read(in, ext > 0 ? name.substring(0, ext) : name);
+        } catch (IOException ex) {
+            log.error("Could not read rating profile " + file, ex);
+        } catch (IllegalArgumentException ex) {
+            log.error("Rating profile {} is malformed: {}", file, ex.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    log.warn("Could not close stream", ex);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Reads a profile in properties format
+     * @param in the reader to read from
+     * @param defaultName the name of the profile, if it contains no name
+     * @return the profile
+     * @throws IOException if the profile could not be read
+     * @throws IllegalArgumentException if the profile is malformed
+     */
+    public static RatingProfile read(Reader in, String defaultName) throws IOException {
+        Properties props = new Properties();
+        props.load(in);
+        for (String key : props.stringPropertyNames()) {
+            if (!key.equals(NAME) && !isKey(key)) {
+                throw new IllegalArgumentException("Unknown key \"" + key + "\"");
+            }
+        }
+        
+        Map<TankType,RatingWeights> weights = new EnumMap<TankType,RatingWeights>(TankType.class);
+        Category[] categories = Category.values();
+        for (TankType type : TankType.values()) {
+            RatingWeights base = defaults.get(type);
+            Terms[] cats = new Terms[categories.length];
+            Terms[] noTurret = new Terms[categories.length];
+            boolean separate = base.hasNoTurretWeights();
+            for (Category c : categories) {
+                String key = type.name() + "." + c.name();
+                cats[c.ordinal()] = terms(props, key, Feature.class, base.get(c, false));
+                separate |= props.getProperty(key + "." + NO_TURRET) != null;
+            }
+            for (Category c : categories) {
+                String key = type.name() + "." + c.name() + "." + NO_TURRET;
+                // without separate weights, vehicles without turret use the same as all others
+                Terms fallback = base.hasNoTurretWeights() ? base.get(c, true) : cats[c.ordinal()];
+                noTurret[c.ordinal()] = terms(props, key, Feature.class, fallback);
+            }
+            Terms overall = terms(props, type.name() + "." + OVERALL, Category.class, base.getOverall());
+            weights.put(type, new RatingWeights(type, cats, separate ? noTurret : null, overall));
+        }
+        return new RatingProfile(props.getProperty(NAME, defaultName), weights);
+    }
+    
+    /**
+     * Writes this profile to a properties file, e.g. as template for new
+     * profiles
+     * @param file the file to write to
+     * @return true, if the file was written
+     */
+    public boolean write(File file) {
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            write(out);
+            out.close();
+            if (out.checkError()) {
+                log.error("Error writing rating profile {}", file);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            log.error("Error writing rating profile " + file, ex);
+            return false;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+    
+    /**
+     * Writes this profile in properties format
+     * @param out the writer to write to
+     */
+    public void write(PrintWriter out) {
+        out.print("# rating weights for each tank type\n");
+        out.print(NAME + " = " + name + "\n");
+        for (TankType type : TankType.values()) {
+            RatingWeights w = weights.get(type);
+            out.print('\n');
+            for (Category c : Category.values()) {
+                out.print(type.name() + "." + c.name() + " = " + w.get(c, false) + "\n");
+            }
+            if (w.hasNoTurretWeights()) {
+                for (Category c : Category.values()) {
+                    out.print(type.name() + "." + c.name() + "." + NO_TURRET + " = " + w.get(c, true) + "\n");
+                }
+            }
+            out.print(type.name() + "." + OVERALL + " = " + w.getOverall() + "\n");
+        }
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * @param key a property key
+     * @return true, if this is a valid key for a weighted sum
+     */
+    private static boolean isKey(String key) {
+        String[] parts = key.split("\\.");
+        if (parts.length < 2 || parts.length > 3) {
+            return false;
+        }
+        boolean type = false;
+        for (TankType t : TankType.values()) {
+            type |= t.name().equals(parts[0]);
+        }
+        if (parts.length == 2 && parts[1].equals(OVERALL)) {
+            return type;
+        }
+        boolean category = false;
+        for (Category c : Category.values()) {
+            category |= c.name().equals(parts[1]);
+        }
+        return type && category && (parts.length == 2 || parts[2].equals(NO_TURRET));
+    }
+    
+    /**
+     * @return the parsed weighted sum of this key, or the fallback, if the
+     * key is not set
+     */
+    private static <E extends Enum<E>> Terms terms(Properties props, String key, Class<E> elements, Terms fallback) {
+        String expr = props.getProperty(key);
+        if (expr == null) {
+            return fallback;
+        }
+        try {
+            return Terms.parse(expr, elements);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(key + ": " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * @return the profile of the default weights
+     */
+    private static RatingProfile buildDefaults() {
+        Map<TankType,RatingWeights> weights = new EnumMap<TankType,RatingWeights>(TankType.class);
+        for (TankType type : TankType.values()) {
+            weights.put(type, RatingWeights.defaults(type));
+        }
+        return new RatingProfile("default", weights);
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+    
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.util.SplitMix64;
+
+/**
+ * The weights that combine the basic ratings of a tank to the ratings of each
+ * category (defense, attack, mobility, recon), and the categories to the
+ * overall rating, for one TankType.
+ * 
+ * Each rating is a weighted sum, which is defined as an expression like
+ * "0.45 * Speed + 0.30 * PowerWeightRatio + ...". The terms are summed up in
+ * the order of the expression, so the results are exactly the same as if
+ * the expression had been written in java code.
+ * For tank destroyers and SPGs, there are separate weights for vehicles
+ * without turret (these are used, if the turret armor has no rating).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class RatingWeights {
+    
+    /**
+     * The basic ratings of a tank (the features, that are weighted)
+     */
+    public enum Feature {
+        Hitpoints, Weight, Firechance, TraverseTurret, TraverseSuspension,
+        Speed, EnginePower, PowerWeightRatio, RadioRange, ViewRange,
+        GunAccuracy, GunAimTime, GunElevation, GunArc, GunAmmo,
+        HullArmor, TurretArmor, Damage, Penetration
+    }
+    
+    /**
+     * The rating categories, that are combined to the overall rating
+     */
+    public enum Category {
+        Defense, Attack, Mobility, Recon
+    }
+    
+    /** the default weights of each tank type */
+    private static final Map<TankType,RatingWeights> defaults = new EnumMap<TankType,RatingWeights>(TankType.class);
+    
+    static {
+        for (TankType type : TankType.values()) {
+            defaults.put(type, create(type));
+        }
+    }
+    
+    /** The tank type these weights belong to */
+    public final TankType type;
+    /** the weights of each category by Category ordinal */
+    protected final Terms[] categories;
+    /** the weights of each category for vehicles without turret (may be the
+     * same as categories) */
+    protected final Terms[] categoriesNoTurret;
+    /** the weights of the categories for the overall rating */
+    protected final Terms overall;
+    
+    /**
+     * Creates new rating weights
+     * @param type the tank type these weights belong to
+     * @param categories the weights of each category by Category ordinal
+     * @param categoriesNoTurret the weights of each category for vehicles
+     * without turret (null, if the same weights apply)
+     * @param overall the weights of the categories for the overall rating
+     */
+    public RatingWeights(TankType type, Terms[] categories, Terms[] categoriesNoTurret, Terms overall) {
+        if (categories.length != Category.values().length
+                || (categoriesNoTurret != null && categoriesNoTurret.length != categories.length)) {
+            throw new IllegalArgumentException("Weights for all " + Category.values().length
+                    + " categories are required");
+        }
+        this.type = type;
+        this.categories = categories.clone();
+        this.categoriesNoTurret = (categoriesNoTurret == null) ? this.categories : categoriesNoTurret.clone();
+        this.overall = overall;
+    }
+    
+    /**
+     * @param c the category
+     * @param noTurret true for vehicles without turret
+     * @return the weights of this category
+     */
+    public Terms get(Category c, boolean noTurret) {
+        return noTurret ? categoriesNoTurret[c.ordinal()] : categories[c.ordinal()];
+    }
+    
+    /**
+     * @return the weights of the categories for the overall rating
+     */
+    public Terms getOverall() {
+        return overall;
+    }
+    
+    /**
+     * @return true, if vehicles without turret are weighted differently
+     */
+    public boolean hasNoTurretWeights() {
+        return categoriesNoTurret != categories;
+    }
+    
+    /**
+     * The weights as a dense matrix, one row per category and one column
+     * per feature (features that are not part of a category have weight 0)
+     * @param noTurret true for the weights of vehicles without turret
+     * @return the weight matrix by Category and Feature ordinal
+     */
+    public double[][] getMatrix(boolean noTurret) {
+        Terms[] terms = noTurret ? categoriesNoTurret : categories;
+        double[][] matrix = new double[terms.length][Feature.values().length];
+        for (int c = 0; c < terms.length; c++) {
+            for (int k = 0; k < terms[c].size(); k++) {
+                matrix[c][terms[c].getIndex(k)] += terms[c].getWeight(k);
+            }
+        }
+        return matrix;
+    }
+    
+    /**
+     * Creates randomly perturbed weights (e.g. to test how much the ratings
+     * depend on the exact weights): every weight of the categories and of
+     * the overall rating is multiplied by a random factor between
+     * 1 - spread and 1 + spread.
+     * @param rng the random number generator
+     * @param spread the maximum relative change of each weight
+     * @return the perturbed weights (these weights are not changed)
+     */
+    public RatingWeights perturb(SplitMix64 rng, double spread) {
+        Terms[] c = new Terms[categories.length];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = categories[i].perturb(rng, spread);
+        }
+        Terms[] nt = null;
+        if (hasNoTurretWeights()) {
+            nt = new Terms[categoriesNoTurret.length];
+            for (int i = 0; i < nt.length; i++) {
+                nt[i] = categoriesNoTurret[i].perturb(rng, spread);
+            }
+        }
+        return new RatingWeights(type, c, nt, overall.perturb(rng, spread));
+    }
+    
+    // -------------------- defaults --------------------
+    
+    /**
+     * The default weights of each tank type
+     * @param type the tank type
+     * @return the default weights of this type
+     */
+    public static RatingWeights defaults(TankType type) {
+        return defaults.get(type);
+    }
+    
+    /**
+     * Creates the default weights of the specified tank type
+     * @param type the tank type
+     * @return the default weights of this type
+     */
+    private static RatingWeights create(TankType type) {
+        switch (type) {
+            case LightTank:
+                return new RatingWeights(type, features(
+                        "0.3 * Hitpoints + 0.2 * HullArmor + 0.2 * TurretArmor + 0.1 * Weight + 0.03 * Firechance"
+                        + " + 0.05 * GunElevation + 0.06 * TraverseSuspension + 0.06 * TraverseTurret",
+                        "0.3 * Penetration + 0.4 * Damage + 0.08 * GunAmmo + 0.08 * GunAccuracy + 0.04 * GunAimTime"
+                        + " + 0.04 * GunElevation + 0.06 * Weight",
+                        "0.45 * Speed + 0.30 * PowerWeightRatio + 0.15 * TraverseSuspension + 0.10 * TraverseTurret",
+                        "0.35 * RadioRange + 0.65 * ViewRange"), null,
+                        categories("0.2 * Defense + 0.4 * Attack + 0.3 * Mobility + 0.1 * Recon"));
+            case MediumTank:
+                return new RatingWeights(type, features(
+                        "0.25 * Hitpoints + 0.3 * HullArmor + 0.25 * TurretArmor + 0.05 * Weight + 0.02 * Firechance"
+                        + " + 0.03 * GunArc + 0.03 * GunElevation + 0.03 * TraverseSuspension + 0.04 * TraverseTurret",
+                        "0.4 * Penetration + 0.3 * Damage + 0.05 * GunAmmo + 0.1 * GunAccuracy + 0.05 * GunAimTime"
+                        + " + 0.03 * GunArc + 0.03 * GunElevation + 0.04 * Weight",
+                        "0.4 * Speed + 0.3 * PowerWeightRatio + 0.15 * TraverseSuspension + 0.15 * TraverseTurret",
+                        "0.35 * RadioRange + 0.65 * ViewRange"), null,
+                        categories("0.34 * Defense + 0.34 * Attack + 0.2 * Mobility + 0.12 * Recon"));
+            case HeavyTank:
+                return new RatingWeights(type, features(
+                        "0.25 * Hitpoints + 0.3 * HullArmor + 0.25 * TurretArmor + 0.05 * Weight + 0.02 * Firechance"
+                        + " + 0.03 * GunArc + 0.03 * GunElevation + 0.03 * TraverseSuspension + 0.04 * TraverseTurret",
+                        "0.4 * Penetration + 0.3 * Damage + 0.05 * GunAmmo + 0.08 * GunAccuracy + 0.07 * GunAimTime"
+                        + " + 0.03 * GunArc + 0.03 * GunElevation + 0.04 * Weight",
+                        "0.24 * Speed + 0.16 * PowerWeightRatio + 0.2 * TraverseSuspension + 0.4 * TraverseTurret",
+                        "0.5 * RadioRange + 0.5 * ViewRange"), null,
+                        categories("0.38 * Defense + 0.37 * Attack + 0.15 * Mobility + 0.1 * Recon"));
+            case TankDestroyer:
+                return new RatingWeights(type, features(
+                        "0.3 * Hitpoints + 0.3 * HullArmor + 0.2 * TurretArmor + 0.03 * Weight + 0.01 * Firechance"
+                        + " + 0.06 * GunArc + 0.04 * GunElevation + 0.02 * TraverseSuspension + 0.04 * TraverseTurret",
+                        "0.30 * Penetration + 0.36 * Damage + 0.05 * GunAmmo + 0.1 * GunAccuracy + 0.07 * GunAimTime"
+                        + " + 0.05 * GunArc + 0.05 * GunElevation + 0.02 * Weight",
+                        "0.35 * Speed + 0.15 * PowerWeightRatio + 0.15 * TraverseSuspension + 0.35 * TraverseTurret",
+                        "0.35 * RadioRange + 0.65 * ViewRange"), features(
+                        "0.3 * Hitpoints + 0.5 * HullArmor + 0.04 * Weight + 0.02 * Firechance"
+                        + " + 0.07 * GunArc + 0.04 * GunElevation + 0.03 * TraverseSuspension",
+                        "0.30 * Penetration + 0.36 * Damage + 0.05 * GunAmmo + 0.1 * GunAccuracy + 0.07 * GunAimTime"
+                        + " + 0.05 * GunArc + 0.05 * GunElevation + 0.02 * Weight",
+                        "0.35 * Speed + 0.15 * PowerWeightRatio + 0.5 * TraverseSuspension",
+                        "0.35 * RadioRange + 0.65 * ViewRange"),
+                        categories("0.25 * Defense + 0.5 * Attack + 0.15 * Mobility + 0.1 * Recon"));
+            case SelfPropelledGun:
+                return new RatingWeights(type, features(
+                        "0.25 * Hitpoints + 0.20 * HullArmor + 0.15 * TurretArmor + 0.08 * Weight + 0.02 * Firechance"
+                        + " + 0.07 * GunArc + 0.03 * GunElevation + 0.05 * TraverseSuspension + 0.15 * TraverseTurret",
+                        "0.2 * Penetration + 0.5 * Damage + 0.03 * GunAmmo + 0.08 * GunAccuracy + 0.08 * GunAimTime"
+                        + " + 0.08 * GunArc + 0.03 * GunElevation",
+                        "0.15 * Speed + 0.08 * PowerWeightRatio + 0.2 * TraverseSuspension + 0.57 * TraverseTurret",
+                        "0.8 * RadioRange + 0.2 * ViewRange"), features(
+                        "0.25 * Hitpoints + 0.35 * HullArmor + 0.1 * Weight + 0.02 * Firechance"
+                        + " + 0.1 * GunArc + 0.03 * GunElevation + 0.15 * TraverseSuspension",
+                        "0.2 * Penetration + 0.5 * Damage + 0.03 * GunAmmo + 0.08 * GunAccuracy + 0.08 * GunAimTime"
+                        + " + 0.08 * GunArc + 0.03 * GunElevation",
+                        "0.2 * Speed + 0.1 * PowerWeightRatio + 0.7 * TraverseSuspension",
+                        "0.8 * RadioRange + 0.2 * ViewRange"),
+                        categories("0.1 * Defense + 0.7 * Attack + 0.1 * Mobility + 0.1 * Recon"));
+            default:
+                throw new IllegalArgumentException("Unknown Tank type: " + type);
+        }
+    }
+    
+    /**
+     * @param expressions the weighted features of each category (in the
+     * order of Category)
+     * @return the parsed terms
+     */
+    private static Terms[] features(String... expressions) {
+        Terms[] result = new Terms[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            result[i] = Terms.parse(expressions[i], Feature.class);
+        }
+        return result;
+    }
+    
+    /**
+     * @param expression the weighted categories
+     * @return the parsed terms
+     */
+    private static Terms categories(String expression) {
+        return Terms.parse(expression, Category.class);
+    }
+    
+    // -------------------- weighted sums --------------------
+    
+    /**
+     * A weighted sum: a list of (weight, element) terms, where the elements
+     * are the constants of an enum, represented by their ordinal.
+     */
+    public static class Terms {
+        
+        /** the ordinal of the element of each term */
+        protected final int[] index;
+        /** the weight of each term */
+        protected final double[] weight;
+        /** the name of the element of each term */
+        protected final String[] names;
+        
+        /**
+         * @param index the ordinal of the element of each term
+         * @param weight the weight of each term
+         * @param names the name of the element of each term
+         */
+        protected Terms(int[] index, double[] weight, String[] names) {
+            this.index = index;
+            this.weight = weight;
+            this.names = names;
+        }
+        
+        /**
+         * Parses a weighted sum like "0.3 * Hitpoints + 0.2 * HullArmor".
+         * The factor may be omitted (meaning 1.0), element names are
+         * case insensitive.
+         * @param <E> the type of the elements
+         * @param expression the weighted sum
+         * @param elements the enum of the elements
+         * @return the terms
+         * @throws IllegalArgumentException if the expression is malformed
+         */
+        public static <E extends Enum<E>> Terms parse(String expression, Class<E> elements) {
+            List<E> index = new ArrayList<E>();
+            List<Double> weight = new ArrayList<Double>();
+            for (String term : expression.split("\\+")) {
+                term = term.trim();
+                if (term.length() == 0) {
+                    throw new IllegalArgumentException("Empty term in \"" + expression + "\"");
+                }
+                String[] parts = term.split("\\*");
+                double w = 1.0;
+                String name = parts[parts.length - 1].trim();
+                if (parts.length == 2) {
+                    try {
+                        w = Double.parseDouble(parts[0].trim());
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Invalid weight in term \"" + term + "\"");
+                    }
+                } else if (parts.length > 2) {
+                    throw new IllegalArgumentException("Invalid term \"" + term + "\"");
+                }
+                index.add(lookup(name, elements));
+                weight.add(w);
+            }
+            int[] i = new int[index.size()];
+            double[] w = new double[weight.size()];
+            String[] n = new String[index.size()];
+            for (int k = 0; k < i.length; k++) {
+                i[k] = index.get(k).ordinal();
+                w[k] = weight.get(k);
+                n[k] = index.get(k).name();
+            }
+            return new Terms(i, w, n);
+        }
+        
+        /**
+         * @param name the name of an element (case insensitive)
+         * @param elements the enum of the elements
+         * @return the matching element
+         */
+        private static <E extends Enum<E>> E lookup(String name, Class<E> elements) {
+            for (E e : elements.getEnumConstants()) {
+                if (e.name().equalsIgnoreCase(name)) {
+                    return e;
+                }
+            }
+            throw new IllegalArgumentException("Unknown " + elements.getSimpleName() + " \"" + name + "\"");
+        }
+        
+        /**
+         * @return the number of terms
+         */
+        public int size() {
+            return index.length;
+        }
+        
+        /**
+         * @param k the position of the term
+         * @return the ordinal of the element of this term
+         */
+        public int getIndex(int k) {
+            return index[k];
+        }
+        
+        /**
+         * @param k the position of the term
+         * @return the weight of this term
+         */
+        public double getWeight(int k) {
+            return weight[k];
+        }
+        
+        /**
+         * Calculates the weighted sum, in the order of the terms
+         * @param values the values of the elements, by ordinal
+         * @return the weighted sum
+         */
+        public double apply(double[] values) {
+            double sum = 0.0;
+            for (int k = 0; k < index.length; k++) {
+                sum += weight[k] * values[index[k]];
+            }
+            return sum;
+        }
+        
+        /**
+         * @param rng the random number generator
+         * @param spread the maximum relative change of each weight
+         * @return new terms, where each weight is multiplied by a random
+         * factor between 1 - spread and 1 + spread
+         */
+        protected Terms perturb(SplitMix64 rng, double spread) {
+            double[] w = new double[weight.length];
+            for (int k = 0; k < w.length; k++) {
+                w[k] = weight[k] * (1.0 + spread * (2.0 * rng.nextDouble() - 1.0));
+            }
+            return new Terms(index, w, names);
+        }
+        
+        /**
+         * @return the weighted sum as expression, that can be parsed again
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int k = 0; k < index.length; k++) {
+                if (k > 0) {
+                    sb.append(" + ");
+                }
+                sb.append(weight[k]).append(" * ").append(names[k]);
+            }
+            return sb.toString();
+        }
+    }
+    
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.index.IntervalIndex;
+
+/**
+ * Finds the tanks (or loadouts) that are not dominated in any rating
+ * category: the skyline, or pareto front. A loadout dominates another one,
+ * if it is at least as good in every category, and better in at least one.
+ * Unlike the overall rating, the skyline does not depend on the weights of
+ * the categories, it shows every sensible trade-off.
+ * 
+ * The skyline is found with the sort-filter-skyline algorithm: the points
+ * are sorted by the sum of their coordinates, so no point can be dominated
+ * by a point that comes later. Every point is then compared only with the
+ * skyline found so far, which is usually small: O(n log n + n * s) for n
+ * points and s skyline points.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Skyline {
+    
+    /** the number of rating categories (dimensions of the points) */
+    private static final int dims = Category.values().length;
+    /** the battle tiers of the tank of a loadout */
+    private static final IntervalIndex.Bounds<Loadout> battleTiers = new IntervalIndex.Bounds<Loadout>() {
+        @Override
+        public int lower(Loadout l) {
+            return IntervalIndex.battleTiers.lower(l.tank);
+        }
+        @Override
+        public int upper(Loadout l) {
+            return IntervalIndex.battleTiers.upper(l.tank);
+        }
+    };
+    
+    /**
+     * Finds the skyline of the specified points
+     * @param points the points, all with the same number of coordinates
+     * (higher is better)
+     * @return the indexes of the points that are not dominated, ordered by
+     * descending sum of their coordinates
+     */
+    public static int[] compute(final double[][] points) {
+        final double[] sums = new double[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < points.length; i++) {
+            double sum = 0;
+            for (double x : points[i]) {
+                sum += x;
+            }
+            sums[i] = sum;
+            order[i] = i;
+        }
+        // descending sum; ties in descending lexicographic order, so even
+        // with rounding errors a point comes before all points it dominates
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(sums[b], sums[a]);
+                for (int k = 0; c == 0 && k < points[a].length; k++) {
+                    c = Double.compare(points[b][k], points[a][k]);
+                }
+                return c;
+            }
+        });
+        
+        int[] window = new int[points.length];
+        int size = 0;
+        for (int p : order) {
+            boolean dominated = false;
+            for (int i = 0; i < size && !dominated; i++) {
+                dominated = dominates(points[window[i]], points[p]);
+            }
+            if (!dominated) {
+                window[size++] = p;
+            }
+        }
+        return Arrays.copyOf(window, size);
+    }
+    
+    /**
+     * Finds the skyline of the specified items
+     * @param <T> the type of the items
+     * @param items the items
+     * @param points the coordinates of each item (in the same order)
+     * @return the items that are not dominated, ordered by descending sum
+     * of their coordinates
+     */
+    public static <T> List<T> compute(List<T> items, double[][] points) {
+        int[] skyline = compute(points);
+        List<T> result = new ArrayList<T>(skyline.length);
+        for (int i : skyline) {
+            result.add(items.get(i));
+        }
+        return result;
+    }
+    
+    /**
+     * @param a a point
+     * @param b another point
+     * @return true, if a is at least as good as b in every coordinate, and
+     * better in at least one
+     */
+    public static boolean dominates(double[] a, double[] b) {
+        boolean better = false;
+        for (int k = 0; k < a.length; k++) {
+            if (a[k] < b[k]) {
+                return false;
+            }
+            better |= a[k] > b[k];
+        }
+        return better;
+    }
+    
+    // -------------------- tanks --------------------
+    
+    /**
+     * Finds the skyline of the stock and top loadouts of all tanks, for
+     * each tank type and battle tier
+     * @param norms the best values of each tank type
+     * @param profile the weights of the categories
+     * @return the skyline by tank type and battle tier
+     */
+    public static Map<TankType,SortedMap<Integer,List<Loadout>>> build(
+            Map<TankType,NormalizationContext> norms, RatingProfile profile) {
+        Map<TankType,SortedMap<Integer,List<Loadout>>> result =
+                new EnumMap<TankType,SortedMap<Integer,List<Loadout>>>(TankType.class);
+        for (Map.Entry<TankType,NormalizationContext> e : norms.entrySet()) {
+            RatingKernel kernel = RatingKernel.build(e.getValue());
+            result.put(e.getKey(), byBattleTier(kernel, profile.get(e.getKey())));
+        }
+        return result;
+    }
+    
+    /**
+     * Finds the skyline of all loadouts of a rating kernel (one tank type),
+     * for each battle tier
+     * @param kernel the features of the loadouts
+     * @param weights the weights of the categories
+     * @return the skyline by battle tier
+     */
+    public static SortedMap<Integer,List<Loadout>> byBattleTier(RatingKernel kernel, RatingWeights weights) {
+        double[][] ratings = kernel.rate(weights);
+        List<Loadout> loadouts = new ArrayList<Loadout>(kernel.size());
+        double[][] points = new double[kernel.size()][dims];
+        for (int row = 0; row < kernel.size(); row++) {
+            loadouts.add(kernel.norm.mm.getLoadout(kernel.getTank(row), kernel.getDevelopment(row)));
+            for (int c = 0; c < dims; c++) {
+                points[row][c] = ratings[c][row];
+            }
+        }
+        return byBattleTier(loadouts, points);
+    }
+    
+    /**
+     * Finds the skyline of any loadouts (e.g. all combinations of modules
+     * from the LoadoutOptimizer, or loadouts from several databases) for
+     * each battle tier. A loadout is part of each battle tier between the
+     * minimum and maximum battle tier of its tank, the groups are taken
+     * from an IntervalIndex over the loadouts.
+     * @param loadouts the loadouts (usually of the same tank type)
+     * @param points the rating of each loadout in each category (by
+     * Category ordinal)
+     * @return the skyline by battle tier
+     */
+    public static SortedMap<Integer,List<Loadout>> byBattleTier(List<Loadout> loadouts, double[][] points) {
+        IntervalIndex<Loadout> tiers = IntervalIndex.build(loadouts, battleTiers);
+        SortedMap<Integer,List<Loadout>> result = new TreeMap<Integer,List<Loadout>>();
+        for (int b = tiers.getMin(); b <= tiers.getMax(); b++) {
+            BitSet roster = tiers.stab(b);
+            if (roster.isEmpty()) {
+                continue;
+            }
+            int[] members = new int[roster.cardinality()];
+            double[][] group = new double[members.length][];
+            for (int i = 0, id = roster.nextSetBit(0); id >= 0; i++, id = roster.nextSetBit(id + 1)) {
+                members[i] = id;
+                group[i] = points[id];
+            }
+            List<Loadout> skyline = new ArrayList<Loadout>();
+            for (int i : compute(group)) {
+                skyline.add(loadouts.get(members[i]));
+            }
+            result.put(b, skyline);
+        }
+        return result;
+    }
+    
+}
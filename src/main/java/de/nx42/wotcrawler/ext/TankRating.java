@@ -32,6 +32,7 @@ import de.nx42.wotcrawler.db.module.Turret;
 import de.nx42.wotcrawler.db.tank.Equipment;
 import de.nx42.wotcrawler.db.tank.Tank;
 import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
 
 /**
  * The TankRating is an approach to show the strengths and weaknesses of every
@@ -52,6 +53,14 @@ public class TankRating {
     
     // base object: Tank
     protected Tank t;
+    /** the modules and equipment that are rated */
+    protected Loadout loadout;
+    /** the ModuleMap of the database the tank belongs to */
+    protected ModuleMap mm;
+    /** the best values of the tanks this tank is compared to */
+    protected NormalizationContext norm;
+    /** the weights of the categories and the overall rating */
+    protected RatingWeights weights;
     
     // derived tank details
     protected Equipment eq;
@@ -97,29 +106,50 @@ public class TankRating {
      * Prepares a new TankRating for the specified tank with the given
      * development.
      * 
+     * @param norm the best values of the tanks to compare with (usually all
+     * tanks of the same type in the same database)
      * @param t the tank to create a rating for
      * @param dev the development of this tank
      */
-    public TankRating(Tank t, Development dev) {
-        this.t = t;
-        
-        this.e = ModuleMap.getModuleByDev(Engine.class, t, dev);
-        this.g = ModuleMap.getModuleByDev(Gun.class, t, dev);
-        this.r = ModuleMap.getModuleByDev(Radio.class, t, dev);
-        this.s = ModuleMap.getModuleByDev(Suspension.class, t, dev);
-        this.tu = ModuleMap.getModuleByDev(Turret.class, t, dev);
-        
-        switch(dev) {
-            case Stock:
-                this.eq = t.equipmentStock;
-                break;
-            case Top:
-                this.eq = t.equipmentTop;
-                break;
-            default:
-                log.warn("Unsupported enum value: " + dev);
-        }
+    public TankRating(NormalizationContext norm, Tank t, Development dev) {
+        this(norm, t.type == null ? null : RatingWeights.defaults(t.type), t, dev);
+    }
+    
+    /**
+     * Prepares a new TankRating for the specified tank with the given
+     * development and custom weights (see RatingProfile).
+     * 
+     * @param norm the best values of the tanks to compare with (usually all
+     * tanks of the same type in the same database)
+     * @param weights the weights of the categories and the overall rating
+     * @param t the tank to create a rating for
+     * @param dev the development of this tank
+     */
+    public TankRating(NormalizationContext norm, RatingWeights weights, Tank t, Development dev) {
+        this(norm, weights, norm.mm.getLoadout(t, dev));
+    }
+    
+    /**
+     * Prepares a new TankRating for any loadout of a tank, e.g. a combination
+     * of modules that is neither stock nor top (see LoadoutOptimizer).
+     * 
+     * @param norm the best values of the tanks to compare with
+     * @param weights the weights of the categories and the overall rating
+     * @param l the loadout to create a rating for
+     */
+    public TankRating(NormalizationContext norm, RatingWeights weights, Loadout l) {
+        this.t = l.tank;
+        this.loadout = l;
+        this.mm = norm.mm;
+        this.norm = norm;
+        this.weights = weights;
         
+        this.e = l.engine;
+        this.g = l.gun;
+        this.r = l.radio;
+        this.s = l.suspension;
+        this.tu = l.turret;
+        this.eq = l.equipment;
     }
     
     /**
@@ -144,7 +174,7 @@ public class TankRating {
         this.traverseSuspension = percentage(Field.MS_Traverse , s.traverse);
         this.speed = percentage(Field.T_TopSpeed , t.speed);
         this.enginePower = percentage(Field.ME_Power , e.power);
-        this.powerWeightRatio = percentage(Field.DP_HPperTon, t, eq.development);
+        this.powerWeightRatio = percentage(Field.DP_HPperTon, loadout);
         this.radioRange = percentage(Field.MR_Range , r.range);
         this.viewRange = percentage(Field.TE_ViewRange , eq.viewRange);
         
@@ -161,9 +191,9 @@ public class TankRating {
         }
         
         // advanced
-        this.gunElevation = percentage(Field.DP_Elevation, t, eq.development);
-        this.gunArc = percentage(Field.DP_GunArc, t, eq.development);
-        this.gunAmmo = percentage(Field.DP_Ammo_Normalized, t, eq.development);
+        this.gunElevation = percentage(Field.DP_Elevation, loadout);
+        this.gunArc = percentage(Field.DP_GunArc, loadout);
+        this.gunAmmo = percentage(Field.DP_Ammo_Normalized, loadout);
         
         // prepare for calculation
         double hullF = percentage(Field.T_Hull_Front , t.hullFront);
@@ -173,10 +203,10 @@ public class TankRating {
         double turretS = percentage(Field.MT_Armor_Side , tu.armorSide);
         double turretR = percentage(Field.MT_Armor_Rear , tu.armorRear);
         
-        double dmgAP   = percentage(Field.DP_DmgPS_AP, t, eq.development);
-        double dmgAPCR = percentage(Field.DP_DmgPS_APCR, t, eq.development);
-        double dmgHE   = percentage(Field.DP_DmgPS_HE, t, eq.development);
-        double dmgHEAT = percentage(Field.DP_DmgPS_HEAT, t, eq.development);
+        double dmgAP   = percentage(Field.DP_DmgPS_AP, loadout);
+        double dmgAPCR = percentage(Field.DP_DmgPS_APCR, loadout);
+        double dmgHE   = percentage(Field.DP_DmgPS_HE, loadout);
+        double dmgHEAT = percentage(Field.DP_DmgPS_HEAT, loadout);
         double penAP   = percentage(Field.MG_Penetration_AP , g.penAP);
         double penAPCR = percentage(Field.MG_Penetration_APCR , g.penAPCR);
         double penHE   = percentage(Field.MG_Penetration_HE , g.penHE);
@@ -195,269 +225,41 @@ public class TankRating {
      */
     protected void calculateAdvancedRatings() {
         
+        if (weights == null) {
+            log.warn("Unknown Tank type: "+t.type);
+            return;
+        }
+        
         /*
          * values that might not be set (on purpose):
          * -> turret: hull, traverse
          * only for TD, SPG
          */
-        
-        switch(t.type) {
-            case LightTank:
-                ratingLightTank();
-                break;
-            case MediumTank:
-                ratingMediumTank();
-                break;
-            case HeavyTank:
-                ratingHeavyTank();
-                break;
-            case TankDestroyer:
-                ratingTD();
-                break;
-            case SelfPropelledGun:
-                ratingSPG();
-                break;
-            default:
-                log.warn("Unknown Tank type: "+t.type);
-        }
-        
-    }
-    
-    /**
-     * Calculates the ratings for light tanks
-     */
-    private void ratingLightTank() {
-        
-        this.ratingDefense =
-                0.3 * hitpoints +
-                0.2 * hullArmor +
-                0.2 * turretArmor +
-                0.1 * weight +     // resist ram
-                0.03 * firechance +
-                0.05 * gunElevation +
-                0.06 * traverseSuspension +
-                0.06 * traverseTurret;
-        this.ratingAttack =
-                0.3 * penetration +
-                0.4 * damage +
-                0.08 * gunAmmo +
-                0.08 * gunAccuracy +
-                0.04 * gunAimTime +
-                0.04 * gunElevation +
-                0.06 * weight;     // ram
-        this.ratingMobility =
-                0.45 * speed +
-                0.30 * powerWeightRatio +
-                0.15 * traverseSuspension +
-                0.10 * traverseTurret;
-        this.ratingRecon =
-                0.35 * radioRange +
-                0.65 * viewRange;
-        this.ratingCostBenefit = -1;     // ignore for now...
-
-        this.ratingOverall =
-                0.2 * ratingDefense +
-                0.4 * ratingAttack +
-                0.3 * ratingMobility +
-                0.1 * ratingRecon;
-    }
-    
-    /**
-     * Calculates the ratings for medium tanks
-     */
-    private void ratingMediumTank() {
-        
-        this.ratingDefense =
-                0.25 * hitpoints +
-                0.3 * hullArmor +
-                0.25 * turretArmor +
-                0.05 * weight +     // resist ram
-                0.02 * firechance +
-                0.03 * gunArc +
-                0.03 * gunElevation +
-                0.03 * traverseSuspension +
-                0.04 * traverseTurret;
-        this.ratingAttack =
-                0.4 * penetration +
-                0.3 * damage +
-                0.05 * gunAmmo +
-                0.1 * gunAccuracy +
-                0.05 * gunAimTime +
-                0.03 * gunArc +
-                0.03 * gunElevation +
-                0.04 * weight;     // ram
-        this.ratingMobility =
-                0.4 * speed +
-                0.3 * powerWeightRatio +
-                0.15 * traverseSuspension +
-                0.15 * traverseTurret;
-        this.ratingRecon =
-                0.35 * radioRange +
-                0.65 * viewRange;
-        this.ratingCostBenefit = -1;     // ignore for now...
-
-        this.ratingOverall =
-                0.34 * ratingDefense +
-                0.34 * ratingAttack +
-                0.2 * ratingMobility +
-                0.12 * ratingRecon;
-    }
-    
-    /**
-     * Calculates the ratings for heavy tanks
-     */
-    private void ratingHeavyTank() {
-        
-        this.ratingDefense =
-                0.25 * hitpoints +
-                0.3 * hullArmor +
-                0.25 * turretArmor +
-                0.05 * weight +     // resist ram
-                0.02 * firechance +
-                0.03 * gunArc +
-                0.03 * gunElevation +
-                0.03 * traverseSuspension +
-                0.04 * traverseTurret;
-        this.ratingAttack =
-                0.4 * penetration +
-                0.3 * damage +
-                0.05 * gunAmmo +
-                0.08 * gunAccuracy +
-                0.07 * gunAimTime +
-                0.03 * gunArc +
-                0.03 * gunElevation +
-                0.04 * weight;     // ram
-        this.ratingMobility =
-                0.24 * speed +
-                0.16 * powerWeightRatio +
-                0.2 * traverseSuspension +
-                0.4 * traverseTurret;
-        this.ratingRecon =
-                0.5 * radioRange +
-                0.5 * viewRange;
-        this.ratingCostBenefit = -1;     // ignore for now...
-        
-        this.ratingOverall =
-                0.38 * ratingDefense +
-                0.37 * ratingAttack +
-                0.15 * ratingMobility +
-                0.1 * ratingRecon;
-    }
-    
-    /**
-     * Calculates the ratings for tank destroyers
-     */
-    private void ratingTD() {
         boolean noturret = (turretArmor == -1);
+        double[] features = getFeatures();
         
-        if(noturret) {
-            this.ratingDefense =
-                0.3 * hitpoints +
-                0.5 * hullArmor +
-                0.04 * weight +     // resist ram
-                0.02 * firechance +
-                0.07 * gunArc +
-                0.04 * gunElevation +
-                0.03 * traverseSuspension;
-            this.ratingMobility =
-                0.35 * speed +
-                0.15 * powerWeightRatio +
-                0.5 * traverseSuspension;
-        } else {
-            this.ratingDefense =
-                0.3 * hitpoints +
-                0.3 * hullArmor +
-                0.2 * turretArmor +
-                0.03 * weight +     // resist ram
-                0.01 * firechance +
-                0.06 * gunArc +
-                0.04 * gunElevation +
-                0.02 * traverseSuspension +
-                0.04 * traverseTurret;
-            this.ratingMobility =
-                0.35 * speed +
-                0.15 * powerWeightRatio +
-                0.15 * traverseSuspension +
-                0.35 * traverseTurret;
-        }
-        
-        this.ratingAttack =
-                0.30 * penetration +
-                0.36 * damage +
-                0.05 * gunAmmo +
-                0.1 * gunAccuracy +
-                0.07 * gunAimTime +
-                0.05 * gunArc +
-                0.05 * gunElevation +
-                0.02 * weight;     // ram
-        this.ratingRecon =
-                0.35 * radioRange +
-                0.65 * viewRange;
+        this.ratingDefense = weights.get(Category.Defense, noturret).apply(features);
+        this.ratingAttack = weights.get(Category.Attack, noturret).apply(features);
+        this.ratingMobility = weights.get(Category.Mobility, noturret).apply(features);
+        this.ratingRecon = weights.get(Category.Recon, noturret).apply(features);
         this.ratingCostBenefit = -1;     // ignore for now...
         
-        this.ratingOverall =
-                0.25 * ratingDefense +
-                0.5 * ratingAttack +
-                0.15 * ratingMobility +
-                0.1 * ratingRecon +
-                0.0 * ratingCostBenefit;
+        // the category ratings by Category ordinal
+        double[] categories = { ratingDefense, ratingAttack, ratingMobility, ratingRecon };
+        this.ratingOverall = weights.getOverall().apply(categories);
     }
     
     /**
-     * Calculates the ratings for SPGs
+     * @return the basic ratings by Feature ordinal (calculateRatings() must
+     * have been called before)
      */
-    private void ratingSPG() {
-        boolean noturret = (turretArmor == -1);
-        
-        if(noturret) {
-            this.ratingDefense =
-                0.25 * hitpoints +
-                0.35 * hullArmor +
-                0.1 * weight +     // resist ram
-                0.02 * firechance +
-                0.1 * gunArc +
-                0.03 * gunElevation +
-                0.15 * traverseSuspension;
-            this.ratingMobility =
-                0.2 * speed +
-                0.1 * powerWeightRatio +
-                0.7 * traverseSuspension;
-        } else {
-            this.ratingDefense =
-                0.25 * hitpoints +
-                0.20 * hullArmor +
-                0.15 * turretArmor +
-                0.08 * weight +     // resist ram
-                0.02 * firechance +
-                0.07 * gunArc +
-                0.03 * gunElevation +
-                0.05 * traverseSuspension +
-                0.15 * traverseTurret;
-            this.ratingMobility =
-                0.15 * speed +
-                0.08 * powerWeightRatio +
-                0.2 * traverseSuspension +
-                0.57 * traverseTurret;
-        }
-        
-        this.ratingAttack =
-                0.2 * penetration +
-                0.5 * damage +
-                0.03 * gunAmmo +
-                0.08 * gunAccuracy +
-                0.08 * gunAimTime +
-                0.08 * gunArc +
-                0.03 * gunElevation;
-        this.ratingRecon =
-                0.8 * radioRange +
-                0.2 * viewRange;
-        this.ratingCostBenefit = -1;     // ignore for now...
-
-        this.ratingOverall =
-                0.1 * ratingDefense +
-                0.7 * ratingAttack +
-                0.1 * ratingMobility +
-                0.1 * ratingRecon;
+    protected double[] getFeatures() {
+        return new double[] {
+            hitpoints, weight, firechance, traverseTurret, traverseSuspension,
+            speed, enginePower, powerWeightRatio, radioRange, viewRange,
+            gunAccuracy, gunAimTime, gunElevation, gunArc, gunAmmo,
+            hullArmor, turretArmor, damage, penetration
+        };
     }
     
     /**
@@ -505,7 +307,8 @@ public class TankRating {
     /**
      * Creates the rating for a single field with the specified value.
      * The rating is the fraction of the actual value from the best value
-     * that has been determined before.
+     * that has been determined before (or the percentile of the value among
+     * the peers of the tank, see NormalizationContext.Mode).
      * @param f the field to look up the best value from
      * @param value the actual value of this field (for the current tank)
      * @return the rating of this field for the specified value
@@ -513,10 +316,10 @@ public class TankRating {
     private double percentage(Field f, double value) {
         
         if (value > 0.0) {
-            if (value > f.best) {
-                log.warn("value not within reasonable bounds: {}/{}", value, f.best);
+            if (value > norm.best(f)) {
+                log.warn("value not within reasonable bounds: {}/{}", value, norm.best(f));
             } else {
-                return value / f.best;
+                return norm.normalize(f, value, t);
             }
         } else if (value < 0.0) {
             log.warn(String.format("Field %s for Tank %s is associated with illegal value %s.", f.toString(), t.name, value));
@@ -528,18 +331,16 @@ public class TankRating {
     }
     
     /**
-     * Creates the rating for a single field with the value from the specified
-     * tank.
+     * Creates the rating for a single derived field with the value from the
+     * specified loadout.
      * The rating is the fraction of the actual value from the best value
      * that has been determined before.
      * @param f the field to look up the best value from
-     * @param t the tank to look up the actual value from
-     * @param dev the development of this tank (in case the actual value depends
-     * on it...)
+     * @param l the loadout to look up the actual value from
      * @return the rating of this field for the specified tank
      */
-    private double percentage(Field f, Tank t, Development dev) {
-        return percentage(f, f.calc(t, dev));
+    private double percentage(Field f, Loadout l) {
+        return percentage(f, mm.metrics.get(f, l));
     }
     
     /**
@@ -554,10 +355,10 @@ public class TankRating {
     private double percentageInverse(Field f, double value) {
         
         if(value > 0.0) {
-            if(value < f.best) {
-                log.warn("value (lower is better) not within reasonable bounds: {}/{}", value, f.best);
+            if(value < norm.best(f)) {
+                log.warn("value (lower is better) not within reasonable bounds: {}/{}", value, norm.best(f));
             } else {
-                return 1.0 / (value / f.best);
+                return norm.normalizeInverse(f, value, t);
             }
         } else if (value < 0.0) {
             log.warn(String.format("Field %s for Tank %s is associated with illegal value %s.", f.toString(), t.name, value));
@@ -574,13 +375,11 @@ public class TankRating {
      * As opposed to the percentage-Method, the rating is determined by the
      * inverse fraction of actual and best value: 1.0 / (actual / best)
      * @param f the field to look up the best (=lowest) value from
-     * @param t the tank to look up the actual value from
-     * @param dev the development of this tank (in case the actual value depends
-     * on it...)
+     * @param l the loadout to look up the actual value from
      * @return the rating of this field for the specified tank
      */
-    private double percentageInverse(Field f, Tank t, Development dev) {
-        return percentageInverse(f, f.calc(t, dev));
+    private double percentageInverse(Field f, Loadout l) {
+        return percentageInverse(f, mm.metrics.get(f, l));
     }
     
     
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.util.DecimalFormatter;
+import de.nx42.wotcrawler.util.SplitMix64;
+
+/**
+ * Tests how stable the rankings of the tanks are, when the weights of the
+ * ratings change a little (Monte-Carlo simulation).
+ * 
+ * In each iteration, every weight of the categories and of the overall
+ * rating is multiplied by a random factor (see RatingWeights.perturb()),
+ * the overall ratings of all tanks are calculated again with the
+ * RatingKernel and the tanks of each type are ranked. The ranks of each tank
+ * are counted over all iterations, the result is the interval that contains
+ * the rank of a tank in most iterations (e.g. 90%).
+ * 
+ * The iterations are split into blocks that are calculated in parallel.
+ * Each iteration has its own random number generator (derived from the seed
+ * and the number of the iteration, see SplitMix64), so the results only
+ * depend on the seed, not on the number of threads.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class WeightSensitivity {
+    
+    private static final Logger log = LoggerFactory.getLogger(WeightSensitivity.class);
+    
+    /** default maximum relative change of each weight */
+    public static final double DEFAULT_SPREAD = 0.1;
+    /** default fraction of the iterations that the rank interval covers */
+    public static final double DEFAULT_CONFIDENCE = 0.9;
+    /** number of iterations per task */
+    private static final int BLOCK = 500;
+    /** format of the ratings in the report */
+    private static final DecimalFormatter df = new DecimalFormatter("0.000");
+    
+    /** the features of the tanks of each type */
+    protected final Map<TankType,RatingKernel> kernels = new EnumMap<TankType,RatingKernel>(TankType.class);
+    /** the weights to perturb */
+    protected final RatingProfile profile;
+    
+    /**
+     * Prepares the analysis for the specified tanks
+     * @param norms the best values (and normalization mode) of each type
+     * @param profile the weights to perturb
+     */
+    public WeightSensitivity(Map<TankType,NormalizationContext> norms, RatingProfile profile) {
+        this.profile = profile;
+        for (Map.Entry<TankType,NormalizationContext> e : norms.entrySet()) {
+            RatingKernel kernel = RatingKernel.build(e.getValue());
+            if (kernel.size() > 0) {
+                kernels.put(e.getKey(), kernel);
+            }
+        }
+    }
+    
+    // -------------------- analysis --------------------
+    
+    /**
+     * Runs the simulation in parallel
+     * @param iterations the number of random weights to test
+     * @param spread the maximum relative change of each weight (e.g. 0.1
+     * for +/- 10%)
+     * @param seed the seed of the random number generator
+     * @param confidence the fraction of the iterations that the rank
+     * interval of each tank shall cover (e.g. 0.9)
+     * @return the rank interval of each tank and development, by type and
+     * ordered by rank with the unchanged weights
+     */
+    public List<Result> analyze(final int iterations, final double spread, long seed, double confidence) {
+        final SplitMix64 rng = new SplitMix64(seed);
+        ExecutorService pool = newPool();
+        try {
+            List<Future<Map<TankType,int[][]>>> blocks = new ArrayList<Future<Map<TankType,int[][]>>>();
+            for (int i = 0; i < iterations; i += BLOCK) {
+                final int from = i;
+                final int to = Math.min(i + BLOCK, iterations);
+                blocks.add(pool.submit(new Callable<Map<TankType,int[][]>>() {
+                    @Override
+                    public Map<TankType,int[][]> call() {
+                        return simulate(rng, from, to, spread);
+                    }
+                }));
+            }
+            
+            // sum up the counts of all blocks
+            Map<TankType,int[][]> counts = new EnumMap<TankType,int[][]>(TankType.class);
+            for (Future<Map<TankType,int[][]>> block : blocks) {
+                for (Map.Entry<TankType,int[][]> e : block.get().entrySet()) {
+                    int[][] sum = counts.get(e.getKey());
+                    if (sum == null) {
+                        counts.put(e.getKey(), e.getValue());
+                    } else {
+                        for (int row = 0; row < sum.length; row++) {
+                            for (int rank = 0; rank < sum[row].length; rank++) {
+                                sum[row][rank] += e.getValue()[row][rank];
+                            }
+                        }
+                    }
+                }
+            }
+            
+            List<Result> results = new ArrayList<Result>();
+            for (Map.Entry<TankType,RatingKernel> e : kernels.entrySet()) {
+                results.addAll(summarize(e.getValue(), counts.get(e.getKey()), iterations, confidence));
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException ex) {
+            log.error("Could not analyze the rating weights", ex.getCause());
+            return Collections.emptyList();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Runs a block of iterations
+     * @param seed the generator of the whole simulation (is not advanced)
+     * @param from the first iteration
+     * @param to the end of the block (exclusive)
+     * @param spread the maximum relative change of each weight
+     * @return the number of iterations with each rank (0 based), by type,
+     * row and rank
+     */
+    protected Map<TankType,int[][]> simulate(SplitMix64 seed, int from, int to, double spread) {
+        Map<TankType,int[][]> counts = new EnumMap<TankType,int[][]>(TankType.class);
+        Map<TankType,double[][]> out = new EnumMap<TankType,double[][]>(TankType.class);
+        for (Map.Entry<TankType,RatingKernel> e : kernels.entrySet()) {
+            int rows = e.getValue().size();
+            counts.put(e.getKey(), new int[rows][rows]);
+            out.put(e.getKey(), new double[RatingKernel.RESULTS][rows]);
+        }
+        double[] sorted = new double[0];
+        for (int i = from; i < to; i++) {
+            SplitMix64 rng = seed.split(i);
+            for (Map.Entry<TankType,RatingKernel> e : kernels.entrySet()) {
+                RatingWeights weights = profile.get(e.getKey()).perturb(rng, spread);
+                double[][] ratings = out.get(e.getKey());
+                e.getValue().rate(weights, ratings);
+                double[] overall = ratings[RatingKernel.OVERALL];
+                if (sorted.length != overall.length) {
+                    sorted = new double[overall.length];
+                }
+                int[][] c = counts.get(e.getKey());
+                for (int row = 0; row < overall.length; row++) {
+                    c[row][rank(overall, sorted, row, row == 0)]++;
+                }
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Summarizes the counted ranks of the tanks of one type
+     */
+    private List<Result> summarize(RatingKernel kernel, int[][] counts, int iterations, double confidence) {
+        double[] base = kernel.rate(profile.get(kernel.type))[RatingKernel.OVERALL];
+        double[] sorted = new double[base.length];
+        List<Result> results = new ArrayList<Result>(base.length);
+        for (int row = 0; row < base.length; row++) {
+            Result r = new Result(kernel.getTank(row), kernel.getDevelopment(row), base[row],
+                    rank(base, sorted, row, row == 0) + 1);
+            int[] c = counts == null ? new int[base.length] : counts[row];
+            r.lower = quantile(c, (1.0 - confidence) / 2) + 1;
+            r.median = quantile(c, 0.5) + 1;
+            r.upper = quantile(c, (1.0 + confidence) / 2) + 1;
+            r.min = quantile(c, 0) + 1;
+            r.max = quantile(c, 1) + 1;
+            r.iterations = iterations;
+            results.add(r);
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                return a.rank - b.rank;
+            }
+        });
+        return results;
+    }
+    
+    /**
+     * The rank of a row: the number of rows with a higher rating
+     * @param ratings the ratings of all rows
+     * @param sorted buffer for the sorted ratings
+     * @param row the row to rank
+     * @param sort true to sort the ratings into the buffer first (the buffer
+     * can be reused for all rows with the same ratings)
+     * @return the rank (0 for the best rating)
+     */
+    private static int rank(double[] ratings, double[] sorted, int row, boolean sort) {
+        if (sort) {
+            System.arraycopy(ratings, 0, sorted, 0, ratings.length);
+            Arrays.sort(sorted);
+        }
+        double key = ratings[row];
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return sorted.length - lo;
+    }
+    
+    /**
+     * @param counts the number of iterations with each rank
+     * @param q the quantile (0 to 1)
+     * @return the lowest rank, where at least this fraction of the
+     * iterations had the same or a better rank
+     */
+    private static int quantile(int[] counts, double q) {
+        long total = 0;
+        for (int c : counts) {
+            total += c;
+        }
+        long target = Math.max(1, (long) Math.ceil(q * total));
+        long sum = 0;
+        for (int rank = 0; rank < counts.length; rank++) {
+            sum += counts[rank];
+            if (sum >= target) {
+                return rank;
+            }
+        }
+        return counts.length - 1;
+    }
+    
+    /**
+     * @return a pool of daemon threads, one per processor
+     */
+    protected static ExecutorService newPool() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sensitivity");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    // -------------------- results --------------------
+    
+    /**
+     * The ranks of one tank (with one development) over all iterations.
+     * All ranks start at 1 (best tank of the type).
+     */
+    public static class Result {
+        
+        /** the tank */
+        public final Tank tank;
+        /** the development */
+        public final Development development;
+        /** the overall rating with the unchanged weights */
+        public final double rating;
+        /** the rank with the unchanged weights */
+        public final int rank;
+        
+        /** the lower end of the rank interval */
+        protected int lower;
+        /** the upper end of the rank interval */
+        protected int upper;
+        /** the median rank */
+        protected int median;
+        /** the best rank in any iteration */
+        protected int min;
+        /** the worst rank in any iteration */
+        protected int max;
+        /** the number of iterations */
+        protected int iterations;
+        
+        protected Result(Tank tank, Development development, double rating, int rank) {
+            this.tank = tank;
+            this.development = development;
+            this.rating = rating;
+            this.rank = rank;
+        }
+        
+        /**
+         * @return the best rank of the interval
+         */
+        public int getLower() {
+            return lower;
+        }
+        
+        /**
+         * @return the worst rank of the interval
+         */
+        public int getUpper() {
+            return upper;
+        }
+        
+        /**
+         * @return the median rank
+         */
+        public int getMedian() {
+            return median;
+        }
+        
+        /**
+         * @return the best rank in any iteration
+         */
+        public int getMin() {
+            return min;
+        }
+        
+        /**
+         * @return the worst rank in any iteration
+         */
+        public int getMax() {
+            return max;
+        }
+        
+        /**
+         * @return the number of iterations
+         */
+        public int getIterations() {
+            return iterations;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s\t%s (%s)\t%s\t%d\t%d-%d\t%d\t%d-%d", tank.type, tank.name,
+                    development, df.format(rating), rank, lower, upper, median, min, max);
+        }
+    }
+    
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.ext.Field;
+import de.nx42.wotcrawler.ext.ModuleMap;
+
+/**
+ * A column index over the numeric values of the Fields of all tanks.
+ * 
+ * Every combination of tank and development is one row of the index, the
+ * row number is tank id * number of developments + development ordinal.
+ * For each Field that is queried, a sorted column of (value, row) pairs is
+ * built on first use, from the numeric values (Field.value) of all rows.
+ * Range and equality selections are then answered by two binary searches
+ * and return the matching rows as bit set, so the results of several
+ * predicates can be combined by plain bit set operations (see Predicate).
+ * 
+ * Columns are built lazily, but only once, and are never modified
+ * afterwards. The index may therefore be shared between threads.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class FieldIndex {
+    
+    private static final Logger log = LoggerFactory.getLogger(FieldIndex.class);
+    
+    /** all developments, in the order of the rows of one tank */
+    private static final Development[] devs = Development.values();
+    
+    /** The ModuleMap of the database this index was built for */
+    public final ModuleMap mm;
+    /** the number of rows */
+    protected final int rows;
+    /** the columns that have been built so far */
+    protected final Map<Field, Column> columns = new EnumMap<Field, Column>(Field.class);
+    
+    /**
+     * Creates an index over all tanks of the database of the specified ModuleMap
+     * @param mm the ModuleMap of the database
+     * @return the (still empty) field index
+     */
+    public static FieldIndex build(ModuleMap mm) {
+        return new FieldIndex(mm);
+    }
+    
+    /**
+     * Creates an index over all tanks of the database of the specified ModuleMap
+     * @param mm the ModuleMap of the database
+     */
+    protected FieldIndex(ModuleMap mm) {
+        this.mm = mm;
+        this.rows = mm.ids.getTankCount() * devs.length;
+    }
+    
+    // -------------------- rows --------------------
+    
+    /**
+     * @return the number of rows (tanks * developments)
+     */
+    public int getRowCount() {
+        return rows;
+    }
+    
+    /**
+     * @param tank the tank id
+     * @param dev the development
+     * @return the row of this tank and development
+     */
+    public static int row(int tank, Development dev) {
+        return tank * devs.length + dev.ordinal();
+    }
+    
+    /**
+     * @param row the row number
+     * @return the tank of this row
+     */
+    public Tank getTank(int row) {
+        return mm.ids.getTank(row / devs.length);
+    }
+    
+    /**
+     * @param row the row number
+     * @return the development of this row
+     */
+    public Development getDevelopment(int row) {
+        return devs[row % devs.length];
+    }
+    
+    /**
+     * Resolves a set of row numbers
+     * @param selection the row numbers
+     * @return the tank and development of each selected row, ordered by row
+     */
+    public List<Row> getRows(BitSet selection) {
+        List<Row> result = new ArrayList<Row>(selection.cardinality());
+        for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+            result.add(new Row(getTank(row), getDevelopment(row)));
+        }
+        return result;
+    }
+    
+    /**
+     * Selects all rows that match the specified predicate
+     * @param p the predicate to evaluate
+     * @return the tank and development of each matching row
+     */
+    public List<Row> query(Predicate p) {
+        return getRows(p.evaluate(this));
+    }
+    
+    /**
+     * Parses the query and selects all rows that match it
+     * @param query the query, e.g. "T_Tier >= 8 AND T_Type = Heavy"
+     * @return the tank and development of each matching row
+     * @throws IllegalArgumentException if the query is not valid
+     * @see PredicateParser
+     */
+    public List<Row> query(String query) {
+        return query(PredicateParser.parse(query));
+    }
+    
+    // -------------------- selections --------------------
+    
+    /**
+     * @return a set of all rows
+     */
+    public BitSet all() {
+        BitSet all = new BitSet(rows);
+        all.set(0, rows);
+        return all;
+    }
+    
+    /**
+     * @param tanks tank ids, e.g. the descendants of a tank in the TechTree
+     * @return all rows (stock and top) of the specified tanks
+     */
+    public BitSet rows(BitSet tanks) {
+        BitSet result = new BitSet(rows);
+        for (int t = tanks.nextSetBit(0); t >= 0; t = tanks.nextSetBit(t + 1)) {
+            result.set(row(t, devs[0]), row(t, devs[0]) + devs.length);
+        }
+        return result;
+    }
+    
+    /**
+     * @param f the field
+     * @return all rows, where the field has a numeric value
+     */
+    public BitSet available(Field f) {
+        Column c = column(f);
+        BitSet result = new BitSet(rows);
+        for (int i = 0; i < c.rows.length; i++) {
+            result.set(c.rows[i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Selects all rows with a value of the specified field in the given range.
+     * Rows where the field has no value (NaN) are never selected.
+     * @param f the field
+     * @param low the lower bound (use negative infinity for no bound)
+     * @param lowInclusive true, if the lower bound itself is part of the range
+     * @param high the upper bound (use positive infinity for no bound)
+     * @param highInclusive true, if the upper bound itself is part of the range
+     * @return all rows in this range
+     */
+    public BitSet range(Field f, double low, boolean lowInclusive, double high, boolean highInclusive) {
+        Column c = column(f);
+        int from = lowInclusive ? lowerBound(c.values, low) : upperBound(c.values, low);
+        int to = highInclusive ? upperBound(c.values, high) : lowerBound(c.values, high);
+        BitSet result = new BitSet(rows);
+        for (int i = from; i < to; i++) {
+            result.set(c.rows[i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Selects all rows where the specified field has exactly the given value
+     * @param f the field
+     * @param value the value
+     * @return all rows with this value
+     */
+    public BitSet equal(Field f, double value) {
+        return range(f, value, true, value, true);
+    }
+    
+    // -------------------- columns --------------------
+    
+    /**
+     * Returns the column of the specified field, builds it on first use
+     * @param f the field
+     * @return the sorted column
+     */
+    protected synchronized Column column(Field f) {
+        Column c = columns.get(f);
+        if (c == null) {
+            c = new Column(f);
+            columns.put(f, c);
+        }
+        return c;
+    }
+    
+    /**
+     * The numeric values of one field for all rows, sorted by value.
+     * Rows where the field has no value (NaN) are left out.
+     */
+    protected class Column {
+        
+        /** the values, in ascending order */
+        protected final double[] values;
+        /** the row of each value */
+        protected final int[] rows;
+        
+        /**
+         * Builds the column of the specified field
+         * @param f the field
+         */
+        protected Column(Field f) {
+            final double[] all = new double[FieldIndex.this.rows];
+            int n = 0;
+            for (int row = 0; row < all.length; row++) {
+                all[row] = f.value(mm, getTank(row), getDevelopment(row));
+                if (!Double.isNaN(all[row])) {
+                    n++;
+                }
+            }
+            if (n == 0 && all.length > 0) {
+                log.warn("Field {} has no numeric values, queries on it will never match", f);
+            }
+            
+            Integer[] order = new Integer[n];
+            n = 0;
+            for (int row = 0; row < all.length; row++) {
+                if (!Double.isNaN(all[row])) {
+                    order[n++] = row;
+                }
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(all[a], all[b]);
+                }
+            });
+            
+            this.values = new double[n];
+            this.rows = new int[n];
+            for (int i = 0; i < n; i++) {
+                rows[i] = order[i];
+                values[i] = all[order[i]];
+            }
+        }
+    }
+    
+    /**
+     * @param values sorted values
+     * @param key the value to search
+     * @return the index of the first value that is not smaller than key
+     */
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * @param values sorted values
+     * @param key the value to search
+     * @return the index of the first value that is larger than key
+     */
+    private static int upperBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // -------------------- result --------------------
+    
+    /**
+     * A single row of a query result: a tank with stock or top equipment
+     */
+    public static class Row {
+        
+        /** the tank */
+        public final Tank tank;
+        /** the development of the tank */
+        public final Development dev;
+        
+        /**
+         * @param tank the tank
+         * @param dev the development of the tank
+         */
+        public Row(Tank tank, Development dev) {
+            this.tank = tank;
+            this.dev = dev;
+        }
+        
+        @Override
+        public String toString() {
+            return tank.name + " (" + dev + ")";
+        }
+    }
+    
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * An index over items that cover a range of small integer values, like the
+ * battle tiers of a tank. The items are numbered by their position in the
+ * list the index was built from (for tanks: their dense ids).
+ * 
+ * For every value of the domain, the index holds the roster of all items
+ * whose interval contains it. A stabbing query ("which tanks can appear in
+ * battle tier 9") is a single lookup, an overlap query ("which tanks can
+ * meet this tank") is the union of the rosters in the range. This works
+ * best for small domains; items without a valid interval (lower bound
+ * greater than upper bound) are never part of any result.
+ * 
+ * The index is immutable after it has been built and may be shared between
+ * threads.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ * @param <T> the type of the indexed items
+ */
+public class IntervalIndex<T> {
+    
+    private static final Logger log = LoggerFactory.getLogger(IntervalIndex.class);
+    
+    /**
+     * Defines the interval of an item
+     * @param <T> the type of the item
+     */
+    public interface Bounds<T> {
+        /**
+         * @param item the item
+         * @return the lowest value covered by this item
+         */
+        int lower(T item);
+        /**
+         * @param item the item
+         * @return the highest value covered by this item
+         */
+        int upper(T item);
+    }
+    
+    /** The battle tiers of a tank, from battleTierMin to battleTierMax */
+    public static final Bounds<Tank> battleTiers = new Bounds<Tank>() {
+        @Override
+        public int lower(Tank t) {
+            return t.battleTierMin;
+        }
+        @Override
+        public int upper(Tank t) {
+            return t.battleTierMax;
+        }
+    };
+    
+    /** the indexed items */
+    protected final List<T> items;
+    /** the lower bound of each item */
+    protected final int[] lower;
+    /** the upper bound of each item */
+    protected final int[] upper;
+    /** the lowest value covered by any item */
+    protected final int min;
+    /** the highest value covered by any item */
+    protected final int max;
+    /** the items covering each value, from min to max */
+    protected final BitSet[] rosters;
+    
+    /**
+     * Builds the interval index over the specified items
+     * @param <T> the type of the items
+     * @param items the items, the position in this list is the id of an item
+     * @param bounds defines the interval of each item
+     * @return the interval index
+     */
+    public static <T> IntervalIndex<T> build(List<? extends T> items, Bounds<? super T> bounds) {
+        return new IntervalIndex<T>(items, bounds);
+    }
+    
+    /**
+     * Builds the rosters for all values
+     * @param items the items, the position in this list is the id of an item
+     * @param bounds defines the interval of each item
+     */
+    protected IntervalIndex(List<? extends T> items, Bounds<? super T> bounds) {
+        this.items = new ArrayList<T>(items);
+        int n = this.items.size();
+        this.lower = new int[n];
+        this.upper = new int[n];
+        
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            T item = this.items.get(i);
+            lower[i] = bounds.lower(item);
+            upper[i] = bounds.upper(item);
+            if (lower[i] > upper[i]) {
+                log.warn("Invalid interval [{}, {}] of item {}, ignored", new Object[] { lower[i], upper[i], i });
+            } else {
+                lo = Math.min(lo, lower[i]);
+                hi = Math.max(hi, upper[i]);
+            }
+        }
+        this.min = (lo > hi) ? 0 : lo;
+        this.max = (lo > hi) ? -1 : hi;
+        
+        this.rosters = new BitSet[max - min + 1];
+        for (int v = 0; v < rosters.length; v++) {
+            rosters[v] = new BitSet(n);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int v = lower[i]; v <= upper[i]; v++) {
+                rosters[v - min].set(i);
+            }
+        }
+    }
+    
+    // -------------------- queries --------------------
+    
+    /**
+     * Stabbing query: all items whose interval contains the value
+     * @param value the value, e.g. a battle tier
+     * @return the ids of all items that cover the value
+     */
+    public BitSet stab(int value) {
+        if (value < min || value > max) {
+            return new BitSet(items.size());
+        }
+        return (BitSet) rosters[value - min].clone();
+    }
+    
+    /**
+     * Overlap query: all items whose interval has at least one value in
+     * common with the range [from, to]
+     * @param from the lowest value of the range
+     * @param to the highest value of the range
+     * @return the ids of all items that overlap the range
+     */
+    public BitSet overlap(int from, int to) {
+        BitSet result = new BitSet(items.size());
+        for (int v = Math.max(from, min); v <= Math.min(to, max); v++) {
+            result.or(rosters[v - min]);
+        }
+        return result;
+    }
+    
+    /**
+     * All items that have at least one value in common with the specified
+     * item (for battle tiers: all tanks that can meet this tank), including
+     * the item itself
+     * @param id the id of the item
+     * @return the ids of all overlapping items
+     */
+    public BitSet overlapping(int id) {
+        return overlap(lower[id], upper[id]);
+    }
+    
+    /**
+     * @param a the id of an item
+     * @param b the id of another item
+     * @return true, if the intervals of both items overlap
+     */
+    public boolean overlaps(int a, int b) {
+        return lower[a] <= upper[a] && lower[b] <= upper[b]
+                && lower[a] <= upper[b] && lower[b] <= upper[a];
+    }
+    
+    /**
+     * @param id the id of an item
+     * @return the lowest value covered by this item
+     */
+    public int getLower(int id) {
+        return lower[id];
+    }
+    
+    /**
+     * @param id the id of an item
+     * @return the highest value covered by this item (less than
+     * getLower(id), if the interval of the item is invalid)
+     */
+    public int getUpper(int id) {
+        return upper[id];
+    }
+    
+    /**
+     * @return the lowest value covered by any item
+     */
+    public int getMin() {
+        return min;
+    }
+    
+    /**
+     * @return the highest value covered by any item (less than getMin(), if
+     * there is no item with a valid interval)
+     */
+    public int getMax() {
+        return max;
+    }
+    
+    /**
+     * @param id the id of an item
+     * @return the item
+     */
+    public T get(int id) {
+        return items.get(id);
+    }
+    
+    /**
+     * Resolves a set of ids to the items
+     * @param selection the ids
+     * @return the selected items, ordered by id
+     */
+    public List<T> get(BitSet selection) {
+        List<T> result = new ArrayList<T>(selection.cardinality());
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            result.add(items.get(id));
+        }
+        return result;
+    }
+    
+}
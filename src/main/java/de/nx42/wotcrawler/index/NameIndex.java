@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import de.nx42.wotcrawler.db.BaseProperties;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * A fuzzy lookup of tanks or modules by name, based on an inverted index of
+ * trigrams (all sequences of three characters).
+ * 
+ * Names and wiki urls of all entries are normalized first: only letters and
+ * digits are kept, in lower case, so "IS-7", "is 7" and "IS7" are the same.
+ * Each normalized key is split into its trigrams (with markers for start and
+ * end), and for every trigram the index holds the keys that contain it.
+ * A query only visits the keys that share at least one trigram with it, and
+ * ranks them by the Dice coefficient: 2 * shared / (query + key trigrams).
+ * 
+ * Normalization lets different entries collide (e.g. the tanks "T-34" and
+ * "T34"), so the exact name or wiki url is always looked up first, and a
+ * normalized key that belongs to more than one entry is never taken as an
+ * exact match.
+ * 
+ * The index is immutable after it has been built and may be shared between
+ * threads.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ * @param <T> the type of the indexed entries
+ */
+public class NameIndex<T extends BaseProperties> {
+    
+    /** default minimum score of a match in findBest */
+    public static final double defaultThreshold = 0.5;
+    /** minimum score of an unambiguous match (see findUnambiguous) */
+    public static final double strictThreshold = 0.9;
+    /** minimum lead of an unambiguous match over the runner-up */
+    public static final double strictMargin = 0.1;
+    
+    /** the indexed entries */
+    protected final List<T> entries;
+    /** the entry of each key */
+    protected final int[] keyEntry;
+    /** the number of distinct trigrams of each key */
+    protected final int[] keyGrams;
+    /** the keys (ascending) that contain each trigram */
+    protected final Map<String,int[]> postings;
+    /** marks a key of more than one entry in {@link #raw} and {@link #exact} */
+    protected static final int ambiguous = -1;
+    
+    /** names and wiki urls (as they are) to entries, for exact matches */
+    protected final Map<String,Integer> raw;
+    /** normalized keys to entries, for exact matches after normalization */
+    protected final Map<String,Integer> exact;
+    
+    /**
+     * Builds the index over the names and wiki urls of the specified entries
+     * @param <T> the type of the entries
+     * @param entries the tanks or modules to index
+     * @return the name index
+     */
+    public static <T extends BaseProperties> NameIndex<T> build(Collection<? extends T> entries) {
+        return new NameIndex<T>(entries);
+    }
+    
+    /**
+     * Builds the index over all tanks of the specified database
+     * @param db the database
+     * @return the name index of all tanks
+     */
+    public static NameIndex<Tank> forTanks(TanksDB db) {
+        return new NameIndex<Tank>(db.tanks);
+    }
+    
+    /**
+     * Builds the index over all modules (of any type) of the specified database
+     * @param db the database
+     * @return the name index of all modules
+     */
+    public static NameIndex<Module> forModules(TanksDB db) {
+        List<Module> all = new ArrayList<Module>();
+        for (ModuleType type : ModuleType.values()) {
+            all.addAll(db.modules.get(type));
+        }
+        return new NameIndex<Module>(all);
+    }
+    
+    /**
+     * Builds the trigram postings for all keys of the entries
+     * @param entries the tanks or modules to index
+     */
+    protected NameIndex(Collection<? extends T> entries) {
+        this.entries = new ArrayList<T>(entries);
+        this.raw = new HashMap<String,Integer>();
+        this.exact = new HashMap<String,Integer>();
+        
+        List<Integer> owners = new ArrayList<Integer>();
+        List<Integer> grams = new ArrayList<Integer>();
+        Map<String,List<Integer>> lists = new HashMap<String,List<Integer>>();
+        for (int e = 0; e < this.entries.size(); e++) {
+            T entry = this.entries.get(e);
+            register(raw, entry.name, e);
+            register(raw, entry.wikiURL, e);
+            Set<String> keys = new LinkedHashSet<String>(2);
+            keys.add(normalize(entry.name));
+            keys.add(normalize(entry.wikiURL));
+            for (String key : keys) {
+                if (key.length() == 0) {
+                    continue;
+                }
+                register(exact, key, e);
+                int k = owners.size();
+                Set<String> tri = trigrams(key);
+                owners.add(e);
+                grams.add(tri.size());
+                for (String gram : tri) {
+                    List<Integer> list = lists.get(gram);
+                    if (list == null) {
+                        list = new ArrayList<Integer>();
+                        lists.put(gram, list);
+                    }
+                    list.add(k);
+                }
+            }
+        }
+        
+        this.keyEntry = new int[owners.size()];
+        this.keyGrams = new int[owners.size()];
+        for (int k = 0; k < keyEntry.length; k++) {
+            keyEntry[k] = owners.get(k);
+            keyGrams[k] = grams.get(k);
+        }
+        this.postings = new HashMap<String,int[]>(lists.size() * 2);
+        for (Map.Entry<String,List<Integer>> gram : lists.entrySet()) {
+            List<Integer> list = gram.getValue();
+            int[] keys = new int[list.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = list.get(i);
+            }
+            postings.put(gram.getKey(), keys);
+        }
+    }
+    
+    // -------------------- queries --------------------
+    
+    /**
+     * Finds the entry that matches the query best
+     * @param query the (sloppy) name or wiki url
+     * @return the best match with a score of at least the defaultThreshold,
+     * or null if there is none
+     */
+    public T findBest(String query) {
+        return findBest(query, defaultThreshold);
+    }
+    
+    /**
+     * Finds the entry that matches the query best
+     * @param query the (sloppy) name or wiki url
+     * @param threshold the minimum score (0.0 - 1.0) of a match
+     * @return the best match with at least the specified score, or null if
+     * there is none
+     */
+    public T findBest(String query, double threshold) {
+        List<Match<T>> matches = find(query, 1);
+        if (matches.isEmpty() || matches.get(0).score < threshold) {
+            return null;
+        }
+        return matches.get(0).entry;
+    }
+    
+    /**
+     * Finds the entry that matches the query without any doubt: either the
+     * name or wiki url is exactly the same (as it is, or after normalization,
+     * if no other entry has the same normalized key), or the best match has
+     * a score of at least strictThreshold and is better than the runner-up
+     * by at least strictMargin. Use this instead of findBest, where a wrong
+     * match is worse than no match at all (e.g. references between tanks).
+     * @param query the (sloppy) name or wiki url
+     * @return the unambiguous match, or null if there is none
+     */
+    public T findUnambiguous(String query) {
+        Integer rawMatch = (query == null) ? null : raw.get(query);
+        if (rawMatch != null) {
+            return rawMatch == ambiguous ? null : entries.get(rawMatch);
+        }
+        Integer exactMatch = exact.get(normalize(query));
+        if (exactMatch != null) {
+            return exactMatch == ambiguous ? null : entries.get(exactMatch);
+        }
+        List<Match<T>> matches = find(query, 2);
+        if (matches.isEmpty() || matches.get(0).score < strictThreshold) {
+            return null;
+        }
+        if (matches.size() > 1 && matches.get(0).score - matches.get(1).score < strictMargin) {
+            return null;
+        }
+        return matches.get(0).entry;
+    }
+    
+    /**
+     * Finds all entries that share at least one trigram with the query,
+     * ranked by similarity. An exact match (as it is, or after normalization,
+     * if it belongs to a single entry) always comes first with a score of
+     * 1.0.
+     * @param query the (sloppy) name or wiki url
+     * @param limit the maximum number of results
+     * @return the matches, best first
+     */
+    public List<Match<T>> find(String query, int limit) {
+        String key = normalize(query);
+        if (key.length() == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        
+        // count shared trigrams per key
+        Set<String> tri = trigrams(key);
+        int[] shared = new int[keyEntry.length];
+        for (String gram : tri) {
+            int[] keys = postings.get(gram);
+            if (keys != null) {
+                for (int k : keys) {
+                    shared[k]++;
+                }
+            }
+        }
+        
+        // best score per entry
+        double[] scores = new double[entries.size()];
+        Arrays.fill(scores, -1);
+        for (int k = 0; k < keyEntry.length; k++) {
+            if (shared[k] > 0) {
+                double score = 2.0 * shared[k] / (tri.size() + keyGrams[k]);
+                int e = keyEntry[k];
+                scores[e] = Math.max(scores[e], score);
+            }
+        }
+        Integer exactMatch = raw.get(query);
+        if (exactMatch == null) {
+            exactMatch = exact.get(key);
+        }
+        if (exactMatch != null && exactMatch != ambiguous) {
+            scores[exactMatch] = Double.POSITIVE_INFINITY;
+        }
+        
+        List<Match<T>> matches = new ArrayList<Match<T>>();
+        for (int e = 0; e < scores.length; e++) {
+            if (scores[e] >= 0) {
+                matches.add(new Match<T>(entries.get(e), Math.min(1.0, scores[e]), e));
+            }
+        }
+        final double[] rank = scores;
+        Collections.sort(matches, new Comparator<Match<T>>() {
+            @Override
+            public int compare(Match<T> a, Match<T> b) {
+                int cmp = Double.compare(rank[b.position], rank[a.position]);
+                return (cmp != 0) ? cmp : a.position - b.position;
+            }
+        });
+        return (matches.size() > limit) ? matches.subList(0, limit) : matches;
+    }
+    
+    /**
+     * @return the number of indexed entries
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * Maps a key to an entry, or marks it as ambiguous, if it already
+     * belongs to another entry
+     * @param map the key map
+     * @param key the key (ignored, if null or empty)
+     * @param entry the position of the entry
+     */
+    protected static void register(Map<String,Integer> map, String key, int entry) {
+        if (key == null || key.length() == 0) {
+            return;
+        }
+        Integer previous = map.get(key);
+        if (previous == null) {
+            map.put(key, entry);
+        } else if (previous != entry) {
+            map.put(key, ambiguous);
+        }
+    }
+    
+    /**
+     * Normalizes a name: only letters and digits are kept, in lower case
+     * @param name the name to normalize (may be null)
+     * @return the normalized name
+     */
+    public static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Splits a normalized key into its distinct trigrams. The key is padded
+     * with markers, so short keys have trigrams as well and matches at the
+     * start and end of a name count more.
+     * @param key the normalized key
+     * @return the distinct trigrams
+     */
+    protected static Set<String> trigrams(String key) {
+        String padded = "^^" + key + "$";
+        Set<String> result = new LinkedHashSet<String>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+    
+    // -------------------- results --------------------
+    
+    /**
+     * A single result of a fuzzy lookup
+     * @param <T> the type of the entry
+     */
+    public static class Match<T extends BaseProperties> {
+        
+        /** the matching tank or module */
+        public final T entry;
+        /** the similarity, from 0.0 (nothing in common) to 1.0 (same name) */
+        public final double score;
+        /** position of the entry in the index */
+        protected final int position;
+        
+        protected Match(T entry, double score, int position) {
+            this.entry = entry;
+            this.score = score;
+            this.position = position;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%s (%.2f)", entry.name, score);
+        }
+    }
+    
+}
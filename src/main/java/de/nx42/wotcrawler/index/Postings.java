@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.BaseProperties;
+import de.nx42.wotcrawler.db.BaseProperties.Currency;
+import de.nx42.wotcrawler.db.BaseProperties.Nation;
+
+/**
+ * Postings of the base properties (nation, tier, currency) over one list of
+ * objects of the database: the tanks or the modules of one type.
+ * 
+ * For every value of a property, the postings hold a bit set of the ids
+ * (see Identities) of all objects with this value. Selections by several
+ * properties are just intersections of these sets.
+ * 
+ * Postings are immutable. All accessors return copies that may be modified
+ * freely by the caller.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Postings {
+    
+    /** the number of objects (all ids are smaller than this) */
+    protected final int size;
+    /** object ids by nation */
+    protected final Map<Nation, BitSet> nation = new EnumMap<Nation, BitSet>(Nation.class);
+    /** object ids by currency */
+    protected final Map<Currency, BitSet> currency = new EnumMap<Currency, BitSet>(Currency.class);
+    /** object ids by tier (the array index is the tier) */
+    protected final BitSet[] tier;
+    
+    /**
+     * Builds the postings for the specified objects
+     * @param objects the objects, ordered by id
+     */
+    protected Postings(BaseProperties[] objects) {
+        this.size = objects.length;
+        
+        int maxTier = 0;
+        for (BaseProperties o : objects) {
+            maxTier = Math.max(maxTier, o.tier);
+        }
+        this.tier = new BitSet[maxTier + 1];
+        for (int i = 0; i < tier.length; i++) {
+            tier[i] = new BitSet(size);
+        }
+        for (Nation n : Nation.values()) {
+            nation.put(n, new BitSet(size));
+        }
+        for (Currency c : Currency.values()) {
+            currency.put(c, new BitSet(size));
+        }
+        
+        for (int id = 0; id < size; id++) {
+            BaseProperties o = objects[id];
+            if (o.nation != null) {
+                nation.get(o.nation).set(id);
+            }
+            if (o.currency != null) {
+                currency.get(o.currency).set(id);
+            }
+            if (o.tier >= 0) {
+                tier[o.tier].set(id);
+            }
+        }
+    }
+    
+    // -------------------- selections --------------------
+    
+    /**
+     * @return the number of objects covered by these postings
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the ids of all objects
+     */
+    public BitSet all() {
+        BitSet all = new BitSet(size);
+        all.set(0, size);
+        return all;
+    }
+    
+    /**
+     * @param n the nation
+     * @return the ids of all objects of this nation
+     */
+    public BitSet nation(Nation n) {
+        return (BitSet) nation.get(n).clone();
+    }
+    
+    /**
+     * @param c the currency
+     * @return the ids of all objects that are paid for with this currency
+     */
+    public BitSet currency(Currency c) {
+        return (BitSet) currency.get(c).clone();
+    }
+    
+    /**
+     * @param t the tier
+     * @return the ids of all objects of this tier
+     */
+    public BitSet tier(int t) {
+        return (t >= 0 && t < tier.length) ? (BitSet) tier[t].clone() : new BitSet();
+    }
+    
+    /**
+     * @param min the lowest tier (inclusive)
+     * @param max the highest tier (inclusive)
+     * @return the ids of all objects with a tier in the specified range
+     */
+    public BitSet tiers(int min, int max) {
+        BitSet result = new BitSet(size);
+        for (int t = Math.max(0, min); t <= max && t < tier.length; t++) {
+            result.or(tier[t]);
+        }
+        return result;
+    }
+    
+    // -------------------- set operations --------------------
+    
+    /**
+     * Intersects any number of id sets. The sets are not modified.
+     * @param first the first set
+     * @param more all other sets
+     * @return a new set, containing the ids that are part of all sets
+     */
+    public static BitSet and(BitSet first, BitSet... more) {
+        BitSet result = (BitSet) first.clone();
+        for (BitSet other : more) {
+            if (result.isEmpty()) {
+                break;
+            }
+            result.and(other);
+        }
+        return result;
+    }
+    
+    /**
+     * Unites any number of id sets. The sets are not modified.
+     * @param first the first set
+     * @param more all other sets
+     * @return a new set, containing the ids that are part of any set
+     */
+    public static BitSet or(BitSet first, BitSet... more) {
+        BitSet result = (BitSet) first.clone();
+        for (BitSet other : more) {
+            result.or(other);
+        }
+        return result;
+    }
+    
+}
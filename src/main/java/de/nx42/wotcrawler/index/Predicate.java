@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.BitSet;
+
+import de.nx42.wotcrawler.ext.Field;
+
+/**
+ * A predicate on the numeric Field values of a tank with stock or top
+ * equipment. Predicates are evaluated against a FieldIndex and return the
+ * set of matching rows, so AND, OR and NOT are plain bit set operations.
+ * 
+ * Predicates are built with the static factory methods or parsed from a
+ * query string (see PredicateParser), e.g.
+ * <pre>
+ * Predicate p = Predicate.and(
+ *         Predicate.compare(Field.T_Tier, Operator.GE, 8),
+ *         Predicate.compare(Field.MG_Penetration_AP, Operator.GT, 200));
+ * </pre>
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public abstract class Predicate {
+    
+    /**
+     * Evaluates this predicate
+     * @param index the index to evaluate against
+     * @return a new set of all matching rows
+     */
+    public abstract BitSet evaluate(FieldIndex index);
+    
+    // -------------------- factories --------------------
+    
+    /**
+     * Compares the value of a field with a constant. Rows where the field has
+     * no value never match (not even the operator NE).
+     * @param f the field to compare
+     * @param op the comparison operator
+     * @param value the constant to compare with
+     * @return the comparison predicate
+     */
+    public static Predicate compare(Field f, Operator op, double value) {
+        return new Compare(f, op, value);
+    }
+    
+    /**
+     * @param a the first predicate
+     * @param b the second predicate
+     * @return a predicate that matches, if both predicates match
+     */
+    public static Predicate and(Predicate a, Predicate b) {
+        return new And(a, b);
+    }
+    
+    /**
+     * @param a the first predicate
+     * @param b the second predicate
+     * @return a predicate that matches, if any of the predicates matches
+     */
+    public static Predicate or(Predicate a, Predicate b) {
+        return new Or(a, b);
+    }
+    
+    /**
+     * @param p the predicate to negate
+     * @return a predicate that matches all rows that p does not match
+     */
+    public static Predicate not(Predicate p) {
+        return new Not(p);
+    }
+    
+    /**
+     * The comparison operators
+     */
+    public enum Operator {
+        /** equal */
+        EQ("="),
+        /** not equal */
+        NE("!="),
+        /** less than */
+        LT("<"),
+        /** less or equal */
+        LE("<="),
+        /** greater than */
+        GT(">"),
+        /** greater or equal */
+        GE(">=");
+        
+        /** the symbol of this operator in a query */
+        public final String symbol;
+        
+        private Operator(String symbol) {
+            this.symbol = symbol;
+        }
+        
+        /**
+         * Finds the operator for a query symbol
+         * @param symbol the symbol (== and &lt;&gt; are accepted as well)
+         * @return the operator, or null if the symbol is unknown
+         */
+        public static Operator of(String symbol) {
+            if ("==".equals(symbol)) {
+                return EQ;
+            } else if ("<>".equals(symbol)) {
+                return NE;
+            }
+            for (Operator op : values()) {
+                if (op.symbol.equals(symbol)) {
+                    return op;
+                }
+            }
+            return null;
+        }
+    }
+    
+    // -------------------- implementations --------------------
+    
+    /**
+     * Comparison of a field with a constant
+     */
+    protected static class Compare extends Predicate {
+        
+        protected final Field field;
+        protected final Operator op;
+        protected final double value;
+        
+        protected Compare(Field field, Operator op, double value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+        
+        @Override
+        public BitSet evaluate(FieldIndex index) {
+            switch (op) {
+                case EQ:
+                    return index.equal(field, value);
+                case NE:
+                    BitSet ne = index.available(field);
+                    ne.andNot(index.equal(field, value));
+                    return ne;
+                case LT:
+                    return index.range(field, Double.NEGATIVE_INFINITY, true, value, false);
+                case LE:
+                    return index.range(field, Double.NEGATIVE_INFINITY, true, value, true);
+                case GT:
+                    return index.range(field, value, false, Double.POSITIVE_INFINITY, true);
+                case GE:
+                    return index.range(field, value, true, Double.POSITIVE_INFINITY, true);
+                default:
+                    throw new IllegalStateException("Unknown operator " + op);
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return field + " " + op.symbol + " " + value;
+        }
+    }
+    
+    /**
+     * Conjunction of two predicates
+     */
+    protected static class And extends Predicate {
+        
+        protected final Predicate a;
+        protected final Predicate b;
+        
+        protected And(Predicate a, Predicate b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        @Override
+        public BitSet evaluate(FieldIndex index) {
+            BitSet result = a.evaluate(index);
+            if (!result.isEmpty()) {
+                result.and(b.evaluate(index));
+            }
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return "(" + a + " AND " + b + ")";
+        }
+    }
+    
+    /**
+     * Disjunction of two predicates
+     */
+    protected static class Or extends Predicate {
+        
+        protected final Predicate a;
+        protected final Predicate b;
+        
+        protected Or(Predicate a, Predicate b) {
+            this.a = a;
+            this.b = b;
+        }
+        
+        @Override
+        public BitSet evaluate(FieldIndex index) {
+            BitSet result = a.evaluate(index);
+            result.or(b.evaluate(index));
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return "(" + a + " OR " + b + ")";
+        }
+    }
+    
+    /**
+     * Negation of a predicate
+     */
+    protected static class Not extends Predicate {
+        
+        protected final Predicate p;
+        
+        protected Not(Predicate p) {
+            this.p = p;
+        }
+        
+        @Override
+        public BitSet evaluate(FieldIndex index) {
+            BitSet result = index.all();
+            result.andNot(p.evaluate(index));
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return "NOT " + p;
+        }
+    }
+    
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.nx42.wotcrawler.db.BaseProperties.Currency;
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.BaseProperties.Nation;
+import de.nx42.wotcrawler.db.module.Engine.Gas;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.Field;
+import de.nx42.wotcrawler.index.Predicate.Operator;
+
+/**
+ * Parses queries on Field values into Predicates. The grammar is:
+ * <pre>
+ * query   := term ( OR term )*
+ * term    := factor ( AND factor )*
+ * factor  := NOT factor | '(' query ')' | FIELD OP value
+ * OP      := = | == | != | &lt;&gt; | &lt; | &lt;= | &gt; | &gt;=
+ * value   := number | word | "quoted text"
+ * </pre>
+ * Keywords are case insensitive, &amp;&amp;, || and ! may be used instead.
+ * Fields are given by their enum name (e.g. MG_Penetration_AP). For fields
+ * with enum values (type, nation, currency, gas, development), the value is
+ * the name of the enum constant or any unique prefix of it, e.g.
+ * "T_Type = Heavy". The gift flag accepts yes/no and true/false.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class PredicateParser {
+    
+    /** the tokens of the query */
+    protected final List<String> tokens;
+    /** the position of the next token */
+    protected int pos = 0;
+    
+    /**
+     * Parses the specified query
+     * @param query the query to parse
+     * @return the predicate that represents the query
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public static Predicate parse(String query) {
+        PredicateParser parser = new PredicateParser(query);
+        Predicate p = parser.query();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.pos)
+                    + "' in query: " + query);
+        }
+        return p;
+    }
+    
+    /**
+     * Prepares a parser for the specified query
+     * @param query the query to parse
+     */
+    protected PredicateParser(String query) {
+        this.tokens = tokenize(query);
+    }
+    
+    // -------------------- grammar --------------------
+    
+    /**
+     * query := term ( OR term )*
+     */
+    protected Predicate query() {
+        Predicate p = term();
+        while (accept("OR") || accept("||")) {
+            p = Predicate.or(p, term());
+        }
+        return p;
+    }
+    
+    /**
+     * term := factor ( AND factor )*
+     */
+    protected Predicate term() {
+        Predicate p = factor();
+        while (accept("AND") || accept("&&")) {
+            p = Predicate.and(p, factor());
+        }
+        return p;
+    }
+    
+    /**
+     * factor := NOT factor | '(' query ')' | FIELD OP value
+     */
+    protected Predicate factor() {
+        if (accept("NOT") || accept("!")) {
+            return Predicate.not(factor());
+        }
+        if (accept("(")) {
+            Predicate p = query();
+            expect(")");
+            return p;
+        }
+        
+        String name = next("field name");
+        Field f;
+        try {
+            f = Field.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown field: " + name);
+        }
+        String symbol = next("operator");
+        Operator op = Operator.of(symbol);
+        if (op == null) {
+            throw new IllegalArgumentException("Unknown operator: " + symbol);
+        }
+        return Predicate.compare(f, op, value(f, next("value")));
+    }
+    
+    // -------------------- values --------------------
+    
+    /**
+     * Converts a value of the query into the numeric representation of the
+     * specified field (see Field.value)
+     * @param f the field the value is compared with
+     * @param value the value as written in the query
+     * @return the numeric value
+     */
+    protected static double value(Field f, String value) {
+        Class<? extends Enum<?>> domain = domain(f);
+        if (domain != null) {
+            return constant(domain, value).ordinal();
+        }
+        if (f == Field.T_Gift) {
+            if ("yes".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value)) {
+                return 1;
+            } else if ("no".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                return 0;
+            }
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Field " + f + " expects a number, not '" + value + "'");
+        }
+    }
+    
+    /**
+     * Returns the enum that defines the values of the specified field
+     * @param f the field
+     * @return the enum class, or null if the values of the field are no enum
+     */
+    protected static Class<? extends Enum<?>> domain(Field f) {
+        String name = f.name();
+        if (f == Field.T_Type) {
+            return TankType.class;
+        } else if (f == Field.ME_Gas) {
+            return Gas.class;
+        } else if (f == Field.TE_Development) {
+            return Development.class;
+        } else if (name.endsWith("_Nation")) {
+            return Nation.class;
+        } else if (name.endsWith("_Currency")) {
+            return Currency.class;
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Finds the enum constant with the specified name. Case is ignored and
+     * any unique prefix of the name is accepted.
+     * @param domain the enum class
+     * @param value the name as written in the query
+     * @return the matching enum constant
+     */
+    protected static Enum<?> constant(Class<? extends Enum<?>> domain, String value) {
+        Enum<?> match = null;
+        int matches = 0;
+        for (Enum<?> e : domain.getEnumConstants()) {
+            if (e.name().equalsIgnoreCase(value) || e.toString().equalsIgnoreCase(value)) {
+                return e;
+            }
+            if (e.name().toLowerCase().startsWith(value.toLowerCase())) {
+                match = e;
+                matches++;
+            }
+        }
+        if (matches == 1) {
+            return match;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Enum<?> e : domain.getEnumConstants()) {
+            sb.append(sb.length() > 0 ? ", " : "").append(e.name());
+        }
+        throw new IllegalArgumentException((matches == 0 ? "Unknown" : "Ambiguous") + " value '"
+                + value + "', expected one of: " + sb);
+    }
+    
+    // -------------------- tokens --------------------
+    
+    /**
+     * Consumes the next token, if it matches the expected one (ignoring case)
+     * @param token the expected token
+     * @return true, if the token was consumed
+     */
+    protected boolean accept(String token) {
+        if (pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(token)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Consumes the expected token
+     * @param token the expected token
+     * @throws IllegalArgumentException if the next token is something else
+     */
+    protected void expect(String token) {
+        if (!accept(token)) {
+            throw new IllegalArgumentException("Expected '" + token + "'"
+                    + (pos < tokens.size() ? " instead of '" + tokens.get(pos) + "'" : " at the end of the query"));
+        }
+    }
+    
+    /**
+     * Consumes the next token, whatever it is
+     * @param what description of the expected token (for error messages)
+     * @return the token
+     * @throws IllegalArgumentException if the end of the query was reached
+     */
+    protected String next(String what) {
+        if (pos >= tokens.size()) {
+            throw new IllegalArgumentException("Expected " + what + " at the end of the query");
+        }
+        return tokens.get(pos++);
+    }
+    
+    /**
+     * Splits the query into tokens: parentheses, operators, quoted texts and
+     * words (everything else up to the next whitespace, parenthesis or
+     * operator character)
+     * @param query the query
+     * @return the tokens
+     */
+    protected static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int n = query.length();
+        while (i < n) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"' || c == '\'') {
+                int end = query.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated quote in query: " + query);
+                }
+                tokens.add(query.substring(i + 1, end));
+                i = end + 1;
+            } else if ("=!<>&|".indexOf(c) >= 0) {
+                int start = i;
+                while (i < n && "=!<>&|".indexOf(query.charAt(i)) >= 0) {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(query.charAt(i))
+                        && "()=!<>&|\"'".indexOf(query.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+    
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.BaseProperties;
+import de.nx42.wotcrawler.db.Identities;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * The secondary indexes of a tank database: bit set postings by nation,
+ * tier, currency (tanks and modules), tank type and gift flag (tanks only),
+ * as well as an interval index over the battle tiers of the tanks.
+ * 
+ * The index is built once for a database and is immutable afterwards, so
+ * it can be shared between threads. A selection like "all german heavy
+ * tanks of tier 8" is answered by intersecting three bit sets:
+ * <pre>
+ * SecondaryIndex idx = SecondaryIndex.build(ids);
+ * BitSet heavies = idx.tanks.select(Nation.Germany, TankType.HeavyTank, 8);
+ * List&lt;Tank&gt; tanks = idx.getTanks(heavies);
+ * </pre>
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SecondaryIndex {
+    
+    /** The dense ids of the database this index was built for */
+    public final Identities ids;
+    /** The postings over all tanks */
+    public final TankPostings tanks;
+    /** The battle tiers of all tanks */
+    public final IntervalIndex<Tank> battleTiers;
+    /** The postings over the modules of each type */
+    protected final Map<ModuleType, Postings> modules = new EnumMap<ModuleType, Postings>(ModuleType.class);
+    
+    /**
+     * Builds the secondary indexes for the database of the specified identities
+     * @param ids the dense ids of the database
+     * @return the secondary indexes
+     */
+    public static SecondaryIndex build(Identities ids) {
+        return new SecondaryIndex(ids);
+    }
+    
+    /**
+     * Builds all postings
+     * @param ids the dense ids of the database
+     */
+    protected SecondaryIndex(Identities ids) {
+        this.ids = ids;
+        
+        Tank[] t = new Tank[ids.getTankCount()];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = ids.getTank(i);
+        }
+        this.tanks = new TankPostings(t);
+        this.battleTiers = IntervalIndex.build(Arrays.asList(t), IntervalIndex.battleTiers);
+        
+        for (ModuleType type : ModuleType.values()) {
+            BaseProperties[] m = new BaseProperties[ids.getModuleCount(type)];
+            for (int i = 0; i < m.length; i++) {
+                m[i] = ids.getModule(type, i);
+            }
+            modules.put(type, new Postings(m));
+        }
+    }
+    
+    /**
+     * @param type the module type
+     * @return the postings over all modules of this type
+     */
+    public Postings modules(ModuleType type) {
+        return modules.get(type);
+    }
+    
+    /**
+     * Resolves a set of tank ids to the tanks
+     * @param selection the tank ids
+     * @return the selected tanks, ordered by id
+     */
+    public List<Tank> getTanks(BitSet selection) {
+        List<Tank> result = new ArrayList<Tank>(selection.cardinality());
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            result.add(ids.getTank(id));
+        }
+        return result;
+    }
+    
+    /**
+     * Resolves a set of module ids to the modules
+     * @param type the module type
+     * @param selection the module ids
+     * @return the selected modules, ordered by id
+     */
+    public List<Module> getModules(ModuleType type, BitSet selection) {
+        List<Module> result = new ArrayList<Module>(selection.cardinality());
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            result.add(ids.getModule(type, id));
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.Identities;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.Field;
+import de.nx42.wotcrawler.ext.ModuleMap;
+import de.nx42.wotcrawler.ext.NormalizationContext;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.ext.PeerRanks;
+
+/**
+ * An immutable, versioned view of a database with everything that is derived
+ * from it: the dense ids, the ModuleMap (with loadouts and derived metrics),
+ * the secondary, tech tree, field and name indexes and the normalization
+ * data (best value of each field and sorted values of the peer groups) for
+ * each tank type.
+ * 
+ * All parts are built before the snapshot is published, and none of them
+ * changes afterwards, so readers that hold a snapshot always see one
+ * consistent version, no matter how often a new one is published in the
+ * meantime (see Snapshots). The database itself must not be modified
+ * after it has been used for a snapshot.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Snapshot {
+    
+    /** The version of this snapshot (ascending with each published snapshot) */
+    public final long version;
+    /** The time this snapshot was built (ms since epoch) */
+    public final long created;
+    
+    /** The database */
+    public final TanksDB db;
+    /** The dense ids of all tanks and modules */
+    public final Identities ids;
+    /** The compatible modules and loadouts of each tank */
+    public final ModuleMap mm;
+    /** The postings by nation, tier, type, currency and battle tiers */
+    public final SecondaryIndex index;
+    /** The tech tree with cached reachability */
+    public final TechTree techTree;
+    /** The numeric values of all fields, for queries */
+    public final FieldIndex fieldIndex;
+    /** Fuzzy lookup of tanks by name */
+    public final NameIndex<Tank> tankNames;
+    /** Fuzzy lookup of modules by name */
+    public final NameIndex<Module> moduleNames;
+    
+    /** The best values of the fields for each tank type (for ratings) */
+    public final Map<TankType,NormalizationContext> normalization;
+    /** The sorted values of each field by tank type and battle tier (for ratings) */
+    public final PeerRanks ranks;
+    /** The normalization by percentile among the peers for each tank type */
+    private final Map<TankType,NormalizationContext> percentiles;
+    
+    /**
+     * Builds a new snapshot with all indexes for the specified database
+     * @param db the database (must not be modified afterwards)
+     * @param version the version of the new snapshot
+     * @return the new snapshot
+     */
+    public static Snapshot build(TanksDB db, long version) {
+        return new Snapshot(db, version);
+    }
+    
+    /**
+     * Builds all parts of the snapshot
+     * @param db the database (must not be modified afterwards)
+     * @param version the version of the new snapshot
+     */
+    protected Snapshot(TanksDB db, long version) {
+        this.version = version;
+        this.db = db;
+        this.ids = Identities.assign(db);
+        this.mm = ModuleMap.build(ids);
+        this.index = SecondaryIndex.build(ids);
+        this.techTree = TechTree.build(ids);
+        this.fieldIndex = FieldIndex.build(mm);
+        this.tankNames = NameIndex.forTanks(db);
+        this.moduleNames = NameIndex.forModules(db);
+        this.normalization = NormalizationContext.buildAll(mm);
+        this.ranks = PeerRanks.build(mm, index.battleTiers);
+        this.percentiles = NormalizationContext.withRanks(normalization, ranks);
+        this.created = System.currentTimeMillis();
+    }
+    
+    /**
+     * @param type the tank type
+     * @param f the field
+     * @return the best value of this field among all tanks of the type
+     */
+    public double getBest(TankType type, Field f) {
+        return normalization.get(type).best(f);
+    }
+    
+    /**
+     * @param mode the normalization mode
+     * @return the normalization context for each tank type, in this mode
+     */
+    public Map<TankType,NormalizationContext> getNormalization(Mode mode) {
+        return mode == Mode.Percentile ? percentiles : normalization;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Snapshot %d (%d tanks)", version, ids.getTankCount());
+    }
+    
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.TanksDB;
+
+/**
+ * Publishes database snapshots to any number of concurrent readers
+ * (copy-on-write).
+ * 
+ * A new database is never applied to the current snapshot. Instead, a
+ * complete new snapshot is built on the side and then published with a
+ * single atomic reference update. Readers call current() once and keep
+ * working with that snapshot; they never block and never see a half built
+ * version. An old snapshot is dropped by the garbage collector as soon as
+ * the last reader releases it.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Snapshots {
+    
+    private static final Logger log = LoggerFactory.getLogger(Snapshots.class);
+    
+    /** the latest published snapshot */
+    protected final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+    /** the version of the last snapshot that was built */
+    protected final AtomicLong versions = new AtomicLong();
+    
+    /**
+     * Creates an empty holder, no snapshot is available until the first
+     * database is published
+     */
+    public Snapshots() {
+        // nothing published yet
+    }
+    
+    /**
+     * Creates a holder and publishes the first snapshot
+     * @param db the initial database
+     */
+    public Snapshots(TanksDB db) {
+        publish(db);
+    }
+    
+    /**
+     * @return the latest published snapshot (null, if nothing was published
+     * yet). Keep the reference for as long as a consistent view is needed.
+     */
+    public Snapshot current() {
+        return current.get();
+    }
+    
+    /**
+     * Builds a snapshot of the specified database and publishes it. The
+     * current snapshot stays available to readers while the new one is built.
+     * If another thread publishes a newer snapshot in the meantime, that one
+     * is kept.
+     * @param db the new database (must not be modified afterwards)
+     * @return the snapshot that is current after this call
+     */
+    public Snapshot publish(TanksDB db) {
+        Snapshot next = Snapshot.build(db, versions.incrementAndGet());
+        while (true) {
+            Snapshot prev = current.get();
+            if (prev != null && prev.version > next.version) {
+                log.info("Snapshot {} was superseded by {} while it was built", next.version, prev.version);
+                return prev;
+            }
+            if (current.compareAndSet(prev, next)) {
+                log.info("Published {}", next);
+                return next;
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.BaseProperties.Nation;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+
+/**
+ * Postings over all tanks of the database. In addition to the base
+ * properties, tanks are indexed by their TankType and gift flag.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class TankPostings extends Postings {
+    
+    /** tank ids by tank type */
+    protected final Map<TankType, BitSet> type = new EnumMap<TankType, BitSet>(TankType.class);
+    /** ids of all tanks that are only available as gift */
+    protected final BitSet gift;
+    
+    /**
+     * Builds the postings for the specified tanks
+     * @param tanks the tanks, ordered by id
+     */
+    protected TankPostings(Tank[] tanks) {
+        super(tanks);
+        
+        for (TankType t : TankType.values()) {
+            type.put(t, new BitSet(size));
+        }
+        this.gift = new BitSet(size);
+        
+        for (int id = 0; id < size; id++) {
+            if (tanks[id].type != null) {
+                type.get(tanks[id].type).set(id);
+            }
+            if (tanks[id].gift) {
+                gift.set(id);
+            }
+        }
+    }
+    
+    /**
+     * @param t the tank type
+     * @return the ids of all tanks of this type
+     */
+    public BitSet type(TankType t) {
+        return (BitSet) type.get(t).clone();
+    }
+    
+    /**
+     * @param isGift true to select gift tanks, false for all others
+     * @return the ids of all tanks with the specified gift flag
+     */
+    public BitSet gift(boolean isGift) {
+        if (isGift) {
+            return (BitSet) gift.clone();
+        } else {
+            BitSet regular = all();
+            regular.andNot(gift);
+            return regular;
+        }
+    }
+    
+    /**
+     * Selects tanks by the most common properties. Each property that is
+     * null (or a tier below 0) is ignored, e.g. select(Germany, HeavyTank, 8)
+     * returns all german heavy tanks of tier 8.
+     * @param n the nation (or null for any nation)
+     * @param t the tank type (or null for any type)
+     * @param tier the tier (or -1 for any tier)
+     * @return the ids of all matching tanks
+     */
+    public BitSet select(Nation n, TankType t, int tier) {
+        BitSet result = (tier >= 0) ? tier(tier) : all();
+        if (n != null) {
+            result.and(nation.get(n));
+        }
+        if (t != null) {
+            result.and(type.get(t));
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.Identities;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * A compact index of the tech tree, for fast ancestor, descendant and path
+ * queries.
+ * 
+ * The edges (parent -> child) are collected from both the children and the
+ * parents lists of all tanks, so a link that was only found on one side of
+ * the wiki is still part of the tree. They are stored as compressed sparse
+ * rows (CSR) in both directions: the children of tank i are
+ * childTargets[childOffsets[i] .. childOffsets[i+1]), the parents likewise.
+ * 
+ * On top of this, the index holds a topological order (every parent before
+ * its children) and the transitive closure as bit matrix: one row of bits
+ * per tank, where bit j of row i is set if tank j can be reached from tank
+ * i. With the matrix, "is a an ancestor of b" is a single bit test and all
+ * descendants of a tank are a single row.
+ * 
+ * All tank numbers are the dense ids of the Identities. The index is
+ * immutable and may be shared between threads.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class TechTree {
+    
+    private static final Logger log = LoggerFactory.getLogger(TechTree.class);
+    
+    /** The dense ids of the database this tree was built for */
+    public final Identities ids;
+    /** the number of tanks */
+    protected final int size;
+    
+    /** start of the children of each tank in childTargets (size + 1 entries) */
+    protected final int[] childOffsets;
+    /** the children of all tanks, grouped by parent */
+    protected final int[] childTargets;
+    /** start of the parents of each tank in parentTargets (size + 1 entries) */
+    protected final int[] parentOffsets;
+    /** the parents of all tanks, grouped by child */
+    protected final int[] parentTargets;
+    
+    /** all tanks in topological order (parents before children) */
+    protected final int[] topo;
+    /** true, if the tech tree has no cycles (the topological order is complete) */
+    protected boolean acyclic = true;
+    /** the number of 64 bit words per row of the bit matrices */
+    protected final int words;
+    /** transitive closure: bit j of row i is set, if j is a descendant of i */
+    protected final long[] descendants;
+    /** transposed closure: bit j of row i is set, if j is an ancestor of i */
+    protected final long[] ancestors;
+    
+    /**
+     * Builds the tech tree index for the database of the specified identities
+     * @param ids the dense ids of the database
+     * @return the tech tree index
+     */
+    public static TechTree build(Identities ids) {
+        return new TechTree(ids);
+    }
+    
+    /**
+     * Builds the adjacency arrays, the topological order and the closure
+     * @param ids the dense ids of the database
+     */
+    protected TechTree(Identities ids) {
+        this.ids = ids;
+        this.size = ids.getTankCount();
+        this.words = (size + 63) >>> 6;
+        
+        // collect edges from both sides, without duplicates
+        BitSet[] edges = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            edges[i] = new BitSet(size);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int c = 0; c < ids.getChildCount(i); c++) {
+                edges[i].set(ids.getChild(i, c));
+            }
+            for (int p = 0; p < ids.getParentCount(i); p++) {
+                edges[ids.getParent(i, p)].set(i);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (edges[i].get(i)) {
+                log.warn("Tank {} is linked to itself in the tech tree, link ignored", ids.getTank(i).name);
+                edges[i].clear(i);
+            }
+        }
+        
+        // children (CSR)
+        this.childOffsets = new int[size + 1];
+        int edgeCount = 0;
+        for (int i = 0; i < size; i++) {
+            childOffsets[i] = edgeCount;
+            edgeCount += edges[i].cardinality();
+        }
+        childOffsets[size] = edgeCount;
+        this.childTargets = new int[edgeCount];
+        int[] inDegree = new int[size];
+        for (int i = 0; i < size; i++) {
+            int k = childOffsets[i];
+            for (int c = edges[i].nextSetBit(0); c >= 0; c = edges[i].nextSetBit(c + 1)) {
+                childTargets[k++] = c;
+                inDegree[c]++;
+            }
+        }
+        
+        // parents (CSR, transposed)
+        this.parentOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            parentOffsets[i + 1] = parentOffsets[i] + inDegree[i];
+        }
+        this.parentTargets = new int[edgeCount];
+        int[] fill = Arrays.copyOf(parentOffsets, size);
+        for (int i = 0; i < size; i++) {
+            for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++) {
+                parentTargets[fill[childTargets[k]]++] = i;
+            }
+        }
+        
+        this.topo = topologicalOrder(inDegree.clone());
+        this.descendants = closure();
+        this.ancestors = transpose(descendants);
+    }
+    
+    // -------------------- construction --------------------
+    
+    /**
+     * Sorts the tanks topologically (Kahn's algorithm). Tanks on a cycle
+     * (which should never exist in a tech tree) are appended at the end.
+     * @param inDegree the number of parents of each tank (is consumed)
+     * @return all tanks in topological order
+     */
+    private int[] topologicalOrder(int[] inDegree) {
+        int[] order = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < size; i++) {
+            if (inDegree[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int t = order[head++];
+            for (int k = childOffsets[t]; k < childOffsets[t + 1]; k++) {
+                if (--inDegree[childTargets[k]] == 0) {
+                    order[tail++] = childTargets[k];
+                }
+            }
+        }
+        if (tail < size) {
+            log.warn("The tech tree contains cycles, {} tanks are not in topological order", size - tail);
+            acyclic = false;
+            for (int i = 0; i < size; i++) {
+                if (inDegree[i] > 0) {
+                    order[tail++] = i;
+                }
+            }
+        }
+        return order;
+    }
+    
+    /**
+     * Calculates the transitive closure. In reverse topological order, the
+     * descendants of each tank are the union of its children and their
+     * descendants, so one pass is enough. If the tree has cycles, the passes
+     * are repeated until nothing changes anymore.
+     * @return the closure bit matrix
+     */
+    private long[] closure() {
+        long[] m = new long[size * words];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = size - 1; i >= 0; i--) {
+                int t = topo[i];
+                int row = t * words;
+                for (int k = childOffsets[t]; k < childOffsets[t + 1]; k++) {
+                    int c = childTargets[k];
+                    int crow = c * words;
+                    long bit = m[row + (c >>> 6)] | (1L << c);
+                    changed |= bit != m[row + (c >>> 6)];
+                    m[row + (c >>> 6)] = bit;
+                    for (int w = 0; w < words; w++) {
+                        long merged = m[row + w] | m[crow + w];
+                        changed |= merged != m[row + w];
+                        m[row + w] = merged;
+                    }
+                }
+            }
+            changed &= !acyclic;
+        }
+        return m;
+    }
+    
+    /**
+     * Transposes a bit matrix
+     * @param m the matrix
+     * @return the transposed matrix
+     */
+    private long[] transpose(long[] m) {
+        long[] tr = new long[size * words];
+        for (int i = 0; i < size; i++) {
+            int row = i * words;
+            for (int w = 0; w < words; w++) {
+                long bits = m[row + w];
+                while (bits != 0) {
+                    int j = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    tr[j * words + (i >>> 6)] |= 1L << i;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return tr;
+    }
+    
+    // -------------------- adjacency --------------------
+    
+    /**
+     * @return the number of tanks in the tree
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @param t the tank id
+     * @return the ids of the direct children of this tank
+     */
+    public int[] getChildren(int t) {
+        return Arrays.copyOfRange(childTargets, childOffsets[t], childOffsets[t + 1]);
+    }
+    
+    /**
+     * @param t the tank id
+     * @return the ids of the direct parents of this tank
+     */
+    public int[] getParents(int t) {
+        return Arrays.copyOfRange(parentTargets, parentOffsets[t], parentOffsets[t + 1]);
+    }
+    
+    /**
+     * @return all tank ids in topological order (parents before children)
+     */
+    public int[] getTopologicalOrder() {
+        return topo.clone();
+    }
+    
+    /**
+     * @return the ids of all tanks without parents (the start of each line)
+     */
+    public BitSet getRoots() {
+        BitSet roots = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (parentOffsets[i] == parentOffsets[i + 1]) {
+                roots.set(i);
+            }
+        }
+        return roots;
+    }
+    
+    // -------------------- reachability --------------------
+    
+    /**
+     * @param ancestor the id of the possible ancestor
+     * @param descendant the id of the possible descendant
+     * @return true, if descendant can be reached from ancestor in the tech tree
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        return (descendants[ancestor * words + (descendant >>> 6)] & (1L << descendant)) != 0;
+    }
+    
+    /**
+     * @param t the tank id
+     * @return the ids of all tanks that can be reached from this tank
+     */
+    public BitSet getDescendants(int t) {
+        return row(descendants, t);
+    }
+    
+    /**
+     * @param t the tank id
+     * @return the ids of all tanks that lead to this tank
+     */
+    public BitSet getAncestors(int t) {
+        return row(ancestors, t);
+    }
+    
+    /**
+     * @param selection tank ids, e.g. all tanks of a tier from the
+     * SecondaryIndex
+     * @return the ids of all tanks that can be reached from any selected tank
+     */
+    public BitSet getDescendants(BitSet selection) {
+        return union(descendants, selection);
+    }
+    
+    /**
+     * @param selection tank ids, e.g. all tanks of a tier from the
+     * SecondaryIndex
+     * @return the ids of all tanks that lead to any selected tank
+     */
+    public BitSet getAncestors(BitSet selection) {
+        return union(ancestors, selection);
+    }
+    
+    /**
+     * @param t the tank
+     * @return all tanks that can be reached from this tank, in id order
+     */
+    public List<Tank> getDescendants(Tank t) {
+        int id = ids.idOf(t);
+        return (id < 0) ? new ArrayList<Tank>(0) : tanks(getDescendants(id));
+    }
+    
+    /**
+     * @param t the tank
+     * @return all tanks that lead to this tank, in id order
+     */
+    public List<Tank> getAncestors(Tank t) {
+        int id = ids.idOf(t);
+        return (id < 0) ? new ArrayList<Tank>(0) : tanks(getAncestors(id));
+    }
+    
+    // -------------------- paths --------------------
+    
+    /**
+     * Finds one shortest path in the tech tree
+     * @param from the id of the first tank
+     * @param to the id of the last tank
+     * @return the ids of all tanks on the path (including from and to), or
+     * null if to cannot be reached from from
+     */
+    public int[] getPath(int from, int to) {
+        if (from == to) {
+            return new int[] { from };
+        }
+        if (!isAncestor(from, to)) {
+            return null;
+        }
+        // breadth first search, restricted to tanks that lead to the target
+        int[] prev = new int[size];
+        Arrays.fill(prev, -1);
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = from;
+        prev[from] = from;
+        while (head < tail) {
+            int t = queue[head++];
+            if (t == to) {
+                break;
+            }
+            for (int k = childOffsets[t]; k < childOffsets[t + 1]; k++) {
+                int c = childTargets[k];
+                if (prev[c] < 0 && (c == to || isAncestor(c, to))) {
+                    prev[c] = t;
+                    queue[tail++] = c;
+                }
+            }
+        }
+        int length = 1;
+        for (int t = to; t != from; t = prev[t]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int t = to, i = length - 1; i >= 0; t = prev[t], i--) {
+            path[i] = t;
+        }
+        return path;
+    }
+    
+    /**
+     * Finds all paths in the tech tree between two tanks. Only tanks that
+     * lead to the target are visited, so no search is wasted on dead ends.
+     * If the tree has cycles, only paths without repeated tanks are found.
+     * @param from the id of the first tank
+     * @param to the id of the last tank
+     * @return all paths, each as array of tank ids (including from and to)
+     */
+    public List<int[]> getAllPaths(int from, int to) {
+        List<int[]> paths = new ArrayList<int[]>();
+        if (from == to) {
+            paths.add(new int[] { from });
+        } else if (isAncestor(from, to)) {
+            int[] stack = new int[size];
+            stack[0] = from;
+            collectPaths(stack, 1, to, paths);
+        }
+        return paths;
+    }
+    
+    /**
+     * Depth first search for getAllPaths
+     * @param stack the current path
+     * @param depth the length of the current path
+     * @param to the target tank
+     * @param paths the found paths are added here
+     */
+    private void collectPaths(int[] stack, int depth, int to, List<int[]> paths) {
+        int t = stack[depth - 1];
+        for (int k = childOffsets[t]; k < childOffsets[t + 1]; k++) {
+            int c = childTargets[k];
+            if (c == to) {
+                int[] path = Arrays.copyOf(stack, depth + 1);
+                path[depth] = to;
+                paths.add(path);
+            } else if (isAncestor(c, to) && (acyclic || !contains(stack, depth, c))) {
+                stack[depth] = c;
+                collectPaths(stack, depth + 1, to, paths);
+            }
+        }
+    }
+    
+    /**
+     * @param stack the current path
+     * @param depth the length of the current path
+     * @param t a tank id
+     * @return true, if the tank is already on the current path
+     */
+    private static boolean contains(int[] stack, int depth, int t) {
+        for (int i = 0; i < depth; i++) {
+            if (stack[i] == t) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * @param m a bit matrix
+     * @param i the row
+     * @return the row as BitSet
+     */
+    private BitSet row(long[] m, int i) {
+        BitSet result = new BitSet(size);
+        int row = i * words;
+        for (int w = 0; w < words; w++) {
+            long bits = m[row + w];
+            while (bits != 0) {
+                result.set((w << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @param m a bit matrix
+     * @param selection the rows to combine
+     * @return the union of all selected rows as BitSet
+     */
+    private BitSet union(long[] m, BitSet selection) {
+        long[] acc = new long[words];
+        for (int i = selection.nextSetBit(0); i >= 0 && i < size; i = selection.nextSetBit(i + 1)) {
+            int row = i * words;
+            for (int w = 0; w < words; w++) {
+                acc[w] |= m[row + w];
+            }
+        }
+        BitSet result = new BitSet(size);
+        for (int w = 0; w < words; w++) {
+            long bits = acc[w];
+            while (bits != 0) {
+                result.set((w << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @param selection tank ids
+     * @return the tanks, in id order
+     */
+    private List<Tank> tanks(BitSet selection) {
+        List<Tank> result = new ArrayList<Tank>(selection.cardinality());
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            result.add(ids.getTank(id));
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,9 @@
+/**
+ * This package contains indexes over a loaded tank database, that answer
+ * selections and relations by bit set and array operations instead of
+ * scanning or following the object graph.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+
+package de.nx42.wotcrawler.index;
@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlTransient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties;
+import de.nx42.wotcrawler.db.Modules;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Engine;
+import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.module.Radio;
+import de.nx42.wotcrawler.db.module.Suspension;
+import de.nx42.wotcrawler.db.module.Turret;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.TankRef;
+
+/**
+ * Converts the tank database into a flat table of entities and back.
+ *
+ * Every tank and module becomes one entity, identified by a stable key, with
+ * one string value per field. Nested objects (the equipment of a tank) are
+ * stored with the field name as prefix (e.g. "equipmentTop.hitpoints"), lists
+ * of tank references as space separated tank ids. Fields that are null are
+ * left out. The entities are ordered like in the database: tanks first, then
+ * engines, guns, radios, suspensions and turrets.
+ *
+ * The conversion is lossless, so a rebuilt database is serialized to exactly
+ * the same xml as the original one.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class EntityCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityCodec.class);
+
+    /** key prefix of tanks */
+    public static final String TANK = "Tank";
+    /** placeholder for a reference without target (not a valid xml id) */
+    protected static final String UNRESOLVED = "?";
+
+    /** caches the persistent fields of each class */
+    private static final Map<Class<?>, List<Field>> fieldCache = new HashMap<Class<?>, List<Field>>();
+
+    // -------------------- keys --------------------
+
+    /**
+     * The key of a tank, e.g. "Tank:_T29"
+     * @param t the tank
+     * @return the key of this tank
+     */
+    public static String key(Tank t) {
+        return TANK + ":" + t.id;
+    }
+
+    /**
+     * Generates the keys of all modules in the given list. Modules have no id,
+     * so the key consists of module type, nation and name, e.g.
+     * "Gun:France:90 mm DCA 45". As some modules share all of these (usually
+     * a premium variant of a regular module), the second and following
+     * occurrences get a running number ("#2").
+     * @param modules the modules of a single type
+     * @return the keys of the modules, in the same order
+     */
+    public static List<String> keys(List<? extends Module> modules) {
+        List<String> keys = new ArrayList<String>(modules.size());
+        Map<String,Integer> seen = new HashMap<String,Integer>();
+        for (Module m : modules) {
+            String key = ModuleType.valueOf(m.getClass().getSimpleName()) + ":" + m.nation + ":" + m.name;
+            Integer count = seen.get(key);
+            count = count == null ? 1 : count + 1;
+            seen.put(key, count);
+            keys.add(count == 1 ? key : key + "#" + count);
+        }
+        return keys;
+    }
+
+    /**
+     * @param key the key of an entity
+     * @return the type of the entity (the part of the key before the first ':')
+     */
+    public static String typeOf(String key) {
+        int sep = key.indexOf(':');
+        return sep < 0 ? key : key.substring(0, sep);
+    }
+
+    // -------------------- flatten --------------------
+
+    /**
+     * Converts the database into a flat, ordered table of entities
+     * @param db the database to convert
+     * @return all entities of the database (key -> field -> value)
+     */
+    public static LinkedHashMap<String, Map<String,String>> flatten(TanksDB db) {
+        LinkedHashMap<String, Map<String,String>> entities = new LinkedHashMap<String, Map<String,String>>();
+        for (Tank t : db.tanks) {
+            entities.put(key(t), encode(t));
+        }
+        flatten(db.modules.engines, entities);
+        flatten(db.modules.guns, entities);
+        flatten(db.modules.radios, entities);
+        flatten(db.modules.suspensions, entities);
+        flatten(db.modules.turrets, entities);
+        return entities;
+    }
+
+    /**
+     * Adds the modules of one type to the table of entities
+     * @param modules the modules to add
+     * @param entities the table to add the modules to
+     */
+    protected static void flatten(List<? extends Module> modules, Map<String, Map<String,String>> entities) {
+        List<String> keys = keys(modules);
+        for (int i = 0; i < modules.size(); i++) {
+            entities.put(keys.get(i), encode(modules.get(i)));
+        }
+    }
+
+    /**
+     * Converts a single tank or module into a map of field values
+     * @param entity the object to convert
+     * @return field name -> value (in declaration order, superclass first)
+     */
+    public static Map<String,String> encode(Object entity) {
+        Map<String,String> values = new LinkedHashMap<String,String>();
+        encode(entity, "", values);
+        return values;
+    }
+
+    /**
+     * Adds all persistent fields of the given object to the values
+     * @param obj the object to read
+     * @param prefix prefix for the field names (for nested objects)
+     * @param values the map to store the values in
+     */
+    protected static void encode(Object obj, String prefix, Map<String,String> values) {
+        try {
+            for (Field f : fieldsOf(obj.getClass())) {
+                Object value = f.get(obj);
+                if (value == null) {
+                    continue;
+                }
+                String name = prefix + f.getName();
+                if (isSimple(f.getType())) {
+                    values.put(name, value instanceof Enum ? ((Enum<?>) value).name() : value.toString());
+                } else if (List.class.isAssignableFrom(f.getType())) {
+                    values.put(name, encodeRefs((List<?>) value));
+                } else {
+                    encode(value, name + ".", values);
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            // should not happen, only public fields are read
+            log.error("Could not read field of " + obj.getClass().getSimpleName(), ex);
+        }
+    }
+
+    /**
+     * @param refs a list of TankRef objects
+     * @return the ids of the referenced tanks, separated by space (references
+     * that could not be resolved, when the database was read, are kept as "?")
+     */
+    protected static String encodeRefs(List<?> refs) {
+        StringBuilder sb = new StringBuilder();
+        for (Object o : refs) {
+            Tank t = ((TankRef) o).ref;
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(t == null ? UNRESOLVED : t.id);
+        }
+        return sb.toString();
+    }
+
+    // -------------------- rebuild --------------------
+
+    /**
+     * Rebuilds the database from a flat table of entities
+     * @param entities all entities of the database (key -> field -> value)
+     * @return the database that was described by the entities
+     */
+    public static TanksDB rebuild(Map<String, Map<String,String>> entities) {
+        TanksDB db = new TanksDB();
+        db.tanks = new ArrayList<Tank>();
+        db.modules = new Modules();
+        db.modules.engines = new ArrayList<Engine>();
+        db.modules.guns = new ArrayList<Gun>();
+        db.modules.radios = new ArrayList<Radio>();
+        db.modules.suspensions = new ArrayList<Suspension>();
+        db.modules.turrets = new ArrayList<Turret>();
+
+        // create all objects, remember the references for later
+        Map<String,Tank> tanks = new HashMap<String,Tank>();
+        List<Reference> refs = new ArrayList<Reference>();
+        for (Map.Entry<String, Map<String,String>> e : entities.entrySet()) {
+            String type = typeOf(e.getKey());
+            if (TANK.equals(type)) {
+                Tank t = decode(new Tank(), e.getValue(), refs);
+                tanks.put(t.id, t);
+                db.tanks.add(t);
+            } else {
+                switch (ModuleType.valueOf(type)) {
+                    case Engine: db.modules.engines.add(decode(new Engine(), e.getValue(), refs)); break;
+                    case Gun: db.modules.guns.add(decode(new Gun(), e.getValue(), refs)); break;
+                    case Radio: db.modules.radios.add(decode(new Radio(), e.getValue(), refs)); break;
+                    case Suspension: db.modules.suspensions.add(decode(new Suspension(), e.getValue(), refs)); break;
+                    case Turret: db.modules.turrets.add(decode(new Turret(), e.getValue(), refs)); break;
+                }
+            }
+        }
+
+        // resolve tank references
+        for (Reference r : refs) {
+            r.resolve(tanks);
+        }
+        return db;
+    }
+
+    /**
+     * Rebuilds a single tank or module. References to other tanks can't be
+     * resolved without the rest of the database, so they point to tanks
+     * that have nothing but their id set.
+     * @param key the key of the entity
+     * @param values field name -> value
+     * @return the tank or module
+     */
+    public static BaseProperties decode(String key, Map<String,String> values) {
+        String type = typeOf(key);
+        BaseProperties entity;
+        if (TANK.equals(type)) {
+            entity = new Tank();
+        } else {
+            switch (ModuleType.valueOf(type)) {
+                case Engine: entity = new Engine(); break;
+                case Gun: entity = new Gun(); break;
+                case Radio: entity = new Radio(); break;
+                case Suspension: entity = new Suspension(); break;
+                case Turret: entity = new Turret(); break;
+                default: throw new IllegalArgumentException("Unknown entity type " + type);
+            }
+        }
+        List<Reference> refs = new ArrayList<Reference>();
+        decode(entity, values, refs);
+        for (Reference r : refs) {
+            r.resolve(null);
+        }
+        return entity;
+    }
+
+    /**
+     * Writes the values into the fields of the given (new) object
+     * @param <T> the type of the object
+     * @param obj the object to fill
+     * @param values field name -> value
+     * @param refs collects tank references, which are resolved later
+     * @return the filled object
+     */
+    protected static <T> T decode(T obj, Map<String,String> values, List<Reference> refs) {
+        decode(obj, "", values, refs);
+        return obj;
+    }
+
+    /**
+     * Writes the values into the fields of the given object
+     * @param obj the object to fill
+     * @param prefix prefix for the field names (for nested objects)
+     * @param values field name -> value
+     * @param refs collects tank references, which are resolved later
+     */
+    @SuppressWarnings("unchecked")
+    protected static void decode(Object obj, String prefix, Map<String,String> values, List<Reference> refs) {
+        try {
+            for (Field f : fieldsOf(obj.getClass())) {
+                String name = prefix + f.getName();
+                String value = values.get(name);
+                Class<?> type = f.getType();
+                if (isSimple(type)) {
+                    if (value != null) {
+                        f.set(obj, parse(type, value));
+                    } else if (!type.isPrimitive()) {
+                        f.set(obj, null);
+                    }
+                } else if (List.class.isAssignableFrom(type)) {
+                    if (value != null) {
+                        List<TankRef> list = new ArrayList<TankRef>();
+                        f.set(obj, list);
+                        refs.add(new Reference(list, value));
+                    } else {
+                        f.set(obj, null);
+                    }
+                } else if (hasPrefix(values, name + ".")) {
+                    Object nested = type.newInstance();
+                    decode(nested, name + ".", values, refs);
+                    f.set(obj, nested);
+                } else {
+                    f.set(obj, null);
+                }
+            }
+        } catch (InstantiationException ex) {
+            log.error("Could not create nested object of " + obj.getClass().getSimpleName(), ex);
+        } catch (IllegalAccessException ex) {
+            log.error("Could not write field of " + obj.getClass().getSimpleName(), ex);
+        }
+    }
+
+    /**
+     * Parses a value of a simple field
+     * @param type the type of the field
+     * @param value the value to parse
+     * @return the parsed value
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected static Object parse(Class<?> type, String value) {
+        if (type == String.class) {
+            return value;
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) type, value);
+        } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(value);
+        } else if (type == float.class || type == Float.class) {
+            return Float.valueOf(value);
+        } else if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(value);
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(value);
+        } else if (type == short.class || type == Short.class) {
+            return Short.valueOf(value);
+        } else if (type == byte.class || type == Byte.class) {
+            return Byte.valueOf(value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.valueOf(value);
+        } else {
+            throw new IllegalArgumentException("Unsupported field type " + type.getName());
+        }
+    }
+
+    // -------------------- helpers --------------------
+
+    /**
+     * Returns all persistent fields of a class: public, not static and not
+     * marked as XmlTransient. Fields of superclasses come first.
+     * @param c the class to inspect
+     * @return the persistent fields of the class
+     */
+    protected static synchronized List<Field> fieldsOf(Class<?> c) {
+        List<Field> fields = fieldCache.get(c);
+        if (fields == null) {
+            fields = new ArrayList<Field>();
+            if (c.getSuperclass() != null && c.getSuperclass() != Object.class) {
+                fields.addAll(fieldsOf(c.getSuperclass()));
+            }
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (Modifier.isPublic(mod) && !Modifier.isStatic(mod)
+                        && !f.isAnnotationPresent(XmlTransient.class)) {
+                    fields.add(f);
+                }
+            }
+            fieldCache.put(c, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * @param type a field type
+     * @return true, if values of this type are stored as single string
+     */
+    protected static boolean isSimple(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || type == String.class
+                || Number.class.isAssignableFrom(type) || type == Boolean.class;
+    }
+
+    /**
+     * @param values field name -> value
+     * @param prefix the prefix to look for
+     * @return true, if at least one field name starts with the prefix
+     */
+    protected static boolean hasPrefix(Map<String,String> values, String prefix) {
+        for (String name : values.keySet()) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A list of tank references, that can only be resolved after all tanks
+     * have been created.
+     */
+    protected static class Reference {
+
+        /** the list to fill */
+        protected final List<TankRef> list;
+        /** the ids of the referenced tanks, separated by space */
+        protected final String ids;
+
+        public Reference(List<TankRef> list, String ids) {
+            this.list = list;
+            this.ids = ids;
+        }
+
+        /**
+         * Fills the list with references to the tanks
+         * @param tanks all tanks by id (null to reference placeholder tanks,
+         * that have only their id set)
+         */
+        public void resolve(Map<String,Tank> tanks) {
+            if (ids.length() == 0) {
+                return;
+            }
+            for (String id : ids.split(" ")) {
+                Tank t;
+                if (tanks != null) {
+                    t = tanks.get(id);
+                } else if (UNRESOLVED.equals(id)) {
+                    t = null;
+                } else {
+                    t = new Tank();
+                    t.id = id;
+                }
+                if (t == null && !UNRESOLVED.equals(id)) {
+                    log.warn("Reference to unknown tank {}", id);
+                }
+                list.add(new TankRef(t));
+            }
+        }
+    }
+
+}
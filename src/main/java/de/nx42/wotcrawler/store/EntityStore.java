@@ -0,0 +1,749 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.ext.Loadout;
+
+/**
+ * An embedded key-value store for single tanks and modules, so that a lookup
+ * does not require to read the whole database.
+ *
+ * The entities are stored as flat records (see EntityCodec) in an append-only
+ * log. A hash index on disk maps the hash of each key to the position of its
+ * record in the log, so a lookup reads only one slot of the index and one
+ * record of the log. For every tank there is an additional record, that lists
+ * the keys of all compatible modules ("Compat:" + tank id), so the stock and
+ * top loadout of a tank can be resolved from a handful of records (see
+ * getLoadout).
+ *
+ * The store is organized in generations: each generation consists of a log
+ * and an index file, the file CURRENT names the generation in use. Records
+ * that are written after the index was built are appended to the log and
+ * indexed in memory. Compaction and replacing the whole database write a new
+ * generation, which is then swapped in atomically by replacing CURRENT.
+ *
+ * Log record layout: int payload length, int crc32 of payload, payload:
+ * byte operation (put/delete), key, int number of fields, name/value pairs.
+ * Strings are stored as int length + UTF-8 bytes.
+ *
+ * Only one instance should write into a store at a time.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class EntityStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityStore.class);
+
+    /** name of the file that points to the current generation */
+    public static final String CURRENT = "CURRENT";
+    /** key prefix of compatibility records */
+    public static final String COMPAT = "Compat";
+
+    /** operation: store the record */
+    protected static final byte PUT = 1;
+    /** operation: delete the key */
+    protected static final byte DELETE = 0;
+    /** first bytes of every index file ("WOTIDX01") */
+    protected static final long MAGIC = 0x574f544944583031L;
+    /** size of the index header: magic, indexed log length, slot count, entry count */
+    protected static final int HEADER = 24;
+    /** size of an index slot: hash, offset */
+    protected static final int SLOT = 16;
+
+    /** the folder of the store */
+    protected final File folder;
+    /** the generation in use */
+    protected int generation;
+    /** the log of the current generation */
+    protected RandomAccessFile logFile;
+    /** channel of the log */
+    protected FileChannel logChannel;
+    /** the index of the current generation */
+    protected MappedByteBuffer index;
+    /** number of slots in the index */
+    protected int slots;
+    /** the length of the log that is covered by the index */
+    protected long indexed;
+    /** records appended after the index was built: key -> offset (-1 if deleted) */
+    protected final Map<String,Long> tail = new HashMap<String,Long>();
+
+    /**
+     * Use EntityStore.open(folder)
+     * @param folder the folder of the store
+     */
+    protected EntityStore(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Opens the store in the specified folder. A new, empty store is
+     * created, if the folder does not contain one yet.
+     * @param folder the folder of the store
+     * @return the opened store
+     * @throws IOException if the store can't be opened
+     */
+    public static EntityStore open(File folder) throws IOException {
+        EntityStore store = new EntityStore(folder);
+        int gen = readCurrent(folder);
+        if (gen < 0) {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Could not create store folder " + folder);
+            }
+            gen = 1;
+            writeGeneration(folder, gen, new LinkedHashMap<String, Map<String,String>>());
+            writeCurrent(folder, gen);
+        }
+        store.load(gen);
+        return store;
+    }
+
+    // -------------------- lookups --------------------
+
+    /**
+     * @param id the id of the tank
+     * @return the tank (references to other tanks contain only their id),
+     * or null if there is no such tank
+     * @throws IOException if the store can't be read
+     */
+    public Tank getTank(String id) throws IOException {
+        String key = EntityCodec.TANK + ":" + id;
+        Map<String,String> values = get(key);
+        return values == null ? null : (Tank) EntityCodec.decode(key, values);
+    }
+
+    /**
+     * @param key the key of the module (see EntityCodec.keys)
+     * @return the module, or null if there is no such module
+     * @throws IOException if the store can't be read
+     */
+    public Module getModule(String key) throws IOException {
+        Map<String,String> values = get(key);
+        return values == null ? null : (Module) EntityCodec.decode(key, values);
+    }
+
+    /**
+     * @param tankId the id of a tank
+     * @return the keys of all modules that are compatible with this tank
+     * @throws IOException if the store can't be read
+     */
+    public List<String> getCompatibleKeys(String tankId) throws IOException {
+        Map<String,String> values = get(COMPAT + ":" + tankId);
+        return values == null ? new ArrayList<String>() : new ArrayList<String>(values.keySet());
+    }
+
+    /**
+     * @param tankId the id of a tank
+     * @param type the type of the modules
+     * @return all modules of this type that are compatible with the tank
+     * @throws IOException if the store can't be read
+     */
+    public List<Module> getCompatibleModules(String tankId, ModuleType type) throws IOException {
+        List<Module> modules = new ArrayList<Module>();
+        for (String key : getCompatibleKeys(tankId)) {
+            if (type == null || type.name().equals(EntityCodec.typeOf(key))) {
+                Module m = getModule(key);
+                if (m != null) {
+                    modules.add(m);
+                }
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * Resolves the stock or top loadout of a tank from the store, reading
+     * only the records of the tank and its compatible modules
+     * @param tankId the id of the tank
+     * @param dev stock or top
+     * @return the loadout of the tank, or null if there is no such tank
+     * @throws IOException if the store can't be read
+     */
+    public Loadout getLoadout(String tankId, Development dev) throws IOException {
+        Tank t = getTank(tankId);
+        return t == null ? null : Loadout.resolve(t, dev, getCompatibleModules(tankId, null));
+    }
+
+    /**
+     * Reads the record that is stored under the specified key
+     * @param key the key of the record
+     * @return field name -> value, or null if there is no such record
+     * @throws IOException if the store can't be read
+     */
+    public synchronized Map<String,String> get(String key) throws IOException {
+        Long offset = tail.get(key);
+        if (offset != null) {
+            return offset < 0 ? null : readRecord(offset).values;
+        }
+        if (index == null || slots == 0) {
+            return null;
+        }
+        long hash = hash(key);
+        int mask = slots - 1;
+        int slot = spread(hash) & mask;
+        while (true) {
+            long h = index.getLong(HEADER + slot * SLOT);
+            if (h == 0) {
+                return null;
+            } else if (h == hash) {
+                Record r = readRecord(index.getLong(HEADER + slot * SLOT + 8));
+                if (r.key.equals(key)) {
+                    return r.op == PUT ? r.values : null;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // -------------------- updates --------------------
+
+    /**
+     * Stores a record under the specified key (appends it to the log)
+     * @param key the key of the record
+     * @param values field name -> value
+     * @throws IOException if the record can't be written
+     */
+    public synchronized void put(String key, Map<String,String> values) throws IOException {
+        tail.put(key, append(new Record(PUT, key, values)));
+    }
+
+    /**
+     * Deletes the record with the specified key (appends a deletion to the log)
+     * @param key the key of the record
+     * @throws IOException if the deletion can't be written
+     */
+    public synchronized void remove(String key) throws IOException {
+        append(new Record(DELETE, key, new LinkedHashMap<String,String>()));
+        tail.put(key, -1L);
+    }
+
+    /**
+     * Replaces the whole contents of the store with the specified database.
+     * The new contents are written into a new generation, which is swapped in
+     * atomically; readers never see a partially written database.
+     * @param db the database to store
+     * @throws IOException if the database can't be stored
+     */
+    public synchronized void replace(TanksDB db) throws IOException {
+        swap(records(db));
+    }
+
+    /**
+     * Rewrites all live records into a new generation without deleted or
+     * overwritten records, and indexes all of them on disk.
+     * @throws IOException if the store can't be compacted
+     */
+    public synchronized void compact() throws IOException {
+        Map<String,Long> live = new LinkedHashMap<String,Long>();
+        for (Record r : scan(logFile(folder, generation), 0, false)) {
+            if (r.op == PUT) {
+                live.put(r.key, r.offset);
+            } else {
+                live.remove(r.key);
+            }
+        }
+        Map<String, Map<String,String>> records = new LinkedHashMap<String, Map<String,String>>();
+        for (Map.Entry<String,Long> e : live.entrySet()) {
+            records.put(e.getKey(), readRecord(e.getValue()).values);
+        }
+        swap(records);
+    }
+
+    /**
+     * @return the generation in use
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Writes outstanding changes to disk and closes the store
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (logFile != null) {
+            logChannel.force(true);
+            logFile.close();
+            logFile = null;
+            index = null;
+        }
+    }
+
+    /**
+     * Converts a database into the records of this store: one record per
+     * tank and module, plus one compatibility record per tank
+     * @param db the database to convert
+     * @return all records (key -> field -> value)
+     */
+    public static Map<String, Map<String,String>> records(TanksDB db) {
+        LinkedHashMap<String, Map<String,String>> records = EntityCodec.flatten(db);
+        Map<String, Map<String,String>> compat = new LinkedHashMap<String, Map<String,String>>();
+        for (Tank t : db.tanks) {
+            compat.put(COMPAT + ":" + t.id, new LinkedHashMap<String,String>());
+        }
+        for (Map.Entry<String, Map<String,String>> e : records.entrySet()) {
+            String ids = e.getValue().get("compatibility");
+            if (ids == null || ids.length() == 0 || EntityCodec.TANK.equals(EntityCodec.typeOf(e.getKey()))) {
+                continue;
+            }
+            for (String id : ids.split(" ")) {
+                Map<String,String> c = compat.get(COMPAT + ":" + id);
+                if (c != null) {
+                    c.put(e.getKey(), EntityCodec.typeOf(e.getKey()));
+                }
+            }
+        }
+        records.putAll(compat);
+        return records;
+    }
+
+    // -------------------- generations --------------------
+
+    /**
+     * Writes the records into a new generation, makes it the current one
+     * and deletes the old generation
+     * @param records the contents of the new generation
+     */
+    protected void swap(Map<String, Map<String,String>> records) throws IOException {
+        int old = generation;
+        int gen = old + 1;
+        writeGeneration(folder, gen, records);
+        writeCurrent(folder, gen);
+        close();
+        load(gen);
+        log.info("Store {} switched to generation {}", folder, gen);
+        if (!logFile(folder, old).delete() || !indexFile(folder, old).delete()) {
+            log.warn("Could not delete generation {} of store {}", old, folder);
+        }
+    }
+
+    /**
+     * Opens the log and index of a generation
+     * @param gen the generation to open
+     */
+    protected void load(int gen) throws IOException {
+        File logF = logFile(folder, gen);
+        File idxF = indexFile(folder, gen);
+
+        // map the index
+        RandomAccessFile idx = new RandomAccessFile(idxF, "r");
+        try {
+            index = idx.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, idx.length());
+        } finally {
+            idx.close();
+        }
+        if (index.getLong(0) != MAGIC) {
+            throw new IOException("Not an index file: " + idxF);
+        }
+        indexed = index.getLong(8);
+        slots = index.getInt(16);
+
+        // index the records that were appended later, drop a torn last record
+        tail.clear();
+        long end = indexed;
+        for (Record r : scan(logF, indexed, true)) {
+            tail.put(r.key, r.op == PUT ? r.offset : -1L);
+            end = r.offset + 8 + r.length;
+        }
+        logFile = new RandomAccessFile(logF, "rw");
+        logChannel = logFile.getChannel();
+        if (logFile.length() > end) {
+            log.warn("Dropping incomplete record at the end of {}", logF);
+            logFile.setLength(end);
+        }
+        generation = gen;
+    }
+
+    /**
+     * Writes the log and the index of a new generation
+     * @param folder the folder of the store
+     * @param gen the number of the generation
+     * @param records the contents of the generation
+     */
+    protected static void writeGeneration(File folder, int gen, Map<String, Map<String,String>> records)
+            throws IOException {
+        // log
+        String[] keys = new String[records.size()];
+        long[] offsets = new long[records.size()];
+        FileOutputStream fos = new FileOutputStream(logFile(folder, gen));
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            long pos = 0;
+            int i = 0;
+            for (Map.Entry<String, Map<String,String>> e : records.entrySet()) {
+                byte[] bytes = new Record(PUT, e.getKey(), e.getValue()).toBytes();
+                out.write(bytes);
+                keys[i] = e.getKey();
+                offsets[i++] = pos;
+                pos += bytes.length;
+            }
+            out.flush();
+            fos.getChannel().force(true);
+
+            // index (linear probing, load factor <= 0.5)
+            int n = 16;
+            while (n < keys.length * 2) {
+                n <<= 1;
+            }
+            long[] hashes = new long[n];
+            long[] slotOffsets = new long[n];
+            for (i = 0; i < keys.length; i++) {
+                long hash = hash(keys[i]);
+                int slot = spread(hash) & (n - 1);
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & (n - 1);
+                }
+                hashes[slot] = hash;
+                slotOffsets[slot] = offsets[i];
+            }
+            FileOutputStream ifos = new FileOutputStream(indexFile(folder, gen));
+            try {
+                DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(ifos));
+                idx.writeLong(MAGIC);
+                idx.writeLong(pos);
+                idx.writeInt(n);
+                idx.writeInt(keys.length);
+                for (i = 0; i < n; i++) {
+                    idx.writeLong(hashes[i]);
+                    idx.writeLong(slotOffsets[i]);
+                }
+                idx.flush();
+                ifos.getChannel().force(true);
+            } finally {
+                ifos.close();
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * @param folder the folder of the store
+     * @return the current generation, or -1 if there is no store yet
+     */
+    protected static int readCurrent(File folder) throws IOException {
+        File current = new File(folder, CURRENT);
+        if (!current.isFile()) {
+            return -1;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(current));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Atomically points CURRENT to the specified generation
+     * @param folder the folder of the store
+     * @param gen the new current generation
+     */
+    protected static void writeCurrent(File folder, int gen) throws IOException {
+        File tmp = new File(folder, CURRENT + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            new DataOutputStream(fos).writeInt(gen);
+            fos.getChannel().force(true);
+        } finally {
+            fos.close();
+        }
+        File current = new File(folder, CURRENT);
+        if (!tmp.renameTo(current)) {
+            // some platforms don't replace existing files on rename
+            if (!current.delete() || !tmp.renameTo(current)) {
+                throw new IOException("Could not replace " + current);
+            }
+        }
+    }
+
+    /**
+     * @param folder the folder of the store
+     * @param gen the generation
+     * @return the log file of the generation
+     */
+    protected static File logFile(File folder, int gen) {
+        return new File(folder, String.format("gen-%06d.log", gen));
+    }
+
+    /**
+     * @param folder the folder of the store
+     * @param gen the generation
+     * @return the index file of the generation
+     */
+    protected static File indexFile(File folder, int gen) {
+        return new File(folder, String.format("gen-%06d.idx", gen));
+    }
+
+    // -------------------- records --------------------
+
+    /**
+     * Appends a record to the log
+     * @param r the record to append
+     * @return the offset of the record
+     */
+    protected long append(Record r) throws IOException {
+        long offset = logChannel.size();
+        ByteBuffer buf = ByteBuffer.wrap(r.toBytes());
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += logChannel.write(buf, pos);
+        }
+        return offset;
+    }
+
+    /**
+     * Reads the record at the specified position of the log
+     * @param offset the position of the record
+     * @return the record
+     */
+    protected Record readRecord(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(header, offset);
+        int length = header.getInt(0);
+        int crc = header.getInt(4);
+        if (length < 0 || length > logChannel.size() - offset - 8) {
+            throw new IOException("Corrupt record length " + length + " at position " + offset + " of generation " + generation);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, offset + 8);
+        Record r = Record.parse(payload.array(), offset, crc);
+        if (r == null) {
+            throw new IOException("Corrupt record at position " + offset + " of generation " + generation);
+        }
+        return r;
+    }
+
+    /**
+     * Fills the buffer from the log
+     * @param buf the buffer to fill
+     * @param pos the position in the log
+     */
+    protected void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = logChannel.read(buf, pos + buf.position());
+            if (n < 0) {
+                throw new EOFException("Unexpected end of log at position " + pos);
+            }
+        }
+    }
+
+    /**
+     * Reads all records of a log, starting at the specified position
+     * @param file the log to read
+     * @param from the position to start at
+     * @param tolerant true to stop at an incomplete or corrupt record, false
+     * to throw an exception
+     * @return the records (with their offsets)
+     */
+    protected static List<Record> scan(File file, long from, boolean tolerant) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        long size = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long pos = 0;
+            while (pos < from) {
+                long n = in.skip(from - pos);
+                if (n <= 0) {
+                    return records;
+                }
+                pos += n;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                Record r = null;
+                // a corrupt length must not be allocated, it may be huge
+                if (length >= 0 && length <= size - pos - 8) {
+                    try {
+                        int crc = in.readInt();
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+                        r = Record.parse(payload, pos, crc);
+                    } catch (EOFException ex) {
+                        // incomplete record
+                    }
+                }
+                if (r == null) {
+                    if (tolerant) {
+                        break;
+                    }
+                    throw new IOException("Corrupt record at position " + pos + " of " + file);
+                }
+                records.add(r);
+                pos += 8 + length;
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the key (never 0, which marks empty slots)
+     * @param key the key to hash
+     * @return the hash of the key
+     */
+    protected static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            h ^= c & 0xff;
+            h *= 0x100000001b3L;
+            h ^= c >>> 8;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * @param hash a 64 bit hash
+     * @return the start slot of the hash (before masking)
+     */
+    protected static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * A single record of the log
+     */
+    protected static class Record {
+
+        /** PUT or DELETE */
+        public final byte op;
+        /** the key */
+        public final String key;
+        /** field name -> value */
+        public final Map<String,String> values;
+        /** position in the log (-1 if not read from a log) */
+        public final long offset;
+        /** length of the payload */
+        public final int length;
+
+        public Record(byte op, String key, Map<String,String> values) {
+            this(op, key, values, -1, 0);
+        }
+
+        public Record(byte op, String key, Map<String,String> values, long offset, int length) {
+            this.op = op;
+            this.key = key;
+            this.values = values;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return the record in log format (including length and crc)
+         */
+        public byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(op);
+            writeString(out, key);
+            out.writeInt(values.size());
+            for (Map.Entry<String,String> e : values.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+            out.flush();
+            ByteBuffer buf = ByteBuffer.wrap(bos.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 8, buf.capacity() - 8);
+            buf.putInt(0, buf.capacity() - 8);
+            buf.putInt(4, (int) crc.getValue());
+            return buf.array();
+        }
+
+        /**
+         * Parses the payload of a record
+         * @param payload the payload
+         * @param offset the position of the record in the log
+         * @param crc the expected crc32 of the payload
+         * @return the record, or null if the payload is corrupt
+         */
+        public static Record parse(byte[] payload, long offset, int crc) throws IOException {
+            CRC32 actual = new CRC32();
+            actual.update(payload);
+            if ((int) actual.getValue() != crc) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = in.readByte();
+            String key = readString(in);
+            int n = in.readInt();
+            Map<String,String> values = new LinkedHashMap<String,String>(n * 2);
+            for (int i = 0; i < n; i++) {
+                values.put(readString(in), readString(in));
+            }
+            return new Record(op, key, values, offset, payload.length);
+        }
+
+        protected static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        protected static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        @Override
+        public String toString() {
+            return (op == PUT ? "put " : "delete ") + key + " " + values;
+        }
+    }
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The difference between two versions of the database, expressed on the flat
+ * table of entities (see EntityCodec): which entities were removed, which
+ * were added (and where) and which fields of the remaining entities changed.
+ *
+ * Patches are stored as text, one operation per line, separated by tabs:
+ * <pre>
+ * &#64;version
+ * -  key
+ * +  key  index  field=value  field=value ...
+ * ~  key  field  old  new
+ * =  key  length  key  length ...
+ * </pre>
+ * The last line type is only used, if the remaining entities were reordered.
+ * It describes the new order as runs of entities, that were already adjacent
+ * in the old version (first key and length of each run).
+ * Tabs, line breaks and backslashes in values are escaped, a missing value
+ * (null) is written as \N.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Patch {
+
+    /** the version of the database this patch leads to */
+    public final String version;
+
+    /** keys of the removed entities */
+    public final List<String> removed = new ArrayList<String>();
+    /** added entities (key -> field -> value) */
+    public final Map<String, Map<String,String>> added = new LinkedHashMap<String, Map<String,String>>();
+    /** position of the added entities in the new version (key -> index) */
+    public final Map<String,Integer> addedAt = new LinkedHashMap<String,Integer>();
+    /** changed fields of entities that exist in both versions */
+    public final List<Change> changes = new ArrayList<Change>();
+    /** the order of entities as runs, only if it can't be derived otherwise */
+    public List<Run> order;
+
+    /**
+     * Creates an empty patch
+     * @param version the version of the database this patch leads to
+     */
+    public Patch(String version) {
+        this.version = version;
+    }
+
+    /**
+     * @return true, if this patch does not change anything
+     */
+    public boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty() && changes.isEmpty() && order == null;
+    }
+
+    /**
+     * @return the number of operations in this patch
+     */
+    public int size() {
+        return removed.size() + added.size() + changes.size() + (order == null ? 0 : 1);
+    }
+
+    // -------------------- diff & apply --------------------
+
+    /**
+     * Calculates the patch that turns the old version into the new one
+     * @param version the name of the new version
+     * @param from the entities of the old version
+     * @param to the entities of the new version
+     * @return the patch from old to new
+     */
+    public static Patch diff(String version, Map<String, Map<String,String>> from,
+            Map<String, Map<String,String>> to) {
+        Patch p = new Patch(version);
+
+        // removed entities
+        for (String key : from.keySet()) {
+            if (!to.containsKey(key)) {
+                p.removed.add(key);
+            }
+        }
+
+        // added and changed entities
+        int index = 0;
+        for (Map.Entry<String, Map<String,String>> e : to.entrySet()) {
+            Map<String,String> old = from.get(e.getKey());
+            if (old == null) {
+                p.added.put(e.getKey(), e.getValue());
+                p.addedAt.put(e.getKey(), index);
+            } else {
+                Set<String> fields = new LinkedHashSet<String>(old.keySet());
+                fields.addAll(e.getValue().keySet());
+                for (String field : fields) {
+                    String before = old.get(field);
+                    String after = e.getValue().get(field);
+                    if (before == null ? after != null : !before.equals(after)) {
+                        p.changes.add(new Change(e.getKey(), field, before, after));
+                    }
+                }
+            }
+            index++;
+        }
+
+        // keep the full order only if the remaining entities were reordered
+        List<String> oldKeys = new ArrayList<String>(from.keySet());
+        List<String> newKeys = new ArrayList<String>(to.keySet());
+        if (!p.reorder(new ArrayList<String>(oldKeys)).equals(newKeys)) {
+            p.order = Run.encode(oldKeys, newKeys);
+        }
+        return p;
+    }
+
+    /**
+     * Applies this patch to the entities of the previous version
+     * @param entities the entities of the previous version
+     * @return the entities of the version of this patch
+     * @throws IllegalStateException if the patch does not fit the entities
+     */
+    public LinkedHashMap<String, Map<String,String>> apply(Map<String, Map<String,String>> entities) {
+        // changes are applied to copies, the source stays untouched
+        Map<String, Map<String,String>> changed = new LinkedHashMap<String, Map<String,String>>();
+        for (Change c : changes) {
+            Map<String,String> values = changed.get(c.key);
+            if (values == null) {
+                Map<String,String> source = entities.get(c.key);
+                if (source == null) {
+                    throw new IllegalStateException("Patch " + version + " changes unknown entity " + c.key);
+                }
+                values = new LinkedHashMap<String,String>(source);
+                changed.put(c.key, values);
+            }
+            String current = values.get(c.field);
+            if (c.oldValue == null ? current != null : !c.oldValue.equals(current)) {
+                throw new IllegalStateException("Patch " + version + " does not match "
+                        + c.key + "/" + c.field + ": expected " + c.oldValue + ", found " + current);
+            }
+            if (c.newValue == null) {
+                values.remove(c.field);
+            } else {
+                values.put(c.field, c.newValue);
+            }
+        }
+
+        LinkedHashMap<String, Map<String,String>> result = new LinkedHashMap<String, Map<String,String>>();
+        List<String> oldKeys = new ArrayList<String>(entities.keySet());
+        List<String> keys = order != null ? Run.decode(oldKeys, order) : reorder(oldKeys);
+        for (String key : keys) {
+            Map<String,String> values = added.get(key);
+            if (values == null) {
+                values = changed.get(key);
+            }
+            if (values == null) {
+                values = entities.get(key);
+            }
+            if (values == null) {
+                throw new IllegalStateException("Patch " + version + " references unknown entity " + key);
+            }
+            result.put(key, values);
+        }
+        return result;
+    }
+
+    /**
+     * Derives the order of the new version from the order of the old one:
+     * removed entities are dropped, added ones inserted at their position.
+     * @param keys the keys of the old version, in order (will be modified)
+     * @return the keys of the new version, in order
+     */
+    protected List<String> reorder(List<String> keys) {
+        keys.removeAll(new HashSet<String>(removed));
+        TreeMap<Integer,String> inserts = new TreeMap<Integer,String>();
+        for (Map.Entry<String,Integer> e : addedAt.entrySet()) {
+            inserts.put(e.getValue(), e.getKey());
+        }
+        for (Map.Entry<Integer,String> e : inserts.entrySet()) {
+            keys.add(Math.min(e.getKey(), keys.size()), e.getValue());
+        }
+        return keys;
+    }
+
+    // -------------------- text format --------------------
+
+    /**
+     * Writes this patch in text format
+     * @param out the writer to write into
+     */
+    public void write(PrintWriter out) {
+        out.print('@');
+        out.print(escape(version));
+        out.print('\n');
+        for (String key : removed) {
+            line(out, "-", key);
+        }
+        for (Map.Entry<String, Map<String,String>> e : added.entrySet()) {
+            List<String> cols = new ArrayList<String>();
+            cols.add("+");
+            cols.add(e.getKey());
+            cols.add(String.valueOf(addedAt.get(e.getKey())));
+            for (Map.Entry<String,String> v : e.getValue().entrySet()) {
+                cols.add(v.getKey() + "=" + v.getValue());
+            }
+            line(out, cols.toArray(new String[cols.size()]));
+        }
+        for (Change c : changes) {
+            line(out, "~", c.key, c.field, c.oldValue, c.newValue);
+        }
+        if (order != null) {
+            List<String> cols = new ArrayList<String>(order.size() * 2 + 1);
+            cols.add("=");
+            for (Run r : order) {
+                cols.add(r.first);
+                cols.add(String.valueOf(r.length));
+            }
+            line(out, cols.toArray(new String[cols.size()]));
+        }
+    }
+
+    /**
+     * Reads all patches from a text source
+     * @param in the reader to read from
+     * @return all patches, in the order they were written
+     * @throws IOException if the source can't be read or is malformed
+     */
+    public static List<Patch> readAll(BufferedReader in) throws IOException {
+        List<Patch> patches = new ArrayList<Patch>();
+        Patch p = null;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.length() == 0) {
+                continue;
+            }
+            if (line.charAt(0) == '@') {
+                p = new Patch(unescape(line.substring(1)));
+                patches.add(p);
+                continue;
+            }
+            if (p == null) {
+                throw new IOException("Patch operation without version header: " + line);
+            }
+            String[] cols = line.split("\t", -1);
+            for (int i = 1; i < cols.length; i++) {
+                cols[i] = unescape(cols[i]);
+            }
+            char op = cols[0].length() == 1 ? cols[0].charAt(0) : '?';
+            if (op == '-' && cols.length == 2) {
+                p.removed.add(cols[1]);
+            } else if (op == '+' && cols.length >= 3) {
+                Map<String,String> values = new LinkedHashMap<String,String>();
+                for (int i = 3; i < cols.length; i++) {
+                    int sep = cols[i].indexOf('=');
+                    values.put(cols[i].substring(0, sep), cols[i].substring(sep + 1));
+                }
+                p.added.put(cols[1], values);
+                p.addedAt.put(cols[1], Integer.valueOf(cols[2]));
+            } else if (op == '~' && cols.length == 5) {
+                p.changes.add(new Change(cols[1], cols[2], cols[3], cols[4]));
+            } else if (op == '=' && cols.length % 2 == 1) {
+                p.order = new ArrayList<Run>();
+                for (int i = 1; i < cols.length; i += 2) {
+                    p.order.add(new Run(cols[i], Integer.parseInt(cols[i + 1])));
+                }
+            } else {
+                throw new IOException("Malformed patch operation: " + line);
+            }
+        }
+        return patches;
+    }
+
+    /**
+     * Writes a single line of escaped columns
+     * @param out the writer to write into
+     * @param cols the columns (the first one is not escaped)
+     */
+    protected static void line(PrintWriter out, String... cols) {
+        out.print(cols[0]);
+        for (int i = 1; i < cols.length; i++) {
+            out.print('\t');
+            out.print(escape(cols[i]));
+        }
+        out.print('\n');
+    }
+
+    /**
+     * Escapes tabs, line breaks and backslashes; null becomes \N
+     * @param s the string to escape
+     * @return the escaped string
+     */
+    protected static String escape(String s) {
+        if (s == null) {
+            return "\\N";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reverts escape(s)
+     * @param s the escaped string
+     * @return the original string (or null)
+     */
+    protected static String unescape(String s) {
+        if ("\\N".equals(s)) {
+            return null;
+        }
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Patch " + version + ": " + removed.size() + " removed, " + added.size()
+                + " added, " + changes.size() + " changes";
+    }
+
+    /**
+     * A single changed field
+     */
+    public static class Change {
+
+        /** the key of the entity */
+        public final String key;
+        /** the name of the field */
+        public final String field;
+        /** the value before the change (null if the field was not set) */
+        public final String oldValue;
+        /** the value after the change (null if the field was removed) */
+        public final String newValue;
+
+        public Change(String key, String field, String oldValue, String newValue) {
+            this.key = key;
+            this.field = field;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+    }
+
+    /**
+     * A run of entities, that are adjacent in both the old and the new version
+     */
+    public static class Run {
+
+        /** the key of the first entity of the run */
+        public final String first;
+        /** the number of entities in this run */
+        public final int length;
+
+        public Run(String first, int length) {
+            this.first = first;
+            this.length = length;
+        }
+
+        /**
+         * Describes the new order of keys as runs of the old order
+         * @param oldKeys the keys of the old version, in order
+         * @param newKeys the keys of the new version, in order
+         * @return the runs that make up the new order
+         */
+        public static List<Run> encode(List<String> oldKeys, List<String> newKeys) {
+            Map<String,Integer> oldIndex = indexOf(oldKeys);
+            List<Run> runs = new ArrayList<Run>();
+            int i = 0;
+            while (i < newKeys.size()) {
+                String first = newKeys.get(i);
+                Integer pos = oldIndex.get(first);
+                int length = 1;
+                if (pos != null) {
+                    while (i + length < newKeys.size() && pos + length < oldKeys.size()
+                            && newKeys.get(i + length).equals(oldKeys.get(pos + length))) {
+                        length++;
+                    }
+                }
+                runs.add(new Run(first, length));
+                i += length;
+            }
+            return runs;
+        }
+
+        /**
+         * Restores the new order of keys from the runs
+         * @param oldKeys the keys of the old version, in order
+         * @param runs the runs that make up the new order
+         * @return the keys of the new version, in order
+         */
+        public static List<String> decode(List<String> oldKeys, List<Run> runs) {
+            Map<String,Integer> oldIndex = indexOf(oldKeys);
+            List<String> keys = new ArrayList<String>();
+            for (Run r : runs) {
+                Integer pos = oldIndex.get(r.first);
+                if (pos == null) {
+                    keys.add(r.first);
+                } else {
+                    keys.addAll(oldKeys.subList(pos, pos + r.length));
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * @param keys a list of keys
+         * @return key -> position in the list
+         */
+        protected static Map<String,Integer> indexOf(List<String> keys) {
+            Map<String,Integer> index = new HashMap<String,Integer>(keys.size() * 2);
+            for (int i = 0; i < keys.size(); i++) {
+                index.put(keys.get(i), i);
+            }
+            return index;
+        }
+    }
+
+}
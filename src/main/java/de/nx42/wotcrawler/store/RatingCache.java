@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.DerivedMetrics;
+import de.nx42.wotcrawler.ext.Field;
+import de.nx42.wotcrawler.ext.FieldDef;
+import de.nx42.wotcrawler.ext.Loadout;
+import de.nx42.wotcrawler.ext.ModuleMap;
+import de.nx42.wotcrawler.ext.NormalizationContext;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.ext.PeerRanks;
+import de.nx42.wotcrawler.ext.RatingKernel;
+import de.nx42.wotcrawler.ext.RatingProfile;
+import de.nx42.wotcrawler.ext.RatingWeights;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.ext.TankRating;
+import de.nx42.wotcrawler.util.DecimalFormatter;
+import de.nx42.wotcrawler.xml.Transformer;
+
+/**
+ * A cache on disk for the rows of the rating tables, so the ratings are
+ * only calculated again, if anything has changed.
+ *
+ * Each entry is stored in its own file, named after the key of the entry:
+ * the SHA-256 hash of everything the ratings depend on, i.e. the contents of
+ * the database (see EntityCodec), the weights of the profile, the
+ * normalization mode, the fields of the table and the version of the code
+ * (a hash of the bytecode of the classes the rows are built with, so any
+ * change of the code invalidates the cache without further ado).
+ * When any of these changes, the key changes and the old entry is simply
+ * not found anymore (the oldest entries are deleted, when there are more
+ * than MAX_ENTRIES). The name of the profile does not matter.
+ *
+ * File layout: long magic, int crc32 of the payload, int payload length,
+ * payload: int number of tables, for each table: int number of rows, each
+ * row as int length + UTF-8 bytes. Files are read through a memory mapped
+ * buffer and written to a temporary file first, which is then renamed, so
+ * readers never see a partial entry. Damaged entries count as misses.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class RatingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RatingCache.class);
+
+    /** first bytes of every cache file ("WOTRTC01") */
+    protected static final long MAGIC = 0x574f545254433031L;
+    /** size of the header: magic, crc32, payload length */
+    protected static final int HEADER = 16;
+    /** the classes the rows of the rating tables are built with (their
+     * nested classes and the constants of Field are included as well) */
+    protected static final Class<?>[] ratingClasses = {
+        RatingCache.class, EntityCodec.class, Transformer.class, Field.class,
+        FieldDef.class, TankRating.class, NormalizationContext.class,
+        PeerRanks.class, RatingKernel.class, RatingWeights.class,
+        RatingProfile.class, Loadout.class, ModuleMap.class,
+        DerivedMetrics.class, DecimalFormatter.class
+    };
+    /** the version of the rating code: SHA-256 of the bytecode of the
+     * ratingClasses, as hex string */
+    public static final String CODE_VERSION = codeVersion();
+    /** the maximum number of entries that are kept */
+    public static final int MAX_ENTRIES = 16;
+    /** file extension of the entries */
+    protected static final String SUFFIX = ".cache";
+
+    /** the folder of the cache */
+    protected final File folder;
+
+    /**
+     * Use RatingCache.open(folder)
+     * @param folder the folder of the cache
+     */
+    protected RatingCache(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Opens the cache in the specified folder (it is created, if it does not
+     * exist yet)
+     * @param folder the folder of the cache
+     * @return the cache, or null if the folder can't be created
+     */
+    public static RatingCache open(File folder) {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            log.error("Could not create the rating cache in {}", folder);
+            return null;
+        }
+        return new RatingCache(folder);
+    }
+
+    // -------------------- keys --------------------
+
+    /**
+     * Calculates the key of the rating tables of a database
+     * @param db the database
+     * @param profile the weights of the ratings
+     * @param mode the normalization mode
+     * @param fields the fields of the tables
+     * @return the key (SHA-256 as hex string)
+     */
+    public static String key(TanksDB db, RatingProfile profile, Mode mode, Field[] fields) {
+        MessageDigest md = sha256();
+        update(md, "code " + CODE_VERSION);
+        update(md, "mode " + mode);
+        for (Field f : fields) {
+            update(md, f.name());
+        }
+        for (TankType type : TankType.values()) {
+            RatingWeights w = profile.get(type);
+            update(md, type.name());
+            for (Category c : Category.values()) {
+                update(md, w.get(c, false).toString());
+                update(md, w.get(c, true).toString());
+            }
+            update(md, w.getOverall().toString());
+        }
+        for (Map.Entry<String, Map<String,String>> e : EntityCodec.flatten(db).entrySet()) {
+            update(md, e.getKey());
+            for (Map.Entry<String,String> value : e.getValue().entrySet()) {
+                update(md, value.getKey());
+                update(md, value.getValue());
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    // -------------------- access --------------------
+
+    /**
+     * Reads an entry of the cache
+     * @param key the key of the entry (see key())
+     * @return the rows of each table, or null if there is no valid entry
+     * for this key
+     */
+    public String[][] get(String key) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            MappedByteBuffer buf;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            if (buf.limit() < HEADER || buf.getLong(0) != MAGIC) {
+                log.warn("Not a rating cache file: {}", file);
+                return null;
+            }
+            int crc = buf.getInt(8);
+            int length = buf.getInt(12);
+            if (length != buf.limit() - HEADER) {
+                log.warn("Incomplete rating cache file: {}", file);
+                return null;
+            }
+            byte[] payload = new byte[length];
+            buf.position(HEADER);
+            buf.get(payload);
+            CRC32 check = new CRC32();
+            check.update(payload);
+            if ((int) check.getValue() != crc) {
+                log.warn("Damaged rating cache file: {}", file);
+                return null;
+            }
+
+            buf.position(HEADER);
+            String[][] tables = new String[buf.getInt()][];
+            for (int i = 0; i < tables.length; i++) {
+                tables[i] = new String[buf.getInt()];
+                for (int row = 0; row < tables[i].length; row++) {
+                    byte[] bytes = new byte[buf.getInt()];
+                    buf.get(bytes);
+                    tables[i][row] = new String(bytes, "UTF-8");
+                }
+            }
+            return tables;
+        } catch (BufferUnderflowException ex) {
+            log.warn("Damaged rating cache file: {}", file);
+            return null;
+        } catch (IOException ex) {
+            log.warn("Could not read rating cache file " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry in the cache (replaces an existing entry with the same
+     * key) and deletes the oldest entries, if there are too many
+     * @param key the key of the entry (see key())
+     * @param tables the rows of each table
+     * @return true, if the entry was stored
+     */
+    public boolean put(String key, String[][] tables) {
+        File file = file(key);
+        File tmp = new File(folder, key + ".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeInt(tables.length);
+            for (String[] table : tables) {
+                payload.writeInt(table.length);
+                for (String row : table) {
+                    byte[] utf = row.getBytes("UTF-8");
+                    payload.writeInt(utf.length);
+                    payload.write(utf);
+                }
+            }
+            payload.flush();
+            byte[] data = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeLong(MAGIC);
+                out.writeInt((int) crc.getValue());
+                out.writeInt(data.length);
+                out.write(data);
+                out.flush();
+                fos.getChannel().force(true);
+            } finally {
+                fos.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // some platforms don't replace existing files on rename
+                if (!file.delete() || !tmp.renameTo(file)) {
+                    throw new IOException("Could not replace " + file);
+                }
+            }
+        } catch (IOException ex) {
+            log.error("Could not write rating cache file " + file, ex);
+            tmp.delete();
+            return false;
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Deletes the oldest entries, if there are more than MAX_ENTRIES
+     */
+    protected void evict() {
+        File[] entries = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(SUFFIX);
+            }
+        });
+        if (entries == null || entries.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = b.lastModified() - a.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = MAX_ENTRIES; i < entries.length; i++) {
+            if (!entries[i].delete()) {
+                log.warn("Could not delete rating cache file {}", entries[i]);
+            }
+        }
+    }
+
+    // -------------------- helpers --------------------
+
+    /**
+     * @param key the key of an entry
+     * @return the file of this entry
+     */
+    protected File file(String key) {
+        return new File(folder, key + SUFFIX);
+    }
+
+    /**
+     * Calculates the version of the rating code from the bytecode of the
+     * ratingClasses. If the bytecode can't be read, the version is unique
+     * for this run, so nothing that was cached by another build is used.
+     * @return the version of the rating code
+     */
+    protected static String codeVersion() {
+        Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+        for (Class<?> c : ratingClasses) {
+            addNested(c, classes);
+        }
+        for (Field f : Field.values()) {
+            classes.add(f.getClass());
+        }
+        MessageDigest md = sha256();
+        for (Class<?> c : classes) {
+            update(md, c.getName());
+            String resource = "/" + c.getName().replace('.', '/') + ".class";
+            InputStream in = c.getResourceAsStream(resource);
+            if (in == null) {
+                log.warn("Bytecode of {} not found, the rating cache is only valid for this run", c.getName());
+                return "run " + System.currentTimeMillis() + " " + System.nanoTime();
+            }
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    md.update(buf, 0, n);
+                }
+            } catch (IOException ex) {
+                log.warn("Could not read the bytecode of " + c.getName()
+                        + ", the rating cache is only valid for this run", ex);
+                return "run " + System.currentTimeMillis() + " " + System.nanoTime();
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    log.warn("Could not close stream", ex);
+                }
+            }
+        }
+        return toHex(md.digest());
+    }
+    
+    /**
+     * Adds a class and all of its nested classes to the set
+     * @param c the class
+     * @param classes the set of classes
+     */
+    private static void addNested(Class<?> c, Set<Class<?>> classes) {
+        if (classes.add(c)) {
+            for (Class<?> nested : c.getDeclaredClasses()) {
+                addNested(nested, classes);
+            }
+        }
+    }
+
+    /**
+     * @return a new SHA-256 digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Adds a string to the digest, prefixed by its length, so the borders
+     * between strings are part of the hash (null is distinct from "")
+     */
+    private static void update(MessageDigest md, String s) {
+        if (s == null) {
+            md.update(new byte[] { -1, -1, -1, -1 });
+            return;
+        }
+        try {
+            byte[] bytes = s.getBytes("UTF-8");
+            int n = bytes.length;
+            md.update(new byte[] { (byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n });
+            md.update(bytes);
+        } catch (UnsupportedEncodingException ex) {
+            // every java platform is required to support UTF-8
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param bytes any bytes
+     * @return the bytes as lower case hex string
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.util.Compression;
+import de.nx42.wotcrawler.xml.Serializer;
+
+/**
+ * Stores the history of the tank database in a folder. Instead of keeping
+ * every version in full, only the first version (base) and the newest version
+ * (latest) are stored as complete xml files. All versions in between are
+ * described by patches, that contain only the fields that have changed
+ * (see Patch). So the whole history costs little more than two databases.
+ *
+ * The latest version is read directly, any other version is reconstructed by
+ * applying the patches to the base in memory, which is much cheaper than
+ * parsing another xml file.
+ *
+ * Files in the history folder:
+ * <ul>
+ * <li>base.xml.gz: the first version</li>
+ * <li>latest.xml.gz: the newest version</li>
+ * <li>patches.gz: one patch per version, in order (the first one is empty)</li>
+ * </ul>
+ *
+ * Adding a version changes latest.xml.gz and the patches, which can't be
+ * done atomically. So the new version (and the current size of the patches)
+ * is announced in a file PENDING first, the previous latest version is kept
+ * as old-latest.xml.gz until the patch has been appended. If anything goes
+ * wrong in between (even a crash), the next access finishes or rolls back
+ * the change (see recover()), so the latest version always matches the
+ * last patch.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SnapshotHistory {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotHistory.class);
+
+    /** file name of the first version */
+    public static final String BASE = "base.xml.gz";
+    /** file name of the newest version */
+    public static final String LATEST = "latest.xml.gz";
+    /** file name of the patches */
+    public static final String PATCHES = "patches.gz";
+    /** file name of the version that is currently being added */
+    public static final String PENDING = "PENDING";
+    /** file name of the previous latest version, while a version is added */
+    protected static final String OLD_LATEST = "old-" + LATEST;
+    /** file name of the new latest version, while it is written */
+    protected static final String NEW_LATEST = "new-" + LATEST;
+
+    /** the folder the history is stored in */
+    protected final File folder;
+
+    /**
+     * Opens the history in the specified folder (the folder is created,
+     * when the first version is added)
+     * @param folder the folder the history is stored in
+     */
+    public SnapshotHistory(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @return all versions in this history, oldest first (null, if the
+     * history could not be read)
+     */
+    public List<String> getVersions() {
+        if (!recover()) {
+            return null;
+        }
+        List<Patch> patches = readPatches();
+        if (patches == null) {
+            return null;
+        }
+        List<String> versions = new ArrayList<String>(patches.size());
+        for (Patch p : patches) {
+            versions.add(p.version);
+        }
+        return versions;
+    }
+
+    /**
+     * Adds a new version of the database to the history. The version becomes
+     * the latest one.
+     * @param version the name of the new version (must be unique)
+     * @param db the database
+     * @return true, if the version was stored successfully
+     */
+    public boolean add(String version, TanksDB db) {
+        if (!recover()) {
+            return false;
+        }
+        List<Patch> patches = readPatches();
+        if (patches == null) {
+            return false;
+        }
+        for (Patch p : patches) {
+            if (p.version.equals(version)) {
+                log.error("Version {} is already part of the history", version);
+                return false;
+            }
+        }
+
+        Patch patch;
+        if (patches.isEmpty()) {
+            // the first version becomes the base
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                log.error("Could not create history folder {}", folder);
+                return false;
+            }
+            patch = new Patch(version);
+            if (!write(db, new File(folder, BASE))) {
+                return false;
+            }
+        } else {
+            TanksDB latest = getLatest();
+            if (latest == null) {
+                return false;
+            }
+            patch = Patch.diff(version, EntityCodec.flatten(latest), EntityCodec.flatten(db));
+        }
+        log.info("Adding version {} to history: {} operations", version, patch.size());
+
+        // write the new latest version completely, before anything is replaced
+        File tmp = new File(folder, NEW_LATEST);
+        if (!write(db, tmp)) {
+            tmp.delete();
+            return false;
+        }
+        
+        // swap in the new latest version, then record the patch
+        File latest = new File(folder, LATEST);
+        File old = new File(folder, OLD_LATEST);
+        if (!writePending(version, new File(folder, PATCHES).length())) {
+            tmp.delete();
+            return false;
+        }
+        if (latest.exists() && !latest.renameTo(old)) {
+            log.error("Could not replace {}", latest);
+            recover();
+            return false;
+        }
+        if (!tmp.renameTo(latest) || !appendPatch(patch)) {
+            log.error("Could not add version {} to history {}", version, folder);
+            recover();
+            return false;
+        }
+        return recover();
+    }
+    
+    /**
+     * Finishes or rolls back the addition of a version, that was interrupted
+     * (see add()): if the patch of the pending version has been appended
+     * completely, the previous latest version is deleted, otherwise the
+     * patches are cut back to their previous size and the previous latest
+     * version is restored.
+     * @return true, if the history is consistent (again)
+     */
+    protected boolean recover() {
+        File pending = new File(folder, PENDING);
+        if (!pending.isFile()) {
+            return true;
+        }
+        String[] entry = readPending();
+        if (entry == null) {
+            log.error("Could not recover history {}", folder);
+            return false;
+        }
+        String version = entry[0];
+        long length;
+        try {
+            length = Long.parseLong(entry[1]);
+        } catch (NumberFormatException ex) {
+            log.error("Invalid " + PENDING + " in history " + folder, ex);
+            return false;
+        }
+        
+        // was the patch appended completely?
+        File file = new File(folder, PATCHES);
+        boolean added = false;
+        if (file.length() > length) {
+            List<Patch> patches = readPatches();
+            added = patches != null && !patches.isEmpty()
+                    && patches.get(patches.size() - 1).version.equals(version);
+            if (!added && !truncate(file, length)) {
+                log.error("Could not restore {} in history {}", PATCHES, folder);
+                return false;
+            }
+        }
+        
+        File latest = new File(folder, LATEST);
+        File old = new File(folder, OLD_LATEST);
+        if (added) {
+            old.delete();
+        } else {
+            if (old.exists()) {
+                // the previous latest version was already moved away
+                if (latest.exists() && !latest.delete() || !old.renameTo(latest)) {
+                    log.error("Could not restore {} in history {}", LATEST, folder);
+                    return false;
+                }
+            } else if (length == 0) {
+                // the first version was not recorded
+                latest.delete();
+            }
+            log.warn("Rolled back incomplete version {} of history {}", version, folder);
+        }
+        new File(folder, NEW_LATEST).delete();
+        if (!pending.delete()) {
+            log.error("Could not delete {} in history {}", PENDING, folder);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the newest version of the database (null, if the history is
+     * empty or could not be read)
+     */
+    public TanksDB getLatest() {
+        if (!recover()) {
+            return null;
+        }
+        File latest = new File(folder, LATEST);
+        if (!latest.isFile()) {
+            log.error("History {} contains no database", folder);
+            return null;
+        }
+        return Serializer.deserializeDB(latest);
+    }
+
+    /**
+     * Reconstructs the specified version of the database
+     * @param version the name of the version
+     * @return the database in this version (null, if the version does not
+     * exist or could not be reconstructed)
+     */
+    public TanksDB get(String version) {
+        if (!recover()) {
+            return null;
+        }
+        List<Patch> patches = readPatches();
+        if (patches == null) {
+            return null;
+        }
+        int index = -1;
+        for (int i = 0; i < patches.size(); i++) {
+            if (patches.get(i).version.equals(version)) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            log.error("Version {} is not part of the history", version);
+            return null;
+        } else if (index == patches.size() - 1) {
+            return getLatest();
+        }
+
+        TanksDB base = Serializer.deserializeDB(new File(folder, BASE));
+        if (base == null) {
+            return null;
+        }
+        try {
+            Map<String, Map<String,String>> entities = EntityCodec.flatten(base);
+            for (int i = 1; i <= index; i++) {
+                entities = patches.get(i).apply(entities);
+            }
+            return EntityCodec.rebuild(entities);
+        } catch (IllegalStateException ex) {
+            log.error("History " + folder + " is corrupt", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reads all patches of this history
+     * @return all patches, oldest first (empty list for a new history, null
+     * if the patches could not be read)
+     */
+    public List<Patch> readPatches() {
+        File file = new File(folder, PATCHES);
+        if (!file.exists()) {
+            return new ArrayList<Patch>();
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(Compression.openInputStream(file), "UTF-8"));
+            return Patch.readAll(in);
+        } catch (IOException ex) {
+            log.error("Error reading patches of history " + folder, ex);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    // -------------------- helpers --------------------
+
+    /**
+     * Appends a patch to the patch file
+     * @param patch the patch to append
+     * @return true, if the patch was written successfully
+     */
+    protected boolean appendPatch(Patch patch) {
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new OutputStreamWriter(Compression.openOutputStream(
+                    new File(folder, PATCHES), true), "UTF-8"));
+            patch.write(out);
+            out.close();
+            if (out.checkError()) {
+                log.error("Error writing patch {}", patch.version);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            log.error("Error writing patch " + patch.version, ex);
+            return false;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a database into a file
+     * @param db the database to write
+     * @param file the file to write into
+     * @return true, if the file was written
+     */
+    protected static boolean write(TanksDB db, File file) {
+        file.delete();
+        return Serializer.serializeDB(db, file) && file.isFile();
+    }
+    
+    /**
+     * Announces the version that is added next
+     * @param version the name of the version
+     * @param length the current size of the patches in bytes
+     * @return true, if the file PENDING was written
+     */
+    protected boolean writePending(String version, long length) {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(new File(folder, PENDING));
+            fos.write((length + "\n" + version).getBytes("UTF-8"));
+            fos.getChannel().force(true);
+            fos.close();
+            fos = null;
+            return true;
+        } catch (IOException ex) {
+            log.error("Error writing " + PENDING + " of history " + folder, ex);
+            return false;
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException ex) {
+                    log.warn("Could not close stream", ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Cuts a file back to the specified size
+     * @param file the file to truncate
+     * @param length the new size in bytes
+     * @return true, if the file has the specified size now
+     */
+    protected static boolean truncate(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            raf.getChannel().force(true);
+            return true;
+        } catch (IOException ex) {
+            log.error("Error truncating " + file, ex);
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                    log.warn("Could not close file", ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the version and the previous size of the patches from the
+     * file PENDING, or null if it can't be read
+     */
+    protected String[] readPending() {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(new File(folder, PENDING)), "UTF-8"));
+            String length = in.readLine();
+            String version = in.readLine();
+            if (length == null || version == null) {
+                log.error("Incomplete {} in history {}", PENDING, folder);
+                return null;
+            }
+            return new String[] { version, length };
+        } catch (IOException ex) {
+            log.error("Error reading " + PENDING + " of history " + folder, ex);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Closes the reader and logs errors
+     * @param in the reader to close (may be null)
+     */
+    protected static void close(BufferedReader in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                log.warn("Could not close stream", ex);
+            }
+        }
+    }
+
+}
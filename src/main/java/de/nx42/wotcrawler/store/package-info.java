@@ -0,0 +1,8 @@
+/**
+ * This package contains stores that keep several versions of the tank
+ * database, without storing each of them in full.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+
+package de.nx42.wotcrawler.store;
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transparent compression of files, based on their file extension.
+ * Files ending with ".gz" are read and written in gzip format, files ending
+ * with ".deflate" in zlib format. All other files are not compressed at all.
+ *
+ * Compressed output is produced block-parallel on all available cores,
+ * compressed input is inflated ahead of the consumer in a background thread.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Compression {
+
+    /** size of the blocks that are compressed independently (1 MiB) */
+    public static final int blockSize = 1 << 20;
+    /** size of the chunks the background thread inflates ahead (64 KiB) */
+    public static final int readAheadChunk = 1 << 16;
+    /** number of chunks the background thread may inflate ahead */
+    public static final int readAheadDepth = 16;
+
+    /**
+     * Opens a file for reading. Compressed files are decompressed on the fly.
+     * @param file the file to read
+     * @return a buffered stream of the (decompressed) file contents
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        Format format = Format.of(file);
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (format == Format.NONE) {
+            return in;
+        } else {
+            return new ReadAheadInputStream(new MemberInflaterInputStream(in, format),
+                    readAheadChunk, readAheadDepth);
+        }
+    }
+
+    /**
+     * Opens a file for writing. If the file name requests compression, the
+     * contents are compressed on the fly.
+     * @param file the file to write
+     * @return a buffered stream, that writes into the specified file
+     * @throws IOException if the file cannot be created
+     */
+    public static OutputStream openOutputStream(File file) throws IOException {
+        return openOutputStream(file, false);
+    }
+
+    /**
+     * Opens a file for writing. If the file name requests compression, the
+     * contents are compressed on the fly.
+     * Appending to a compressed file is possible, as the compressed blocks are
+     * independent of each other: the new data just adds more blocks.
+     * @param file the file to write
+     * @param append true to append to the end of the file, false to overwrite it
+     * @return a buffered stream, that writes into the specified file
+     * @throws IOException if the file cannot be opened
+     */
+    public static OutputStream openOutputStream(File file, boolean append) throws IOException {
+        Format format = Format.of(file);
+        OutputStream out = new FileOutputStream(file, append);
+        if (format == Format.NONE) {
+            return new BufferedOutputStream(out);
+        } else {
+            return new ParallelDeflaterOutputStream(out, format, blockSize,
+                    Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * The supported compression formats
+     */
+    public enum Format {
+        /** uncompressed */
+        NONE,
+        /** gzip (RFC 1952), one member per block */
+        GZIP,
+        /** zlib (RFC 1950), one stream per block */
+        DEFLATE;
+
+        /**
+         * Decides the compression format by the extension of the file name
+         * @param file the file to check
+         * @return the format that belongs to this file
+         */
+        public static Format of(File file) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".gz")) {
+                return GZIP;
+            } else if (name.endsWith(".deflate")) {
+                return DEFLATE;
+            } else {
+                return NONE;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * A thread safe wrapper around DecimalFormat, which is not safe to be used
+ * by several threads at once. Each thread formats with its own instance.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class DecimalFormatter {
+    
+    /** the pattern of the DecimalFormat */
+    protected final String pattern;
+    /** the formatter of each thread */
+    private final ThreadLocal<DecimalFormat> format = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat(pattern, new DecimalFormatSymbols(Locale.US));
+        }
+    };
+    
+    /**
+     * Creates a new formatter with US symbols
+     * @param pattern the pattern of the DecimalFormat, e.g. "0.0"
+     */
+    public DecimalFormatter(String pattern) {
+        this.pattern = pattern;
+    }
+    
+    /**
+     * @param number the number to format
+     * @return the formatted number
+     */
+    public String format(double number) {
+        return format.get().format(number);
+    }
+    
+    /**
+     * @param number the number to format
+     * @return the formatted number
+     */
+    public String format(long number) {
+        return format.get().format(number);
+    }
+    
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import de.nx42.wotcrawler.util.Compression.Format;
+
+/**
+ * Decompresses a stream that consists of any number of concatenated gzip
+ * members or zlib streams, as they are written by the
+ * ParallelDeflaterOutputStream (or by other tools, in case of gzip).
+ *
+ * The gzip header is parsed completely (extra field, file name, comment and
+ * header crc are skipped) and the crc and size of every member are verified.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class MemberInflaterInputStream extends InputStream {
+
+    /** the compressed source */
+    protected final InputStream in;
+    /** the format of the members */
+    protected final Format format;
+    /** inflates the current member */
+    protected final Inflater inf;
+    /** checksum of the current gzip member */
+    protected final CRC32 crc = new CRC32();
+
+    /** buffer for compressed input */
+    protected final byte[] buf = new byte[64 * 1024];
+    /** read position in the input buffer */
+    protected int pos = 0;
+    /** fill level of the input buffer */
+    protected int len = 0;
+
+    /** true, if the next member needs to be started */
+    protected boolean needHeader = true;
+    /** true, if the end of the last member was reached */
+    protected boolean eof = false;
+    /** single byte buffer for read() */
+    private final byte[] single = new byte[1];
+
+    /**
+     * Creates a new decompressing stream
+     * @param in the compressed source
+     * @param format the format of the compressed members (gzip or zlib)
+     */
+    public MemberInflaterInputStream(InputStream in, Format format) {
+        if (format == Format.NONE) {
+            throw new IllegalArgumentException("Compression format required");
+        }
+        this.in = in;
+        this.format = format;
+        this.inf = new Inflater(format == Format.GZIP);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (!eof) {
+            if (needHeader) {
+                if (!startMember()) {
+                    eof = true;
+                    break;
+                }
+            }
+            try {
+                int n = inf.inflate(b, off, length);
+                pos = len - inf.getRemaining();
+                if (n > 0) {
+                    if (format == Format.GZIP) {
+                        crc.update(b, off, n);
+                    }
+                    return n;
+                }
+                if (inf.finished()) {
+                    finishMember();
+                } else if (inf.needsDictionary()) {
+                    throw new ZipException("Preset dictionaries are not supported");
+                } else if (inf.needsInput()) {
+                    if (!fill()) {
+                        throw new EOFException("Unexpected end of compressed stream");
+                    }
+                    inf.setInput(buf, pos, len - pos);
+                }
+            } catch (DataFormatException ex) {
+                throw new ZipException(ex.getMessage());
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inf.end();
+        in.close();
+    }
+
+    // -------------------- members --------------------
+
+    /**
+     * Starts the next member, if there is one.
+     * @return false, if the end of the stream was reached
+     */
+    protected boolean startMember() throws IOException {
+        if (pos == len && !fill()) {
+            return false;
+        }
+        inf.reset();
+        crc.reset();
+        if (format == Format.GZIP) {
+            readGzipHeader();
+        }
+        inf.setInput(buf, pos, len - pos);
+        needHeader = false;
+        return true;
+    }
+
+    /**
+     * Finishes the current member (verifies the gzip trailer)
+     */
+    protected void finishMember() throws IOException {
+        pos = len - inf.getRemaining();
+        if (format == Format.GZIP) {
+            long expectedCrc = readIntLE() & 0xffffffffL;
+            long expectedSize = readIntLE() & 0xffffffffL;
+            if (expectedCrc != crc.getValue()) {
+                throw new ZipException("Corrupt gzip member (crc mismatch)");
+            }
+            if (expectedSize != (inf.getBytesWritten() & 0xffffffffL)) {
+                throw new ZipException("Corrupt gzip member (size mismatch)");
+            }
+        }
+        needHeader = true;
+    }
+
+    /**
+     * Reads and checks the header of a gzip member (RFC 1952, 2.3)
+     */
+    protected void readGzipHeader() throws IOException {
+        if (readByte() != 0x1f || readByte() != 0x8b) {
+            throw new ZipException("Not in gzip format");
+        }
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = readByte();
+        skip(6);    // mtime, xfl, os
+        if ((flags & 4) != 0) {
+            // extra field
+            int xlen = readByte() | (readByte() << 8);
+            skip(xlen);
+        }
+        if ((flags & 8) != 0) {
+            // file name
+            while (readByte() != 0) { }
+        }
+        if ((flags & 16) != 0) {
+            // comment
+            while (readByte() != 0) { }
+        }
+        if ((flags & 2) != 0) {
+            // header crc
+            skip(2);
+        }
+    }
+
+    // -------------------- buffer --------------------
+
+    /**
+     * Refills the input buffer, if it was consumed completely
+     * @return false, if the end of the source was reached
+     */
+    protected boolean fill() throws IOException {
+        if (pos < len) {
+            return true;
+        }
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        len = n;
+        return true;
+    }
+
+    /**
+     * @return the next byte from the input buffer (0-255)
+     * @throws EOFException if the source ends unexpectedly
+     */
+    protected int readByte() throws IOException {
+        if (!fill()) {
+            throw new EOFException("Unexpected end of gzip stream");
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * @return a 32 bit integer, stored in little endian byte order
+     */
+    protected int readIntLE() throws IOException {
+        return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+    }
+
+    /**
+     * Skips the specified number of bytes of the input buffer
+     * @param n the number of bytes to skip
+     */
+    protected void skip(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readByte();
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.nx42.wotcrawler.util.Compression.Format;
+
+/**
+ * Compresses a stream block by block on several threads.
+ *
+ * Every block is compressed independently into a complete gzip member (or
+ * zlib stream), and the compressed blocks are written in their original
+ * order. Concatenated gzip members are a valid gzip file (RFC 1952, 2.2),
+ * so the result can be read by any gzip tool. Concatenated zlib streams are
+ * read by the MemberInflaterInputStream.
+ *
+ * The price for parallelism is a slightly worse compression ratio, as the
+ * dictionary is reset at every block boundary. With blocks of 1 MiB this
+ * is negligible.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+    /** gzip member header: magic, deflate, no flags, no mtime, no xfl, unknown os */
+    private static final byte[] gzipHeader = {
+        0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** the format of each compressed block */
+    protected final Format format;
+    /** compresses the blocks */
+    protected final ExecutorService pool;
+    /** maximum number of blocks that are compressed at the same time */
+    protected final int maxPending;
+    /** compressed blocks in the order they have to be written */
+    protected final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    /** the block that is currently filled */
+    protected byte[] block;
+    /** fill level of the current block */
+    protected int count = 0;
+    /** true, if at least one block has been submitted */
+    protected boolean written = false;
+    /** true, after close() */
+    protected boolean closed = false;
+
+    /**
+     * Creates a new block-parallel compressing stream
+     * @param out the stream to write the compressed data into
+     * @param format the compression format (gzip or zlib)
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads the number of threads that compress blocks
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, Format format, int blockSize, int threads) {
+        super(out);
+        if (format == Format.NONE) {
+            throw new IllegalArgumentException("Compression format required");
+        }
+        this.format = format;
+        this.block = new byte[blockSize];
+        this.maxPending = Math.max(1, threads) * 2;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "deflate");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            submitBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                submitBlock();
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes all completed blocks. The current (incomplete) block is not
+     * compressed yet, as this would hurt the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain(0);
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining data, waits for all blocks and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0 || !written) {
+                // an empty stream still needs one (empty) member
+                submitBlock();
+            }
+            drain(0);
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the current block over to the compression threads and starts
+     * a new one. Blocks, if too many blocks are waiting to be written.
+     */
+    protected void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, length);
+            }
+        }));
+        written = true;
+        block = new byte[block.length];
+        count = 0;
+        drain(maxPending);
+    }
+
+    /**
+     * Writes finished blocks in their original order, until only the
+     * specified number of blocks is pending
+     * @param keep the number of blocks that may remain in the queue
+     */
+    protected void drain(int keep) throws IOException {
+        while (pending.size() > keep) {
+            try {
+                out.write(pending.removeFirst().get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("Compression of a block failed", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compresses a single block into a self-contained gzip member or zlib stream
+     * @param data the uncompressed data
+     * @param length the number of valid bytes in data
+     * @return the compressed block
+     */
+    protected byte[] compress(byte[] data, int length) {
+        boolean gzip = (format == Format.GZIP);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 4 + 64);
+        Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        try {
+            if (gzip) {
+                bos.write(gzipHeader, 0, gzipHeader.length);
+            }
+            def.setInput(data, 0, length);
+            def.finish();
+            byte[] buf = new byte[64 * 1024];
+            while (!def.finished()) {
+                int n = def.deflate(buf);
+                bos.write(buf, 0, n);
+            }
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(data, 0, length);
+                writeIntLE(bos, (int) crc.getValue());
+                writeIntLE(bos, length);
+            }
+        } finally {
+            def.end();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes a 32 bit integer in little endian byte order (as required by gzip)
+     * @param bos the stream to write into
+     * @param value the value to write
+     */
+    private static void writeIntLE(ByteArrayOutputStream bos, int value) {
+        bos.write(value & 0xff);
+        bos.write((value >>> 8) & 0xff);
+        bos.write((value >>> 16) & 0xff);
+        bos.write((value >>> 24) & 0xff);
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream ahead in a background thread, so the consumer does
+ * not have to wait while the source is busy (e.g. inflating compressed data).
+ *
+ * The background thread fills a bounded queue of chunks, so at most
+ * chunkSize * depth bytes are buffered at any time. Errors of the source
+ * (including runtime exceptions and errors) are passed on to the consumer,
+ * as soon as it reaches the affected position.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** marks the end of the source */
+    private static final byte[] EOF = new byte[0];
+
+    /** the stream that is read ahead */
+    protected final InputStream source;
+    /** chunks that have been read ahead */
+    protected final BlockingQueue<byte[]> chunks;
+    /** the background thread */
+    protected final Thread reader;
+
+    /** the exception that terminated the background thread (if any) */
+    protected volatile Throwable error;
+    /** the chunk that is currently consumed */
+    protected byte[] current = new byte[0];
+    /** read position in the current chunk */
+    protected int pos = 0;
+    /** true, after the end of the source was consumed */
+    protected boolean eof = false;
+    /** single byte buffer for read() */
+    private final byte[] single = new byte[1];
+
+    /**
+     * Starts reading the source in a background thread
+     * @param source the stream to read ahead
+     * @param chunkSize the size of each chunk that is read ahead
+     * @param depth the maximum number of chunks that are read ahead
+     */
+    public ReadAheadInputStream(InputStream source, final int chunkSize, int depth) {
+        this.source = source;
+        this.chunks = new ArrayBlockingQueue<byte[]>(Math.max(1, depth));
+        this.reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead(chunkSize);
+            }
+        }, "read-ahead");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == current.length && !nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - pos;
+    }
+
+    /**
+     * Stops the background thread and closes the source
+     */
+    @Override
+    public void close() throws IOException {
+        eof = true;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+
+    /**
+     * Takes the next chunk from the queue (waits, if the background thread
+     * is not ready yet)
+     * @return false, if the end of the source was reached
+     */
+    protected boolean nextChunk() throws IOException {
+        while (!eof) {
+            byte[] chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            if (chunk == EOF) {
+                eof = true;
+                if (error != null) {
+                    rethrow(error);
+                }
+            } else if (chunk.length > 0) {
+                current = chunk;
+                pos = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Throws the error of the background thread in the consumer's thread
+     * @param t the error
+     */
+    protected static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IOException("Error while reading ahead", t);
+    }
+
+    /**
+     * Body of the background thread: reads the source chunk by chunk until
+     * its end is reached, an error occurs or the stream is closed. Unless
+     * the stream was closed, the end is always marked, so the consumer never
+     * waits forever.
+     * @param chunkSize the size of each chunk
+     */
+    protected void readAhead(int chunkSize) {
+        boolean closed = false;
+        try {
+            while (true) {
+                byte[] chunk = new byte[chunkSize];
+                int filled = 0;
+                while (filled < chunkSize) {
+                    int n = source.read(chunk, filled, chunkSize - filled);
+                    if (n < 0) {
+                        break;
+                    }
+                    filled += n;
+                }
+                if (filled > 0) {
+                    if (filled < chunkSize) {
+                        byte[] shrunk = new byte[filled];
+                        System.arraycopy(chunk, 0, shrunk, 0, filled);
+                        chunk = shrunk;
+                    }
+                    chunks.put(chunk);
+                }
+                if (filled < chunkSize) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // closed by the consumer
+            closed = true;
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            if (!closed) {
+                try {
+                    chunks.put(EOF);
+                } catch (InterruptedException ex) {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+
+}
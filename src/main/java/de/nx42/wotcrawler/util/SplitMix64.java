@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+/**
+ * A small, fast pseudo random number generator (SplitMix64, as used by
+ * java.util.SplittableRandom in newer JDKs). The state is a simple counter,
+ * which is scrambled for each output, so any position of the sequence can be
+ * reached in constant time. This makes it easy to split the work among
+ * several threads, while the results stay reproducible: each task gets the
+ * generator of its own index, no matter which thread executes it.
+ * 
+ * Instances are not thread safe, use one generator per thread or task.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SplitMix64 {
+    
+    /** the increment of the state (odd, the golden ratio as 64 bit fraction) */
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+    /** 2^-53, to convert 53 random bits into a double */
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+    
+    /** the current state */
+    private long state;
+    
+    /**
+     * Creates a new generator
+     * @param seed the seed (the same seed always gives the same sequence)
+     */
+    public SplitMix64(long seed) {
+        this.state = seed;
+    }
+    
+    /**
+     * @return the next 64 random bits
+     */
+    public long nextLong() {
+        state += GAMMA;
+        return mix64(state);
+    }
+    
+    /**
+     * @return the next random double, uniformly distributed in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+    
+    /**
+     * @param bound the upper bound (exclusive, must be positive)
+     * @return the next random int, uniformly distributed in [0, bound)
+     */
+    public int nextInt(int bound) {
+        return (int) ((nextLong() >>> 33) % bound);
+    }
+    
+    /**
+     * Creates an independent generator for the specified task, seeded with
+     * the output at this position of the sequence. This generator is not
+     * advanced, so split(i) always returns the same generator for the same
+     * index.
+     * @param index the index of the task
+     * @return a new generator for this task
+     */
+    public SplitMix64 split(long index) {
+        // the index-th output of this generator, scrambled once more, so
+        // the new sequence does not overlap with this one
+        return new SplitMix64(mix64(mix64(state + (index + 1) * GAMMA)));
+    }
+    
+    /**
+     * Scrambles the bits of the specified value (the finalizer of MurmurHash3,
+     * with the constants of SplitMix64)
+     * @param z the value
+     * @return the scrambled value
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+}
@@ -63,6 +63,7 @@ import de.nx42.wotcrawler.db.tank.Equipment;
 import de.nx42.wotcrawler.db.tank.Tank;
 import de.nx42.wotcrawler.db.tank.Tank.TankType;
 import de.nx42.wotcrawler.db.tank.TankRef;
+import de.nx42.wotcrawler.index.NameIndex;
 import de.nx42.wotcrawler.util.Conversion;
 import de.nx42.wotcrawler.util.Download;
 import de.nx42.wotcrawler.util.Tuple;
@@ -94,6 +95,9 @@ public class Crawler {
     /** a mapping from tank name (actually: wiki URL) to the internal tank objects
      * (used to create parent-child relations) */
     protected Map<String,Tank> tankMapping = new HashMap<String, Tank>();
+    /** fuzzy lookup of the tanks in the tankMapping, for names that do not
+     * match any wiki URL exactly (built on demand) */
+    protected NameIndex<Tank> tankNames;
     
     
     /**
@@ -322,6 +326,7 @@ public class Crawler {
                     
                     tanks.add(tank);
                     tankMapping.put(tank.wikiURL, tank);
+                    tankNames = null;
                 }
                 
             } catch (ParseException ex) {
@@ -531,10 +536,10 @@ public class Crawler {
         
         for (Tank tank : tanks) {
             for (String parentName : tank.parentNames) {
-                tank.addParent(tankMapping.get(parentName));
+                tank.addParent(resolveTank(parentName));
             }
             for (String childName : tank.childrenNames) {
-                tank.addChild(tankMapping.get(childName));
+                tank.addChild(resolveTank(childName));
             }
         }
         
@@ -984,7 +989,32 @@ public class Crawler {
      * @return the corresponding tank reference
      */
     protected TankRef getTankRefByUrl(String wikiURL) {
-        return new TankRef(tankMapping.get(wikiURL));
+        return new TankRef(resolveTank(wikiURL));
+    }
+    
+    /**
+     * Returns the tank with the specified wiki url. If there is no exact
+     * match (the wiki is not always consistent in naming), a similar name or
+     * wiki url is only accepted, if it is unambiguous (see
+     * NameIndex.findUnambiguous). Otherwise the reference stays unresolved,
+     * so the Evaluator can report it, instead of linking the wrong tank.
+     * @param wikiURL the wiki url of the tank
+     * @return the corresponding tank, or null if there is no unambiguous match
+     */
+    protected Tank resolveTank(String wikiURL) {
+        Tank tank = tankMapping.get(wikiURL);
+        if (tank == null) {
+            if (tankNames == null) {
+                tankNames = NameIndex.build(tankMapping.values());
+            }
+            tank = tankNames.findUnambiguous(wikiURL);
+            if (tank == null) {
+                log.warn("No unambiguous tank found for reference \"{}\"", wikiURL);
+            } else {
+                log.warn("Reference \"{}\" resolved to tank {} (no exact match)", wikiURL, tank.wikiURL);
+            }
+        }
+        return tank;
     }
     
     
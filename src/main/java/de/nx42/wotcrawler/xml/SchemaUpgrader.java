@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.xml;
+
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Upgrades a database document of an older schema version to the current one
+ * while it is being read. This works on the StAX event stream, so no DOM
+ * is built and the upgraded document can be fed directly into JAXB.
+ *
+ * Two things are rewritten: The old namespace is replaced by the current one
+ * and elements that were renamed between the versions get their new name.
+ * Type changes (e.g. int to double) need no special treatment, as the old
+ * values are still valid lexical representations of the new types.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SchemaUpgrader extends StreamReaderDelegate {
+
+    /** the namespace of the source document */
+    protected final String oldNamespace;
+    /** the namespace of the current schema */
+    protected final String newNamespace;
+    /** all element renames from the source version to the current one */
+    protected final Map<String,String> renames;
+
+    /**
+     * Wraps the specified reader, so it delivers a document of the current
+     * schema version
+     * @param reader the reader of the original document
+     * @param from the schema version of the original document
+     */
+    public SchemaUpgrader(XMLStreamReader reader, SchemaVersion from) {
+        super(reader);
+        this.oldNamespace = from.namespace;
+        this.newNamespace = SchemaVersion.current().namespace;
+        this.renames = from.renamesToCurrent();
+    }
+
+    @Override
+    public String getLocalName() {
+        String local = super.getLocalName();
+        if (isElement()) {
+            String renamed = renames.get(local);
+            if (renamed != null) {
+                return renamed;
+            }
+        }
+        return local;
+    }
+
+    @Override
+    public QName getName() {
+        QName name = super.getName();
+        return new QName(upgrade(name.getNamespaceURI()), getLocalName(), name.getPrefix());
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return upgrade(super.getNamespaceURI());
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        return upgrade(super.getNamespaceURI(prefix));
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        return upgrade(super.getNamespaceURI(index));
+    }
+
+    /**
+     * @return true, if the reader currently points to a start or end tag
+     */
+    protected boolean isElement() {
+        int event = getEventType();
+        return event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT;
+    }
+
+    /**
+     * Replaces the old namespace with the current one
+     * @param namespace the namespace as it appears in the source document
+     * @return the namespace of the current schema, if the old one was given,
+     * else the unchanged namespace
+     */
+    protected String upgrade(String namespace) {
+        return oldNamespace.equals(namespace) ? newNamespace : namespace;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.xml;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All schema generations the tank database has been published in so far.
+ * Each version knows its namespace and the element renames that are
+ * necessary to lift a document of this version to the next one.
+ *
+ * The list is ordered from oldest to newest, the last entry always is the
+ * schema of the current TanksDB classes.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public enum SchemaVersion {
+
+    /** Schema 1.0: topSpeed, gunArcLow/High, elevationLow/High, turret viewrange */
+    V10("http://nx42.de/projects/wot/schema10",
+            "topSpeed", "speed",
+            "gunArcLow", "gunArcLeft",
+            "gunArcHigh", "gunArcRight",
+            "elevationLow", "gunElevationLow",
+            "elevationHigh", "gunElevationHigh",
+            "viewrange", "viewRange"),
+    /** Schema 1.1: no renames towards 1.2 (1.2 only adds the optional wikiURL) */
+    V11("http://nx42.de/projects/wot/schema11"),
+    /** Schema 1.2: no renames towards 1.2.1 (1.2.1 only turns the gun arc into doubles) */
+    V12("http://nx42.de/projects/wot/schema12"),
+    /** Schema 1.2.1: the current schema */
+    V121("http://nx42.de/projects/wot/schema121");
+
+    /** the target namespace of this schema version */
+    public final String namespace;
+    /** element renames (old local name -> new local name) towards the next version */
+    protected final Map<String,String> renames;
+
+    /**
+     * Defines a new schema version
+     * @param namespace the target namespace of this schema
+     * @param renames pairs of old and new local names, that need to be renamed
+     * to get a valid document of the next version
+     */
+    private SchemaVersion(String namespace, String... renames) {
+        this.namespace = namespace;
+        Map<String,String> map = new HashMap<String, String>();
+        for (int i = 0; i + 1 < renames.length; i += 2) {
+            map.put(renames[i], renames[i+1]);
+        }
+        this.renames = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return the schema version of the current TanksDB classes
+     */
+    public static SchemaVersion current() {
+        SchemaVersion[] all = values();
+        return all[all.length - 1];
+    }
+
+    /**
+     * Detects the schema version by the namespace of a document
+     * @param namespace the namespace of the root element
+     * @return the matching schema version
+     * @throws IllegalArgumentException if the namespace is unknown
+     */
+    public static SchemaVersion detect(String namespace) {
+        for (SchemaVersion v : values()) {
+            if (v.namespace.equals(namespace)) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Unknown database namespace: " + namespace);
+    }
+
+    /**
+     * Accumulates all element renames that are necessary to upgrade a document
+     * of this version to the current version. Renames of later versions are
+     * applied on top of earlier ones, so chains like a->b->c collapse to a->c.
+     * @return all renames from this version up to the current one
+     */
+    public Map<String,String> renamesToCurrent() {
+        Map<String,String> result = new HashMap<String, String>();
+        SchemaVersion[] all = values();
+        for (int i = this.ordinal(); i < all.length; i++) {
+            for (Map.Entry<String,String> e : all[i].renames.entrySet()) {
+                // update chains that end in the name that is renamed now
+                for (Map.Entry<String,String> prev : result.entrySet()) {
+                    if (prev.getValue().equals(e.getKey())) {
+                        prev.setValue(e.getValue());
+                    }
+                }
+                if (!result.containsKey(e.getKey())) {
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true, if this is the current schema version
+     */
+    public boolean isCurrent() {
+        return this == current();
+    }
+
+}
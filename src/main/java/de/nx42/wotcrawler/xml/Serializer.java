@@ -16,8 +16,11 @@
  */
 package de.nx42.wotcrawler.xml;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 
 import javax.xml.XMLConstants;
@@ -26,8 +29,12 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.SchemaOutputResolver;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Result;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
@@ -36,9 +43,13 @@ import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.TanksDBMarshaller;
+import de.nx42.wotcrawler.util.Compression;
 
 /**
- * Serializes java objects and deserializes XML documents using the JAXB library
+ * Serializes java objects and deserializes XML documents using the JAXB library.
+ * Files ending with .gz or .deflate are compressed and decompressed
+ * transparently (see Compression).
  * 
  * @author Sebastian Straub <sebastian-straub@gmx.net>
  */
@@ -62,9 +73,16 @@ public class Serializer {
             Marshaller m = context.createMarshaller();
             m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
             m.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, schemaLocation);
-            m.marshal(instance, output);
+            OutputStream out = Compression.openOutputStream(output);
+            try {
+                m.marshal(instance, out);
+            } finally {
+                close(out);
+            }
         } catch (JAXBException ex) {
             log.error("Error serializing object to XML", ex);
+        } catch (IOException ex) {
+            log.error("Error writing XML file", ex);
         }
         
     }
@@ -81,13 +99,51 @@ public class Serializer {
             JAXBContext context = JAXBContext.newInstance(c);
             Marshaller m = context.createMarshaller();
             m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            m.marshal(instance, output);
+            OutputStream out = Compression.openOutputStream(output);
+            try {
+                m.marshal(instance, out);
+            } finally {
+                close(out);
+            }
         } catch (JAXBException ex) {
             log.error("Error serializing object to XML", ex);
+        } catch (IOException ex) {
+            log.error("Error writing XML file", ex);
         }
         
     }
     
+    /**
+     * Serializes the tank database to XML. This uses the TanksDBMarshaller,
+     * which is generated at build time from the JAXB annotations, so no
+     * JAXBContext is needed. The output is identical to the one of
+     * serialize(TanksDB.class, db, output).
+     * @param db the database to serialize
+     * @param output the file to write the xml into
+     * @return true, if the whole database was written (false, if any error
+     * occurred, the file may be incomplete then)
+     */
+    public static boolean serializeDB(TanksDB db, File output) {
+        
+        try {
+            OutputStream out = Compression.openOutputStream(output);
+            try {
+                TanksDBMarshaller.write(db, out);
+                // closing flushes the compressed stream, so errors count
+                out.close();
+                out = null;
+            } finally {
+                close(out);
+            }
+            return true;
+        } catch (XMLStreamException ex) {
+            log.error("Error serializing database to XML", ex);
+        } catch (IOException ex) {
+            log.error("Error writing XML file", ex);
+        }
+        return false;
+    }
+    
     // -------------------- deserialize XML documents --------------------
     
     /**
@@ -142,11 +198,19 @@ public class Serializer {
             JAXBContext context = JAXBContext.newInstance(c);
             Unmarshaller unmarshaller = context.createUnmarshaller();
             unmarshaller.setSchema(schema);
-            S deserialized = (S) unmarshaller.unmarshal(xml);
-            return deserialized;
+            InputStream in = Compression.openInputStream(xml);
+            try {
+                S deserialized = (S) unmarshaller.unmarshal(in);
+                return deserialized;
+            } finally {
+                close(in);
+            }
         } catch (JAXBException ex) {
             log.error("Error deserializing object from XML", ex);
             return null;
+        } catch (IOException ex) {
+            log.error("Error reading XML file", ex);
+            return null;
         }
     }
     
@@ -163,14 +227,92 @@ public class Serializer {
         try {
             JAXBContext context = JAXBContext.newInstance(c);
             Unmarshaller unmarshaller = context.createUnmarshaller();
-            S deserialized = (S) unmarshaller.unmarshal(xml);
-            return deserialized;
+            InputStream in = Compression.openInputStream(xml);
+            try {
+                S deserialized = (S) unmarshaller.unmarshal(in);
+                return deserialized;
+            } finally {
+                close(in);
+            }
         } catch (JAXBException ex) {
             log.error("Error deserializing object from XML", ex);
             return null;
+        } catch (IOException ex) {
+            log.error("Error reading XML file", ex);
+            return null;
         }
     }
     
+    // -------------------- databases of any schema version --------------------
+    
+    /** creates the StAX readers that are used to detect and upgrade old databases */
+    protected static final XMLInputFactory xif = XMLInputFactory.newInstance();
+    
+    /**
+     * Deserializes a tank database of any known schema version (see
+     * SchemaVersion). Documents of older versions are upgraded on the fly
+     * while they are read, so the result is always bound to the current
+     * TanksDB classes. The document is read by the generated
+     * TanksDBMarshaller instead of JAXB.
+     * Warning: Using this method without specifying a schema is insecure!
+     * Invalid xml documents can generate corrupt java objects.
+     * @param xml the xml database to deserialize
+     * @return the deserialized database (null, if it could not be read)
+     */
+    public static TanksDB deserializeDB(File xml) {
+        return deserializeDB(xml, null);
+    }
+    
+    /**
+     * Deserializes a tank database of any known schema version (see
+     * SchemaVersion). Documents of older versions are upgraded on the fly
+     * while they are read, so the result is always bound to the current
+     * TanksDB classes. The document is read by the generated
+     * TanksDBMarshaller instead of JAXB.
+     * @param xml the xml database to deserialize
+     * @param schema the schema file that belongs to the version of the xml
+     * database, to check validity before it is upgraded (may be null)
+     * @return the deserialized database (null, if it could not be read or
+     * is not valid)
+     */
+    public static TanksDB deserializeDB(File xml, File schema) {
+        InputStream in = null;
+        try {
+            if (schema != null) {
+                SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                InputStream raw = Compression.openInputStream(xml);
+                try {
+                    sf.newSchema(schema).newValidator().validate(new StreamSource(raw));
+                } finally {
+                    close(raw);
+                }
+            }
+            
+            in = Compression.openInputStream(xml);
+            XMLStreamReader reader = xif.createXMLStreamReader(in);
+            reader.nextTag();
+            SchemaVersion version = SchemaVersion.detect(reader.getNamespaceURI());
+            if (!version.isCurrent()) {
+                log.info("Upgrading database {} from schema {} to {}",
+                        new Object[] { xml.getName(), version, SchemaVersion.current() });
+                reader = new SchemaUpgrader(reader, version);
+            }
+            
+            return TanksDBMarshaller.read(reader);
+        } catch (SAXException ex) {
+            log.error("Database is not valid according to the specified schema", ex);
+        } catch (IllegalArgumentException ex) {
+            log.error("Database has an unknown schema version", ex);
+        } catch (XMLStreamException ex) {
+            log.error("Error reading database from XML", ex);
+        } catch (IOException ex) {
+            log.error("Error reading database file", ex);
+        } finally {
+            close(in);
+        }
+        return null;
+    }
+    
     // -------------------- XML schema --------------------
     
     /**
@@ -189,6 +331,22 @@ public class Serializer {
         
     }
     
+    // -------------------- helpers --------------------
+    
+    /**
+     * Closes a stream and logs (but ignores) any errors
+     * @param c the stream to close (may be null)
+     */
+    protected static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ex) {
+                log.warn("Could not close stream", ex);
+            }
+        }
+    }
+    
     /**
      * The schema is written to a file using this SchemaOutputResolver
      */
@@ -16,9 +16,22 @@
  */
 package de.nx42.wotcrawler.xml;
 
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +43,20 @@ import de.nx42.wotcrawler.db.tank.Tank;
 import de.nx42.wotcrawler.db.tank.Tank.TankType;
 import de.nx42.wotcrawler.ext.Field;
 import de.nx42.wotcrawler.ext.FieldDef;
+import de.nx42.wotcrawler.ext.Loadout;
+import de.nx42.wotcrawler.ext.LoadoutOptimizer;
 import de.nx42.wotcrawler.ext.ModuleMap;
+import de.nx42.wotcrawler.ext.NormalizationContext;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.ext.PeerRanks;
+import de.nx42.wotcrawler.ext.RatingProfile;
+import de.nx42.wotcrawler.ext.Skyline;
 import de.nx42.wotcrawler.ext.TankRating;
+import de.nx42.wotcrawler.index.SecondaryIndex;
+import de.nx42.wotcrawler.index.Snapshot;
+import de.nx42.wotcrawler.store.RatingCache;
+import de.nx42.wotcrawler.util.Compression;
+import de.nx42.wotcrawler.util.Tuple;
 
 /**
  * This class is used to transform the database contents into other formats.
@@ -42,10 +67,30 @@ public class Transformer {
     
     private static final Logger log = LoggerFactory.getLogger(Transformer.class);
     
+    /** the tank types in the order of the rating tables */
+    protected static final TankType[] ratingTypes = { TankType.LightTank,
+        TankType.MediumTank, TankType.HeavyTank, TankType.TankDestroyer,
+        TankType.SelfPropelledGun };
+    /** the comment before each rating table */
+    protected static final String[] ratingComments = { "light", "medium", "heavy", "td", "spg" };
+    
     /** The database to transform */
     protected TanksDB db;
     /** The ModuleMap, mapping from each tank to a list of compatible modules */
     protected ModuleMap mm;
+    /** The secondary indexes of the database (tanks by type, nation, ...) */
+    protected SecondaryIndex index;
+    /** The best values of each TankType, the ratings are relative to these
+     * (built on demand, see getNormalization) */
+    protected Map<TankType,NormalizationContext> norms;
+    /** The sorted values of the peer groups (built on demand, see setNormalization) */
+    protected PeerRanks ranks;
+    /** How the values are normalized for the rating tables */
+    protected Mode mode = Mode.Best;
+    /** The cache for the rows of the rating tables (null for no cache) */
+    protected RatingCache cache;
+    /** The weights of the rating tables */
+    protected RatingProfile profile = RatingProfile.defaults();
     
     /**
      * Initializes the transformer with the specified TanksDB
@@ -54,6 +99,76 @@ public class Transformer {
     public Transformer(TanksDB db) {
         this.db = db;
         this.mm = ModuleMap.build(db);
+        this.index = SecondaryIndex.build(mm.ids);
+    }
+    
+    /**
+     * Initializes the transformer with the database of the specified
+     * snapshot, reusing its ModuleMap and indexes
+     * @param snapshot the snapshot to work with
+     */
+    public Transformer(Snapshot snapshot) {
+        this.db = snapshot.db;
+        this.mm = snapshot.mm;
+        this.index = snapshot.index;
+        this.norms = snapshot.normalization;
+        this.ranks = snapshot.ranks;
+    }
+    
+    /**
+     * Sets the weights of the rating tables (the default weights are used,
+     * if no profile is set)
+     * @param profile the weights of the rating tables
+     */
+    public void setProfile(RatingProfile profile) {
+        this.profile = profile;
+    }
+    
+    /**
+     * Sets how the values are normalized for the rating tables (by default,
+     * as fraction of the best value of each tank type)
+     * @param mode the normalization mode
+     */
+    public synchronized void setNormalization(Mode mode) {
+        this.mode = mode;
+        if (norms != null) {
+            this.norms = NormalizationContext.withRanks(norms, mode == Mode.Percentile ? getRanks() : null);
+        }
+    }
+    
+    /**
+     * Sets the cache for the rows of the rating tables: the ratings are only
+     * calculated, if the cache does not contain the rows for the same
+     * database, weights and normalization mode yet.
+     * @param cache the cache (null for no cache)
+     */
+    public void setCache(RatingCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * @return the normalization context of each tank type in the current
+     * mode (calculated on first access, so it is skipped if all rating
+     * tables are found in the cache)
+     */
+    protected synchronized Map<TankType,NormalizationContext> getNormalization() {
+        if (norms == null) {
+            norms = NormalizationContext.buildAll(mm);
+            if (mode == Mode.Percentile) {
+                norms = NormalizationContext.withRanks(norms, getRanks());
+            }
+        }
+        return norms;
+    }
+    
+    /**
+     * @return the sorted values of the peer groups (built on first access)
+     */
+    protected synchronized PeerRanks getRanks() {
+        if (ranks == null) {
+            ranks = PeerRanks.build(mm, index.battleTiers);
+        }
+        return ranks;
     }
     
     // -------------------- generic html table creation --------------------
@@ -67,14 +182,14 @@ public class Transformer {
      */
     public void writeTableTank(String dest, Field[] fields) {
         try {
-            PrintWriter out = new PrintWriter(dest);
+            PrintWriter out = openWriter(dest);
             out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n\n<html><body>\n\n");
             out.write(buildTankTable(fields));
             out.write("\n\n</body></html>");
             out.flush();
             out.close();
-        } catch (FileNotFoundException ex) {
-            log.error("Could not write to local file: Not found!", ex);
+        } catch (IOException ex) {
+            log.error("Could not write to local file", ex);
         }
     }
     
@@ -99,7 +214,7 @@ public class Transformer {
      */
     public void writeTablesLinked(String dest) {
         try {
-            PrintWriter out = new PrintWriter(dest);
+            PrintWriter out = openWriter(dest);
             out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n\n<html><body><table>\n\n");
             out.write(buildTankTable(FieldDef.tank_base));
             out.write("</table>\n\n");
@@ -107,37 +222,293 @@ public class Transformer {
             out.write("\n\n\n</body></html>");
             out.flush();
             out.close();
-        } catch (FileNotFoundException ex) {
-            log.error("Could not write to local file: Not found!", ex);
+        } catch (IOException ex) {
+            log.error("Could not write to local file", ex);
         }
     }
     
     /**
      * Writes a table for each tank type, containing the ratings for each tank,
      * as defined by the TankRating class.
+     * The ratings are calculated in parallel, one task for each tank type
+     * and development.
      * @param dest the file where the tables shall be stored in
      */
     public void writeRatingTable(String dest) {
+        String key = null;
+        if (cache != null) {
+            key = RatingCache.key(db, profile, mode, FieldDef.rating);
+            String[][] cached = cache.get(key);
+            if (cached != null) {
+                log.info("Using cached ratings for {}", dest);
+                writeRatingTable(dest, FieldDef.rating, cached);
+                return;
+            }
+        }
+        ExecutorService pool = newRatingPool();
+        try {
+            writeRatingTable(dest, FieldDef.rating, submitRatingRows(pool, FieldDef.rating), key);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Writes the rating tables for several databases (e.g. all versions in
+     * the history) in one parallel batch. The ModuleMaps and indexes of all
+     * databases are built in parallel, then the ratings of all databases
+     * are calculated by the same pool of threads.
+     * @param jobs the databases by the file where their tables shall be
+     * stored in
+     */
+    public static void writeRatingTables(Map<String,TanksDB> jobs) {
+        writeRatingTables(jobs, RatingProfile.defaults());
+    }
+    
+    /**
+     * Writes the rating tables for several databases with the specified
+     * weights, see writeRatingTables(Map)
+     * @param jobs the databases by the file where their tables shall be
+     * stored in
+     * @param profile the weights of the rating tables
+     */
+    public static void writeRatingTables(Map<String,TanksDB> jobs, RatingProfile profile) {
+        writeRatingTables(jobs, profile, Mode.Best, null);
+    }
+    
+    /**
+     * Writes the rating tables for several databases with the specified
+     * weights and normalization mode, see writeRatingTables(Map)
+     * @param jobs the databases by the file where their tables shall be
+     * stored in
+     * @param profile the weights of the rating tables
+     * @param mode the normalization mode of the rating tables
+     */
+    public static void writeRatingTables(Map<String,TanksDB> jobs, RatingProfile profile, Mode mode) {
+        writeRatingTables(jobs, profile, mode, null);
+    }
+    
+    /**
+     * Writes the rating tables for several databases with the specified
+     * weights and normalization mode, see writeRatingTables(Map). Tables
+     * that are found in the cache are not calculated again, new tables are
+     * added to the cache.
+     * @param jobs the databases by the file where their tables shall be
+     * stored in
+     * @param profile the weights of the rating tables
+     * @param mode the normalization mode of the rating tables
+     * @param cache the cache for the rows of the rating tables (null for
+     * no cache)
+     */
+    public static void writeRatingTables(Map<String,TanksDB> jobs, final RatingProfile profile,
+            final Mode mode, final RatingCache cache) {
+        ExecutorService pool = newRatingPool();
+        try {
+            // prepare all databases and look them up in the cache
+            Map<String,Future<Tuple<Transformer,String>>> transformers =
+                    new LinkedHashMap<String,Future<Tuple<Transformer,String>>>();
+            for (final Map.Entry<String,TanksDB> job : jobs.entrySet()) {
+                if (job.getValue() == null) {
+                    log.warn("No database for rating table {}, skipped", job.getKey());
+                    continue;
+                }
+                transformers.put(job.getKey(), pool.submit(new Callable<Tuple<Transformer,String>>() {
+                    @Override
+                    public Tuple<Transformer,String> call() {
+                        Transformer tr = new Transformer(job.getValue());
+                        tr.setProfile(profile);
+                        tr.setNormalization(mode);
+                        tr.setCache(cache);
+                        String key = cache == null ? null
+                                : RatingCache.key(job.getValue(), profile, mode, FieldDef.rating);
+                        return Tuple.of(tr, key);
+                    }
+                }));
+            }
+            
+            // calculate all ratings that are not cached
+            Map<String,Tuple<Transformer,String>> prepared = new LinkedHashMap<String,Tuple<Transformer,String>>();
+            Map<String,String[][]> cached = new LinkedHashMap<String,String[][]>();
+            Map<String,List<Future<String[]>>> rows = new LinkedHashMap<String,List<Future<String[]>>>();
+            for (Map.Entry<String,Future<Tuple<Transformer,String>>> job : transformers.entrySet()) {
+                try {
+                    Tuple<Transformer,String> tr = job.getValue().get();
+                    prepared.put(job.getKey(), tr);
+                    String[][] hit = tr.y() == null ? null : cache.get(tr.y());
+                    if (hit != null) {
+                        log.info("Using cached ratings for {}", job.getKey());
+                        cached.put(job.getKey(), hit);
+                    } else {
+                        rows.put(job.getKey(), tr.x().submitRatingRows(pool, FieldDef.rating));
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    log.error("Could not prepare the database for " + job.getKey(), ex.getCause());
+                }
+            }
+            
+            // write the tables in the original order
+            for (Map.Entry<String,Tuple<Transformer,String>> job : prepared.entrySet()) {
+                Transformer tr = job.getValue().x();
+                if (cached.containsKey(job.getKey())) {
+                    tr.writeRatingTable(job.getKey(), FieldDef.rating, cached.get(job.getKey()));
+                } else {
+                    tr.writeRatingTable(job.getKey(), FieldDef.rating, rows.get(job.getKey()),
+                            job.getValue().y());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Writes the rating tables, as soon as the rows have been calculated
+     * @param dest the file where the tables shall be stored in
+     * @param fields the fields that shall be contained in the tables
+     * @param rows the rows of each table, as returned by submitRatingRows
+     * @param key the key of the rows in the cache (null to not cache them)
+     */
+    protected void writeRatingTable(String dest, Field[] fields, List<Future<String[]>> rows, String key) {
+        String[][] tables = new String[rows.size()][];
+        try {
+            for (int i = 0; i < tables.length; i++) {
+                tables[i] = rows.get(i).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while calculating the ratings for " + dest);
+            return;
+        } catch (ExecutionException ex) {
+            log.error("Calculation of the ratings failed for " + dest, ex.getCause());
+            return;
+        }
+        writeRatingTable(dest, fields, tables);
+        if (key != null && cache != null) {
+            cache.put(key, tables);
+        }
+    }
+    
+    /**
+     * Writes the rating tables
+     * @param dest the file where the tables shall be stored in
+     * @param fields the fields that are contained in the tables
+     * @param rows the rows of each type and development, as returned by
+     * submitRatingRows
+     */
+    protected void writeRatingTable(String dest, Field[] fields, String[][] rows) {
         try {
-            PrintWriter out = new PrintWriter(dest);
+            PrintWriter out = openWriter(dest);
             out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n\n<html><body>\n\n");
             
-            out.write("\n\n\n<!-- light -->\n\n");
-            out.write(buildSingleRatingTable(TankType.LightTank, FieldDef.rating));
-            out.write("\n\n\n<!-- medium -->\n\n");
-            out.write(buildSingleRatingTable(TankType.MediumTank, FieldDef.rating));
-            out.write("\n\n\n<!-- heavy -->\n\n");
-            out.write(buildSingleRatingTable(TankType.HeavyTank, FieldDef.rating));
-            out.write("\n\n\n<!-- td -->\n\n");
-            out.write(buildSingleRatingTable(TankType.TankDestroyer, FieldDef.rating));
-            out.write("\n\n\n<!-- spg -->\n\n");
-            out.write(buildSingleRatingTable(TankType.SelfPropelledGun, FieldDef.rating));
+            int devs = Development.values().length;
+            for (int i = 0; i < ratingTypes.length; i++) {
+                String[][] table = new String[devs][];
+                for (int dev = 0; dev < devs; dev++) {
+                    table[dev] = rows[i * devs + dev];
+                }
+                out.write("\n\n\n<!-- " + ratingComments[i] + " -->\n\n");
+                out.write(buildRatingTable(fields, table));
+            }
             
             out.write("\n\n\n</body></html>");
             out.flush();
             out.close();
-        } catch (FileNotFoundException ex) {
-            log.error("Could not write to local file: Not found!", ex);
+        } catch (IOException ex) {
+            log.error("Could not write to local file", ex);
+        }
+    }
+    
+    /**
+     * Submits the calculation of the rating table rows for each tank type
+     * (in the order of ratingTypes) and development.
+     * @param pool the threads to calculate the ratings
+     * @param fields the fields that shall be contained in the tables
+     * @return the rows of each type and development, at position
+     * (type index * number of developments + development ordinal)
+     */
+    protected List<Future<String[]>> submitRatingRows(ExecutorService pool, final Field[] fields) {
+        List<Future<String[]>> rows = new ArrayList<Future<String[]>>();
+        for (final TankType type : ratingTypes) {
+            for (final Development dev : Development.values()) {
+                rows.add(pool.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() {
+                        return buildRatingRows(type, dev, fields);
+                    }
+                }));
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * @return a pool of daemon threads for the rating calculation, one
+     * thread per processor
+     */
+    protected static ExecutorService newRatingPool() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "rating");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    // -------------------- text reports --------------------
+    
+    /**
+     * Writes the skyline of the stock and top loadouts for each tank type
+     * and battle tier: the loadouts that are not worse than any other one
+     * in every rating category (see Skyline). The ratings use the current
+     * weights and normalization mode.
+     * @param dest the file where the report shall be stored in
+     */
+    public void writeSkyline(String dest) {
+        Map<TankType,SortedMap<Integer,List<Loadout>>> skyline = Skyline.build(getNormalization(), profile);
+        try {
+            PrintWriter out = openWriter(dest);
+            for (TankType type : ratingTypes) {
+                out.write(type.name() + "\n");
+                for (Map.Entry<Integer,List<Loadout>> e : skyline.get(type).entrySet()) {
+                    out.write("  battle tier " + e.getKey() + ": ");
+                    String sep = "";
+                    for (Loadout l : e.getValue()) {
+                        out.write(sep + l);
+                        sep = ", ";
+                    }
+                    out.write("\n");
+                }
+            }
+            out.flush();
+            out.close();
+        } catch (IOException ex) {
+            log.error("Could not write to local file", ex);
+        }
+    }
+    
+    /**
+     * Rates every combination of modules of each tank, that does not exceed
+     * the load limit, and writes the best loadout of each tank for each
+     * rating category (see LoadoutOptimizer). The ratings use the current
+     * weights and normalization mode.
+     * @param dest the file where the report shall be stored in
+     */
+    public void writeLoadouts(String dest) {
+        List<LoadoutOptimizer.Result> results = new LoadoutOptimizer(mm, profile).optimizeAll(getNormalization());
+        try {
+            PrintWriter out = openWriter(dest);
+            for (LoadoutOptimizer.Result r : results) {
+                out.write(r.toString());
+            }
+            out.flush();
+            out.close();
+        } catch (IOException ex) {
+            log.error("Writing of loadouts to file failed", ex);
         }
     }
     
@@ -281,17 +652,58 @@ public class Transformer {
      * @return the rating table as string
      */
     protected String buildSingleRatingTable(TankType type, Field[] fields) {
+        Development[] devs = Development.values();
+        String[][] rows = new String[devs.length][];
+        for (Development dev : devs) {
+            rows[dev.ordinal()] = buildRatingRows(type, dev, fields);
+        }
+        return buildRatingTable(fields, rows);
+    }
+    
+    /**
+     * Builds the rating table rows of all tanks of one type with the
+     * specified development. Any number of these may be built at once.
+     * @param type the tanks that shall be rated
+     * @param dev the development of the tanks
+     * @param fields the fields that shall be contained in the table
+     * @return one html table row for each tank, ordered by tank id
+     */
+    protected String[] buildRatingRows(TankType type, Development dev, Field[] fields) {
         
-        /*
-         * calculate minmax for this tanktype
-         * calculate rating for each tank and write in sb
-         * 
-         * -> if minmax is calculated staticly but for this type only,
-         *    multithreaded access to enum Field is not allowed!
-         */
-        
-        Field.calculateMinMaxFields(db, type);
+        // ratings are relative to the best values of this tanktype
+        NormalizationContext norm = getNormalization().get(type);
         
+        BitSet selection = index.tanks.type(type);
+        String[] rows = new String[selection.cardinality()];
+        int i = 0;
+        for (int id = selection.nextSetBit(0); id >= 0; id = selection.nextSetBit(id + 1)) {
+            Tank t = mm.ids.getTank(id);
+            
+            // calculate rating
+            TankRating tr = new TankRating(norm, profile.get(type), t, dev);
+            tr.calculateRatings();
+            
+            // write table entry
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("<tr id=\"%s\">\n", t.id));
+            for (Field field : fields) {
+                addCell(tr, sb, field);
+            }
+            sb.append("</tr>\n");
+            rows[i++] = sb.toString();
+        }
+        return rows;
+    }
+    
+    /**
+     * Merges the rows of all developments into one rating table: for each
+     * tank, the rows of all developments follow each other.
+     * @param fields the fields that are contained in the rows
+     * @param rows the rows by development ordinal, as returned by
+     * buildRatingRows
+     * @return the rating table as string
+     */
+    protected String buildRatingTable(Field[] fields, String[][] rows) {
         StringBuilder sb = new StringBuilder();
         sb.append("<table>\n");
 
@@ -306,21 +718,9 @@ public class Transformer {
 
         // body
         sb.append("<tbody>\n");
-        for (Tank t : db.tanks) {
-            if (t.type == type) {
-                for (Development dev : Development.values()) {
-                    
-                    // calculate rating
-                    TankRating tr = new TankRating(t, dev);
-                    tr.calculateRatings();
-                    
-                    // write table entry
-                    sb.append(String.format("<tr id=\"%s\">\n", t.id));
-                    for (Field field : fields) {
-                        addCell(tr, sb, field);
-                    }
-                    sb.append("</tr>\n");
-                }
+        for (int i = 0; i < rows[0].length; i++) {
+            for (String[] dev : rows) {
+                sb.append(dev[i]);
             }
         }
         sb.append("</tbody>\n");
@@ -331,6 +731,17 @@ public class Transformer {
     
     // -------------------- helpers --------------------
     
+    /**
+     * Opens a UTF-8 writer for the specified file. If the file name ends with
+     * .gz or .deflate, the output is compressed (see Compression).
+     * @param dest the file to write into
+     * @return a writer for this file
+     * @throws IOException if the file cannot be created
+     */
+    protected static PrintWriter openWriter(String dest) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(Compression.openOutputStream(new File(dest)), "UTF-8"));
+    }
+    
     /**
      * Adds a cell to the stringbuilder. If the cell contains the special field
      * EMPTY, an empty td with class "empty" is added, else the contents of this
@@ -359,7 +770,7 @@ public class Transformer {
      * @return the converted field value
      */
     protected String convertField(Field field, Tank t, Development dev) {
-        String f = field.get(t, dev);
+        String f = field.get(mm, t, dev);
         if(f.startsWith("0") && field != Field.T_GunArc_Left && field != Field.T_Cost) {
             if("0".equals(f)) {
                 return Field.na;
@@ -0,0 +1,663 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.xml.gen;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import de.nx42.wotcrawler.xml.gen.MarshallerProcessor.ClassModel;
+import de.nx42.wotcrawler.xml.gen.MarshallerProcessor.Property;
+import de.nx42.wotcrawler.xml.gen.MarshallerProcessor.ValueKind;
+
+/**
+ * Writes the source code of a marshaller for the classes that were analyzed
+ * by the MarshallerProcessor.
+ *
+ * The generated writer mimics the formatted output of the JAXB marshaller:
+ * a standalone xml declaration, 4 spaces indentation, elements without
+ * content are closed immediately (&lt;parents/&gt;), null values are left out,
+ * doubles are printed like JAXB does it (e.g. "10.0", "INF").
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class Generator {
+
+    /** the package of the generated class */
+    protected final String pkg;
+    /** the simple name of the generated class */
+    protected final String className;
+    /** the qualified name of the root class */
+    protected final String rootClass;
+    /** the name of the root element */
+    protected final String rootName;
+    /** the namespace of all elements */
+    protected final String namespace;
+    /** all classes of the model */
+    protected final Collection<ClassModel> classes;
+    /** method name suffix per class (qualified name -> suffix) */
+    protected final Map<String,String> methods = new HashMap<String,String>();
+
+    /** the generated source */
+    protected final StringBuilder sb = new StringBuilder();
+    /** current indentation level of the generated source */
+    protected int level = 0;
+
+    public Generator(String pkg, String className, String rootClass, String rootName,
+            String namespace, Collection<ClassModel> classes) {
+        this.pkg = pkg;
+        this.className = className;
+        this.rootClass = rootClass;
+        this.rootName = rootName;
+        this.namespace = namespace;
+        this.classes = classes;
+
+        Set<String> used = new HashSet<String>();
+        for (ClassModel cm : classes) {
+            String base = cm.element.getSimpleName().toString();
+            String name = base;
+            for (int i = 2; used.contains(name); i++) {
+                name = base + i;
+            }
+            used.add(name);
+            methods.put(cm.element.getQualifiedName().toString(), name);
+        }
+    }
+
+    /**
+     * @return the source code of the marshaller
+     */
+    public String generate() {
+        line("package " + pkg + ";");
+        line("");
+        line("import java.io.IOException;");
+        line("import java.io.OutputStream;");
+        line("import java.util.ArrayList;");
+        line("import java.util.HashMap;");
+        line("import java.util.List;");
+        line("import java.util.Map;");
+        line("");
+        line("import javax.xml.stream.XMLOutputFactory;");
+        line("import javax.xml.stream.XMLStreamConstants;");
+        line("import javax.xml.stream.XMLStreamException;");
+        line("import javax.xml.stream.XMLStreamReader;");
+        line("import javax.xml.stream.XMLStreamWriter;");
+        line("");
+        line("/**");
+        line(" * Reads and writes " + rootClass + " documents without reflection.");
+        line(" * Generated by " + MarshallerProcessor.class.getName() + " - do not edit.");
+        line(" */");
+        open("public final class " + className);
+        line("");
+        line("/** the namespace of all elements */");
+        line("public static final String NAMESPACE = " + literal(namespace) + ";");
+        line("/** the name of the root element */");
+        line("public static final String ROOT = " + literal(rootName) + ";");
+        line("");
+        line("private static final String HEADER = "
+                + literal("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>") + ";");
+        line("private static final String INDENT = \"    \";");
+        line("private static final XMLOutputFactory xof = XMLOutputFactory.newInstance();");
+        line("");
+        open("private " + className + "()");
+        close();
+        line("");
+
+        generatePublicMethods();
+        for (ClassModel cm : classes) {
+            generateWriter(cm);
+            generateReader(cm);
+        }
+        generateHelpers();
+
+        close();
+        return sb.toString();
+    }
+
+    // -------------------- entry points --------------------
+
+    protected void generatePublicMethods() {
+        String m = methods.get(rootClass);
+        line("/**");
+        line(" * Writes the object as xml document (UTF-8), exactly like the");
+        line(" * JAXB marshaller with formatted output.");
+        line(" * @param o the object to write");
+        line(" * @param out the stream to write into (is not closed)");
+        line(" */");
+        open("public static void write(" + rootClass + " o, OutputStream out) throws XMLStreamException, IOException");
+        line("out.write(HEADER.getBytes(\"UTF-8\"));");
+        line("XMLStreamWriter w = xof.createXMLStreamWriter(out, \"UTF-8\");");
+        line("write" + m + "(w, 0, ROOT, o, NAMESPACE);");
+        line("w.writeCharacters(\"\\n\");");
+        line("w.flush();");
+        line("w.close();");
+        close();
+        line("");
+        line("/**");
+        line(" * Reads the document the reader points to. The reader must be placed");
+        line(" * before or on the start tag of the root element.");
+        line(" * @param r the reader to read from");
+        line(" * @return the object that is described by the document");
+        line(" */");
+        open("public static " + rootClass + " read(XMLStreamReader r) throws XMLStreamException");
+        open("while (r.getEventType() != XMLStreamConstants.START_ELEMENT)");
+        line("r.next();");
+        close();
+        line("Refs refs = new Refs();");
+        open("try");
+        line(rootClass + " o = read" + m + "(r, refs);");
+        line("refs.resolve();");
+        line("return o;");
+        closeOpen("catch (IllegalArgumentException ex)");
+        line("throw new XMLStreamException(\"Invalid value: \" + ex.getMessage(), r.getLocation(), ex);");
+        close();
+        close();
+        line("");
+    }
+
+    // -------------------- writer --------------------
+
+    protected void generateWriter(ClassModel cm) {
+        String type = cm.element.getQualifiedName().toString();
+        open("private static void write" + methods.get(type) + "(XMLStreamWriter w, int depth, String tag, "
+                + type + " o, String ns) throws XMLStreamException");
+        line("indent(w, depth);");
+        String content = contentCondition(cm);
+        if ("true".equals(content)) {
+            line("w.writeStartElement(tag);");
+        } else if ("false".equals(content)) {
+            line("w.writeEmptyElement(tag);");
+        } else {
+            line("boolean content = " + content + ";");
+            open("if (content)");
+            line("w.writeStartElement(tag);");
+            closeOpen("else");
+            line("w.writeEmptyElement(tag);");
+            close();
+        }
+        open("if (ns != null)");
+        line("w.writeDefaultNamespace(ns);");
+        close();
+
+        // attributes first, elements in declaration order
+        for (Property p : cm.properties) {
+            if (!p.attribute) {
+                continue;
+            }
+            String value = "o." + p.name;
+            if (p.valueKind == ValueKind.IDREF) {
+                open("if (" + value + " != null && " + value + "." + p.idField + " != null)");
+                line("w.writeAttribute(" + literal(p.xmlName) + ", " + value + "." + p.idField + ");");
+                close();
+            } else if (p.type.getKind().isPrimitive()) {
+                line("w.writeAttribute(" + literal(p.xmlName) + ", " + print(p.type, value) + ");");
+            } else {
+                open("if (" + value + " != null)");
+                line("w.writeAttribute(" + literal(p.xmlName) + ", " + print(p.type, value) + ");");
+                close();
+            }
+        }
+        for (Property p : cm.properties) {
+            if (!p.attribute) {
+                generateElementWriter(p);
+            }
+        }
+
+        if ("true".equals(content)) {
+            line("indent(w, depth);");
+            line("w.writeEndElement();");
+        } else if (!"false".equals(content)) {
+            open("if (content)");
+            line("indent(w, depth);");
+            line("w.writeEndElement();");
+            close();
+        }
+        close();
+        line("");
+    }
+
+    protected void generateElementWriter(Property p) {
+        String value = "o." + p.name;
+        if (!p.list) {
+            if (p.type.getKind().isPrimitive()) {
+                line(writeValue(p, value, "depth + 1"));
+            } else {
+                open("if (" + value + " != null)");
+                line(writeValue(p, value, "depth + 1"));
+                close();
+            }
+        } else if (p.wrapper != null) {
+            open("if (" + value + " != null)");
+            line("indent(w, depth + 1);");
+            open("if (" + value + ".isEmpty())");
+            line("w.writeEmptyElement(" + literal(p.wrapper) + ");");
+            closeOpen("else");
+            line("w.writeStartElement(" + literal(p.wrapper) + ");");
+            open("for (" + typeName(p.type) + " x : " + value + ")");
+            open("if (x != null)");
+            line(writeValue(p, "x", "depth + 2"));
+            close();
+            close();
+            line("indent(w, depth + 1);");
+            line("w.writeEndElement();");
+            close();
+            close();
+        } else {
+            open("if (" + value + " != null)");
+            open("for (" + typeName(p.type) + " x : " + value + ")");
+            open("if (x != null)");
+            line(writeValue(p, "x", "depth + 1"));
+            close();
+            close();
+            close();
+        }
+    }
+
+    /**
+     * @param p the property
+     * @param value expression of the value to write
+     * @param depth expression of the indentation depth
+     * @return the statement that writes a single value as element
+     */
+    protected String writeValue(Property p, String value, String depth) {
+        if (p.valueKind == ValueKind.COMPLEX) {
+            return "write" + methods.get(p.typeElement.getQualifiedName().toString())
+                    + "(w, " + depth + ", " + literal(p.xmlName) + ", " + value + ", null);";
+        } else {
+            return "text(w, " + depth + ", " + literal(p.xmlName) + ", " + print(p.type, value) + ");";
+        }
+    }
+
+    /**
+     * @param cm a class
+     * @return java expression that is true, if an object of this class has
+     * child elements ("true" or "false" if this is known in advance)
+     */
+    protected String contentCondition(ClassModel cm) {
+        StringBuilder cond = new StringBuilder();
+        for (Property p : cm.properties) {
+            if (p.attribute) {
+                continue;
+            }
+            if (!p.list && p.type.getKind().isPrimitive()) {
+                return "true";
+            }
+            if (cond.length() > 0) {
+                cond.append(" || ");
+            }
+            if (p.list && p.wrapper == null) {
+                cond.append("(o.").append(p.name).append(" != null && !o.").append(p.name).append(".isEmpty())");
+            } else {
+                cond.append("o.").append(p.name).append(" != null");
+            }
+        }
+        return cond.length() == 0 ? "false" : cond.toString();
+    }
+
+    // -------------------- reader --------------------
+
+    protected void generateReader(ClassModel cm) {
+        String type = cm.element.getQualifiedName().toString();
+        open("private static " + type + " read" + methods.get(type)
+                + "(XMLStreamReader r, Refs refs) throws XMLStreamException");
+        line("final " + type + " o = new " + type + "();");
+
+        boolean attributes = false;
+        for (Property p : cm.properties) {
+            attributes |= p.attribute;
+        }
+        if (attributes) {
+            open("for (int i = 0; i < r.getAttributeCount(); i++)");
+            line("String n = r.getAttributeLocalName(i);");
+            line("String v = r.getAttributeValue(i);");
+            String prefix = "if";
+            for (Property p : cm.properties) {
+                if (!p.attribute) {
+                    continue;
+                }
+                open(prefix + " (" + literal(p.xmlName) + ".equals(n))");
+                if (p.valueKind == ValueKind.IDREF) {
+                    String target = p.typeElement.getQualifiedName().toString();
+                    open("refs.ref(v, new Ref()");
+                    open("public void set(Object target)");
+                    line("o." + p.name + " = (" + target + ") target;");
+                    close();
+                    level--;
+                    line("});");
+                } else {
+                    line("o." + p.name + " = " + parse(p.type, "v") + ";");
+                    if (p == cm.id) {
+                        line("refs.id(v, o);");
+                    }
+                }
+                level--;
+                prefix = "} else if";
+            }
+            if (!"if".equals(prefix)) {
+                line("}");
+            }
+            close();
+        }
+
+        // unwrapped lists are replaced on their first item
+        for (Property p : cm.properties) {
+            if (p.list && p.wrapper == null) {
+                line("boolean " + p.name + "Seen = false;");
+            }
+        }
+
+        open("while (r.nextTag() == XMLStreamConstants.START_ELEMENT)");
+        line("String n = r.getLocalName();");
+        String prefix = "if";
+        for (Property p : cm.properties) {
+            if (p.attribute) {
+                continue;
+            }
+            if (p.list && p.wrapper != null) {
+                open(prefix + " (" + literal(p.wrapper) + ".equals(n))");
+                line("o." + p.name + " = new ArrayList<" + typeName(p.type) + ">();");
+                open("while (r.nextTag() == XMLStreamConstants.START_ELEMENT)");
+                open("if (" + literal(p.xmlName) + ".equals(r.getLocalName()))");
+                line("o." + p.name + ".add(" + readValue(p) + ");");
+                closeOpen("else");
+                line("skip(r);");
+                close();
+                close();
+            } else if (p.list) {
+                open(prefix + " (" + literal(p.xmlName) + ".equals(n))");
+                open("if (!" + p.name + "Seen)");
+                line("o." + p.name + " = new ArrayList<" + typeName(p.type) + ">();");
+                line(p.name + "Seen = true;");
+                close();
+                line("o." + p.name + ".add(" + readValue(p) + ");");
+            } else {
+                open(prefix + " (" + literal(p.xmlName) + ".equals(n))");
+                line("o." + p.name + " = " + readValue(p) + ";");
+            }
+            level--;
+            prefix = "} else if";
+        }
+        if ("if".equals(prefix)) {
+            line("skip(r);");
+        } else {
+            line("} else {");
+            level++;
+            line("skip(r);");
+            close();
+        }
+        close();
+        line("return o;");
+        close();
+        line("");
+    }
+
+    /**
+     * @param p the property
+     * @return expression that reads a single element value
+     */
+    protected String readValue(Property p) {
+        if (p.valueKind == ValueKind.COMPLEX) {
+            return "read" + methods.get(p.typeElement.getQualifiedName().toString()) + "(r, refs)";
+        } else {
+            return parse(p.type, "r.getElementText()");
+        }
+    }
+
+    // -------------------- values --------------------
+
+    /**
+     * @param type a simple type
+     * @param value expression of this type
+     * @return expression that converts the value to its xml representation
+     */
+    protected static String print(TypeMirror type, String value) {
+        switch (kindOf(type)) {
+            case DOUBLE:
+            case FLOAT:
+                return "print(" + value + ")";
+            case DECLARED:
+                if (isEnum(type)) {
+                    return value + ".name()";
+                } else if ("java.lang.String".equals(typeName(type))) {
+                    return value;
+                }
+                return "String.valueOf(" + value + ")";
+            default:
+                return "String.valueOf(" + value + ")";
+        }
+    }
+
+    /**
+     * @param type a simple type
+     * @param text expression of the xml text
+     * @return expression that converts the text to the type
+     */
+    protected static String parse(TypeMirror type, String text) {
+        switch (kindOf(type)) {
+            case BOOLEAN: return "parseBoolean(" + text + ")";
+            case BYTE: return "Byte.parseByte(" + text + ".trim())";
+            case SHORT: return "Short.parseShort(" + text + ".trim())";
+            case INT: return "Integer.parseInt(" + text + ".trim())";
+            case LONG: return "Long.parseLong(" + text + ".trim())";
+            case FLOAT: return "(float) parseDouble(" + text + ")";
+            case DOUBLE: return "parseDouble(" + text + ")";
+            default:
+                if (isEnum(type)) {
+                    return "parseEnum(" + typeName(type) + ".class, " + text + ")";
+                }
+                return text;
+        }
+    }
+
+    /**
+     * @param type a type
+     * @return the primitive kind of the type (also for wrapper classes)
+     */
+    protected static TypeKind kindOf(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.getKind();
+        }
+        String name = typeName(type);
+        if ("java.lang.Boolean".equals(name)) return TypeKind.BOOLEAN;
+        if ("java.lang.Byte".equals(name)) return TypeKind.BYTE;
+        if ("java.lang.Short".equals(name)) return TypeKind.SHORT;
+        if ("java.lang.Integer".equals(name)) return TypeKind.INT;
+        if ("java.lang.Long".equals(name)) return TypeKind.LONG;
+        if ("java.lang.Float".equals(name)) return TypeKind.FLOAT;
+        if ("java.lang.Double".equals(name)) return TypeKind.DOUBLE;
+        return type.getKind();
+    }
+
+    protected static boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    /**
+     * @param type a type
+     * @return the name of the type, as it can be used in source code
+     */
+    protected static String typeName(TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    // -------------------- runtime helpers --------------------
+
+    protected void generateHelpers() {
+        line("// -------------------- helpers --------------------");
+        line("");
+        open("private static void indent(XMLStreamWriter w, int depth) throws XMLStreamException");
+        line("w.writeCharacters(\"\\n\");");
+        open("for (int i = 0; i < depth; i++)");
+        line("w.writeCharacters(INDENT);");
+        close();
+        close();
+        line("");
+        open("private static void text(XMLStreamWriter w, int depth, String tag, String value) throws XMLStreamException");
+        line("indent(w, depth);");
+        line("w.writeStartElement(tag);");
+        line("w.writeCharacters(value);");
+        line("w.writeEndElement();");
+        close();
+        line("");
+        open("private static void skip(XMLStreamReader r) throws XMLStreamException");
+        line("int depth = 1;");
+        open("while (depth > 0)");
+        line("int event = r.next();");
+        open("if (event == XMLStreamConstants.START_ELEMENT)");
+        line("depth++;");
+        closeOpen("else if (event == XMLStreamConstants.END_ELEMENT)");
+        line("depth--;");
+        close();
+        close();
+        close();
+        line("");
+        open("private static String print(double d)");
+        open("if (Double.isNaN(d))");
+        line("return \"NaN\";");
+        closeOpen("else if (d == Double.POSITIVE_INFINITY)");
+        line("return \"INF\";");
+        closeOpen("else if (d == Double.NEGATIVE_INFINITY)");
+        line("return \"-INF\";");
+        close();
+        line("return String.valueOf(d);");
+        close();
+        line("");
+        open("private static String print(float f)");
+        open("if (Float.isNaN(f))");
+        line("return \"NaN\";");
+        closeOpen("else if (f == Float.POSITIVE_INFINITY)");
+        line("return \"INF\";");
+        closeOpen("else if (f == Float.NEGATIVE_INFINITY)");
+        line("return \"-INF\";");
+        close();
+        line("return String.valueOf(f);");
+        close();
+        line("");
+        open("private static double parseDouble(String s)");
+        line("s = s.trim();");
+        open("if (\"INF\".equals(s))");
+        line("return Double.POSITIVE_INFINITY;");
+        closeOpen("else if (\"-INF\".equals(s))");
+        line("return Double.NEGATIVE_INFINITY;");
+        close();
+        line("return Double.parseDouble(s);");
+        close();
+        line("");
+        open("private static boolean parseBoolean(String s)");
+        line("s = s.trim();");
+        line("return \"true\".equals(s) || \"1\".equals(s);");
+        close();
+        line("");
+        open("private static <E extends Enum<E>> E parseEnum(Class<E> c, String s)");
+        open("try");
+        line("return Enum.valueOf(c, s.trim());");
+        closeOpen("catch (IllegalArgumentException ex)");
+        line("return null;    // unknown values are ignored, like JAXB does");
+        close();
+        close();
+        line("");
+        open("private interface Ref");
+        line("void set(Object target);");
+        close();
+        line("");
+        open("private static class Refs");
+        line("private final Map<String,Object> ids = new HashMap<String,Object>();");
+        line("private final List<String> pendingIds = new ArrayList<String>();");
+        line("private final List<Ref> pending = new ArrayList<Ref>();");
+        line("");
+        open("void id(String id, Object target)");
+        line("ids.put(id, target);");
+        close();
+        line("");
+        open("void ref(String id, Ref ref)");
+        line("pendingIds.add(id);");
+        line("pending.add(ref);");
+        close();
+        line("");
+        open("void resolve()");
+        open("for (int i = 0; i < pending.size(); i++)");
+        line("pending.get(i).set(ids.get(pendingIds.get(i)));");
+        close();
+        close();
+        close();
+        line("");
+    }
+
+    // -------------------- source formatting --------------------
+
+    protected void line(String s) {
+        if (s.length() > 0) {
+            sb.append(indentation());
+        }
+        sb.append(s).append('\n');
+    }
+
+    protected void open(String s) {
+        line(s + " {");
+        level++;
+    }
+
+    protected void close() {
+        level--;
+        line("}");
+    }
+
+    protected void closeOpen(String s) {
+        level--;
+        line("} " + s + " {");
+        level++;
+    }
+
+    protected String indentation() {
+        StringBuilder ind = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            ind.append("    ");
+        }
+        return ind.toString();
+    }
+
+    /**
+     * @param s a string
+     * @return the string as java literal
+     */
+    protected static String literal(String s) {
+        StringBuilder lit = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': lit.append("\\\""); break;
+                case '\\': lit.append("\\\\"); break;
+                case '\n': lit.append("\\n"); break;
+                default: lit.append(c);
+            }
+        }
+        return lit.append('"').toString();
+    }
+
+}
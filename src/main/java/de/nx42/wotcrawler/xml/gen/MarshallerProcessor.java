@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.xml.gen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlID;
+import javax.xml.bind.annotation.XmlIDREF;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSchema;
+import javax.xml.bind.annotation.XmlTransient;
+
+/**
+ * Generates a reader and a writer for a JAXB model at compile time.
+ *
+ * For every class annotated with GenerateMarshaller, all classes that are
+ * reachable from it are analyzed using their JAXB annotations (XmlElement,
+ * XmlElementWrapper, XmlAttribute, XmlID, XmlIDREF, XmlTransient), and a
+ * class [Root]Marshaller is generated, that contains straight-line StAX code
+ * for each of them. The generated writer produces exactly the same output as
+ * the JAXB marshaller with formatted output, the generated reader accepts
+ * the same documents as the JAXB unmarshaller.
+ *
+ * Supported are the features that are used by the database classes: public
+ * fields of simple types (primitives, their wrappers, String, enums), nested
+ * classes, lists of them (with or without wrapper element), IDs and IDREF
+ * attributes and a single namespace for all elements.
+ *
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+@SupportedAnnotationTypes("de.nx42.wotcrawler.xml.gen.GenerateMarshaller")
+public class MarshallerProcessor extends AbstractProcessor {
+
+    /** JAXB's marker for names that are derived from the field name */
+    protected static final String DEFAULT = "##default";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+        for (Element e : env.getElementsAnnotatedWith(GenerateMarshaller.class)) {
+            try {
+                if (e.getKind() != ElementKind.CLASS) {
+                    throw new ModelException("GenerateMarshaller can only be applied to classes", e);
+                }
+                generate((TypeElement) e);
+            } catch (ModelException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), ex.element);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Could not write marshaller: " + ex.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    // -------------------- model --------------------
+
+    /**
+     * Analyzes all classes reachable from the root and writes the marshaller
+     * @param root the root class of the model
+     */
+    protected void generate(TypeElement root) throws ModelException, IOException {
+        XmlRootElement rootElement = root.getAnnotation(XmlRootElement.class);
+        if (rootElement == null) {
+            throw new ModelException("The root class needs an XmlRootElement annotation", root);
+        }
+        String rootName = DEFAULT.equals(rootElement.name())
+                ? decapitalize(root.getSimpleName().toString()) : rootElement.name();
+        String namespace = namespaceOf(root);
+
+        // collect all reachable classes
+        Map<String, ClassModel> classes = new LinkedHashMap<String, ClassModel>();
+        LinkedList<TypeElement> queue = new LinkedList<TypeElement>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            TypeElement te = queue.removeFirst();
+            String name = te.getQualifiedName().toString();
+            if (classes.containsKey(name)) {
+                continue;
+            }
+            if (!namespace.equals(namespaceOf(te))) {
+                throw new ModelException("All classes must share the namespace " + namespace, te);
+            }
+            ClassModel cm = analyze(te);
+            classes.put(name, cm);
+            for (Property p : cm.properties) {
+                if (p.valueKind == ValueKind.COMPLEX) {
+                    queue.add(p.typeElement);
+                }
+            }
+        }
+
+        // resolve the id property of referenced classes
+        for (ClassModel cm : classes.values()) {
+            for (Property p : cm.properties) {
+                if (p.valueKind == ValueKind.IDREF) {
+                    ClassModel target = classes.get(p.typeElement.getQualifiedName().toString());
+                    if (target == null) {
+                        target = analyze(p.typeElement);
+                    }
+                    if (target.id == null) {
+                        throw new ModelException("Referenced class has no XmlID", p.field);
+                    }
+                    p.idField = target.id.name;
+                }
+            }
+        }
+
+        String pkg = processingEnv.getElementUtils().getPackageOf(root).getQualifiedName().toString();
+        String simpleName = root.getSimpleName() + "Marshaller";
+        String source = new Generator(pkg, simpleName, root.getQualifiedName().toString(),
+                rootName, namespace, classes.values()).generate();
+        Writer w = processingEnv.getFiler().createSourceFile(pkg + "." + simpleName, root).openWriter();
+        try {
+            w.write(source);
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Collects the mapped properties of a class (superclass properties first)
+     * @param te the class to analyze
+     * @return the model of the class
+     */
+    protected ClassModel analyze(TypeElement te) throws ModelException {
+        if (te.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new ModelException("Abstract classes can't be instantiated by the marshaller", te);
+        }
+        ClassModel cm = new ClassModel(te);
+        collect(te, cm);
+        return cm;
+    }
+
+    /**
+     * Adds the properties of a class and its superclasses to the model
+     * @param te the class to inspect
+     * @param cm the model to add the properties to
+     */
+    protected void collect(TypeElement te, ClassModel cm) throws ModelException {
+        TypeMirror sup = te.getSuperclass();
+        if (sup.getKind() == TypeKind.DECLARED) {
+            TypeElement superElement = (TypeElement) ((DeclaredType) sup).asElement();
+            if (!"java.lang.Object".equals(superElement.getQualifiedName().toString())) {
+                collect(superElement, cm);
+            }
+        }
+
+        XmlAccessorType access = te.getAnnotation(XmlAccessorType.class);
+        boolean fieldAccess = access != null && access.value() == XmlAccessType.FIELD;
+
+        for (VariableElement f : ElementFilter.fieldsIn(te.getEnclosedElements())) {
+            Set<Modifier> mod = f.getModifiers();
+            if (mod.contains(Modifier.STATIC) || mod.contains(Modifier.TRANSIENT)
+                    || f.getAnnotation(XmlTransient.class) != null) {
+                continue;
+            }
+            boolean annotated = f.getAnnotation(XmlElement.class) != null
+                    || f.getAnnotation(XmlAttribute.class) != null
+                    || f.getAnnotation(XmlElementWrapper.class) != null
+                    || f.getAnnotation(XmlID.class) != null
+                    || f.getAnnotation(XmlIDREF.class) != null;
+            boolean isPublic = mod.contains(Modifier.PUBLIC);
+            if (!annotated && !isPublic && !fieldAccess) {
+                continue;
+            }
+            if (!isPublic) {
+                throw new ModelException("Mapped fields must be public", f);
+            }
+            Property p = property(f);
+            cm.properties.add(p);
+            if (f.getAnnotation(XmlID.class) != null) {
+                cm.id = p;
+            }
+        }
+    }
+
+    /**
+     * Creates the model of a single mapped field
+     * @param f the field
+     * @return the property model
+     */
+    protected Property property(VariableElement f) throws ModelException {
+        Property p = new Property(f);
+        TypeMirror type = f.asType();
+        XmlAttribute attribute = f.getAnnotation(XmlAttribute.class);
+        XmlElement element = f.getAnnotation(XmlElement.class);
+        XmlElementWrapper wrapper = f.getAnnotation(XmlElementWrapper.class);
+
+        if (isList(type)) {
+            List<? extends TypeMirror> args = ((DeclaredType) type).getTypeArguments();
+            if (args.size() != 1 || attribute != null) {
+                throw new ModelException("Unsupported list property", f);
+            }
+            p.list = true;
+            type = args.get(0);
+            if (wrapper != null) {
+                p.wrapper = DEFAULT.equals(wrapper.name()) ? p.name : wrapper.name();
+            }
+        } else if (wrapper != null) {
+            throw new ModelException("XmlElementWrapper requires a list", f);
+        }
+
+        p.type = type;
+        p.attribute = attribute != null;
+        if (attribute != null) {
+            p.xmlName = DEFAULT.equals(attribute.name()) ? p.name : attribute.name();
+        } else {
+            p.xmlName = element == null || DEFAULT.equals(element.name()) ? p.name : element.name();
+        }
+
+        if (f.getAnnotation(XmlIDREF.class) != null) {
+            if (!p.attribute || p.list || type.getKind() != TypeKind.DECLARED) {
+                throw new ModelException("XmlIDREF is only supported on single valued attributes", f);
+            }
+            p.valueKind = ValueKind.IDREF;
+            p.typeElement = (TypeElement) ((DeclaredType) type).asElement();
+        } else if (isSimple(type)) {
+            p.valueKind = ValueKind.SIMPLE;
+        } else if (type.getKind() == TypeKind.DECLARED && !p.attribute) {
+            p.valueKind = ValueKind.COMPLEX;
+            p.typeElement = (TypeElement) ((DeclaredType) type).asElement();
+        } else {
+            throw new ModelException("Unsupported property type " + type, f);
+        }
+        return p;
+    }
+
+    /**
+     * @param te a class of the model
+     * @return the namespace of the elements of this class (from package-info)
+     */
+    protected String namespaceOf(TypeElement te) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(te);
+        XmlSchema schema = pkg.getAnnotation(XmlSchema.class);
+        return schema == null ? "" : schema.namespace();
+    }
+
+    /**
+     * @param type a type
+     * @return true, if the type is java.util.List (or a collection type)
+     */
+    protected boolean isList(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        TypeMirror list = processingEnv.getTypeUtils().erasure(
+                processingEnv.getElementUtils().getTypeElement("java.util.List").asType());
+        return processingEnv.getTypeUtils().isSameType(erased, list);
+    }
+
+    /**
+     * @param type a type
+     * @return true, if values of this type are written as plain text
+     */
+    protected static boolean isSimple(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.getKind() != TypeKind.CHAR;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeElement te = (TypeElement) ((DeclaredType) type).asElement();
+        if (te.getKind() == ElementKind.ENUM) {
+            return true;
+        }
+        String name = te.getQualifiedName().toString();
+        return name.equals("java.lang.String") || name.equals("java.lang.Boolean")
+                || name.equals("java.lang.Byte") || name.equals("java.lang.Short")
+                || name.equals("java.lang.Integer") || name.equals("java.lang.Long")
+                || name.equals("java.lang.Float") || name.equals("java.lang.Double");
+    }
+
+    /**
+     * JAXB's default element name for classes: "TanksDB" becomes "tanksDB"
+     * @param s the simple class name
+     * @return the name with a lower case first character
+     */
+    protected static String decapitalize(String s) {
+        return s.length() == 0 ? s : Character.toLowerCase(s.charAt(0)) + s.substring(1);
+    }
+
+    /**
+     * How a property value is represented in xml
+     */
+    protected enum ValueKind {
+        /** plain text (element content or attribute value) */
+        SIMPLE,
+        /** nested element with its own properties */
+        COMPLEX,
+        /** the id of another object (attribute) */
+        IDREF
+    }
+
+    /**
+     * A mapped class
+     */
+    protected static class ClassModel {
+
+        /** the class */
+        public final TypeElement element;
+        /** all mapped properties, superclass properties first */
+        public final List<Property> properties = new ArrayList<Property>();
+        /** the property that holds the XmlID (may be null) */
+        public Property id;
+
+        public ClassModel(TypeElement element) {
+            this.element = element;
+        }
+    }
+
+    /**
+     * A mapped field
+     */
+    protected static class Property {
+
+        /** the field */
+        public final VariableElement field;
+        /** the java name of the field */
+        public final String name;
+        /** the type of the value (of the list items, for lists) */
+        public TypeMirror type;
+        /** the class of complex values and references */
+        public TypeElement typeElement;
+        /** how the value is represented */
+        public ValueKind valueKind;
+        /** the name of the xml element or attribute */
+        public String xmlName;
+        /** true for attributes, false for elements */
+        public boolean attribute;
+        /** true for lists */
+        public boolean list;
+        /** the name of the wrapper element (lists only, may be null) */
+        public String wrapper;
+        /** the id field of the referenced class (references only) */
+        public String idField;
+
+        public Property(VariableElement field) {
+            this.field = field;
+            this.name = field.getSimpleName().toString();
+        }
+    }
+
+    /**
+     * A model that can't be handled by the generator
+     */
+    protected static class ModelException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        /** the element that caused the problem */
+        public final Element element;
+
+        public ModelException(String message, Element element) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+}
@@ -0,0 +1,9 @@
+/**
+ * This package contains the annotation processor, that generates reflection-free
+ * xml readers and writers from the JAXB annotations of the database classes.
+ * It is compiled before all other classes (see pom.xml).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+
+package de.nx42.wotcrawler.xml.gen;
\ No newline at end of file
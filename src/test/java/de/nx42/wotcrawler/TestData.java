@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.xml.Serializer;
+
+/**
+ * Access to the databases in database/xml for the tests. Each database is
+ * read only once, tests must not modify the returned databases (use
+ * loadCopy() instead).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class TestData {
+    
+    /** the folder of the xml databases, relative to the project */
+    public static final File folder = new File("database/xml");
+    
+    private static final Map<String,TanksDB> cache = new HashMap<String,TanksDB>();
+    
+    /**
+     * @param name the name of the database, e.g. "tanks-88"
+     * @return the shared, parsed database
+     */
+    public static synchronized TanksDB load(String name) {
+        TanksDB db = cache.get(name);
+        if (db == null) {
+            db = loadCopy(name);
+            cache.put(name, db);
+        }
+        return db;
+    }
+    
+    /**
+     * @param name the name of the database, e.g. "tanks-88"
+     * @return a new instance of the database, that may be modified
+     */
+    public static TanksDB loadCopy(String name) {
+        TanksDB db = Serializer.deserializeDB(file(name));
+        if (db == null) {
+            throw new IllegalStateException("Could not read database " + name);
+        }
+        return db;
+    }
+    
+    /**
+     * @param name the name of the database, e.g. "tanks-88"
+     * @return the xml file of the database
+     */
+    public static File file(String name) {
+        return new File(folder, name + ".xml");
+    }
+    
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.ext;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.db.tank.Tank.TankType;
+import de.nx42.wotcrawler.ext.RatingWeights.Category;
+import de.nx42.wotcrawler.index.IntervalIndex;
+
+/**
+ * Tests the Skyline: the dominance relation, the sort-filter-skyline
+ * algorithm against a naive search, and the skyline of a real database.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SkylineTest {
+    
+    @Test
+    public void testDominates() {
+        assertTrue(Skyline.dominates(new double[] { 2, 2 }, new double[] { 1, 2 }));
+        assertTrue(Skyline.dominates(new double[] { 2, 2 }, new double[] { 1, 1 }));
+        assertFalse(Skyline.dominates(new double[] { 1, 2 }, new double[] { 2, 2 }));
+        assertFalse(Skyline.dominates(new double[] { 2, 2 }, new double[] { 2, 2 }));
+        assertFalse(Skyline.dominates(new double[] { 3, 1 }, new double[] { 1, 3 }));
+    }
+    
+    @Test
+    public void testCompute() {
+        double[][] points = {
+            { 1, 1 },   // dominated by all others except 3
+            { 3, 1 },
+            { 2, 2 },
+            { 0, 1 },   // dominated by 0
+            { 1, 3 },
+            { 2, 2 },   // equal points do not dominate each other
+            { 2, 1 },   // dominated by 1, 2 and 5
+        };
+        int[] skyline = Skyline.compute(points);
+        assertEquals(set(1, 2, 4, 5), set(skyline));
+        assertEquals(0, Skyline.compute(new double[0][]).length);
+    }
+    
+    @Test
+    public void testComputeRandom() {
+        Random rnd = new Random(42);
+        for (int run = 0; run < 50; run++) {
+            double[][] points = new double[1 + rnd.nextInt(200)][1 + rnd.nextInt(5)];
+            for (double[] p : points) {
+                for (int k = 0; k < p.length; k++) {
+                    // few distinct values, so there are many ties
+                    p[k] = rnd.nextInt(6) / 5.0;
+                }
+            }
+            assertEquals(naive(points), set(Skyline.compute(points)));
+        }
+    }
+    
+    @Test
+    public void testBattleTiers() {
+        RatingProfile profile = RatingProfile.defaults();
+        Map<TankType,NormalizationContext> norms = NormalizationContext.buildAll(ModuleMap.build(TestData.load("tanks-88")));
+        Map<TankType,SortedMap<Integer,List<Loadout>>> skyline = Skyline.build(norms, profile);
+        assertEquals(norms.keySet(), skyline.keySet());
+        
+        for (TankType type : TankType.values()) {
+            RatingKernel kernel = RatingKernel.build(norms.get(type));
+            double[][] ratings = kernel.rate(profile.get(type));
+            for (Map.Entry<Integer,List<Loadout>> e : skyline.get(type).entrySet()) {
+                int tier = e.getKey();
+                assertFalse(e.getValue().isEmpty());
+                Set<String> members = new HashSet<String>();
+                for (Loadout l : e.getValue()) {
+                    assertTrue(l.tank.name, inTier(l.tank, tier));
+                    members.add(key(l.tank, l.development.name()));
+                }
+                
+                // every loadout of this tier is either in the skyline, or
+                // dominated by a member of the skyline; members are not
+                // dominated at all
+                List<double[]> front = new ArrayList<double[]>();
+                List<double[]> rest = new ArrayList<double[]>();
+                for (int row = 0; row < kernel.size(); row++) {
+                    Tank t = kernel.getTank(row);
+                    if (inTier(t, tier)) {
+                        double[] p = point(ratings, row);
+                        if (members.contains(key(t, kernel.getDevelopment(row).name()))) {
+                            front.add(p);
+                        } else {
+                            rest.add(p);
+                        }
+                    }
+                }
+                assertEquals(members.size(), front.size());
+                for (double[] p : rest) {
+                    assertTrue(type + " " + tier, dominatedBy(p, front));
+                }
+                for (double[] p : front) {
+                    assertFalse(type + " " + tier, dominatedBy(p, front));
+                    assertFalse(type + " " + tier, dominatedBy(p, rest));
+                }
+            }
+        }
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * @return the indexes of the points that are not dominated by any other
+     * point, compared pairwise
+     */
+    private static Set<Integer> naive(double[][] points) {
+        Set<Integer> result = new HashSet<Integer>();
+        for (int i = 0; i < points.length; i++) {
+            boolean dominated = false;
+            for (int j = 0; j < points.length && !dominated; j++) {
+                dominated = Skyline.dominates(points[j], points[i]);
+            }
+            if (!dominated) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+    
+    private static boolean dominatedBy(double[] p, List<double[]> others) {
+        for (double[] o : others) {
+            if (Skyline.dominates(o, p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static double[] point(double[][] ratings, int row) {
+        double[] p = new double[Category.values().length];
+        for (int c = 0; c < p.length; c++) {
+            p[c] = ratings[c][row];
+        }
+        return p;
+    }
+    
+    private static boolean inTier(Tank t, int tier) {
+        return IntervalIndex.battleTiers.lower(t) <= tier && tier <= IntervalIndex.battleTiers.upper(t);
+    }
+    
+    private static String key(Tank t, String dev) {
+        return t.id + "/" + dev;
+    }
+    
+    private static Set<Integer> set(int... values) {
+        Set<Integer> result = new HashSet<Integer>();
+        for (int v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+    
+}
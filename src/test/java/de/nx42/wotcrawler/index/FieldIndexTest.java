@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.ext.Field;
+import de.nx42.wotcrawler.ext.Loadout;
+import de.nx42.wotcrawler.ext.ModuleMap;
+
+/**
+ * Tests queries of the FieldIndex, especially on fields of modules that are
+ * missing in some loadouts (e.g. tank destroyers without turret).
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class FieldIndexTest {
+    
+    private static ModuleMap mm;
+    private static FieldIndex index;
+    
+    @BeforeClass
+    public static void setUpClass() {
+        mm = ModuleMap.build(TestData.load("tanks-88"));
+        index = FieldIndex.build(mm);
+    }
+    
+    @Test
+    public void testMissingModuleHasNoValue() {
+        int missing = 0;
+        for (Tank t : mm.db.tanks) {
+            for (Development dev : Development.values()) {
+                Loadout l = mm.getLoadout(t, dev);
+                if (!l.has(ModuleType.Turret)) {
+                    missing++;
+                    assertFalse(l.complete);
+                    assertTrue(Double.isNaN(Field.MT_Tier.value(mm, t, dev)));
+                    assertTrue(Double.isNaN(Field.MT_Armor_Front.value(mm, t, dev)));
+                }
+            }
+        }
+        assertTrue("tanks-88 has tanks without turret", missing > 0);
+    }
+    
+    @Test
+    public void testMissingModuleNeverMatches() {
+        assertTrue(index.query("MT_Tier = 0").isEmpty());
+        assertTrue(index.query("MT_Armor_Front < 1 AND T_Type = TankDestroyer").isEmpty());
+        for (FieldIndex.Row row : index.query("MT_Tier >= 0")) {
+            assertTrue(mm.getLoadout(row.tank, row.dev).has(ModuleType.Turret));
+        }
+    }
+    
+}
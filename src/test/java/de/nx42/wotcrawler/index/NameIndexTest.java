@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * Tests the exact and fuzzy lookups of the NameIndex, especially names that
+ * collide after normalization.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class NameIndexTest {
+    
+    private Tank t34;
+    private Tank t34us;
+    private Tank t28;
+    private Tank t28us;
+    private Tank is7;
+    private NameIndex<Tank> index;
+    
+    @Before
+    public void setUp() {
+        t34 = tank("T-34", "T-34");
+        t34us = tank("T34", "T34");
+        t28 = tank("T-28", "T-28");
+        t28us = tank("T28", "T28");
+        is7 = tank("IS-7", "IS-7");
+        index = NameIndex.build(Arrays.asList(t34, t34us, t28, t28us, is7));
+    }
+    
+    @Test
+    public void testRawNameWins() {
+        assertSame(t34, index.findUnambiguous("T-34"));
+        assertSame(t34us, index.findUnambiguous("T34"));
+        assertSame(t28, index.findUnambiguous("T-28"));
+        assertSame(t28us, index.findUnambiguous("T28"));
+    }
+    
+    @Test
+    public void testCollidingKeysAreAmbiguous() {
+        // "t 34" and "T_34" both normalize to "t34", which is T-34 and T34
+        assertNull(index.findUnambiguous("t 34"));
+        assertNull(index.findUnambiguous("T_34"));
+        assertNull(index.findUnambiguous("t28"));
+    }
+    
+    @Test
+    public void testUniqueNormalizedKey() {
+        assertSame(is7, index.findUnambiguous("is 7"));
+        assertSame(is7, index.findUnambiguous("IS7"));
+    }
+    
+    @Test
+    public void testNoBoostForCollidingKeys() {
+        List<NameIndex.Match<Tank>> matches = index.find("t 34", 2);
+        assertEquals(2, matches.size());
+        assertEquals(1.0, matches.get(0).score, 0.0);
+        assertEquals(1.0, matches.get(1).score, 0.0);
+        
+        // the raw name still comes first
+        matches = index.find("T34", 2);
+        assertSame(t34us, matches.get(0).entry);
+    }
+    
+    @Test
+    public void testDatabase() throws Exception {
+        NameIndex<Tank> tanks = NameIndex.forTanks(TestData.load("tanks-88"));
+        Tank heavy = tanks.findUnambiguous("T34");
+        assertNotNull(heavy);
+        assertEquals("T34", heavy.wikiURL);
+        assertEquals(Tank.TankType.HeavyTank, heavy.type);
+        assertEquals("T-34", tanks.findUnambiguous("T-34").wikiURL);
+    }
+    
+    private static Tank tank(String name, String wikiURL) {
+        Tank t = new Tank();
+        t.name = name;
+        t.wikiURL = wikiURL;
+        return t;
+    }
+    
+}
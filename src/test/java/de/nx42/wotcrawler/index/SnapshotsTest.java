@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.ext.NormalizationContext.Mode;
+import de.nx42.wotcrawler.xml.Transformer;
+
+/**
+ * Tests the Snapshots: readers always see a complete snapshot while other
+ * threads publish new ones, and a Transformer that works on a snapshot
+ * writes the same tables as one that works on the database.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SnapshotsTest {
+    
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    
+    @Test
+    public void testEmpty() {
+        Snapshots snapshots = new Snapshots();
+        assertNull(snapshots.current());
+        Snapshot s = snapshots.publish(TestData.load("tanks-80"));
+        assertSame(s, snapshots.current());
+        assertEquals(1, s.version);
+    }
+    
+    @Test
+    public void testConcurrentPublish() throws Exception {
+        final TanksDB[] dbs = { TestData.load("tanks-80"), TestData.load("tanks-84"), TestData.load("tanks-88") };
+        final Snapshots snapshots = new Snapshots(dbs[0]);
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            // readers: each snapshot is consistent, versions never go back
+            List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        long last = 0;
+                        int reads = 0;
+                        do {
+                            Snapshot s = snapshots.current();
+                            assertTrue(s.version >= last);
+                            assertConsistent(s);
+                            last = s.version;
+                            reads++;
+                        } while (!done.get());
+                        return reads;
+                    }
+                }));
+            }
+            
+            // writers: publish every database twice
+            List<Future<Long>> writers = new ArrayList<Future<Long>>();
+            for (int i = 0; i < 2; i++) {
+                writers.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long max = 0;
+                        for (TanksDB db : dbs) {
+                            Snapshot s = snapshots.publish(db);
+                            assertConsistent(s);
+                            assertTrue(s.version > max);
+                            max = s.version;
+                        }
+                        return max;
+                    }
+                }));
+            }
+            for (Future<Long> f : writers) {
+                f.get();
+            }
+            done.set(true);
+            for (Future<Integer> f : readers) {
+                assertTrue(f.get() > 0);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        // 1 initial + 2 * 3 published, the newest one wins
+        assertEquals(7, snapshots.current().version);
+        assertConsistent(snapshots.current());
+    }
+    
+    @Test
+    public void testTransformer() throws IOException {
+        TanksDB db = TestData.load("tanks-88");
+        Snapshot snapshot = new Snapshots(db).current();
+        for (Mode mode : Mode.values()) {
+            Transformer fromDB = new Transformer(db);
+            fromDB.setNormalization(mode);
+            Transformer fromSnapshot = new Transformer(snapshot);
+            fromSnapshot.setNormalization(mode);
+            
+            File expected = new File(tmp.getRoot(), "db-" + mode + ".html");
+            File actual = new File(tmp.getRoot(), "snapshot-" + mode + ".html");
+            fromDB.writeRatingTable(expected.getPath());
+            fromSnapshot.writeRatingTable(actual.getPath());
+            assertTrue(expected.length() > 0);
+            assertTrue(mode.name(), Arrays.equals(read(expected), read(actual)));
+        }
+    }
+    
+    private static byte[] read(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Asserts that all parts of the snapshot belong to the same database
+     */
+    private static void assertConsistent(Snapshot s) {
+        assertNotNull(s);
+        assertSame(s.db, s.ids.db);
+        assertSame(s.ids, s.mm.ids);
+        assertEquals(s.db.tanks.size(), s.ids.getTankCount());
+        assertEquals(s.ids.getTankCount(), s.techTree.size());
+    }
+    
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.index;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.Identities;
+import de.nx42.wotcrawler.db.Modules;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Engine;
+import de.nx42.wotcrawler.db.module.Gun;
+import de.nx42.wotcrawler.db.module.Radio;
+import de.nx42.wotcrawler.db.module.Suspension;
+import de.nx42.wotcrawler.db.module.Turret;
+import de.nx42.wotcrawler.db.tank.Tank;
+
+/**
+ * Tests the reachability and path queries of the TechTree against a plain
+ * graph search, on a real database and on tech trees with cycles.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class TechTreeTest {
+    
+    @Test
+    public void testClosure() {
+        Identities ids = Identities.assign(TestData.load("tanks-88"));
+        TechTree tree = TechTree.build(ids);
+        assertEquals(ids.getTankCount(), tree.size());
+        for (int t = 0; t < tree.size(); t++) {
+            BitSet reachable = search(tree, t);
+            assertEquals(ids.getTank(t).name, reachable, tree.getDescendants(t));
+            assertFalse(tree.isAncestor(t, t));
+            for (int d = reachable.nextSetBit(0); d >= 0; d = reachable.nextSetBit(d + 1)) {
+                assertTrue(tree.isAncestor(t, d));
+                assertTrue(tree.getAncestors(d).get(t));
+            }
+        }
+        
+        // parents always come before their children
+        int[] position = new int[tree.size()];
+        int[] topo = tree.getTopologicalOrder();
+        for (int i = 0; i < topo.length; i++) {
+            position[topo[i]] = i;
+        }
+        for (int t = 0; t < tree.size(); t++) {
+            for (int c : tree.getChildren(t)) {
+                assertTrue(position[t] < position[c]);
+            }
+        }
+    }
+    
+    @Test
+    public void testPaths() {
+        TanksDB db = TestData.load("tanks-88");
+        Identities ids = Identities.assign(db);
+        TechTree tree = TechTree.build(ids);
+        NameIndex<Tank> names = NameIndex.forTanks(db);
+        Tank ms1 = names.findUnambiguous("MS-1");
+        Tank is7 = names.findUnambiguous("IS-7");
+        int from = ids.idOf(ms1);
+        int to = ids.idOf(is7);
+        
+        assertTrue(tree.getDescendants(ms1).contains(is7));
+        assertTrue(tree.getAncestors(is7).contains(ms1));
+        List<int[]> paths = tree.getAllPaths(from, to);
+        assertEquals(6, paths.size());
+        int shortest = Integer.MAX_VALUE;
+        for (int[] path : paths) {
+            assertPath(tree, from, to, path);
+            shortest = Math.min(shortest, path.length);
+        }
+        int[] path = tree.getPath(from, to);
+        assertPath(tree, from, to, path);
+        assertEquals(shortest, path.length);
+        
+        assertNull(tree.getPath(to, from));
+        assertTrue(tree.getAllPaths(to, from).isEmpty());
+        assertArrayEquals(new int[] { from }, tree.getPath(from, from));
+    }
+    
+    @Test
+    public void testCycle() {
+        // a > b > c > a, c > d, b > e > d, and f linked to itself
+        Tank[] t = tanks(6);
+        link(t[0], t[1]);
+        link(t[1], t[2]);
+        link(t[2], t[0]);
+        link(t[2], t[3]);
+        link(t[1], t[4]);
+        link(t[4], t[3]);
+        link(t[5], t[5]);
+        Identities ids = Identities.assign(db(t));
+        TechTree tree = TechTree.build(ids);
+        
+        // the closure is complete, the tanks on the cycle reach themselves
+        for (int i = 0; i < 3; i++) {
+            assertEquals(bits(0, 1, 2, 3, 4), tree.getDescendants(i));
+            assertEquals(bits(0, 1, 2), tree.getAncestors(i));
+            assertEquals(search(tree, i), tree.getDescendants(i));
+        }
+        assertEquals(bits(), tree.getDescendants(3));
+        assertEquals(bits(0, 1, 2, 4), tree.getAncestors(3));
+        
+        // the self link is dropped, so f is a root and on no path
+        assertEquals(0, tree.getChildren(5).length);
+        assertEquals(bits(5), tree.getRoots());
+        assertEquals(bits(), tree.getDescendants(5));
+        int[] topo = tree.getTopologicalOrder();
+        Arrays.sort(topo);
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5 }, topo);
+        
+        // only paths without repeated tanks
+        List<int[]> paths = tree.getAllPaths(0, 3);
+        assertEquals(2, paths.size());
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, paths.get(0));
+        assertArrayEquals(new int[] { 0, 1, 4, 3 }, paths.get(1));
+        paths = tree.getAllPaths(2, 1);
+        assertEquals(1, paths.size());
+        assertArrayEquals(new int[] { 2, 0, 1 }, paths.get(0));
+        assertArrayEquals(new int[] { 2, 0, 1, 4 }, tree.getPath(2, 4));
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * @return all tanks that can be reached from t, found by a depth first
+     * search over the children
+     */
+    private static BitSet search(TechTree tree, int t) {
+        BitSet seen = new BitSet(tree.size());
+        List<Integer> stack = new ArrayList<Integer>();
+        stack.add(t);
+        while (!stack.isEmpty()) {
+            for (int c : tree.getChildren(stack.remove(stack.size() - 1))) {
+                if (!seen.get(c)) {
+                    seen.set(c);
+                    stack.add(c);
+                }
+            }
+        }
+        return seen;
+    }
+    
+    /**
+     * Asserts that each tank on the path is a child of the previous one
+     */
+    private static void assertPath(TechTree tree, int from, int to, int[] path) {
+        assertEquals(from, path[0]);
+        assertEquals(to, path[path.length - 1]);
+        for (int i = 1; i < path.length; i++) {
+            int[] children = tree.getChildren(path[i - 1]);
+            Arrays.sort(children);
+            assertTrue(Arrays.binarySearch(children, path[i]) >= 0);
+        }
+    }
+    
+    private static BitSet bits(int... ids) {
+        BitSet result = new BitSet();
+        for (int id : ids) {
+            result.set(id);
+        }
+        return result;
+    }
+    
+    private static void link(Tank parent, Tank child) {
+        parent.addChild(child);
+    }
+    
+    private static Tank[] tanks(int n) {
+        Tank[] result = new Tank[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = new Tank();
+            result[i].name = String.valueOf((char) ('a' + i));
+        }
+        return result;
+    }
+    
+    /**
+     * @return a database with the specified tanks and no modules
+     */
+    private static TanksDB db(Tank[] tanks) {
+        TanksDB db = new TanksDB();
+        db.tanks = Arrays.asList(tanks);
+        db.modules = new Modules();
+        db.modules.engines = new ArrayList<Engine>();
+        db.modules.guns = new ArrayList<Gun>();
+        db.modules.radios = new ArrayList<Radio>();
+        db.modules.suspensions = new ArrayList<Suspension>();
+        db.modules.turrets = new ArrayList<Turret>();
+        return db;
+    }
+    
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.BaseProperties.Development;
+import de.nx42.wotcrawler.db.TanksDB;
+import de.nx42.wotcrawler.db.module.Module;
+import de.nx42.wotcrawler.db.module.Module.ModuleType;
+import de.nx42.wotcrawler.db.tank.Tank;
+import de.nx42.wotcrawler.ext.Loadout;
+import de.nx42.wotcrawler.ext.ModuleMap;
+
+/**
+ * Tests the EntityStore: updates that survive reopening the store,
+ * compaction, damaged logs and loadout lookups.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class EntityStoreTest {
+    
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    
+    @Test
+    public void testPutRemoveReopen() throws IOException {
+        File folder = tmp.newFolder("store");
+        EntityStore store = EntityStore.open(folder);
+        store.put("a", values("x", "1"));
+        store.put("b", values("x", "2"));
+        store.put("a", values("x", "3"));
+        store.remove("b");
+        assertEquals("3", store.get("a").get("x"));
+        assertNull(store.get("b"));
+        store.close();
+        
+        store = EntityStore.open(folder);
+        assertEquals("3", store.get("a").get("x"));
+        assertNull(store.get("b"));
+        assertNull(store.get("c"));
+        store.close();
+    }
+    
+    @Test
+    public void testCompact() throws IOException {
+        File folder = tmp.newFolder("store");
+        EntityStore store = EntityStore.open(folder);
+        for (int i = 0; i < 100; i++) {
+            store.put("k" + (i % 10), values("v", Integer.toString(i)));
+        }
+        store.remove("k0");
+        int gen = store.getGeneration();
+        long before = EntityStore.logFile(folder, gen).length();
+        
+        store.compact();
+        assertEquals(gen + 1, store.getGeneration());
+        assertFalse(EntityStore.logFile(folder, gen).exists());
+        assertTrue(EntityStore.logFile(folder, gen + 1).length() < before);
+        assertNull(store.get("k0"));
+        for (int i = 1; i < 10; i++) {
+            assertEquals(Integer.toString(90 + i), store.get("k" + i).get("v"));
+        }
+        store.close();
+        
+        store = EntityStore.open(folder);
+        assertEquals(gen + 1, store.getGeneration());
+        assertEquals(9, EntityStore.scan(EntityStore.logFile(folder, gen + 1), 0, false).size());
+        assertEquals("95", store.get("k5").get("v"));
+        store.close();
+    }
+    
+    @Test
+    public void testTruncatedRecord() throws IOException {
+        File folder = tmp.newFolder("store");
+        EntityStore store = EntityStore.open(folder);
+        store.put("a", values("x", "1"));
+        store.put("b", values("x", "2"));
+        File log = EntityStore.logFile(folder, store.getGeneration());
+        store.close();
+        
+        // cut the last record in half
+        List<EntityStore.Record> records = EntityStore.scan(log, 0, false);
+        EntityStore.Record last = records.get(records.size() - 1);
+        truncate(log, last.offset + 8 + last.length / 2);
+        try {
+            EntityStore.scan(log, 0, false);
+            fail("truncated record was accepted");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertEquals(records.size() - 1, EntityStore.scan(log, 0, true).size());
+        
+        // the store drops the torn record and stays usable
+        store = EntityStore.open(folder);
+        assertEquals("1", store.get("a").get("x"));
+        assertNull(store.get("b"));
+        assertEquals(last.offset, log.length());
+        store.put("b", values("x", "4"));
+        store.close();
+        store = EntityStore.open(folder);
+        assertEquals("4", store.get("b").get("x"));
+        store.close();
+    }
+    
+    @Test
+    public void testCorruptLength() throws IOException {
+        File folder = tmp.newFolder("store");
+        EntityStore store = EntityStore.open(folder);
+        store.put("a", values("x", "1"));
+        store.put("b", values("x", "2"));
+        File log = EntityStore.logFile(folder, store.getGeneration());
+        store.close();
+        
+        List<EntityStore.Record> records = EntityStore.scan(log, 0, false);
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        try {
+            raf.seek(records.get(records.size() - 1).offset);
+            raf.writeInt(Integer.MAX_VALUE - 8);
+        } finally {
+            raf.close();
+        }
+        assertEquals(records.size() - 1, EntityStore.scan(log, 0, true).size());
+        try {
+            EntityStore.scan(log, 0, false);
+            fail("corrupt length was accepted");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testLoadouts() throws IOException {
+        TanksDB db = TestData.load("tanks-88");
+        ModuleMap mm = ModuleMap.build(db);
+        EntityStore store = EntityStore.open(tmp.newFolder("store"));
+        try {
+            store.replace(db);
+            assertNull(store.getTank("_nope"));
+            for (Tank t : db.tanks) {
+                for (Development dev : Development.values()) {
+                    Loadout expected = mm.getLoadout(t, dev);
+                    Loadout actual = store.getLoadout(t.id, dev);
+                    assertEquals(t.name, actual.tank.name);
+                    assertEquals(expected.complete, actual.complete);
+                    for (ModuleType type : ModuleType.values()) {
+                        assertEquals(expected.has(type), actual.has(type));
+                        assertEquals(t.name + " " + dev + " " + type,
+                                key(expected.get(type)), key(actual.get(type)));
+                    }
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+    
+    private static Map<String,String> values(String name, String value) {
+        Map<String,String> values = new LinkedHashMap<String,String>();
+        values.put(name, value);
+        return values;
+    }
+    
+    private static String key(Module m) {
+        return m.nation + ":" + m.name + ":" + m.tier;
+    }
+    
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+    
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.nx42.wotcrawler.TestData;
+
+/**
+ * Tests diff, apply and the text format of patches.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class PatchTest {
+    
+    @Test
+    public void testDiffApply() {
+        Map<String, Map<String,String>> from = entities(
+                "a", "x=1", "b", "x=2;y=3", "c", "z=4");
+        Map<String, Map<String,String>> to = entities(
+                "a", "x=1", "d", "n=new", "b", "x=5", "e", "n=end");
+        Patch p = Patch.diff("v2", from, to);
+        assertEquals(Arrays.asList("c"), p.removed);
+        assertEquals(2, p.added.size());
+        assertEquals(2, p.changes.size());
+        assertNull(p.order);
+        assertOrdered(to, p.apply(from));
+        
+        // the source is not modified
+        assertEquals("2", from.get("b").get("x"));
+        assertEquals("3", from.get("b").get("y"));
+    }
+    
+    @Test
+    public void testReorder() {
+        Map<String, Map<String,String>> from = entities("a", "x=1", "b", "x=2", "c", "x=3", "d", "x=4");
+        Map<String, Map<String,String>> to = entities("c", "x=3", "a", "x=1", "d", "x=4", "b", "x=2");
+        Patch p = Patch.diff("v2", from, to);
+        assertTrue(p.changes.isEmpty());
+        assertNotNull(p.order);
+        assertOrdered(to, p.apply(from));
+    }
+    
+    @Test
+    public void testEmpty() {
+        Map<String, Map<String,String>> from = entities("a", "x=1");
+        Patch p = Patch.diff("v2", from, entities("a", "x=1"));
+        assertTrue(p.isEmpty());
+        assertEquals(0, p.size());
+        assertOrdered(from, p.apply(from));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testMismatch() {
+        Patch p = Patch.diff("v2", entities("a", "x=1"), entities("a", "x=2"));
+        p.apply(entities("a", "x=3"));
+    }
+    
+    @Test
+    public void testWriteRead() throws IOException {
+        Map<String, Map<String,String>> v1 = entities("a", "x=1", "b", "y=2");
+        Map<String, Map<String,String>> v2 = entities("b", "y=tab\tnew\nline\\back", "a", "x=1", "c", "z=3");
+        Map<String, Map<String,String>> v3 = entities("c", "z=3");
+        List<Patch> patches = Arrays.asList(new Patch("v1"), Patch.diff("v 2\t", v1, v2), Patch.diff("v3", v2, v3));
+        
+        StringWriter sw = new StringWriter();
+        PrintWriter out = new PrintWriter(sw);
+        for (Patch p : patches) {
+            p.write(out);
+        }
+        out.flush();
+        List<Patch> read = Patch.readAll(new BufferedReader(new StringReader(sw.toString())));
+        
+        assertEquals(3, read.size());
+        List<String> versions = new ArrayList<String>();
+        for (Patch p : read) {
+            versions.add(p.version);
+        }
+        assertEquals(Arrays.asList("v1", "v 2\t", "v3"), versions);
+        assertTrue(read.get(0).isEmpty());
+        Map<String, Map<String,String>> rebuilt = read.get(1).apply(v1);
+        assertOrdered(v2, rebuilt);
+        assertOrdered(v3, read.get(2).apply(rebuilt));
+    }
+    
+    @Test
+    public void testDatabases() {
+        Map<String, Map<String,String>> v80 = EntityCodec.flatten(TestData.load("tanks-80"));
+        Map<String, Map<String,String>> v88 = EntityCodec.flatten(TestData.load("tanks-88"));
+        assertOrdered(v88, Patch.diff("88", v80, v88).apply(v80));
+        assertOrdered(v80, Patch.diff("80", v88, v80).apply(v88));
+    }
+    
+    /**
+     * Asserts that both maps have the same entries in the same order
+     */
+    protected static void assertOrdered(Map<String, Map<String,String>> expected,
+            Map<String, Map<String,String>> actual) {
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+        assertEquals(expected, actual);
+    }
+    
+    /**
+     * @param kv pairs of key and fields ("name=value;name=value")
+     * @return the entities
+     */
+    protected static Map<String, Map<String,String>> entities(String... kv) {
+        Map<String, Map<String,String>> result = new LinkedHashMap<String, Map<String,String>>();
+        for (int i = 0; i < kv.length; i += 2) {
+            Map<String,String> values = new LinkedHashMap<String,String>();
+            for (String field : kv[i + 1].split(";")) {
+                int eq = field.indexOf('=');
+                values.put(field.substring(0, eq), field.substring(eq + 1));
+            }
+            result.put(kv[i], values);
+        }
+        return result;
+    }
+    
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.nx42.wotcrawler.TestData;
+import de.nx42.wotcrawler.db.TanksDB;
+
+/**
+ * Tests the SnapshotHistory: storing and restoring several versions, and
+ * the recovery after an add() that was interrupted at any step.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class SnapshotHistoryTest {
+    
+    @ClassRule
+    public static TemporaryFolder shared = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    
+    private static TanksDB v80;
+    private static TanksDB v84;
+    private static TanksDB v88;
+    /** a history with the versions 80 and 84 */
+    private static File template;
+    
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        v80 = TestData.load("tanks-80");
+        v84 = TestData.load("tanks-84");
+        v88 = TestData.load("tanks-88");
+        template = shared.newFolder("template");
+        SnapshotHistory history = new SnapshotHistory(template);
+        assertTrue(history.add("80", v80));
+        assertTrue(history.add("84", v84));
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        SnapshotHistory history = new SnapshotHistory(copy(template));
+        assertTrue(history.add("88", v88));
+        assertFalse(history.add("84", v84));
+        
+        history = new SnapshotHistory(history.folder);
+        assertEquals(Arrays.asList("80", "84", "88"), history.getVersions());
+        assertSame(v80, "80", history);
+        assertSame(v84, "84", history);
+        assertSame(v88, "88", history);
+        assertEquals(EntityCodec.flatten(v88), EntityCodec.flatten(history.getLatest()));
+        assertNull(history.get("99"));
+    }
+    
+    @Test
+    public void testEmpty() throws IOException {
+        SnapshotHistory history = new SnapshotHistory(new File(tmp.getRoot(), "none"));
+        assertTrue(history.getVersions().isEmpty());
+        assertNull(history.getLatest());
+    }
+    
+    @Test
+    public void testInterruptedAfterPending() throws IOException {
+        assertRolledBack(interruptedAdd(1));
+    }
+    
+    @Test
+    public void testInterruptedAfterMovingLatest() throws IOException {
+        assertRolledBack(interruptedAdd(2));
+    }
+    
+    @Test
+    public void testInterruptedBeforePatch() throws IOException {
+        assertRolledBack(interruptedAdd(3));
+    }
+    
+    @Test
+    public void testInterruptedInPatch() throws IOException {
+        assertRolledBack(interruptedAdd(4));
+    }
+    
+    @Test
+    public void testInterruptedAfterPatch() throws IOException {
+        SnapshotHistory history = new SnapshotHistory(interruptedAdd(5));
+        assertEquals(Arrays.asList("80", "84", "88"), history.getVersions());
+        assertClean(history.folder);
+        assertSame(v88, "88", history);
+        assertSame(v84, "84", history);
+    }
+    
+    @Test
+    public void testInterruptedFirstVersion() throws IOException {
+        File folder = tmp.newFolder("first");
+        SnapshotHistory history = new SnapshotHistory(folder);
+        assertTrue(SnapshotHistory.write(v80, new File(folder, SnapshotHistory.BASE)));
+        assertTrue(SnapshotHistory.write(v80, new File(folder, SnapshotHistory.LATEST)));
+        assertTrue(history.writePending("80", 0));
+        
+        history = new SnapshotHistory(folder);
+        assertTrue(history.getVersions().isEmpty());
+        assertFalse(new File(folder, SnapshotHistory.LATEST).exists());
+        assertClean(folder);
+        assertTrue(history.add("80", v80));
+        assertSame(v80, "80", history);
+    }
+    
+    // -------------------- helpers --------------------
+    
+    /**
+     * Adds the version 88 to a copy of the template, like add() does, but
+     * stops after the specified step (as if the program had crashed):
+     * 1: PENDING written, 2: latest moved away, 3: new latest in place,
+     * 4: half of the patch appended, 5: patch appended completely
+     * @return the folder of the interrupted history
+     */
+    private File interruptedAdd(int steps) throws IOException {
+        File folder = copy(template);
+        SnapshotHistory history = new SnapshotHistory(folder);
+        File latest = new File(folder, SnapshotHistory.LATEST);
+        File old = new File(folder, SnapshotHistory.OLD_LATEST);
+        File tmpLatest = new File(folder, SnapshotHistory.NEW_LATEST);
+        File patches = new File(folder, SnapshotHistory.PATCHES);
+        Patch patch = Patch.diff("88", EntityCodec.flatten(v84), EntityCodec.flatten(v88));
+        long length = patches.length();
+        
+        assertTrue(SnapshotHistory.write(v88, tmpLatest));
+        assertTrue(history.writePending("88", length));
+        if (steps >= 2) {
+            assertTrue(latest.renameTo(old));
+        }
+        if (steps >= 3) {
+            assertTrue(tmpLatest.renameTo(latest));
+        }
+        if (steps >= 4) {
+            assertTrue(history.appendPatch(patch));
+        }
+        if (steps == 4) {
+            assertTrue(SnapshotHistory.truncate(patches, length + (patches.length() - length) / 2));
+        }
+        return folder;
+    }
+    
+    /**
+     * Asserts that the interrupted version 88 was rolled back completely
+     */
+    private static void assertRolledBack(File folder) throws IOException {
+        SnapshotHistory history = new SnapshotHistory(folder);
+        assertEquals(Arrays.asList("80", "84"), history.getVersions());
+        assertClean(folder);
+        assertEquals(EntityCodec.flatten(v84), EntityCodec.flatten(history.getLatest()));
+        assertSame(v80, "80", history);
+        
+        // the history is usable again
+        assertTrue(history.add("88", v88));
+        assertEquals(Arrays.asList("80", "84", "88"), history.getVersions());
+        assertSame(v88, "88", history);
+        assertSame(v84, "84", history);
+    }
+    
+    /**
+     * Asserts that no file of an interrupted add() is left over
+     */
+    private static void assertClean(File folder) {
+        assertFalse(new File(folder, SnapshotHistory.PENDING).exists());
+        assertFalse(new File(folder, SnapshotHistory.OLD_LATEST).exists());
+        assertFalse(new File(folder, SnapshotHistory.NEW_LATEST).exists());
+    }
+    
+    /**
+     * Asserts that the history restores the database of a version
+     */
+    private static void assertSame(TanksDB expected, String version, SnapshotHistory history) {
+        TanksDB actual = history.get(version);
+        assertNotNull("version " + version, actual);
+        assertEquals("version " + version, EntityCodec.flatten(expected), EntityCodec.flatten(actual));
+    }
+    
+    /**
+     * @return a copy of the history folder
+     */
+    private File copy(File folder) throws IOException {
+        File target = tmp.newFolder();
+        for (File f : folder.listFiles()) {
+            InputStream in = new FileInputStream(f);
+            try {
+                OutputStream out = new FileOutputStream(new File(target, f.getName()));
+                try {
+                    byte[] buf = new byte[65536];
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return target;
+    }
+    
+}
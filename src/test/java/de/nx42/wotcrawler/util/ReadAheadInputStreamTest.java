@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Sebastian Straub <sebastian-straub@gmx.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.nx42.wotcrawler.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests that the ReadAheadInputStream passes on the data and every kind of
+ * error of its source, without blocking the consumer.
+ * 
+ * @author Sebastian Straub <sebastian-straub@gmx.net>
+ */
+public class ReadAheadInputStreamTest {
+    
+    @Test(timeout = 10000)
+    public void testData() throws IOException {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 64, 4);
+        try {
+            for (int i = 0; i < data.length; i++) {
+                assertEquals(data[i] & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testIOException() throws IOException {
+        InputStream in = new ReadAheadInputStream(failing(new IOException("broken")), 16, 2);
+        try {
+            drain(in);
+            fail("error was not passed on");
+        } catch (IOException ex) {
+            assertEquals("broken", ex.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testRuntimeException() throws IOException {
+        InputStream in = new ReadAheadInputStream(failing(new IllegalStateException("bug")), 16, 2);
+        try {
+            drain(in);
+            fail("error was not passed on");
+        } catch (IllegalStateException ex) {
+            assertEquals("bug", ex.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testError() throws IOException {
+        InputStream in = new ReadAheadInputStream(failing(new AssertionError("fatal")), 16, 2);
+        try {
+            drain(in);
+            fail("error was not passed on");
+        } catch (AssertionError ex) {
+            assertEquals("fatal", ex.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static void drain(InputStream in) throws IOException {
+        byte[] buf = new byte[7];
+        while (in.read(buf, 0, buf.length) >= 0) {
+            // read on
+        }
+    }
+    
+    /**
+     * @return a stream that delivers 100 bytes, then throws the error
+     */
+    private static InputStream failing(final Throwable error) {
+        return new InputStream() {
+            private int count = 0;
+            @Override
+            public int read() throws IOException {
+                if (count++ < 100) {
+                    return 42;
+                }
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                } else if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                throw (Error) error;
+            }
+        };
+    }
+    
+}